@@ -44,6 +44,7 @@ import java.util.List;
 
 import javax.enterprise.context.ApplicationScoped;
 import javax.enterprise.event.Observes;
+import javax.inject.Inject;
 
 import org.dcm4che.archive.audit.message.PixQueryAudit;
 import org.dcm4che.archive.audit.message.QueryAudit;
@@ -92,6 +93,9 @@ public class AuditObserver {
     protected static final Logger LOG = LoggerFactory
             .getLogger(AuditObserver.class);
 
+    @Inject
+    private AuditSpooler auditSpooler;
+
     public void receiveStoreContext(@Observes StoreContext context) {
 
         StoreSession session = context.getStoreSession();
@@ -247,14 +251,7 @@ public class AuditObserver {
         if (logger == null || !logger.isInstalled())
             return;
 
-        try {
-            logger.write(logger.timeStamp(), msg);
-
-        } catch (Exception e) {
-            
-            LOG.error("Failed to write audit log message: {}", e.getMessage());
-            LOG.debug(e.getMessage(), e);
-        }
+        auditSpooler.write(logger, msg);
     }
 
 }
@@ -0,0 +1,438 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2014
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.audit;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+
+import org.dcm4che3.audit.AuditMessage;
+import org.dcm4che3.net.Device;
+import org.dcm4che3.net.audit.AuditLogger;
+import org.dcm4che3.util.StringUtils;
+import org.dcm4chee.archive.conf.ArchiveDeviceExtension;
+import org.dcm4chee.archive.conf.AuditSpoolOverflowPolicy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sends audit messages asynchronously to the audit record repository, so a
+ * slow or unreachable repository does not delay the processing of the
+ * audited requests. Queued messages are sent in batches by one worker
+ * running on the device executor over the connection held by the
+ * {@link AuditLogger}. If the queue is full or sending fails, messages are
+ * dropped, the caller blocks or the messages are spilled to the audit spool
+ * directory, according to the configured {@link AuditSpoolOverflowPolicy}.
+ * Spilled messages are sent when the queue is empty.
+ * <p>
+ * Asynchronous sending is off by default: with the default
+ * {@link ArchiveDeviceExtension#getAuditSpoolQueueSize()} of 0, messages are
+ * sent by the audited thread, as before. The queue is created with the size
+ * configured when the first message is queued; later changes of the size
+ * take effect after restart.
+ * <p>
+ * The queue depth, the number of sent, dropped and spilled messages and
+ * the send latency are available at /ctrl/auditspooler.
+ */
+@ApplicationScoped
+public class AuditSpooler {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AuditSpooler.class);
+
+    private static final String SUFFIX = ".xml";
+    private static final long JOURNAL_RETRY_INTERVAL = 10000L;
+
+    private static volatile JAXBContext jaxbContext;
+
+    @Inject
+    private Device device;
+
+    private BlockingQueue<Entry> queue;
+    private volatile boolean stopped;
+    private long lastJournalFailure;
+    private boolean warnedQueueSize;
+
+    private final AtomicInteger spillSeq = new AtomicInteger();
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong sendNanos = new AtomicLong();
+    private final AtomicLong maxSendNanos = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong spilled = new AtomicLong();
+
+    private static final class Entry {
+        final AuditLogger logger;
+        final Calendar timeStamp;
+        final AuditMessage msg;
+
+        Entry(AuditLogger logger, Calendar timeStamp, AuditMessage msg) {
+            this.logger = logger;
+            this.timeStamp = timeStamp;
+            this.msg = msg;
+        }
+    }
+
+    public void write(AuditLogger logger, AuditMessage msg) {
+        ArchiveDeviceExtension arcDev = device.getDeviceExtension(ArchiveDeviceExtension.class);
+        Entry entry = new Entry(logger, logger.timeStamp(), msg);
+        if (arcDev == null || arcDev.getAuditSpoolQueueSize() <= 0) {
+            send(entry);
+            return;
+        }
+
+        BlockingQueue<Entry> q = queue(arcDev.getAuditSpoolQueueSize());
+        if (q == null) {
+            overflow(entry, arcDev, "audit spooler stopped");
+            return;
+        }
+        if (q.offer(entry)) {
+            unqueueIfStopped(q, entry, arcDev);
+            return;
+        }
+
+        switch (arcDev.getAuditSpoolOverflowPolicy()) {
+        case BLOCK:
+            try {
+                while (!stopped)
+                    if (q.offer(entry, 1, TimeUnit.SECONDS)) {
+                        unqueueIfStopped(q, entry, arcDev);
+                        return;
+                    }
+                overflow(entry, arcDev, "audit spooler stopped");
+                return;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            break;
+        case SPILL:
+            if (spill(entry, arcDev))
+                return;
+            break;
+        default:
+            break;
+        }
+        drop(entry, "audit spool queue full");
+    }
+
+    /**
+     * Returns the number of queued audit messages.
+     */
+    public int getQueueSize() {
+        BlockingQueue<Entry> q = queue();
+        return q != null ? q.size() : 0;
+    }
+
+    /**
+     * Returns the number of audit messages sent to the audit record
+     * repository, including spilled messages sent later.
+     */
+    public long getSent() {
+        return sent.get();
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    public long getSpilled() {
+        return spilled.get();
+    }
+
+    /**
+     * Returns the average time to send one audit message in ms.
+     */
+    public double getAverageSendLatency() {
+        long n = sent.get();
+        return n > 0 ? sendNanos.get() / 1000000.0 / n : 0;
+    }
+
+    /**
+     * Returns the maximal time to send one audit message in ms.
+     */
+    public double getMaxSendLatency() {
+        return maxSendNanos.get() / 1000000.0;
+    }
+
+    /**
+     * Spills or drops a message, which was queued concurrently to
+     * {@link #shutdown()} and so is not drained by it.
+     */
+    private void unqueueIfStopped(BlockingQueue<Entry> q, Entry entry,
+            ArchiveDeviceExtension arcDev) {
+        if (stopped && q.remove(entry))
+            overflow(entry, arcDev, "audit spooler stopped");
+    }
+
+    private void overflow(Entry entry, ArchiveDeviceExtension arcDev, String reason) {
+        if (!spill(entry, arcDev))
+            drop(entry, reason);
+    }
+
+    /**
+     * Stops the worker - within the poll interval of one second - and spills
+     * or drops the queued messages.
+     */
+    @PreDestroy
+    public void shutdown() {
+        synchronized (this) {
+            stopped = true;
+            if (queue == null)
+                return;
+        }
+
+        ArchiveDeviceExtension arcDev = device.getDeviceExtension(ArchiveDeviceExtension.class);
+        List<Entry> remaining = new ArrayList<Entry>();
+        queue.drainTo(remaining);
+        for (Entry entry : remaining)
+            if (arcDev == null || !spill(entry, arcDev))
+                drop(entry, "shutdown");
+    }
+
+    private synchronized BlockingQueue<Entry> queue() {
+        return queue;
+    }
+
+    private synchronized BlockingQueue<Entry> queue(int capacity) {
+        if (stopped)
+            return null;
+
+        if (queue != null && !warnedQueueSize
+                && queue.size() + queue.remainingCapacity() != capacity) {
+            LOG.warn("Audit spool queue size changed to {} - takes effect after restart",
+                    capacity);
+            warnedQueueSize = true;
+        }
+        if (queue == null) {
+            queue = new LinkedBlockingQueue<Entry>(capacity);
+            device.execute(new Runnable() {
+                @Override
+                public void run() {
+                    process();
+                }
+            });
+            LOG.info("Started audit spooler [queue={}]", capacity);
+        }
+        return queue;
+    }
+
+    private void process() {
+        List<Entry> batch = new ArrayList<Entry>();
+        while (!stopped) {
+            try {
+                Entry first = queue.poll(1, TimeUnit.SECONDS);
+                if (first == null) {
+                    replayJournal();
+                    continue;
+                }
+                ArchiveDeviceExtension arcDev =
+                        device.getDeviceExtension(ArchiveDeviceExtension.class);
+                batch.add(first);
+                queue.drainTo(batch, Math.max(0, arcDev.getAuditSpoolBatchSize() - 1));
+                sendBatch(batch, arcDev);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                LOG.error("Unexpected exception in audit spooler:", e);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void sendBatch(List<Entry> batch, ArchiveDeviceExtension arcDev) {
+        long start = System.nanoTime();
+        int n = 0;
+        try {
+            for (Entry entry : batch) {
+                write(entry);
+                n++;
+            }
+        } catch (Exception e) {
+            LOG.error("Failed to write audit log message: {}", e.getMessage());
+            LOG.debug(e.getMessage(), e);
+            for (Entry entry : batch.subList(n, batch.size()))
+                overflow(entry, arcDev, "audit record repository not reachable");
+        }
+        long nanos = System.nanoTime() - start;
+        LOG.debug("Sent {} of {} audit messages in {} ms, {} queued",
+                new Object[]{n, batch.size(), nanos / 1000000, queue.size()});
+    }
+
+    private void send(Entry entry) {
+        try {
+            write(entry);
+        } catch (Exception e) {
+            LOG.error("Failed to write audit log message: {}", e.getMessage());
+            LOG.debug(e.getMessage(), e);
+        }
+    }
+
+    private void write(Entry entry) throws Exception {
+        long start = System.nanoTime();
+        entry.logger.write(entry.timeStamp, entry.msg);
+        long nanos = System.nanoTime() - start;
+        sent.incrementAndGet();
+        sendNanos.addAndGet(nanos);
+        long max = maxSendNanos.get();
+        while (nanos > max && !maxSendNanos.compareAndSet(max, nanos))
+            max = maxSendNanos.get();
+    }
+
+    private void drop(Entry entry, String reason) {
+        long n = dropped.incrementAndGet();
+        LOG.warn("Dropped audit message - {} (#{})", reason, n);
+    }
+
+    private static Path spoolDirectory(ArchiveDeviceExtension arcDev) {
+        String path = arcDev.getAuditSpoolDirectoryPath();
+        return path != null
+                ? Paths.get(StringUtils.replaceSystemProperties(path))
+                : null;
+    }
+
+    private boolean spill(Entry entry, ArchiveDeviceExtension arcDev) {
+        Path dir;
+        if (arcDev.getAuditSpoolOverflowPolicy() != AuditSpoolOverflowPolicy.SPILL
+                || (dir = spoolDirectory(arcDev)) == null)
+            return false;
+
+        String name = String.format("%013d-%09d",
+                entry.timeStamp.getTimeInMillis(), spillSeq.incrementAndGet());
+        try {
+            Files.createDirectories(dir);
+            Path tmp = dir.resolve(name + ".part");
+            jaxbContext().createMarshaller().marshal(entry.msg, tmp.toFile());
+            Files.move(tmp, dir.resolve(name + SUFFIX), StandardCopyOption.ATOMIC_MOVE);
+            spilled.incrementAndGet();
+            return true;
+        } catch (IOException | JAXBException e) {
+            LOG.warn("Failed to spill audit message to {}:", dir, e);
+            return false;
+        }
+    }
+
+    private void replayJournal() {
+        long now = System.currentTimeMillis();
+        if (now - lastJournalFailure < JOURNAL_RETRY_INTERVAL)
+            return;
+
+        ArchiveDeviceExtension arcDev = device.getDeviceExtension(ArchiveDeviceExtension.class);
+        AuditLogger logger = device.getDeviceExtension(AuditLogger.class);
+        Path dir = arcDev != null ? spoolDirectory(arcDev) : null;
+        if (dir == null || logger == null || !logger.isInstalled() || !Files.isDirectory(dir))
+            return;
+
+        List<Path> files = new ArrayList<Path>();
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, "*" + SUFFIX)) {
+            for (Path file : ds)
+                files.add(file);
+        } catch (IOException e) {
+            LOG.warn("Failed to list audit spool directory {}:", dir, e);
+            lastJournalFailure = now;
+            return;
+        }
+        Collections.sort(files);
+        for (Path file : files) {
+            if (stopped || !queue.isEmpty())
+                return;
+
+            Calendar timeStamp = logger.timeStamp();
+            try {
+                String name = file.getFileName().toString();
+                timeStamp.setTimeInMillis(Long.parseLong(name.substring(0, name.indexOf('-'))));
+            } catch (RuntimeException e) {
+                // keep current time
+            }
+            AuditMessage msg;
+            try {
+                msg = (AuditMessage) jaxbContext().createUnmarshaller()
+                        .unmarshal(file.toFile());
+            } catch (JAXBException | ClassCastException e) {
+                LOG.warn("Discard unreadable spilled audit message {}:", file, e);
+                deleteSpilled(file);
+                continue;
+            }
+            try {
+                write(new Entry(logger, timeStamp, msg));
+            } catch (Exception e) {
+                LOG.info("Failed to send spilled audit message {}: {}", file, e.getMessage());
+                lastJournalFailure = now;
+                return;
+            }
+            deleteSpilled(file);
+        }
+    }
+
+    /**
+     * Audit messages are subclasses of {@link AuditMessage}, which are
+     * marshalled as {@link AuditMessage}.
+     */
+    private static JAXBContext jaxbContext() throws JAXBException {
+        JAXBContext ctx = jaxbContext;
+        if (ctx == null)
+            jaxbContext = ctx = JAXBContext.newInstance(AuditMessage.class);
+        return ctx;
+    }
+
+    private static void deleteSpilled(Path file) {
+        try {
+            Files.delete(file);
+        } catch (IOException e) {
+            LOG.warn("Failed to delete spilled audit message {}:", file, e);
+        }
+    }
+}
@@ -53,10 +53,10 @@ import org.dcm4che3.imageio.codec.Compressor;
 import org.dcm4che3.io.DicomOutputStream;
 import org.dcm4che3.net.Status;
 import org.dcm4che3.net.service.DicomServiceException;
-import org.dcm4che3.util.AttributesFormat;
 import org.dcm4che3.util.SafeClose;
 import org.dcm4chee.archive.store.StoreContext;
 import org.dcm4chee.archive.store.StoreSession;
+import org.dcm4chee.archive.util.StoragePathFormat;
 import org.dcm4chee.storage.ObjectAlreadyExistsException;
 import org.dcm4chee.storage.StorageContext;
 import org.dcm4chee.storage.conf.StorageSystem;
@@ -174,7 +174,6 @@ class StoreCompressedTask implements MemoryConsumingTask<StorageContext> {
 
     private static String calculatePath(StorageSystem system, Attributes attributes) {
         String pattern = system.getStorageSystemGroup().getStorageFilePathFormat();
-        AttributesFormat format = AttributesFormat.valueOf(pattern);
-        return format.format(attributes);
+        return StoragePathFormat.format(pattern, attributes);
     }
 }
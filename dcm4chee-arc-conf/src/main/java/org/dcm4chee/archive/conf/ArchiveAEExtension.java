@@ -59,6 +59,8 @@ import javax.xml.transform.TransformerConfigurationException;
 import java.util.ArrayList;
 import java.util.EnumSet;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
 /**
  * @author Gunter Zeilinger <gunterze@gmail.com>
@@ -172,6 +174,11 @@ public class ArchiveAEExtension extends AEExtension {
     @ConfigurableProperty(name = "dcmQidoMaxNumberOfResults", defaultValue = "0")
     private int QIDOMaxNumberOfResults;
 
+    @ConfigurableProperty(name = "dcmQidoCountCacheTime", defaultValue = "0",
+            description = "Time in s an approximate number of matches of a QIDO-RS query "
+                    + "is cached and returned in the X-Total-Count response header. 0 = disabled")
+    private int qidoCountCacheTime;
+
     @ConfigurableProperty(name = "dcmWadoSRTemplateURI")
     private String wadoSRTemplateURI;
 
@@ -204,6 +211,63 @@ public class ArchiveAEExtension extends AEExtension {
     @ConfigurableProperty(name = "dcmStoreRememberDelayAfterFailedResponse", defaultValue = "3600")
     private int storeAndRememberDelayAfterFailedResponse = 3600;
 
+    @ConfigurableProperty(name = "dcmStoreBatchSize", defaultValue = "0",
+            description = "Maximal number of instances received on one association "
+                    + "which are stored to the database in one transaction. Only effective if "
+                    + "asynchronous operations are negotiated. 0 or 1 = no batching")
+    private int storeBatchSize;
+
+    @ConfigurableProperty(name = "dcmStoreBatchMaxDelay", defaultValue = "100",
+            description = "Maximal delay in ms of the C-STORE-RSP for an instance "
+                    + "waiting for further instances of its batch")
+    private int storeBatchMaxDelay = 100;
+
+    @ConfigurableProperty(name = "dcmRetrieveMaxOpsInvoked", defaultValue = "1",
+            description = "Maximal number of outstanding C-STORE sub-operations on an association "
+                    + "opened for a C-MOVE. 0 = unlimited, 1 = no asynchronous operations")
+    private int retrieveMaxOpsInvoked = 1;
+
+    @ConfigurableProperty(name = "dcmRetrieveReadAhead", defaultValue = "0",
+            description = "Number of objects read from storage in advance by C-MOVE and C-GET "
+                    + "sub-operations. 0 = no read ahead")
+    private int retrieveReadAhead;
+
+    @ConfigurableProperty(name = "dcmRetrieveAssociations", defaultValue = "1",
+            description = "Number of parallel associations opened to the Move Destination of a C-MOVE")
+    private int retrieveAssociations = 1;
+
+    @LDAP(
+            distinguishingField = "dicomAETitle",
+            mapEntryObjectClass = "dcmRetrieveAssociationsEntry",
+            mapValueAttribute = "dcmRetrieveAssociations"
+    )
+    @ConfigurableProperty(name = "dcmRetrieveAssociationsMap",
+            description = "Number of parallel associations opened to a particular Move Destination, "
+                    + "overriding dcmRetrieveAssociations")
+    private Map<String, String> retrieveAssociationsMap = new TreeMap<String, String>();
+
+    @ConfigurableProperty(name = "dcmStoreSCUTransferSyntax",
+            description = "Compressed Transfer Syntaxes in order of preference, to which objects "
+                    + "are compressed on sending them by C-STORE, if accepted by the Store SCP "
+                    + "but the stored Transfer Syntax is not. Empty = no compression")
+    private String[] storeSCUTransferSyntaxes = {};
+
+    @LDAP(
+            distinguishingField = "dicomAETitle",
+            mapEntryObjectClass = "dcmStoreSCUTransferSyntaxEntry",
+            mapValueAttribute = "dcmStoreSCUTransferSyntax"
+    )
+    @ConfigurableProperty(name = "dcmStoreSCUTransferSyntaxMap",
+            description = "Comma separated compressed Transfer Syntaxes in order of preference "
+                    + "for a particular Store SCP, overriding dcmStoreSCUTransferSyntax")
+    private Map<String, String> storeSCUTransferSyntaxMap = new TreeMap<String, String>();
+
+    @ConfigurableProperty(name = "dcmStowThreads", defaultValue = "4",
+            description = "Maximum number of instances of one STOW-RS request stored in parallel, "
+                    + "while further parts are received. 0 = instances are stored one after "
+                    + "another by the request thread")
+    private int stowThreads = 4;
+
     public RetrieveSuppressionCriteria getRetrieveSuppressionCriteria() {
         return retrieveSuppressionCriteria;
     }
@@ -508,6 +572,14 @@ public class ArchiveAEExtension extends AEExtension {
         this.QIDOMaxNumberOfResults = qidoMaxNumberOfResults;
     }
 
+    public int getQidoCountCacheTime() {
+        return qidoCountCacheTime;
+    }
+
+    public void setQidoCountCacheTime(int qidoCountCacheTime) {
+        this.qidoCountCacheTime = qidoCountCacheTime;
+    }
+
     public ArchivingRules getArchivingRules() {
         return archivingRules;
     }
@@ -624,6 +696,94 @@ public class ArchiveAEExtension extends AEExtension {
         this.storeAndRememberDelayAfterFailedResponse = storeAndRememberDelayAfterFailedResponse;
     }
 
+    public int getStoreBatchSize() {
+        return storeBatchSize;
+    }
+
+    public void setStoreBatchSize(int storeBatchSize) {
+        this.storeBatchSize = storeBatchSize;
+    }
+
+    public int getStoreBatchMaxDelay() {
+        return storeBatchMaxDelay;
+    }
+
+    public void setStoreBatchMaxDelay(int storeBatchMaxDelay) {
+        this.storeBatchMaxDelay = storeBatchMaxDelay;
+    }
+
+    public int getRetrieveMaxOpsInvoked() {
+        return retrieveMaxOpsInvoked;
+    }
+
+    public void setRetrieveMaxOpsInvoked(int retrieveMaxOpsInvoked) {
+        this.retrieveMaxOpsInvoked = retrieveMaxOpsInvoked;
+    }
+
+    public int getRetrieveReadAhead() {
+        return retrieveReadAhead;
+    }
+
+    public void setRetrieveReadAhead(int retrieveReadAhead) {
+        this.retrieveReadAhead = retrieveReadAhead;
+    }
+
+    public int getRetrieveAssociations() {
+        return retrieveAssociations;
+    }
+
+    public void setRetrieveAssociations(int retrieveAssociations) {
+        this.retrieveAssociations = retrieveAssociations;
+    }
+
+    public Map<String, String> getRetrieveAssociationsMap() {
+        return retrieveAssociationsMap;
+    }
+
+    public void setRetrieveAssociationsMap(Map<String, String> retrieveAssociationsMap) {
+        this.retrieveAssociationsMap = retrieveAssociationsMap;
+    }
+
+    public int getRetrieveAssociations(String destinationAET) {
+        String value = retrieveAssociationsMap.get(destinationAET);
+        return value != null ? Integer.parseInt(value) : retrieveAssociations;
+    }
+
+    public String[] getStoreSCUTransferSyntaxes() {
+        return storeSCUTransferSyntaxes;
+    }
+
+    public void setStoreSCUTransferSyntaxes(String... storeSCUTransferSyntaxes) {
+        this.storeSCUTransferSyntaxes = storeSCUTransferSyntaxes;
+    }
+
+    public Map<String, String> getStoreSCUTransferSyntaxMap() {
+        return storeSCUTransferSyntaxMap;
+    }
+
+    public void setStoreSCUTransferSyntaxMap(Map<String, String> storeSCUTransferSyntaxMap) {
+        this.storeSCUTransferSyntaxMap = storeSCUTransferSyntaxMap;
+    }
+
+    public String[] getStoreSCUTransferSyntaxes(String destinationAET) {
+        String value = storeSCUTransferSyntaxMap.get(destinationAET);
+        if (value == null)
+            return storeSCUTransferSyntaxes;
+
+        String[] tsuids = StringUtils.split(value, ',');
+        for (int i = 0; i < tsuids.length; i++)
+            tsuids[i] = tsuids[i].trim();
+        return tsuids;
+    }
+
+    public int getStowThreads() {
+        return stowThreads;
+    }
+
+    public void setStowThreads(int stowThreads) {
+        this.stowThreads = stowThreads;
+    }
+
     public String getOlockHash() {
         return olockHash;
     }
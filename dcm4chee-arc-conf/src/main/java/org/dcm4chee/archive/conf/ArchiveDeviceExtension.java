@@ -162,6 +162,10 @@ public class ArchiveDeviceExtension extends DeviceExtension {
     @ConfigurableProperty(name = "dcmArchivingSchedulerPollInterval", defaultValue = "0")
     private int archivingSchedulerPollInterval;
 
+    @ConfigurableProperty(name = "dcmArchivingSchedulerBatchSize", defaultValue = "100",
+            description = "Maximum number of due Archiving Tasks fetched by one query")
+    private int archivingSchedulerBatchSize = 100;
+
     @ConfigurableProperty(name = "dcmIocmConfig")
     private IOCMConfig iocmConfig;
 
@@ -180,6 +184,14 @@ public class ArchiveDeviceExtension extends DeviceExtension {
     @ConfigurableProperty(name = "dcmSyncLocationStatusVerifyArchived", defaultValue = "true")
     private boolean syncLocationStatusVerifyArchived = true;
 
+    @ConfigurableProperty(name = "dcmSyncLocationStatusThreads", defaultValue = "4",
+            description = "Maximum number of threads querying the status of locations in parallel. If set to 0, the status is queried by the polling thread")
+    private int syncLocationStatusThreads = 4;
+
+    @ConfigurableProperty(name = "dcmSyncLocationStatusThreadsPerStorageSystem", defaultValue = "2",
+            description = "Maximum number of concurrent status queries on one Storage System")
+    private int syncLocationStatusThreadsPerStorageSystem = 2;
+
     @ConfigurableProperty(name = "dcmFetchAETitle")
     private String fetchAETitle = "DCM4CHEE_FETCH";
 
@@ -205,6 +217,10 @@ public class ArchiveDeviceExtension extends DeviceExtension {
     @ConfigurableProperty(name = "dcmDeleteServiceAllowedInterval")
     private String deleteServiceAllowedInterval;
 
+    @ConfigurableProperty(name = "dcmDeletionServicePageSize", defaultValue = "100",
+            description = "Maximum number of studies due for deletion fetched from the database at once by the deletion service")
+    private int deletionServicePageSize = 100;
+
     @ConfigurableProperty(name = "dcmDataVolumePerDayCalculationRange", defaultValue = "23-0")
     private String dataVolumePerDayCalculationRange = "23-0";
 
@@ -225,6 +241,98 @@ public class ArchiveDeviceExtension extends DeviceExtension {
     @ConfigurableProperty
     private WeightWatcherConfiguration weightWatcherConfiguration = new WeightWatcherConfiguration();
 
+    @ConfigurableProperty(name = "dcmStorageIOThreads", defaultValue = "8",
+            description = "Maximum number of threads per Storage System used to write bulk data and metadata of received objects")
+    private int storageIOThreads = 8;
+
+    @ConfigurableProperty(name = "dcmStorageIOQueueSize", defaultValue = "64",
+            description = "Maximum number of pending write tasks per Storage System. If exceeded, the receiving association performs the write itself, which slows down the sender")
+    private int storageIOQueueSize = 64;
+
+    @ConfigurableProperty(name = "dcmGroupCommitSyncMaxDelay", defaultValue = "0",
+            description = "Maximum time in ms files stored by concurrent associations on Storage Systems with Sync Policy ALWAYS are collected before they are synced together. If set to 0, each store syncs its files itself")
+    private int groupCommitSyncMaxDelay;
+
+    @ConfigurableProperty(name = "dcmGroupCommitSyncMaxBytes", defaultValue = "0",
+            description = "Size in bytes of collected files, which triggers the sync of a group commit before its maximum delay elapsed. If set to 0, only the delay applies")
+    private long groupCommitSyncMaxBytes;
+
+    @ConfigurableProperty(name = "dcmDecodedAttributesCacheSize", defaultValue = "1000",
+            description = "Maximum number of decoded Patient/Study and Patient/Study/Series attributes cached for queries and retrieves. If set to 0, the attributes are decoded on each access")
+    private int decodedAttributesCacheSize = 1000;
+
+    @ConfigurableProperty(name = "dcmQueryAttributesUpdateThreads", defaultValue = "0",
+            description = "Number of threads which (re-)calculate Study and Series query attributes in the background after objects were stored or modified by QC. If set to 0, the query attributes are calculated on demand by the query")
+    private int queryAttributesUpdateThreads;
+
+    @ConfigurableProperty(name = "dcmQueryAttributesUpdateDelay", defaultValue = "1000",
+            description = "Delay in ms after the last modification of a Study or Series before its query attributes are re-calculated in the background")
+    private int queryAttributesUpdateDelay = 1000;
+
+    @ConfigurableProperty(name = "dcmQueryAttributesUpdateBatchSize", defaultValue = "100",
+            description = "Maximum number of Studies or Series for which query attributes are re-calculated by one background task")
+    private int queryAttributesUpdateBatchSize = 100;
+
+    @ConfigurableProperty(name = "dcmQueryAttributesStaleCacheSize", defaultValue = "0",
+            description = "Maximum number of previously calculated Study and Series query attributes returned by queries while their re-calculation is still pending. If set to 0, queries calculate missing query attributes themselves")
+    private int queryAttributesStaleCacheSize;
+
+    @ConfigurableProperty(name = "dcmFetchThreads", defaultValue = "4",
+            description = "Maximum number of instances fetched concurrently by WADO-RS from external archives")
+    private int fetchThreads = 4;
+
+    @ConfigurableProperty(name = "dcmFetchMaxConcurrencyPerAE", defaultValue = "2",
+            description = "Maximum number of instances fetched concurrently by WADO-RS from one external archive AE")
+    private int fetchMaxConcurrencyPerAE = 2;
+
+    @ConfigurableProperty(name = "dcmRenderedImageCacheDirectoryPath",
+            description = "Directory in which rendered images returned by WADO are cached. If absent, rendered images are not cached on disk")
+    private String renderedImageCacheDirectoryPath;
+
+    @ConfigurableProperty(name = "dcmRenderedImageCacheMaxDiskSize", defaultValue = "1073741824",
+            description = "Maximum size in bytes of the rendered images cached on disk")
+    private long renderedImageCacheMaxDiskSize = 1073741824L;
+
+    @ConfigurableProperty(name = "dcmRenderedImageCacheMaxMemorySize", defaultValue = "0",
+            description = "Maximum size in bytes of the rendered images cached in memory. If set to 0, rendered images are not cached in memory")
+    private long renderedImageCacheMaxMemorySize;
+
+    @ConfigurableProperty(name = "dcmThumbnailPrerenderSize", defaultValue = "0",
+            description = "Rows and columns of JPEG thumbnails rendered in the background for one representative image of each stored series into the rendered image cache. If set to 0, no thumbnails are pre-rendered")
+    private int thumbnailPrerenderSize;
+
+    @ConfigurableProperty(name = "dcmFrameOffsetIndexCacheSize", defaultValue = "1000",
+            description = "Maximum number of Pixel Data offset indexes of files kept in memory for the retrieve of frames by WADO-RS. If set to 0, the files are parsed on each request")
+    private int frameOffsetIndexCacheSize = 1000;
+
+    @ConfigurableProperty(name = "dcmFrameOffsetIndexDirectoryPath",
+            description = "Directory in which Pixel Data offset indexes of files are persisted. If absent, the indexes are only kept in memory")
+    private String frameOffsetIndexDirectoryPath;
+
+    @ConfigurableProperty(name = "dcmAuditSpoolQueueSize", defaultValue = "0",
+            description = "Maximum number of audit messages queued for asynchronous sending to the audit record repository. If set to 0, audit messages are sent synchronously. Changes of the size of an already created queue take effect after restart")
+    private int auditSpoolQueueSize;
+
+    @ConfigurableProperty(name = "dcmAuditSpoolBatchSize", defaultValue = "50",
+            description = "Maximum number of queued audit messages sent to the audit record repository in one batch")
+    private int auditSpoolBatchSize = 50;
+
+    @ConfigurableProperty(name = "dcmAuditSpoolOverflowPolicy", defaultValue = "SPILL",
+            description = "Handling of audit messages if the audit spool queue is full or the audit record repository is not reachable: DROP, BLOCK or SPILL")
+    private AuditSpoolOverflowPolicy auditSpoolOverflowPolicy = AuditSpoolOverflowPolicy.SPILL;
+
+    @ConfigurableProperty(name = "dcmAuditSpoolDirectoryPath",
+            description = "Directory to which audit messages are spilled. If absent, spilled audit messages are dropped")
+    private String auditSpoolDirectoryPath;
+
+    @ConfigurableProperty(name = "dcmStgCmtVerifyThreads", defaultValue = "0",
+            description = "Maximum number of threads verifying the digests of objects referenced by Storage Commitment requests in parallel. If set to 0, digests are verified by the thread processing the request")
+    private int stgCmtVerifyThreads;
+
+    @ConfigurableProperty(name = "dcmStgCmtDigestFreshness", defaultValue = "0",
+            description = "Time in seconds in which a verified digest of an object is considered valid for Storage Commitment without reading the object again. If set to 0, the digest is verified on each request")
+    private int stgCmtDigestFreshness;
+
     private transient FuzzyStr fuzzyStr;
     private transient TemplatesCache templatesCache;
 
@@ -434,6 +542,14 @@ public class ArchiveDeviceExtension extends DeviceExtension {
         this.archivingSchedulerPollInterval = archivingPollInterval;
     }
 
+    public int getArchivingSchedulerBatchSize() {
+        return archivingSchedulerBatchSize;
+    }
+
+    public void setArchivingSchedulerBatchSize(int archivingSchedulerBatchSize) {
+        this.archivingSchedulerBatchSize = archivingSchedulerBatchSize;
+    }
+
     public int getSyncLocationStatusPollInterval() {
         return syncLocationStatusPollInterval;
     }
@@ -485,6 +601,23 @@ public class ArchiveDeviceExtension extends DeviceExtension {
         this.syncLocationStatusVerifyArchived = syncLocationStatusVerifyArchived;
     }
 
+    public int getSyncLocationStatusThreads() {
+        return syncLocationStatusThreads;
+    }
+
+    public void setSyncLocationStatusThreads(int syncLocationStatusThreads) {
+        this.syncLocationStatusThreads = syncLocationStatusThreads;
+    }
+
+    public int getSyncLocationStatusThreadsPerStorageSystem() {
+        return syncLocationStatusThreadsPerStorageSystem;
+    }
+
+    public void setSyncLocationStatusThreadsPerStorageSystem(
+            int syncLocationStatusThreadsPerStorageSystem) {
+        this.syncLocationStatusThreadsPerStorageSystem = syncLocationStatusThreadsPerStorageSystem;
+    }
+
     public void clearTemplatesCache() {
         TemplatesCache cache = templatesCache;
         if (cache != null)
@@ -758,4 +891,196 @@ public class ArchiveDeviceExtension extends DeviceExtension {
     public void setWeightWatcherConfiguration(WeightWatcherConfiguration weightWatcherConfiguration) {
         this.weightWatcherConfiguration = weightWatcherConfiguration;
     }
+
+    public int getStorageIOThreads() {
+        return storageIOThreads;
+    }
+
+    public void setStorageIOThreads(int storageIOThreads) {
+        this.storageIOThreads = storageIOThreads;
+    }
+
+    public int getStorageIOQueueSize() {
+        return storageIOQueueSize;
+    }
+
+    public void setStorageIOQueueSize(int storageIOQueueSize) {
+        this.storageIOQueueSize = storageIOQueueSize;
+    }
+
+    public int getGroupCommitSyncMaxDelay() {
+        return groupCommitSyncMaxDelay;
+    }
+
+    public void setGroupCommitSyncMaxDelay(int groupCommitSyncMaxDelay) {
+        this.groupCommitSyncMaxDelay = groupCommitSyncMaxDelay;
+    }
+
+    public long getGroupCommitSyncMaxBytes() {
+        return groupCommitSyncMaxBytes;
+    }
+
+    public void setGroupCommitSyncMaxBytes(long groupCommitSyncMaxBytes) {
+        this.groupCommitSyncMaxBytes = groupCommitSyncMaxBytes;
+    }
+
+    public int getDecodedAttributesCacheSize() {
+        return decodedAttributesCacheSize;
+    }
+
+    public void setDecodedAttributesCacheSize(int decodedAttributesCacheSize) {
+        this.decodedAttributesCacheSize = decodedAttributesCacheSize;
+    }
+
+    public int getQueryAttributesUpdateThreads() {
+        return queryAttributesUpdateThreads;
+    }
+
+    public void setQueryAttributesUpdateThreads(int queryAttributesUpdateThreads) {
+        this.queryAttributesUpdateThreads = queryAttributesUpdateThreads;
+    }
+
+    public int getQueryAttributesUpdateDelay() {
+        return queryAttributesUpdateDelay;
+    }
+
+    public void setQueryAttributesUpdateDelay(int queryAttributesUpdateDelay) {
+        this.queryAttributesUpdateDelay = queryAttributesUpdateDelay;
+    }
+
+    public int getQueryAttributesUpdateBatchSize() {
+        return queryAttributesUpdateBatchSize;
+    }
+
+    public void setQueryAttributesUpdateBatchSize(int queryAttributesUpdateBatchSize) {
+        this.queryAttributesUpdateBatchSize = queryAttributesUpdateBatchSize;
+    }
+
+    public int getQueryAttributesStaleCacheSize() {
+        return queryAttributesStaleCacheSize;
+    }
+
+    public void setQueryAttributesStaleCacheSize(int queryAttributesStaleCacheSize) {
+        this.queryAttributesStaleCacheSize = queryAttributesStaleCacheSize;
+    }
+
+    public int getFetchThreads() {
+        return fetchThreads;
+    }
+
+    public void setFetchThreads(int fetchThreads) {
+        this.fetchThreads = fetchThreads;
+    }
+
+    public int getFetchMaxConcurrencyPerAE() {
+        return fetchMaxConcurrencyPerAE;
+    }
+
+    public void setFetchMaxConcurrencyPerAE(int fetchMaxConcurrencyPerAE) {
+        this.fetchMaxConcurrencyPerAE = fetchMaxConcurrencyPerAE;
+    }
+
+    public String getRenderedImageCacheDirectoryPath() {
+        return renderedImageCacheDirectoryPath;
+    }
+
+    public void setRenderedImageCacheDirectoryPath(String renderedImageCacheDirectoryPath) {
+        this.renderedImageCacheDirectoryPath = renderedImageCacheDirectoryPath;
+    }
+
+    public long getRenderedImageCacheMaxDiskSize() {
+        return renderedImageCacheMaxDiskSize;
+    }
+
+    public void setRenderedImageCacheMaxDiskSize(long renderedImageCacheMaxDiskSize) {
+        this.renderedImageCacheMaxDiskSize = renderedImageCacheMaxDiskSize;
+    }
+
+    public long getRenderedImageCacheMaxMemorySize() {
+        return renderedImageCacheMaxMemorySize;
+    }
+
+    public void setRenderedImageCacheMaxMemorySize(long renderedImageCacheMaxMemorySize) {
+        this.renderedImageCacheMaxMemorySize = renderedImageCacheMaxMemorySize;
+    }
+
+    public int getThumbnailPrerenderSize() {
+        return thumbnailPrerenderSize;
+    }
+
+    public void setThumbnailPrerenderSize(int thumbnailPrerenderSize) {
+        this.thumbnailPrerenderSize = thumbnailPrerenderSize;
+    }
+
+    public int getFrameOffsetIndexCacheSize() {
+        return frameOffsetIndexCacheSize;
+    }
+
+    public void setFrameOffsetIndexCacheSize(int frameOffsetIndexCacheSize) {
+        this.frameOffsetIndexCacheSize = frameOffsetIndexCacheSize;
+    }
+
+    public String getFrameOffsetIndexDirectoryPath() {
+        return frameOffsetIndexDirectoryPath;
+    }
+
+    public void setFrameOffsetIndexDirectoryPath(String frameOffsetIndexDirectoryPath) {
+        this.frameOffsetIndexDirectoryPath = frameOffsetIndexDirectoryPath;
+    }
+
+    public int getAuditSpoolQueueSize() {
+        return auditSpoolQueueSize;
+    }
+
+    public void setAuditSpoolQueueSize(int auditSpoolQueueSize) {
+        this.auditSpoolQueueSize = auditSpoolQueueSize;
+    }
+
+    public int getAuditSpoolBatchSize() {
+        return auditSpoolBatchSize;
+    }
+
+    public void setAuditSpoolBatchSize(int auditSpoolBatchSize) {
+        this.auditSpoolBatchSize = auditSpoolBatchSize;
+    }
+
+    public AuditSpoolOverflowPolicy getAuditSpoolOverflowPolicy() {
+        return auditSpoolOverflowPolicy;
+    }
+
+    public void setAuditSpoolOverflowPolicy(AuditSpoolOverflowPolicy auditSpoolOverflowPolicy) {
+        this.auditSpoolOverflowPolicy = auditSpoolOverflowPolicy;
+    }
+
+    public String getAuditSpoolDirectoryPath() {
+        return auditSpoolDirectoryPath;
+    }
+
+    public void setAuditSpoolDirectoryPath(String auditSpoolDirectoryPath) {
+        this.auditSpoolDirectoryPath = auditSpoolDirectoryPath;
+    }
+
+    public int getDeletionServicePageSize() {
+        return deletionServicePageSize;
+    }
+
+    public void setDeletionServicePageSize(int deletionServicePageSize) {
+        this.deletionServicePageSize = deletionServicePageSize;
+    }
+
+    public int getStgCmtVerifyThreads() {
+        return stgCmtVerifyThreads;
+    }
+
+    public void setStgCmtVerifyThreads(int stgCmtVerifyThreads) {
+        this.stgCmtVerifyThreads = stgCmtVerifyThreads;
+    }
+
+    public int getStgCmtDigestFreshness() {
+        return stgCmtDigestFreshness;
+    }
+
+    public void setStgCmtDigestFreshness(int stgCmtDigestFreshness) {
+        this.stgCmtDigestFreshness = stgCmtDigestFreshness;
+    }
 }
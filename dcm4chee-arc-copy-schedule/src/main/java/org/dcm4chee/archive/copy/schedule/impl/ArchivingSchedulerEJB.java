@@ -42,13 +42,15 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import javax.ejb.Stateless;
 import javax.inject.Inject;
 import javax.persistence.EntityManager;
+import javax.persistence.LockModeType;
 import javax.persistence.PersistenceContext;
-import javax.persistence.Query;
 import javax.persistence.TemporalType;
 
 import org.dcm4che3.conf.api.DicomConfiguration;
@@ -61,8 +63,6 @@ import org.dcm4chee.archive.code.CodeService;
 import org.dcm4chee.archive.conf.ArchivingRule;
 import org.dcm4chee.archive.dto.ActiveService;
 import org.dcm4chee.archive.entity.ArchivingTask;
-import org.dcm4chee.archive.entity.Instance;
-import org.dcm4chee.archive.entity.Series;
 import org.dcm4chee.archive.hsm.LocationCopyContext;
 import org.dcm4chee.archive.hsm.LocationCopyService;
 import org.dcm4chee.archive.processing.ActiveProcessingService;
@@ -101,6 +101,7 @@ public class ArchivingSchedulerEJB {
 
     public void onStoreInstance(StoreContext storeContext, ArchivingRule archivingRule) {
         Attributes attrs = storeContext.getAttributes();
+        String studyInstanceUID = attrs.getString(Tag.StudyInstanceUID);
         String seriesInstanceUID = attrs.getString(Tag.SeriesInstanceUID);
         Date archivingTime = new Date(System.currentTimeMillis()
                 + archivingRule.getDelayAfterInstanceStored() * 1000L);
@@ -118,7 +119,8 @@ public class ArchivingSchedulerEJB {
                 storageGroupTargets, seriesInstanceUID, archivingTime);
 
         if (!storageGroupTargets.isEmpty()) {
-            flagOrUnflagSeriesAsActiveProcess(seriesInstanceUID, ActiveService.LOCAL_ARCHIVING, true);
+            activeProcessingService.addActiveProcessForSeries(studyInstanceUID, seriesInstanceUID,
+                    ActiveService.LOCAL_ARCHIVING);
             for (String targetGroupID : storageGroupTargets) {
                 createAndPersistStorageGroupArchivingTask(seriesInstanceUID, archivingTime,
                         storeContext.getFileRef().getStorageSystemGroupID(),
@@ -136,7 +138,8 @@ public class ArchivingSchedulerEJB {
                 extDeviceTargets, seriesInstanceUID, archivingTime);
 
         if (!extDeviceTargets.isEmpty()) {
-            flagOrUnflagSeriesAsActiveProcess(seriesInstanceUID, ActiveService.STORE_REMEMBER_ARCHIVING, true);
+            activeProcessingService.addActiveProcessForSeries(studyInstanceUID, seriesInstanceUID,
+                    ActiveService.STORE_REMEMBER_ARCHIVING);
             for (String extDeviceTarget : extDeviceTargets) {
                 createAndPersistExtDeviceArchivingTask(seriesInstanceUID, archivingTime,
                         storeContext.getFileRef().getStorageSystemGroupID(),
@@ -204,32 +207,98 @@ public class ArchivingSchedulerEJB {
         LOG.info("Create {}", task);
     }
 
+    /**
+     * Postpones the archiving tasks of the series to {@code archivingTime},
+     * if they are scheduled earlier.
+     */
+    public int postponeArchivingTasks(String seriesInstanceUID, Date archivingTime) {
+        return em.createNamedQuery(ArchivingTask.UPDATE_ARCHIVING_TIME_BY_SERIES_INSTANCE_UID)
+                .setParameter(1, archivingTime, TemporalType.TIMESTAMP)
+                .setParameter(2, seriesInstanceUID)
+                .executeUpdate();
+    }
+
     public ArchivingTask scheduleNextArchivingTask() throws IOException {
-        List<ArchivingTask> results = em
-                .createNamedQuery(ArchivingTask.FIND_READY_TO_ARCHIVE_BY_TIME, ArchivingTask.class)
+        Date now = new Date();
+        for (Long pk : findReadyArchivingTaskPks(1)) {
+            ArchivingTask task = lockReadyArchivingTask(pk, now);
+            if (task != null) {
+                scheduleArchivingTask(task, new HashMap<String, String>());
+                return task;
+            }
+        }
+        LOG.debug("No archiving tasks found to schedule");
+        return null;
+    }
+
+    /**
+     * Returns the primary keys of up to {@code maxTasks} due archiving tasks,
+     * without locking them.
+     */
+    public List<Long> findReadyArchivingTaskPks(int maxTasks) {
+        return em
+                .createNamedQuery(ArchivingTask.FIND_PK_READY_TO_ARCHIVE_BY_TIME, Long.class)
                 .setParameter(1, new Date(), TemporalType.TIMESTAMP)
-                .setMaxResults(1).getResultList();
-        if (results.isEmpty()) {
-            LOG.debug("No archiving tasks found to schedule");
+                .setMaxResults(maxTasks).getResultList();
+    }
+
+    /**
+     * Locks the archiving task and schedules it, if it is still due - another
+     * cluster node may have scheduled or postponed it meanwhile. A task which
+     * could not be scheduled is postponed by {@code retryDelay} seconds.
+     *
+     * @param remoteAETs AE titles of external devices resolved so far,
+     *        shared by the tasks of one poll cycle
+     * @return {@code true} if the task was scheduled
+     */
+    public boolean scheduleReadyArchivingTask(long pk, int retryDelay,
+            Map<String, String> remoteAETs) {
+        ArchivingTask task = lockReadyArchivingTask(pk, new Date());
+        if (task == null)
+            return false;
+
+        try {
+            scheduleArchivingTask(task, remoteAETs);
+            return true;
+        } catch (IOException e) {
+            LOG.error("Failed to schedule {} - retry in {}s", task, retryDelay, e);
+            task.setArchivingTime(new Date(System.currentTimeMillis() + retryDelay * 1000L));
+            return false;
+        }
+    }
+
+    public void postponeArchivingTask(long pk, int retryDelay) {
+        ArchivingTask task = em.find(ArchivingTask.class, pk);
+        if (task != null)
+            task.setArchivingTime(new Date(System.currentTimeMillis() + retryDelay * 1000L));
+    }
+
+    private ArchivingTask lockReadyArchivingTask(long pk, Date now) {
+        ArchivingTask task = em.find(ArchivingTask.class, pk, LockModeType.PESSIMISTIC_WRITE);
+        if (task == null || task.getDelayReasonCode() != null
+                || task.getArchivingTime().after(now)) {
+            LOG.debug("Archiving task[pk={}] no longer due", pk);
             return null;
         }
+        return task;
+    }
 
-        ArchivingTask task = results.get(0);
+    private void scheduleArchivingTask(ArchivingTask task, Map<String, String> remoteAETs)
+            throws IOException {
         LOG.info("Scheduling {}", task);
         if (task.getTargetStorageSystemGroupID() != null) {
             scheduleCopyToHsm(task);
         } else if (task.getTargetExternalDevice() != null) {
-            scheduleStoreAndRemember(task);
+            scheduleStoreAndRemember(task, remoteAETs);
         } else {
             throw new IllegalStateException("Invalid archiving task");
         }
 
         LOG.info("Scheduled {}", task);
-        flagOrUnflagSeriesAsActiveProcess(task.getSeriesInstanceUID(), 
+        activeProcessingService.deleteActiveProcessesBySeriesAndService(task.getSeriesInstanceUID(), 
                 task.getTargetStorageSystemGroupID() != null? ActiveService.LOCAL_ARCHIVING 
-                        : ActiveService.STORE_REMEMBER_ARCHIVING, false);
+                        : ActiveService.STORE_REMEMBER_ARCHIVING);
         em.remove(task);
-        return task;
     }
 
     private void scheduleCopyToHsm(ArchivingTask task) throws IOException {
@@ -239,10 +308,17 @@ public class ArchivingSchedulerEJB {
         locationCopyService.scheduleCopySeries(ctx, task.getSeriesInstanceUID(), 0);
     }
 
-    private void scheduleStoreAndRemember(ArchivingTask task) throws IOException {
+    private void scheduleStoreAndRemember(ArchivingTask task, Map<String, String> remoteAETs)
+            throws IOException {
         String extDevice = task.getTargetExternalDevice();
 
-        String remoteAE = determineRemoteAETitle(extDevice);
+        String remoteAE;
+        if (remoteAETs.containsKey(extDevice)) {
+            remoteAE = remoteAETs.get(extDevice);
+        } else {
+            remoteAE = determineRemoteAETitle(extDevice);
+            remoteAETs.put(extDevice, remoteAE);
+        }
         if (remoteAE == null) {
             throw new IOException("Could not determine remote AE title for Store-and-Remember "
                     + "task to external device " + extDevice);
@@ -268,21 +344,4 @@ public class ArchivingSchedulerEJB {
         
         return remoteAE;
     }
-
-    private void flagOrUnflagSeriesAsActiveProcess(String seriesInstanceUID, ActiveService service, boolean flag) {
-        Query query = em.createNamedQuery(Series.FIND_BY_SERIES_INSTANCE_UID_EAGER);
-        query.setParameter(1, seriesInstanceUID);
-        Series series = (Series) query.getSingleResult();
-        for(Instance inst : series.getInstances()) {
-            if(flag)
-                activeProcessingService.addActiveProcess(series.getStudy()
-                        .getStudyInstanceUID(), seriesInstanceUID,
-                        inst.getSopInstanceUID(), service);
-            else
-                activeProcessingService
-                .deleteActiveProcessBySOPInstanceUIDandService(
-                        inst.getSopInstanceUID(), service);
-        }
-    }
-
-}
\ No newline at end of file
+}
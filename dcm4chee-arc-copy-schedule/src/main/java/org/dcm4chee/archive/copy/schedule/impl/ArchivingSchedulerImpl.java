@@ -39,7 +39,11 @@
 package org.dcm4chee.archive.copy.schedule.impl;
 
 import java.io.IOException;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
@@ -47,6 +51,7 @@ import javax.enterprise.context.ApplicationScoped;
 import javax.enterprise.event.Observes;
 import javax.inject.Inject;
 
+import org.dcm4che3.data.Tag;
 import org.dcm4che3.net.Device;
 import org.dcm4chee.archive.ArchiveServiceReloaded;
 import org.dcm4chee.archive.ArchiveServiceStarted;
@@ -59,6 +64,8 @@ import org.dcm4chee.archive.entity.ArchivingTask;
 import org.dcm4chee.archive.event.StartStopReloadEvent;
 import org.dcm4chee.archive.store.StoreContext;
 import org.dcm4chee.archive.store.StoreSession;
+import org.dcm4chee.archive.store.StoreSessionClosed;
+import org.dcm4chee.archive.util.RetryBean;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -71,16 +78,21 @@ public class ArchivingSchedulerImpl implements ArchivingScheduler {
 
     private static final Logger LOG = LoggerFactory.getLogger(ArchivingSchedulerImpl.class);
 
+    private static final String SCHEDULED_SERIES = "ArchivingScheduler.scheduledSeries";
+
     @Inject
     private Device device;
 
     @Inject
     private ArchivingSchedulerEJB ejb;
 
+    @Inject
+    private RetryBean<Void, RuntimeException> retry;
+
     private int currentPollInterval;
     private ScheduledFuture<?> polling;
 
-    public void onStoreInstance(@Observes StoreContext storeContext) {
+    public void onStoreInstance(@Observes final StoreContext storeContext) {
         switch (storeContext.getStoreAction()) {
         case REPLACE:
         case RESTORE:
@@ -98,25 +110,112 @@ public class ArchivingSchedulerImpl implements ArchivingScheduler {
                 storeSession.getRemoteAET(),
                 storeContext.getAttributes());
 
-        for (ArchivingRule rule : archivingRules)
-            ejb.onStoreInstance(storeContext, rule);
+        if (archivingRules.isEmpty())
+            return;
+
+        Map<String, ScheduledSeries> scheduledSeries = scheduledSeries(storeSession);
+        String seriesIUID = storeContext.getAttributes().getString(Tag.SeriesInstanceUID);
+        long now = System.currentTimeMillis();
+        for (final ArchivingRule rule : archivingRules) {
+            String key = seriesIUID + '/' + rule.getCommonName();
+            ScheduledSeries scheduled = scheduledSeries.get(key);
+            if (scheduled != null && scheduled.deferUpdate(now))
+                continue;
+
+            // retry if a concurrent store of the series inserted its
+            // active-processing marker or archiving task
+            retry.retry(new RetryBean.Retryable<Void, RuntimeException>() {
+                @Override
+                public Void call() {
+                    ejb.onStoreInstance(storeContext, rule);
+                    return null;
+                }
+            });
+            scheduledSeries.put(key, new ScheduledSeries(seriesIUID,
+                    rule.getDelayAfterInstanceStored() * 1000L, now));
+        }
+    }
+
+    /**
+     * Postpones the archiving tasks of series, which received further
+     * instances since their archiving time was last updated in this session.
+     */
+    public void onStoreSessionClosed(
+            @Observes @StoreSessionClosed StoreSession storeSession) {
+        @SuppressWarnings("unchecked")
+        Map<String, ScheduledSeries> scheduledSeries = (Map<String, ScheduledSeries>)
+                storeSession.removeProperty(SCHEDULED_SERIES);
+        if (scheduledSeries == null)
+            return;
+
+        for (ScheduledSeries scheduled : scheduledSeries.values()) {
+            Date archivingTime = scheduled.pendingArchivingTime();
+            if (archivingTime == null)
+                continue;
+            try {
+                ejb.postponeArchivingTasks(scheduled.seriesIUID, archivingTime);
+            } catch (Exception e) {
+                LOG.warn("Failed to postpone archiving of series {}",
+                        scheduled.seriesIUID, e);
+            }
+        }
+    }
+
+    private static Map<String, ScheduledSeries> scheduledSeries(StoreSession storeSession) {
+        synchronized (storeSession) {
+            @SuppressWarnings("unchecked")
+            Map<String, ScheduledSeries> scheduledSeries = (Map<String, ScheduledSeries>)
+                    storeSession.getProperty(SCHEDULED_SERIES);
+            if (scheduledSeries == null) {
+                scheduledSeries = new ConcurrentHashMap<String, ScheduledSeries>();
+                storeSession.setProperty(SCHEDULED_SERIES, scheduledSeries);
+            }
+            return scheduledSeries;
+        }
     }
 
     @Override
     public int scheduleReadyArchivingTasks() {
+        ArchiveDeviceExtension arcDev = device.getDeviceExtension(ArchiveDeviceExtension.class);
+        int batchSize = Math.max(1, arcDev.getArchivingSchedulerBatchSize());
+        int retryDelay = arcDev.getArchivingSchedulerPollInterval();
+        Map<String, String> remoteAETs = new HashMap<String, String>();
         int count = 0;
         for (;;) {
+            List<Long> pks;
             try {
-                if (scheduleNextArchivingTask() == null)
-                    break;
-                count++;
-            } catch (IOException e) {
-                LOG.error("Failed to schedule archiving task", e);
+                pks = ejb.findReadyArchivingTaskPks(batchSize);
+            } catch (RuntimeException e) {
+                LOG.error("Failed to query ready archiving tasks", e);
+                break;
             }
+            // each task is scheduled in its own transaction
+            int scheduled = 0;
+            for (Long pk : pks) {
+                try {
+                    if (ejb.scheduleReadyArchivingTask(pk, retryDelay, remoteAETs))
+                        scheduled++;
+                } catch (RuntimeException e) {
+                    LOG.error("Failed to schedule archiving task[pk={}] - retry in {}s",
+                            pk, retryDelay, e);
+                    postponeArchivingTask(pk, retryDelay);
+                }
+            }
+            count += scheduled;
+            if (scheduled == 0 || pks.size() < batchSize)
+                break;
         }
         return count;
     }
 
+    private void postponeArchivingTask(long pk, int retryDelay) {
+        try {
+            ejb.postponeArchivingTask(pk, retryDelay);
+        } catch (RuntimeException e) {
+            LOG.error("Failed to postpone archiving task[pk={}]", pk, e);
+        }
+    }
+
     @Override
     public ArchivingTask scheduleNextArchivingTask() throws IOException {
         return ejb.scheduleNextArchivingTask();
@@ -169,4 +268,38 @@ public class ArchivingSchedulerImpl implements ArchivingScheduler {
             LOG.info("Arching Scheduler: stop polling for scheduled Archiving tasks");
         }
     }
+
+    /**
+     * Archiving time of a series scheduled by one Archiving Rule within a
+     * Store Session. Further instances of the series only refresh the
+     * archiving time in the database, if at least half of the configured
+     * delay has elapsed since the last update; otherwise the update is
+     * deferred to the close of the session.
+     */
+    private static final class ScheduledSeries {
+
+        final String seriesIUID;
+        final long delay;
+        final long updated;
+        long lastStored;
+
+        ScheduledSeries(String seriesIUID, long delay, long updated) {
+            this.seriesIUID = seriesIUID;
+            this.delay = delay;
+            this.updated = updated;
+            this.lastStored = updated;
+        }
+
+        synchronized boolean deferUpdate(long now) {
+            if (now - updated >= delay / 2)
+                return false;
+
+            lastStored = Math.max(lastStored, now);
+            return true;
+        }
+
+        synchronized Date pendingArchivingTime() {
+            return lastStored > updated ? new Date(lastStored + delay) : null;
+        }
+    }
 }
@@ -0,0 +1,224 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.util;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs tasks on a shared executor - typically the executor of the
+ * {@link org.dcm4che3.net.Device} - with at most
+ * {@link #getMaxConcurrency()} of them concurrently. Further tasks wait in a
+ * FIFO queue, which may be bounded by {@code maxPending}; if it is full,
+ * {@link #execute(Runnable)} throws a {@link RejectedExecutionException}.
+ * <p>
+ * Unlike an own thread pool, a BoundedExecutor does not own threads, so it
+ * does not need to be shut down for releasing them. {@link #shutdown()} only
+ * rejects further tasks and returns the tasks which were not yet started.
+ */
+public class BoundedExecutor implements Executor {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BoundedExecutor.class);
+
+    private final String name;
+    private final Executor executor;
+    private int maxPending;
+    private final ArrayDeque<Runnable> pending = new ArrayDeque<Runnable>();
+    private int maxConcurrency;
+    private int active;
+    private boolean shutdown;
+
+    private final Runnable worker = new Runnable() {
+        @Override
+        public void run() {
+            Runnable task;
+            while ((task = next()) != null) {
+                try {
+                    task.run();
+                } catch (Throwable e) {
+                    LOG.warn("{}: task {} failed:", name, task, e);
+                }
+            }
+        }
+    };
+
+    /**
+     * @param name used in log messages
+     * @param executor executor running the tasks
+     * @param maxConcurrency maximal number of concurrently running tasks
+     * @param maxPending maximal number of waiting tasks, 0 = unbounded
+     */
+    public BoundedExecutor(String name, Executor executor, int maxConcurrency,
+            int maxPending) {
+        if (executor == null)
+            throw new IllegalArgumentException("executor is null");
+        this.name = name;
+        this.executor = executor;
+        this.maxPending = maxPending;
+        this.maxConcurrency = Math.max(1, maxConcurrency);
+    }
+
+    public synchronized int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    /**
+     * Adjusts the maximal number of concurrently running tasks. Running tasks
+     * are not interrupted on decrease, but no further tasks are started until
+     * their number fell below the new limit.
+     */
+    public void setMaxConcurrency(int maxConcurrency) {
+        int start;
+        synchronized (this) {
+            this.maxConcurrency = Math.max(1, maxConcurrency);
+            start = Math.max(0, Math.min(pending.size(), this.maxConcurrency - active));
+            active += start;
+        }
+        while (start-- > 0)
+            startWorker();
+    }
+
+    public synchronized int getMaxPending() {
+        return maxPending;
+    }
+
+    /**
+     * Adjusts the maximal number of waiting tasks. Tasks already waiting are
+     * not removed on decrease.
+     *
+     * @param maxPending maximal number of waiting tasks, 0 = unbounded
+     */
+    public synchronized void setMaxPending(int maxPending) {
+        this.maxPending = maxPending;
+    }
+
+    public synchronized int getActiveCount() {
+        return active;
+    }
+
+    public synchronized int getQueuedCount() {
+        return pending.size();
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        execute(task, true);
+    }
+
+    /**
+     * Executes a task, which is queued even if the number of waiting tasks
+     * exceeds {@code maxPending}.
+     *
+     * @throws RejectedExecutionException if this executor is shut down
+     */
+    public void executeUnbounded(Runnable task) {
+        execute(task, false);
+    }
+
+    private void execute(Runnable task, boolean bounded) {
+        synchronized (this) {
+            if (shutdown)
+                throw new RejectedExecutionException(name + " is shut down");
+            if (bounded && maxPending > 0 && pending.size() >= maxPending)
+                throw new RejectedExecutionException(name + ": too many pending tasks");
+            pending.add(task);
+            if (active >= maxConcurrency)
+                return;
+            active++;
+        }
+        startWorker();
+    }
+
+    /**
+     * Rejects further tasks and removes the tasks, which were not yet started,
+     * from the queue. Removed tasks implementing {@link Future} are cancelled,
+     * so callers waiting for their completion are not blocked forever.
+     * Running tasks are not interrupted.
+     *
+     * @return the tasks, which were not started
+     */
+    public List<Runnable> shutdown() {
+        List<Runnable> notStarted;
+        synchronized (this) {
+            shutdown = true;
+            notStarted = new ArrayList<Runnable>(pending);
+            pending.clear();
+        }
+        for (Runnable task : notStarted)
+            if (task instanceof Future)
+                ((Future<?>) task).cancel(false);
+        return notStarted;
+    }
+
+    public synchronized boolean isShutdown() {
+        return shutdown;
+    }
+
+    private synchronized Runnable next() {
+        Runnable task = active > maxConcurrency ? null : pending.poll();
+        if (task == null)
+            active--;
+        return task;
+    }
+
+    private void startWorker() {
+        try {
+            executor.execute(worker);
+        } catch (RejectedExecutionException e) {
+            // run the pending tasks by an already running worker, or by the
+            // caller if there is none
+            LOG.warn("{}: executor rejected worker:", name, e);
+            boolean runByCaller;
+            synchronized (this) {
+                runByCaller = active == 1;
+                if (!runByCaller)
+                    active--;
+            }
+            if (runByCaller)
+                worker.run();
+        }
+    }
+}
@@ -0,0 +1,211 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.util;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+import javax.inject.Inject;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.net.Device;
+import org.dcm4chee.archive.conf.ArchiveDeviceExtension;
+import org.dcm4chee.archive.store.session.StudyUpdatedEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bounded cache of decoded and normalized Patient/Study and
+ * Patient/Study/Series attributes, shared by queries and retrieves.
+ * <p>
+ * Entries are keyed by the primary key of the Study or Series and only
+ * returned if the versions of the involved entities and of their attributes
+ * blobs are unchanged. An update of an attributes blob increments the
+ * version of the blob, but not necessarily the version of its owner, so
+ * callers pass both. The encoded attributes are neither kept nor compared,
+ * so callers only need to fetch them if the {@link Decoder} is invoked.
+ * Entries of a Study are also removed on a {@link StudyUpdatedEvent}.
+ * <p>
+ * Callers always get a copy of the cached attributes, which they may modify.
+ */
+@ApplicationScoped
+public class DecodedAttributesCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DecodedAttributesCache.class);
+
+    public enum Level { PATIENT_STUDY, PATIENT_STUDY_SERIES }
+
+    public interface Decoder {
+        Attributes decode();
+    }
+
+    @Inject
+    private Device device;
+
+    private final LinkedHashMap<Key, Entry> entries =
+            new LinkedHashMap<Key, Entry>(256, 0.75f, true);
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    public DecodedAttributesCache() {
+    }
+
+    DecodedAttributesCache(Device device) {
+        this.device = device;
+    }
+
+    public Attributes get(Level level, long pk, long[] versions,
+            Decoder decoder) {
+        int maxSize = maxSize();
+        if (maxSize <= 0)
+            return decoder.decode();
+
+        Key key = new Key(level, pk);
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+        }
+        if (entry != null && entry.matches(versions)) {
+            hits.incrementAndGet();
+            return new Attributes(entry.attrs);
+        }
+
+        misses.incrementAndGet();
+        Attributes attrs = decoder.decode();
+        entry = new Entry(versions, new Attributes(attrs));
+        synchronized (entries) {
+            entries.put(key, entry);
+            for (Iterator<Entry> iter = entries.values().iterator();
+                    entries.size() > maxSize && iter.hasNext();) {
+                iter.next();
+                iter.remove();
+            }
+        }
+        return attrs;
+    }
+
+    public void onStudyUpdated(@Observes StudyUpdatedEvent event) {
+        String studyIUID = event.getStudyInstanceUID();
+        if (studyIUID == null)
+            return;
+
+        int removed = 0;
+        synchronized (entries) {
+            for (Iterator<Entry> iter = entries.values().iterator(); iter.hasNext();) {
+                if (studyIUID.equals(iter.next().studyIUID)) {
+                    iter.remove();
+                    removed++;
+                }
+            }
+        }
+        LOG.debug("Removed {} cached attributes of Study[uid={}]", removed, studyIUID);
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    private int maxSize() {
+        ArchiveDeviceExtension arcDev =
+                device.getDeviceExtension(ArchiveDeviceExtension.class);
+        return arcDev != null ? arcDev.getDecodedAttributesCacheSize() : 0;
+    }
+
+    private static final class Key {
+        final Level level;
+        final long pk;
+
+        Key(Level level, long pk) {
+            this.level = level;
+            this.pk = pk;
+        }
+
+        @Override
+        public int hashCode() {
+            return level.hashCode() * 31 + (int) (pk ^ (pk >>> 32));
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key))
+                return false;
+            Key other = (Key) obj;
+            return level == other.level && pk == other.pk;
+        }
+    }
+
+    private static final class Entry {
+        final long[] versions;
+        final Attributes attrs;
+        final String studyIUID;
+
+        Entry(long[] versions, Attributes attrs) {
+            this.versions = versions;
+            this.attrs = attrs;
+            this.studyIUID = attrs.getString(Tag.StudyInstanceUID);
+        }
+
+        boolean matches(long[] versions) {
+            return Arrays.equals(this.versions, versions);
+        }
+    }
+}
@@ -0,0 +1,259 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2014
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.util;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.BulkData;
+import org.dcm4che3.data.DatasetWithFMI;
+import org.dcm4che3.data.Fragments;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.UID;
+import org.dcm4che3.data.VR;
+import org.dcm4che3.io.DicomInputStream;
+import org.dcm4che3.io.DicomInputStream.IncludeBulkData;
+
+/**
+ * Position of the Pixel Data in a DICOM file: offset and length of the
+ * native Pixel Data value, or of each item of encapsulated Pixel Data.
+ * <p>
+ * With the index, the Pixel Data of a file can be accessed after reading the
+ * attributes preceding it, without walking through all fragment items of a
+ * multi-frame image. The index records size and modification time of the
+ * file, so it can be verified against the file before it is used.
+ */
+public final class FrameOffsetIndex {
+
+    private static final int MAGIC = 0x464F4931; // FOI1
+
+    private final long fileLength;
+    private final long lastModified;
+    private final String tsuid;
+    private final boolean bigEndian;
+    private final VR vr;
+    private final boolean encapsulated;
+    private final long[] offsets;
+    private final int[] lengths;
+
+    private FrameOffsetIndex(long fileLength, long lastModified, String tsuid,
+            boolean bigEndian, VR vr, boolean encapsulated, long[] offsets, int[] lengths) {
+        this.fileLength = fileLength;
+        this.lastModified = lastModified;
+        this.tsuid = tsuid;
+        this.bigEndian = bigEndian;
+        this.vr = vr;
+        this.encapsulated = encapsulated;
+        this.offsets = offsets;
+        this.lengths = lengths;
+    }
+
+    /**
+     * Parses the file and returns the index of its Pixel Data, or
+     * {@code null} if the file contains no Pixel Data or if its Pixel Data
+     * can not be addressed by offsets in the file (Deflated Transfer Syntax).
+     */
+    public static FrameOffsetIndex build(File file) throws IOException {
+        long fileLength = file.length();
+        long lastModified = file.lastModified();
+        try (DicomInputStream din = new DicomInputStream(file)) {
+            din.setIncludeBulkData(IncludeBulkData.URI);
+            Attributes dataset = din.readDataset(-1, -1);
+            String tsuid = din.getTransferSyntax();
+            if (UID.DeflatedExplicitVRLittleEndian.equals(tsuid))
+                return null;
+
+            VR.Holder vr = new VR.Holder();
+            Object pixelData = dataset.getValue(Tag.PixelData, vr);
+            if (pixelData instanceof BulkData) {
+                BulkData bulkData = (BulkData) pixelData;
+                return new FrameOffsetIndex(fileLength, lastModified, tsuid,
+                        dataset.bigEndian(), vr.vr, false,
+                        new long[] { bulkData.offset() },
+                        new int[] { bulkData.length() });
+            }
+            if (!(pixelData instanceof Fragments))
+                return null;
+
+            Fragments frags = (Fragments) pixelData;
+            long[] offsets = new long[frags.size()];
+            int[] lengths = new int[frags.size()];
+            for (int i = 0; i < offsets.length; i++) {
+                Object frag = frags.get(i);
+                if (frag instanceof BulkData) {
+                    offsets[i] = ((BulkData) frag).offset();
+                    lengths[i] = ((BulkData) frag).length();
+                } else if (frag instanceof byte[] && ((byte[]) frag).length == 0) {
+                    offsets[i] = -1L;
+                } else {
+                    return null;
+                }
+            }
+            return new FrameOffsetIndex(fileLength, lastModified, tsuid,
+                    frags.bigEndian(), frags.vr(), true, offsets, lengths);
+        }
+    }
+
+    /**
+     * Returns {@code true} if size and modification time of the file still
+     * match the indexed file.
+     */
+    public boolean isValidFor(File file) {
+        return file.length() == fileLength && file.lastModified() == lastModified;
+    }
+
+    public String getTransferSyntaxUID() {
+        return tsuid;
+    }
+
+    public boolean isEncapsulated() {
+        return encapsulated;
+    }
+
+    /**
+     * Returns the number of items of encapsulated Pixel Data, including
+     * the Basic Offset Table, or 1 for native Pixel Data.
+     */
+    public int getNumberOfItems() {
+        return offsets.length;
+    }
+
+    public long getOffset(int item) {
+        return offsets[item];
+    }
+
+    public int getLength(int item) {
+        return lengths[item];
+    }
+
+    /**
+     * Reads the File Meta Information and the attributes preceding the Pixel
+     * Data from the file and adds the Pixel Data - referenced by Bulk Data
+     * URIs - from the index.
+     */
+    public DatasetWithFMI readDatasetWithFMI(File file) throws IOException {
+        String uri = file.toURI().toString();
+        try (DicomInputStream din = new DicomInputStream(file)) {
+            din.setIncludeBulkData(IncludeBulkData.URI);
+            Attributes fmi = din.getFileMetaInformation();
+            Attributes dataset = din.readDataset(-1, Tag.PixelData);
+            if (encapsulated) {
+                Fragments frags = dataset.newFragments(Tag.PixelData, vr, offsets.length);
+                for (int i = 0; i < offsets.length; i++) {
+                    if (offsets[i] < 0)
+                        frags.add(new byte[0]);
+                    else
+                        frags.add(new BulkData(uri, offsets[i], lengths[i], bigEndian));
+                }
+            } else {
+                dataset.setValue(Tag.PixelData, vr,
+                        new BulkData(uri, offsets[0], lengths[0], bigEndian));
+            }
+            return new DatasetWithFMI(fmi, dataset);
+        }
+    }
+
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeLong(fileLength);
+        out.writeLong(lastModified);
+        out.writeUTF(tsuid);
+        out.writeBoolean(bigEndian);
+        out.writeInt(vr.code());
+        out.writeBoolean(encapsulated);
+        out.writeInt(offsets.length);
+        for (int i = 0; i < offsets.length; i++) {
+            out.writeLong(offsets[i]);
+            out.writeInt(lengths[i]);
+        }
+    }
+
+    public static FrameOffsetIndex readFrom(DataInput in) throws IOException {
+        if (in.readInt() != MAGIC)
+            throw new IOException("Not a frame offset index");
+
+        long fileLength = in.readLong();
+        long lastModified = in.readLong();
+        String tsuid = in.readUTF();
+        boolean bigEndian = in.readBoolean();
+        VR vr = VR.valueOf(in.readInt());
+        boolean encapsulated = in.readBoolean();
+        int n = in.readInt();
+        long[] offsets = new long[n];
+        int[] lengths = new int[n];
+        for (int i = 0; i < n; i++) {
+            offsets[i] = in.readLong();
+            lengths[i] = in.readInt();
+        }
+        return new FrameOffsetIndex(fileLength, lastModified, tsuid,
+                bigEndian, vr, encapsulated, offsets, lengths);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (!(o instanceof FrameOffsetIndex))
+            return false;
+        FrameOffsetIndex other = (FrameOffsetIndex) o;
+        return fileLength == other.fileLength
+                && lastModified == other.lastModified
+                && tsuid.equals(other.tsuid)
+                && bigEndian == other.bigEndian
+                && vr == other.vr
+                && encapsulated == other.encapsulated
+                && Arrays.equals(offsets, other.offsets)
+                && Arrays.equals(lengths, other.lengths);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Arrays.hashCode(offsets) + tsuid.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "FrameOffsetIndex[ts=" + tsuid + ", items=" + offsets.length
+                + ", encapsulated=" + encapsulated + "]";
+    }
+}
@@ -0,0 +1,95 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+package org.dcm4chee.archive.util;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.util.AttributesFormat;
+
+/**
+ * Thread-safe formatting of storage file paths.
+ * <p>
+ * {@link AttributesFormat} is not thread-safe, so formatting with the shared
+ * instance returned by {@link AttributesFormat#valueOf(String)} requires to
+ * synchronize on it, which serializes all stores on the same Storage System
+ * Group. Instead, a thread borrows a compiled instance from a small pool per
+ * pattern, and creates a new one if the pool is empty. Unlike thread local
+ * instances, pooled instances are not referenced by container threads, so
+ * they do not keep the class loader of the application alive after it was
+ * undeployed. All placeholders of {@link AttributesFormat} (e.g.
+ * {@code hash}, {@code md5}, {@code date}) are supported.
+ */
+public final class StoragePathFormat {
+
+    private static final int MAX_POOLED = 16;
+
+    private static final ConcurrentHashMap<String, ConcurrentLinkedQueue<AttributesFormat>>
+            POOLS = new ConcurrentHashMap<String, ConcurrentLinkedQueue<AttributesFormat>>();
+
+    private StoragePathFormat() {
+    }
+
+    public static String format(String pattern, Attributes attrs) {
+        ConcurrentLinkedQueue<AttributesFormat> pool = poolFor(pattern);
+        AttributesFormat format = pool.poll();
+        if (format == null)
+            format = new AttributesFormat(pattern);
+        try {
+            return format.format(attrs);
+        } finally {
+            if (pool.size() < MAX_POOLED)
+                pool.offer(format);
+        }
+    }
+
+    private static ConcurrentLinkedQueue<AttributesFormat> poolFor(String pattern) {
+        ConcurrentLinkedQueue<AttributesFormat> pool = POOLS.get(pattern);
+        if (pool == null) {
+            ConcurrentLinkedQueue<AttributesFormat> newPool =
+                    new ConcurrentLinkedQueue<AttributesFormat>();
+            pool = POOLS.putIfAbsent(pattern, newPool);
+            if (pool == null)
+                pool = newPool;
+        }
+        return pool;
+    }
+}
@@ -0,0 +1,187 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link BoundedExecutor}.
+ */
+public class BoundedExecutorTest {
+
+    private final List<Runnable> workers = new ArrayList<Runnable>();
+    private final List<String> ran = new ArrayList<String>();
+
+    private final Executor executor = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            workers.add(command);
+        }
+    };
+
+    @Before
+    public void setUp() {
+        workers.clear();
+        ran.clear();
+    }
+
+    @Test
+    public void testMaxConcurrency() {
+        BoundedExecutor bounded = new BoundedExecutor("test", executor, 2, 0);
+        for (int i = 0; i < 5; i++)
+            bounded.execute(task("task" + i));
+        Assert.assertEquals(2, workers.size());
+        Assert.assertEquals(2, bounded.getActiveCount());
+        Assert.assertEquals(5, bounded.getQueuedCount());
+
+        workers.get(0).run();
+        Assert.assertEquals(1, bounded.getActiveCount());
+        Assert.assertEquals(0, bounded.getQueuedCount());
+        Assert.assertEquals(5, ran.size());
+        Assert.assertEquals("task0", ran.get(0));
+        Assert.assertEquals("task4", ran.get(4));
+
+        workers.get(1).run();
+        Assert.assertEquals(0, bounded.getActiveCount());
+        Assert.assertEquals(5, ran.size());
+    }
+
+    @Test(expected = RejectedExecutionException.class)
+    public void testMaxPending() {
+        BoundedExecutor bounded = new BoundedExecutor("test", executor, 1, 2);
+        bounded.execute(task("task0"));
+        bounded.execute(task("task1"));
+        bounded.execute(task("task2"));
+    }
+
+    @Test
+    public void testExecuteUnboundedAndSetMaxPending() {
+        BoundedExecutor bounded = new BoundedExecutor("test", executor, 1, 1);
+        bounded.execute(task("task0"));
+        bounded.executeUnbounded(task("task1"));
+        Assert.assertEquals(2, bounded.getQueuedCount());
+        try {
+            bounded.execute(task("task2"));
+            Assert.fail("RejectedExecutionException expected");
+        } catch (RejectedExecutionException e) {
+            // expected
+        }
+        bounded.setMaxPending(3);
+        bounded.execute(task("task2"));
+        Assert.assertEquals(3, bounded.getQueuedCount());
+    }
+
+    @Test
+    public void testSetMaxConcurrency() {
+        BoundedExecutor bounded = new BoundedExecutor("test", executor, 1, 0);
+        for (int i = 0; i < 3; i++)
+            bounded.execute(task("task" + i));
+        Assert.assertEquals(1, workers.size());
+
+        bounded.setMaxConcurrency(3);
+        Assert.assertEquals(3, workers.size());
+        Assert.assertEquals(3, bounded.getActiveCount());
+
+        bounded.setMaxConcurrency(1);
+        workers.get(2).run();
+        workers.get(1).run();
+        Assert.assertEquals(1, bounded.getActiveCount());
+        Assert.assertEquals(3, bounded.getQueuedCount());
+        workers.get(0).run();
+        Assert.assertEquals(0, bounded.getActiveCount());
+        Assert.assertEquals(3, ran.size());
+    }
+
+    @Test
+    public void testFailedTaskDoesNotStopWorker() {
+        BoundedExecutor bounded = new BoundedExecutor("test", executor, 1, 0);
+        bounded.execute(new Runnable() {
+            @Override
+            public void run() {
+                throw new IllegalStateException("test");
+            }
+        });
+        bounded.execute(task("task1"));
+        workers.get(0).run();
+        Assert.assertEquals(1, ran.size());
+        Assert.assertEquals(0, bounded.getActiveCount());
+    }
+
+    @Test
+    public void testShutdown() {
+        BoundedExecutor bounded = new BoundedExecutor("test", executor, 1, 0);
+        bounded.execute(task("task0"));
+        bounded.execute(task("task1"));
+        Assert.assertEquals(2, bounded.shutdown().size());
+        workers.get(0).run();
+        Assert.assertTrue(ran.isEmpty());
+        Assert.assertEquals(0, bounded.getActiveCount());
+        try {
+            bounded.execute(task("task2"));
+            Assert.fail("RejectedExecutionException expected");
+        } catch (RejectedExecutionException expected) {
+        }
+    }
+
+    @Test
+    public void testShutdownCancelsFutures() {
+        BoundedExecutor bounded = new BoundedExecutor("test", executor, 1, 0);
+        FutureTask<String> future = new FutureTask<String>(task("task0"), "task0");
+        bounded.execute(future);
+        bounded.shutdown();
+        Assert.assertTrue(future.isCancelled());
+    }
+
+    private Runnable task(final String name) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                ran.add(name);
+            }
+        };
+    }
+}
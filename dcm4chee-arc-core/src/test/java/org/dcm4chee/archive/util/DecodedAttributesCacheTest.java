@@ -0,0 +1,137 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.util;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.VR;
+import org.dcm4che3.net.Device;
+import org.dcm4chee.archive.conf.ArchiveDeviceExtension;
+import org.dcm4chee.archive.store.session.StudyUpdatedEvent;
+import org.dcm4chee.archive.util.DecodedAttributesCache.Level;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link DecodedAttributesCache}.
+ */
+public class DecodedAttributesCacheTest {
+
+    private static final String STUDY_IUID = "1.2.3";
+
+    private ArchiveDeviceExtension arcDev;
+    private DecodedAttributesCache cache;
+    private int decoded;
+
+    @Before
+    public void setUp() {
+        Device device = new Device("dcm4chee-arc");
+        arcDev = new ArchiveDeviceExtension();
+        arcDev.setDecodedAttributesCacheSize(2);
+        device.addDeviceExtension(arcDev);
+        cache = new DecodedAttributesCache(device);
+        decoded = 0;
+    }
+
+    private Attributes get(long pk, long version, long blobVersion) {
+        return cache.get(Level.PATIENT_STUDY, pk,
+                new long[] { 1L, version, 1L, blobVersion },
+                new DecodedAttributesCache.Decoder() {
+                    @Override
+                    public Attributes decode() {
+                        decoded++;
+                        Attributes attrs = new Attributes();
+                        attrs.setString(Tag.StudyInstanceUID, VR.UI, STUDY_IUID);
+                        return attrs;
+                    }
+                });
+    }
+
+    @Test
+    public void testHit() {
+        get(1L, 1L, 1L);
+        Attributes attrs = get(1L, 1L, 1L);
+        Assert.assertEquals(1, decoded);
+        Assert.assertEquals(1L, cache.getHits());
+        Assert.assertEquals(1L, cache.getMisses());
+        Assert.assertEquals(STUDY_IUID, attrs.getString(Tag.StudyInstanceUID));
+    }
+
+    @Test
+    public void testReturnsCopy() {
+        get(1L, 1L, 1L).setString(Tag.StudyID, VR.SH, "modified");
+        Assert.assertNull(get(1L, 1L, 1L).getString(Tag.StudyID));
+    }
+
+    @Test
+    public void testMissOnChangedVersionOrBlobVersion() {
+        get(1L, 1L, 1L);
+        get(1L, 2L, 1L);
+        get(1L, 2L, 2L);
+        Assert.assertEquals(3, decoded);
+        Assert.assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testBoundedSize() {
+        get(1L, 1L, 1L);
+        get(2L, 1L, 1L);
+        get(3L, 1L, 1L);
+        Assert.assertEquals(2, cache.size());
+        get(1L, 1L, 1L);
+        Assert.assertEquals(4, decoded);
+    }
+
+    @Test
+    public void testStudyUpdated() {
+        get(1L, 1L, 1L);
+        cache.onStudyUpdated(new StudyUpdatedEvent(STUDY_IUID, "SOURCE"));
+        Assert.assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testDisabled() {
+        arcDev.setDecodedAttributesCacheSize(0);
+        get(1L, 1L, 1L);
+        get(1L, 1L, 1L);
+        Assert.assertEquals(2, decoded);
+        Assert.assertEquals(0, cache.size());
+    }
+}
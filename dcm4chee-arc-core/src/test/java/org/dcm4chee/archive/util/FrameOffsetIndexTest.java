@@ -0,0 +1,201 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2014
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.BulkData;
+import org.dcm4che3.data.DatasetWithFMI;
+import org.dcm4che3.data.Fragments;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.UID;
+import org.dcm4che3.data.VR;
+import org.dcm4che3.io.DicomOutputStream;
+import org.dcm4che3.util.SafeClose;
+import org.dcm4che3.util.StreamUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link FrameOffsetIndex}.
+ */
+public class FrameOffsetIndexTest {
+
+    private static final int FRAMES = 5;
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("frame-offset-index", ".dcm");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    private static Attributes image() {
+        Attributes attrs = new Attributes();
+        attrs.setString(Tag.SOPClassUID, VR.UI, UID.EnhancedCTImageStorage);
+        attrs.setString(Tag.SOPInstanceUID, VR.UI, "1.2.3.4.5");
+        attrs.setInt(Tag.NumberOfFrames, VR.IS, FRAMES);
+        attrs.setInt(Tag.Rows, VR.US, 4);
+        attrs.setInt(Tag.Columns, VR.US, 4);
+        attrs.setInt(Tag.SamplesPerPixel, VR.US, 1);
+        attrs.setInt(Tag.BitsAllocated, VR.US, 8);
+        return attrs;
+    }
+
+    private static byte[] frame(int i, int length) {
+        byte[] b = new byte[length];
+        for (int j = 0; j < length; j++)
+            b[j] = (byte) (i * 16 + j);
+        return b;
+    }
+
+    private void write(Attributes attrs, String tsuid) throws IOException {
+        DicomOutputStream out = new DicomOutputStream(file);
+        try {
+            out.writeDataset(attrs.createFileMetaInformation(tsuid), attrs);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static byte[] read(BulkData bulkData) throws IOException {
+        InputStream in = bulkData.openStream();
+        try {
+            byte[] b = new byte[bulkData.length()];
+            StreamUtils.readFully(in, b, 0, b.length);
+            return b;
+        } finally {
+            SafeClose.close(in);
+        }
+    }
+
+    @Test
+    public void testNativePixelData() throws IOException {
+        Attributes attrs = image();
+        byte[] pixelData = frame(0, 16 * FRAMES);
+        attrs.setBytes(Tag.PixelData, VR.OB, pixelData);
+        write(attrs, UID.ExplicitVRLittleEndian);
+
+        FrameOffsetIndex index = FrameOffsetIndex.build(file);
+        Assert.assertFalse(index.isEncapsulated());
+        Assert.assertEquals(1, index.getNumberOfItems());
+        Assert.assertEquals(pixelData.length, index.getLength(0));
+
+        DatasetWithFMI datasetWithFMI = index.readDatasetWithFMI(file);
+        Assert.assertEquals(UID.ExplicitVRLittleEndian,
+                datasetWithFMI.getFileMetaInformation().getString(Tag.TransferSyntaxUID));
+        Attributes dataset = datasetWithFMI.getDataset();
+        Assert.assertEquals(FRAMES, dataset.getInt(Tag.NumberOfFrames, 0));
+        Assert.assertArrayEquals(pixelData, read((BulkData) dataset.getValue(Tag.PixelData)));
+    }
+
+    @Test
+    public void testEncapsulatedPixelData() throws IOException {
+        Attributes attrs = image();
+        Fragments frags = attrs.newFragments(Tag.PixelData, VR.OB, FRAMES + 1);
+        frags.add(new byte[0]);
+        for (int i = 1; i <= FRAMES; i++)
+            frags.add(frame(i, 10 + 2 * i));
+        write(attrs, UID.JPEGBaseline1);
+
+        FrameOffsetIndex index = FrameOffsetIndex.build(file);
+        Assert.assertTrue(index.isEncapsulated());
+        Assert.assertEquals(FRAMES + 1, index.getNumberOfItems());
+
+        Attributes dataset = index.readDatasetWithFMI(file).getDataset();
+        Fragments indexed = (Fragments) dataset.getValue(Tag.PixelData);
+        Assert.assertEquals(FRAMES + 1, indexed.size());
+        for (int i = 1; i <= FRAMES; i++)
+            Assert.assertArrayEquals(frame(i, 10 + 2 * i), read((BulkData) indexed.get(i)));
+    }
+
+    @Test
+    public void testWriteAndReadIndex() throws IOException {
+        Attributes attrs = image();
+        Fragments frags = attrs.newFragments(Tag.PixelData, VR.OB, FRAMES + 1);
+        frags.add(new byte[0]);
+        for (int i = 1; i <= FRAMES; i++)
+            frags.add(frame(i, 8));
+        write(attrs, UID.JPEGBaseline1);
+
+        FrameOffsetIndex index = FrameOffsetIndex.build(file);
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        index.writeTo(new DataOutputStream(bout));
+        FrameOffsetIndex read = FrameOffsetIndex.readFrom(
+                new DataInputStream(new ByteArrayInputStream(bout.toByteArray())));
+        Assert.assertEquals(index, read);
+        Assert.assertTrue(read.isValidFor(file));
+    }
+
+    @Test
+    public void testInvalidAfterModification() throws IOException {
+        Attributes attrs = image();
+        attrs.setBytes(Tag.PixelData, VR.OB, frame(0, 16 * FRAMES));
+        write(attrs, UID.ExplicitVRLittleEndian);
+
+        FrameOffsetIndex index = FrameOffsetIndex.build(file);
+        attrs.setString(Tag.PatientName, VR.PN, "Modified^Patient");
+        write(attrs, UID.ExplicitVRLittleEndian);
+        Assert.assertFalse(index.isValidFor(file));
+    }
+
+    @Test
+    public void testNoPixelData() throws IOException {
+        Attributes attrs = new Attributes();
+        attrs.setString(Tag.SOPClassUID, VR.UI, UID.BasicTextSRStorage);
+        attrs.setString(Tag.SOPInstanceUID, VR.UI, "1.2.3.4.6");
+        write(attrs, UID.ExplicitVRLittleEndian);
+
+        Assert.assertNull(FrameOffsetIndex.build(file));
+    }
+}
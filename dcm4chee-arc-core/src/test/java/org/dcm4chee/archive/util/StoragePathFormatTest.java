@@ -0,0 +1,112 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+package org.dcm4chee.archive.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.VR;
+import org.dcm4che3.util.AttributesFormat;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link StoragePathFormat}.
+ */
+public class StoragePathFormatTest {
+
+    private static final String PATTERN =
+            "{00080020,date,yyyy/MM/dd}/{0020000D,hash}/{0020000E,md5}/{00080018,hash}";
+
+    private static Attributes attrs(int i) {
+        Attributes attrs = new Attributes();
+        attrs.setString(Tag.StudyDate, VR.DA, "20151016");
+        attrs.setString(Tag.StudyInstanceUID, VR.UI, "1.2.3." + (i / 100));
+        attrs.setString(Tag.SeriesInstanceUID, VR.UI, "1.2.3.4." + (i / 10));
+        attrs.setString(Tag.SOPInstanceUID, VR.UI, "1.2.3.4.5." + i);
+        return attrs;
+    }
+
+    @Test
+    public void testFormatEqualsAttributesFormat() {
+        AttributesFormat expected = new AttributesFormat(PATTERN);
+        for (int i = 0; i < 100; i++) {
+            Attributes attrs = attrs(i);
+            Assert.assertEquals(expected.format(attrs),
+                    StoragePathFormat.format(PATTERN, attrs));
+        }
+    }
+
+    @Test
+    public void testConcurrentFormat() throws Exception {
+        final AttributesFormat expected = new AttributesFormat(PATTERN);
+        ExecutorService executor = Executors.newFixedThreadPool(16);
+        try {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (int t = 0; t < 16; t++) {
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        for (int i = 0; i < 1000; i++) {
+                            Attributes attrs = attrs(i);
+                            String path = StoragePathFormat.format(PATTERN, attrs);
+                            synchronized (expected) {
+                                Assert.assertEquals(expected.format(attrs), path);
+                            }
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> future : futures)
+                future.get();
+        } finally {
+            executor.shutdownNow();
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        }
+    }
+}
@@ -56,8 +56,12 @@ import org.dcm4che3.conf.core.api.ConfigurationException;
 import org.dcm4che3.net.ApplicationEntity;
 import org.dcm4che3.net.Device;
 import org.dcm4chee.archive.ArchiveService;
+import org.dcm4chee.archive.audit.AuditSpooler;
+import org.dcm4chee.archive.query.impl.QueryAttributesUpdater;
 import org.dcm4chee.archive.rs.HostAECache;
 import org.dcm4chee.archive.rs.HttpSource;
+import org.dcm4chee.archive.store.impl.StorageIOExecutor;
+import org.dcm4chee.archive.util.DecodedAttributesCache;
 import org.dcm4chee.storage.conf.StorageDeviceExtension;
 import org.dcm4chee.storage.conf.StorageSystem;
 import org.dcm4chee.storage.conf.StorageSystemGroup;
@@ -83,6 +87,18 @@ public class ArchiveCtrl {
     @Inject
     private javax.enterprise.inject.Instance<StorageSystemProvider> storageSystemProviders;
 
+    @Inject
+    private DecodedAttributesCache attributesCache;
+
+    @Inject
+    private AuditSpooler auditSpooler;
+
+    @Inject
+    private StorageIOExecutor storageIOExecutor;
+
+    @Inject
+    private QueryAttributesUpdater queryAttributesUpdater;
+
     @GET
     @Path("running")
     public String isRunning() {
@@ -112,6 +128,49 @@ public class ArchiveCtrl {
         return Response.status(Status.OK).build();
     }
 
+    @GET
+    @Path("/attributescache")
+    @Produces(MediaType.TEXT_PLAIN)
+    public String attributesCache() {
+        return "size=" + attributesCache.size()
+                + ", hits=" + attributesCache.getHits()
+                + ", misses=" + attributesCache.getMisses();
+    }
+
+    @GET
+    @Path("/auditspooler")
+    @Produces(MediaType.TEXT_PLAIN)
+    public String auditSpooler() {
+        return "queued=" + auditSpooler.getQueueSize()
+                + ", sent=" + auditSpooler.getSent()
+                + ", dropped=" + auditSpooler.getDropped()
+                + ", spilled=" + auditSpooler.getSpilled()
+                + String.format(", avgSendLatency=%.3fms, maxSendLatency=%.3fms",
+                        auditSpooler.getAverageSendLatency(),
+                        auditSpooler.getMaxSendLatency());
+    }
+
+    @GET
+    @Path("/storageio")
+    @Produces(MediaType.TEXT_PLAIN)
+    public String storageIO() {
+        StringBuilder sb = new StringBuilder();
+        for (String storageSystem : storageIOExecutor.getStorageSystems())
+            sb.append(storageSystem)
+                .append(": active=").append(storageIOExecutor.getActiveCount(storageSystem))
+                .append(", queued=").append(storageIOExecutor.getQueuedCount(storageSystem))
+                .append(", rejected=").append(storageIOExecutor.getRejectedCount(storageSystem))
+                .append('\n');
+        return sb.toString();
+    }
+
+    @GET
+    @Path("/queryattributes")
+    @Produces(MediaType.TEXT_PLAIN)
+    public String queryAttributes() {
+        return "pending=" + queryAttributesUpdater.getPendingCount();
+    }
+
     @GET
     @Path("/whoami")
     @Produces(MediaType.TEXT_HTML)
@@ -97,6 +97,9 @@ import org.dcm4chee.archive.dto.ActiveService;
     @NamedQuery(
             name=ActiveProcessing.DELETE_BY_STUDY_IUID_AND_SERVICE,
             query="DELETE FROM ActiveProcessing ap WHERE ap.studyInstanceUID = :uid AND ap.activeService = :service"),
+    @NamedQuery(
+            name=ActiveProcessing.DELETE_BY_SERIES_IUID_AND_SERVICE,
+            query="DELETE FROM ActiveProcessing ap WHERE ap.seriesInstanceUID = :uid AND ap.activeService = :service"),
     @NamedQuery(
             name=ActiveProcessing.DELETE_BY_SOP_IUIDs_AND_SERVICE,
             query="DELETE FROM ActiveProcessing ap WHERE ap.sopInstanceUID IN (:uidList) AND ap.activeService = :service"),
@@ -122,6 +125,7 @@ public class ActiveProcessing implements Serializable {
     public static final String FIND_BY_STUDY_IUID_AND_SERVICE = "ActiveProcessing.findByStudyInstanceUIDAndService";
 
     public static final String DELETE_BY_STUDY_IUID_AND_SERVICE = "ActiveProcessing.deleteByStudyInstanceUIDAndService";
+    public static final String DELETE_BY_SERIES_IUID_AND_SERVICE = "ActiveProcessing.deleteBySeriesInstanceUIDAndService";
     public static final String DELETE_BY_SOP_IUIDs_AND_SERVICE = "ActiveProcessing.deleteBySOPInstanceUIDsAndService";
 
     public static final String IS_STUDY_BEING_PROCESSED = "ActiveProcessing.isStudyBeingProcessed";
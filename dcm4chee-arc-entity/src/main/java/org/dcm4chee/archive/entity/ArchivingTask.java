@@ -68,7 +68,16 @@ import javax.persistence.TemporalType;
         name=ArchivingTask.FIND_READY_TO_ARCHIVE_BY_TIME,
         query="SELECT a FROM ArchivingTask a "
             + "WHERE a.archivingTime <= ?1 AND a.delayReasonCode IS NULL "
-            + "ORDER BY a.archivingTime")
+            + "ORDER BY a.archivingTime"),
+@NamedQuery(
+        name=ArchivingTask.FIND_PK_READY_TO_ARCHIVE_BY_TIME,
+        query="SELECT a.pk FROM ArchivingTask a "
+            + "WHERE a.archivingTime <= ?1 AND a.delayReasonCode IS NULL "
+            + "ORDER BY a.archivingTime"),
+@NamedQuery(
+        name=ArchivingTask.UPDATE_ARCHIVING_TIME_BY_SERIES_INSTANCE_UID,
+        query="UPDATE ArchivingTask a SET a.archivingTime = ?1 "
+            + "WHERE a.seriesInstanceUID = ?2 AND a.archivingTime < ?1")
     })
 @Entity
 @Table(name = "archiving_task")
@@ -82,6 +91,12 @@ public class ArchivingTask implements Serializable {
     public static final String FIND_READY_TO_ARCHIVE_BY_TIME =
             "ArchivingTask.findReadyToArchiveByTime";
 
+    public static final String FIND_PK_READY_TO_ARCHIVE_BY_TIME =
+            "ArchivingTask.findPkReadyToArchiveByTime";
+
+    public static final String UPDATE_ARCHIVING_TIME_BY_SERIES_INSTANCE_UID =
+            "ArchivingTask.updateArchivingTimeBySeriesInstanceUID";
+
     @Id
     @GeneratedValue(strategy=GenerationType.IDENTITY)
     @Column(name = "pk")
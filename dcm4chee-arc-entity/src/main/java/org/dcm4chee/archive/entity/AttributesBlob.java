@@ -50,6 +50,7 @@ import javax.persistence.GenerationType;
 import javax.persistence.Id;
 import javax.persistence.Table;
 import javax.persistence.Transient;
+import javax.persistence.Version;
 
 import org.dcm4che3.data.Attributes;
 
@@ -66,6 +67,10 @@ public class AttributesBlob implements Serializable {
     @GeneratedValue(strategy=GenerationType.IDENTITY)
     @Column(name = "pk")
     private long pk;
+
+    @Version
+    @Column(name = "version")
+    private long version;
     
     @Transient
     private Attributes cachedAttributes; 
@@ -74,6 +79,10 @@ public class AttributesBlob implements Serializable {
         return pk;
     }
 
+    public long getVersion() {
+        return version;
+    }
+
     public AttributesBlob(Attributes attrs) {
         setAttributes(attrs);
     }
@@ -86,7 +86,18 @@ import javax.persistence.Table;
                 name = Location.CALCULATE_SUM_DATA_VOLUME_PER_DAY,
                 query = "SELECT SUM(l.size) FROM Location l "
                         + "WHERE l.storageSystemGroupID = ?1 "
-                        + "AND l.createdTime >= ?2")
+                        + "AND l.createdTime >= ?2"),
+        @NamedQuery(
+                name = Location.UPDATE_DIGEST_VERIFIED_TIME,
+                query = "UPDATE Location l "
+                        + "SET l.digestVerifiedTime = ?1 "
+                        + "WHERE l.pk IN (?2)"),
+        @NamedQuery(
+                name = Location.UPDATE_STATUS,
+                query = "UPDATE Location l "
+                        + "SET l.status = ?1 "
+                        + "WHERE l.pk IN (?2) "
+                        + "AND l.status = ?3")
 })
 @Entity
 @Table(name = "location")
@@ -102,6 +113,10 @@ public class Location implements Serializable {
 
     public static final String CALCULATE_SUM_DATA_VOLUME_PER_DAY = "Location.calculateAverageDataVolumePerDay";;
 
+    public static final String UPDATE_DIGEST_VERIFIED_TIME = "Location.updateDigestVerifiedTime";
+
+    public static final String UPDATE_STATUS = "Location.updateStatus";
+
     public enum Status {
         OK, DELETE_FAILED, TO_ARCHIVE, ARCHIVED, ARCHIVE_FAILED, QUERY_FAILED, VERIFY_FAILED
     }
@@ -151,6 +166,10 @@ public class Location implements Serializable {
     @Column(name = "otherAttsDigest", updatable = false)
     private String otherAttsDigest;
     
+    @Basic(optional = true)
+    @Column(name = "digest_verified_time", updatable = true)
+    private Date digestVerifiedTime;
+
     @Basic(optional = false)
     @Enumerated(EnumType.ORDINAL)
     @Column(name = "status", updatable = true)
@@ -305,6 +324,18 @@ public class Location implements Serializable {
         return otherAttsDigest;
     }
     
+    /**
+     * @return time when the digest of the object was last verified against
+     *         the stored object, or {@code null} if it was never verified
+     */
+    public Date getDigestVerifiedTime() {
+        return digestVerifiedTime;
+    }
+
+    public void setDigestVerifiedTime(Date digestVerifiedTime) {
+        this.digestVerifiedTime = digestVerifiedTime;
+    }
+
     public Status getStatus() {
         return status;
     }
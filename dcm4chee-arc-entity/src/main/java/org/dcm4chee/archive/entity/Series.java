@@ -98,6 +98,13 @@ import java.util.GregorianCalendar;
             + "s.attributesBlob.encodedAttributes, "
             + "s.study.attributesBlob.encodedAttributes, "
             + "s.study.patient.attributesBlob.encodedAttributes) "
+            + "FROM Series s WHERE s.pk = ?1"),
+@NamedQuery(
+    name=Series.PATIENT_STUDY_SERIES_VERSIONS,
+    query="SELECT s.study.patient.version, s.study.version, s.version, "
+            + "s.study.patient.attributesBlob.version, "
+            + "s.study.attributesBlob.version, "
+            + "s.attributesBlob.version "
             + "FROM Series s WHERE s.pk = ?1")
 })
 @Entity
@@ -114,6 +121,8 @@ public class Series implements Serializable {
 
     public static final String PATIENT_STUDY_SERIES_ATTRIBUTES = "Series.patientStudySeriesAttributes";
 
+    public static final String PATIENT_STUDY_SERIES_VERSIONS = "Series.patientStudySeriesVersions";
+
     public static final String FIND_BY_STUDY_INSTANCE_UID_AND_SOURCE_AET = "Series.findByStudyInstanceUIDAndSourceAET";
 
     public static final String FIND_BY_SERIES_INSTANCE_UID_FETCH_REQ_ATTRS = "Series.findBySeriesInstanceUIDFetchReqAttrs";
@@ -40,13 +40,12 @@
 
 package org.dcm4chee.archive.fetch.forward;
 
-import org.dcm4che3.net.Device;
 import org.dcm4chee.archive.api.FetchService;
+import org.dcm4chee.archive.fetch.forward.impl.AsyncFetchExecutor;
 
 import javax.ejb.EJB;
 import javax.ejb.Stateless;
 import javax.inject.Inject;
-import java.io.IOException;
 import java.nio.file.Path;
 import java.util.concurrent.Future;
 
@@ -60,38 +59,28 @@ import java.util.concurrent.Future;
  *
  * Once an instance or series is requested, the whole study is fetched implicitly in the background.
  *
+ * The fetch is run by the {@link AsyncFetchExecutor}, so the caller does not
+ * wait for it.
  */
 @EJB(name = FetchService.JNDI_NAME, beanInterface = FetchService.class)
 @Stateless
 public class AsyncFetchServiceBean implements FetchService {
 
-
     @Inject
-    Device device;
+    private AsyncFetchExecutor executor;
 
     @Override
     public FetchProgress fetchStudyAsync(String studyUID) {
-
-        // handle not existent
-        // handle already available
-
-        throw new RuntimeException("not implemented");
+        return executor.fetchStudyAsync(studyUID);
     }
 
     @Override
     public FetchProgress fetchSeriesAsync(String seriesUID) {
-
-        // handle not existent
-        // handle already available
-        throw new RuntimeException("not implemented");
+        return executor.fetchSeriesAsync(seriesUID);
     }
 
     @Override
     public Future<Path> fetchInstanceAsync(String sopIUID) {
-
-        // handle not existent
-        // handle already available
-
-        throw new RuntimeException("not implemented");
+        return executor.fetchInstanceAsync(sopIUID);
     }
 }
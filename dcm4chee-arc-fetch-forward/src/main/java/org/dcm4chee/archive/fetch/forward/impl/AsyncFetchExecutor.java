@@ -0,0 +1,230 @@
+/*
+ * *** BEGIN LICENSE BLOCK *****
+ *  Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ *  The contents of this file are subject to the Mozilla Public License Version
+ *  1.1 (the "License"); you may not use this file except in compliance with
+ *  the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ *  Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ *  The Initial Developer of the Original Code is
+ *  Agfa Healthcare.
+ *  Portions created by the Initial Developer are Copyright (C) 2015
+ *  the Initial Developer. All Rights Reserved.
+ *
+ *  Contributor(s):
+ *  See @authors listed below
+ *
+ *  Alternatively, the contents of this file may be used under the terms of
+ *  either the GNU General Public License Version 2 or later (the "GPL"), or
+ *  the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ *  in which case the provisions of the GPL or the LGPL are applicable instead
+ *  of those above. If you wish to allow use of your version of this file only
+ *  under the terms of either the GPL or the LGPL, and not to allow others to
+ *  use your version of this file under the terms of the MPL, indicate your
+ *  decision by deleting the provisions above and replace them with the notice
+ *  and other provisions required by the GPL or the LGPL. If you do not delete
+ *  the provisions above, a recipient may use your version of this file under
+ *  the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ *  ***** END LICENSE BLOCK *****
+ */
+
+package org.dcm4chee.archive.fetch.forward.impl;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+
+import org.dcm4che3.net.ApplicationEntity;
+import org.dcm4che3.net.Device;
+import org.dcm4che3.net.QueryOption;
+import org.dcm4chee.archive.api.FetchService.FetchProgress;
+import org.dcm4chee.archive.api.FetchService.FetchResult;
+import org.dcm4chee.archive.conf.ArchiveAEExtension;
+import org.dcm4chee.archive.conf.ArchiveDeviceExtension;
+import org.dcm4chee.archive.conf.QueryParam;
+import org.dcm4chee.archive.dto.ArchiveInstanceLocator;
+import org.dcm4chee.archive.fetch.forward.FetchForwardService;
+import org.dcm4chee.archive.retrieve.RetrieveService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs the fetches requested by
+ * {@link org.dcm4chee.archive.fetch.forward.AsyncFetchServiceBean} on threads
+ * of the device executor, so the caller does not wait for them. The
+ * instances are fetched by the {@link FetchForwardService}, which fetches
+ * them by WADO-RS on a bounded worker pool.
+ * <p>
+ * The tasks are owned by this application scoped bean, and not by the
+ * stateless session bean, whose instances are pooled by the container and
+ * must not be used by other threads after the invocation returned.
+ */
+@ApplicationScoped
+public class AsyncFetchExecutor {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AsyncFetchExecutor.class);
+
+    @Inject
+    private Device device;
+
+    @Inject
+    private RetrieveService retrieveService;
+
+    @Inject
+    private FetchForwardService fetchForwardService;
+
+    @Inject
+    private org.dcm4chee.storage.service.RetrieveService storageRetrieveService;
+
+    public FetchProgress fetchStudyAsync(final String studyUID) {
+        return progressOf(submit(new Callable<FetchResult>() {
+            @Override
+            public FetchResult call() throws Exception {
+                fetch(studyUID, null, null);
+                return new Result(studyUID);
+            }
+        }));
+    }
+
+    public FetchProgress fetchSeriesAsync(final String seriesUID) {
+        return progressOf(submit(new Callable<FetchResult>() {
+            @Override
+            public FetchResult call() throws Exception {
+                String studyUID = fetch(null, seriesUID, null).get(0).getStudyInstanceUID();
+                fetchStudyInBackground(studyUID);
+                return new Result(studyUID);
+            }
+        }));
+    }
+
+    public Future<Path> fetchInstanceAsync(final String sopIUID) {
+        return submit(new Callable<Path>() {
+            @Override
+            public Path call() throws Exception {
+                ArchiveInstanceLocator inst = fetch(null, null, sopIUID).get(0);
+                fetchStudyInBackground(inst.getStudyInstanceUID());
+                return getFile(inst);
+            }
+        });
+    }
+
+    private <T> Future<T> submit(Callable<T> task) {
+        FutureTask<T> future = new FutureTask<T>(task);
+        device.getExecutor().execute(future);
+        return future;
+    }
+
+    private void fetchStudyInBackground(final String studyUID) {
+        submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                try {
+                    fetch(studyUID, null, null);
+                } catch (Exception e) {
+                    LOG.warn("Failed to fetch remaining instances of Study {}:",
+                            studyUID, e);
+                }
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Fetches the instances, which are not available from a local Storage
+     * System, from external archives and returns the locators of all matching
+     * instances.
+     */
+    private List<ArchiveInstanceLocator> fetch(String studyUID, String seriesUID,
+            String sopIUID) throws IOException {
+        String localAET = device.getDeviceExtension(ArchiveDeviceExtension.class)
+                .getDefaultAETitle();
+        ApplicationEntity localAE = device.getApplicationEntity(localAET);
+        if (localAE == null)
+            throw new IOException("No such AE: " + localAET);
+
+        QueryParam queryParam = localAE.getAEExtension(ArchiveAEExtension.class)
+                .getQueryParam(EnumSet.noneOf(QueryOption.class), new String[0]);
+        List<ArchiveInstanceLocator> matches = retrieveService.calculateMatches(
+                studyUID, seriesUID, sopIUID, queryParam, false);
+        if (matches.isEmpty())
+            throw new IOException("No matching instances for Study[uid=" + studyUID
+                    + "], Series[uid=" + seriesUID + "], Instance[uid=" + sopIUID + "]");
+
+        ArrayList<ArchiveInstanceLocator> available = new ArrayList<ArchiveInstanceLocator>(matches.size());
+        ArrayList<ArchiveInstanceLocator> external = new ArrayList<ArchiveInstanceLocator>();
+        for (ArchiveInstanceLocator match : matches) {
+            if (match.getStorageSystem() != null)
+                available.add(match);
+            else
+                external.add(match);
+        }
+        if (!external.isEmpty()) {
+            LOG.info("Fetch {} of {} instances from external archives",
+                    external.size(), matches.size());
+            int count = external.size();
+            // replaces the external locators by the locators of the fetched instances
+            List<ArchiveInstanceLocator> failed =
+                    fetchForwardService.fetchForward(localAET, external, null, null);
+            if (!failed.isEmpty())
+                throw new IOException("Failed to fetch " + failed.size()
+                        + " of " + count + " instances from external archives");
+            available.addAll(external);
+        }
+        return available;
+    }
+
+    private Path getFile(ArchiveInstanceLocator inst) throws IOException {
+        org.dcm4chee.storage.RetrieveContext ctx = storageRetrieveService
+                .createRetrieveContext(inst.getStorageSystem());
+        try {
+            return inst.getEntryName() == null
+                    ? storageRetrieveService.getFile(ctx, inst.getFilePath())
+                    : storageRetrieveService.getFile(ctx, inst.getFilePath(),
+                            inst.getEntryName());
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        }
+    }
+
+    private static FetchProgress progressOf(final Future<FetchResult> future) {
+        return new FetchProgress() {
+            @Override
+            public Future<FetchResult> getFuture() {
+                return future;
+            }
+        };
+    }
+
+    private static final class Result implements FetchResult {
+
+        private final String studyUID;
+
+        Result(String studyUID) {
+            this.studyUID = studyUID;
+        }
+
+        @Override
+        public String getStudyUID() {
+            return studyUID;
+        }
+    }
+}
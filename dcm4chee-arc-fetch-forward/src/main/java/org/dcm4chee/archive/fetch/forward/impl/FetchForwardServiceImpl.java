@@ -46,9 +46,15 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
 
 import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
@@ -78,8 +84,6 @@ import org.dcm4chee.archive.fetch.forward.FetchForwardEJB;
 import org.dcm4chee.archive.fetch.forward.FetchForwardService;
 import org.dcm4chee.archive.retrieve.RetrieveService;
 import org.dcm4chee.archive.retrieve.scu.CMoveSCUService;
-import org.dcm4chee.archive.wado.client.InstanceAvailableCallback;
-import org.dcm4chee.archive.wado.client.WadoClientService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -107,7 +111,7 @@ public class FetchForwardServiceImpl implements FetchForwardService {
     private FetchForwardEJB ejb;
 
     @Inject
-    private WadoClientService wadoClientService;
+    private WadoFetchExecutor wadoFetchExecutor;
 
     @Inject
     private DicomConfiguration config;
@@ -219,94 +223,40 @@ public class FetchForwardServiceImpl implements FetchForwardService {
             List<ArchiveInstanceLocator> externallyAvailable, 
             final FetchForwardCallBack wadoFetchCallBack, 
             final FetchForwardCallBack moveFetchCallBack) {
-        ArrayList<String> sentInstances = new ArrayList<String>();
         final ArrayList<ArchiveInstanceLocator> failedInstances = new ArrayList<ArchiveInstanceLocator>();
         ApplicationEntity localAE = device.getApplicationEntity(localAETitle);
         final HashMap<ArchiveInstanceLocator, ArrayList<ApplicationEntity>> instanceRetrieveMap = new HashMap<ArchiveInstanceLocator, ArrayList<ApplicationEntity>>();
+        final LinkedHashMap<ArchiveInstanceLocator, List<ApplicationEntity>> wadoRetrieveMap = new LinkedHashMap<ArchiveInstanceLocator, List<ApplicationEntity>>();
         final ArrayList<ArchiveInstanceLocator> updatedLocators = new ArrayList<ArchiveInstanceLocator>();
-        for (int current = 0; current < externallyAvailable.size(); current++) {
-            final ArchiveInstanceLocator externalLoc = externallyAvailable
-                    .get(current);
-            
-            if(sentInstances.contains(externalLoc.iuid))
-                continue;
-            
-            ArrayList<ApplicationEntity> remoteArchiveAEs = listBestExternalLocation(externalLoc, localAE);
-            if (remoteArchiveAEs.isEmpty())
-                continue;
-            // collect retrieveMap
-            instanceRetrieveMap.put(externalLoc, remoteArchiveAEs);
-            for (int i = 0; i < remoteArchiveAEs.size(); i++) {
-                //pick protocol
-                WebServiceAEExtension webAEExt = remoteArchiveAEs.get(i).getAEExtension(WebServiceAEExtension.class);
-                if(webAEExt != null && webAEExt.getWadoRSBaseURL()!=null) {
-                if (wadoClientService.fetchInstance(
-                        localAE,
-                        remoteArchiveAEs.get(i),
-                        externalLoc.getStudyInstanceUID(),
-                        externalLoc.getSeriesInstanceUID(), 
-                        externalLoc.iuid,
-                        new InstanceAvailableCallback() {
-
-                            @Override
-                            public void onInstanceAvailable(
-                                    ArchiveInstanceLocator inst) {
-                                ArrayList<ArchiveInstanceLocator> matches
-                                = new ArrayList<ArchiveInstanceLocator>();
-                                matches.add(inst);
-                                if(wadoFetchCallBack != null)
-                                wadoFetchCallBack.onFetch(matches, null);
-                                updatedLocators.add(inst);
-                            }
-                        }) != null)
-                    break;
-            }
-                else {
-                    ApplicationEntity fetchAE;
-                    try {
-                        fetchAE = getFetchAE(localAE);
-                    } catch (ConfigurationException e) {
-                        LOG.error("Unable to get fetchAE from configuration for device {}",
-                                device);
-                        
-                        for(ArchiveInstanceLocator loc : externallyAvailable)
-                        failedInstances.add(loc);
-                        
-                        return failedInstances;
-                    }
-                    HashMap<String, Integer> studyUIDs = toStudyUIDs(instanceRetrieveMap
-                            .keySet());
-                    for (String studyUID : studyUIDs.keySet()) {
-                        cmoveSCUService
-                                .moveStudy(
-                                        fetchAE,
-                                        studyUID,
-                                        studyUIDs.get(studyUID),
-                                        null,
-                                        getPreferedStudyLocationsList(instanceRetrieveMap,
-                                                studyUID), fetchAE.getAETitle());
-                    }
-                    for(Iterator<ArchiveInstanceLocator> iter = externallyAvailable.iterator(); iter.hasNext();) {
-                        ArchiveInstanceLocator currentLocation = iter.next();
-                        ArchiveInstanceLocator newLocator = ejb.updateLocator(currentLocation);
-                        if(newLocator != null)
-                            updatedLocators.add(newLocator);
-                        else 
-                            failedInstances.add(currentLocation);
-                    }
-                    //send fetched instances
-                    if(moveFetchCallBack != null)
-                    moveFetchCallBack.onFetch(updatedLocators, null);
-                    for(ArchiveInstanceLocator loc : updatedLocators)
-                    sentInstances.add(loc.iuid);
-                    break;
-                }
+        collectRetrieveMaps(externallyAvailable, localAE, instanceRetrieveMap, wadoRetrieveMap);
+
+        ArrayList<ArchiveInstanceLocator> wadoFailed = fetchUsingWado(localAE,
+                wadoRetrieveMap, null, null, wadoFetchCallBack, updatedLocators);
+        HashMap<ArchiveInstanceLocator, ArrayList<ApplicationEntity>> moveRetrieveMap =
+                toMoveRetrieveMap(instanceRetrieveMap, wadoRetrieveMap, wadoFailed, failedInstances);
+        if (!moveRetrieveMap.isEmpty()) {
+            ApplicationEntity fetchAE;
+            try {
+                fetchAE = getFetchAE(localAE);
+            } catch (ConfigurationException e) {
+                LOG.error("Unable to get fetchAE from configuration for device {}",
+                        device);
+                failedInstances.addAll(moveRetrieveMap.keySet());
+                externallyAvailable.clear();
+                externallyAvailable.addAll(updatedLocators);
+                return failedInstances;
             }
+            ArrayList<ArchiveInstanceLocator> movedLocators = moveStudies(
+                    fetchAE, moveRetrieveMap, failedInstances);
+            //send fetched instances
+            if(moveFetchCallBack != null)
+                moveFetchCallBack.onFetch(movedLocators, null);
+            updatedLocators.addAll(movedLocators);
         }
         externallyAvailable.clear();
-         externallyAvailable.addAll(updatedLocators);
+        externallyAvailable.addAll(updatedLocators);
         return failedInstances;
-        }
+    }
 
 
     @Override
@@ -314,40 +264,10 @@ public class FetchForwardServiceImpl implements FetchForwardService {
             String localAETitle,
             List<ArchiveInstanceLocator> externallyAvailable,
             final FetchForwardCallBack callBack) {
-        final ArrayList<ArchiveInstanceLocator> failedInstances = new ArrayList<ArchiveInstanceLocator>();
         ApplicationEntity localAE = device.getApplicationEntity(localAETitle);
-        for(int current = 0; current < externallyAvailable.size(); current++) {
-            final ArchiveInstanceLocator externalLoc = externallyAvailable
-                    .get(current);
-            ArrayList<ApplicationEntity> remoteArchiveAETitles = 
-                    listBestExternalLocation(externalLoc, localAE);
-            if(remoteArchiveAETitles.isEmpty())
-                continue;
-            for (int i = 0; i < remoteArchiveAETitles.size(); i++) {
-                if (wadoClientService.fetchInstance(
-                        localAE,
-                        remoteArchiveAETitles.get(i),
-                        externalLoc.getStudyInstanceUID(),
-                        externalLoc.getSeriesInstanceUID(), 
-                        externalLoc.iuid,
-                        new InstanceAvailableCallback() {
-
-                            @Override
-                            public void onInstanceAvailable(
-                                    ArchiveInstanceLocator inst) {
-                                ArrayList<ArchiveInstanceLocator> matches
-                                = new ArrayList<ArchiveInstanceLocator>();
-                                matches.add(inst);
-                                if(inst.getStorageSystem() != null)
-                                    callBack.onFetch(matches, null);
-                                else
-                                    failedInstances.add(inst);
-                            }
-                        }) != null)
-                    break;
-            }
-    }
-        return failedInstances;
+        return fetchUsingWado(localAE,
+                toWadoRetrieveMap(externallyAvailable, localAE),
+                null, null, callBack, null);
     }
 
 
@@ -356,37 +276,10 @@ public class FetchForwardServiceImpl implements FetchForwardService {
             final int allInstances, final BasicCStoreSCUResp finalResponse, final List<ArchiveInstanceLocator> externallyAvailable,
             final Association storeas, final int priority, final FetchForwardCallBack callBack) {
         ApplicationEntity localAE = device.getApplicationEntity(storeas.getLocalAET());
-        for(int current = 0; current < externallyAvailable.size(); current++) {
-            if(storeas.isReadyForDataTransfer()) {
-            final ArchiveInstanceLocator externalLoc = externallyAvailable
-                    .get(current);
-            ArrayList<ApplicationEntity> remoteArchiveAETitles = 
-                    listBestExternalLocation(externalLoc, localAE);
-            if(remoteArchiveAETitles.isEmpty())
-                continue;
-            for (int i = 0; i < remoteArchiveAETitles.size(); i++) {
-                if (wadoClientService.fetchInstance(
-                        localAE,
-                        remoteArchiveAETitles.get(i),
-                        externalLoc.getStudyInstanceUID(),
-                        externalLoc.getSeriesInstanceUID(), 
-                        externalLoc.iuid,
-                        new InstanceAvailableCallback() {
-
-                            @Override
-                            public void onInstanceAvailable(
-                                    ArchiveInstanceLocator inst) {
-                                ArrayList<ArchiveInstanceLocator> matches
-                                = new ArrayList<ArchiveInstanceLocator>();
-                                matches.add(inst);
-                                callBack.onFetch(matches, finalResponse);
-                            }
-                        }) != null)
-                    break;
-            }
-        }
-        }
-
+        if(storeas.isReadyForDataTransfer())
+            fetchUsingWado(localAE,
+                    toWadoRetrieveMap(externallyAvailable, localAE),
+                    storeas, finalResponse, callBack, null);
         return finalResponse;
     }
 
@@ -396,82 +289,199 @@ public class FetchForwardServiceImpl implements FetchForwardService {
             final Association storeas, final int priority, final FetchForwardCallBack wadoFetchCallBack, 
             final FetchForwardCallBack moveFetchCallBack) {
         final HashMap<ArchiveInstanceLocator, ArrayList<ApplicationEntity>> instanceRetrieveMap = new HashMap<ArchiveInstanceLocator, ArrayList<ApplicationEntity>>();
-        ArrayList<String> sentInstances = new ArrayList<String>();
+        final LinkedHashMap<ArchiveInstanceLocator, List<ApplicationEntity>> wadoRetrieveMap = new LinkedHashMap<ArchiveInstanceLocator, List<ApplicationEntity>>();
         ApplicationEntity localAE = device.getApplicationEntity(storeas.getLocalAET());
-        for(int current = 0; current < externallyAvailable.size(); current++) {
-            if(storeas.isReadyForDataTransfer()) {
-            final ArchiveInstanceLocator externalLoc = externallyAvailable.get(current);
-            
-            if(sentInstances.contains(externalLoc.iuid))
+        if(!storeas.isReadyForDataTransfer())
+            return finalResponse;
+
+        collectRetrieveMaps(externallyAvailable, localAE, instanceRetrieveMap, wadoRetrieveMap);
+        ArrayList<ArchiveInstanceLocator> wadoFailed = fetchUsingWado(localAE,
+                wadoRetrieveMap, storeas, finalResponse, wadoFetchCallBack, null);
+        HashMap<ArchiveInstanceLocator, ArrayList<ApplicationEntity>> moveRetrieveMap =
+                toMoveRetrieveMap(instanceRetrieveMap, wadoRetrieveMap, wadoFailed,
+                        new ArrayList<ArchiveInstanceLocator>());
+        if (!moveRetrieveMap.isEmpty() && storeas.isReadyForDataTransfer()) {
+            ApplicationEntity fetchAE;
+            try {
+                fetchAE = getFetchAE(localAE);
+            } catch (ConfigurationException e) {
+                LOG.error("Unable to get fetchAE from configuration for device {}",
+                        device);
+                return finalResponse;
+            }
+            ArrayList<ArchiveInstanceLocator> movedLocators = moveStudies(
+                    fetchAE, moveRetrieveMap, new ArrayList<ArchiveInstanceLocator>());
+            //send fetched instances
+            moveFetchCallBack.onFetch(movedLocators, finalResponse);
+        }
+        return finalResponse;
+    }
+
+    /**
+     * Collects the external archive AEs of each instance, and - separately -
+     * the leading AEs which provide WADO-RS, by which the instance is fetched
+     * preferably. Each instance is only considered once.
+     */
+    private void collectRetrieveMaps(List<ArchiveInstanceLocator> externallyAvailable,
+            ApplicationEntity localAE,
+            HashMap<ArchiveInstanceLocator, ArrayList<ApplicationEntity>> instanceRetrieveMap,
+            LinkedHashMap<ArchiveInstanceLocator, List<ApplicationEntity>> wadoRetrieveMap) {
+        HashSet<String> iuids = new HashSet<String>();
+        for (ArchiveInstanceLocator externalLoc : externallyAvailable) {
+            if (!iuids.add(externalLoc.iuid))
                 continue;
-            
-            ArrayList<ApplicationEntity> remoteArchiveAEs = 
-                    listBestExternalLocation(externalLoc, localAE);
-            if(remoteArchiveAEs.isEmpty())
+
+            ArrayList<ApplicationEntity> remoteArchiveAEs = listBestExternalLocation(externalLoc, localAE);
+            if (remoteArchiveAEs.isEmpty())
                 continue;
 
             instanceRetrieveMap.put(externalLoc, remoteArchiveAEs);
-            for (int i = 0; i < remoteArchiveAEs.size(); i++) {
-                //pick protocol
-                WebServiceAEExtension webAEExt = remoteArchiveAEs.get(i).getAEExtension(WebServiceAEExtension.class);
-                if(webAEExt != null && webAEExt.getWadoRSBaseURL()!=null) {
-                if (wadoClientService.fetchInstance(
-                        localAE,
-                        remoteArchiveAEs.get(i),
-                        externalLoc.getStudyInstanceUID(),
-                        externalLoc.getSeriesInstanceUID(), 
-                        externalLoc.iuid,
-                        new InstanceAvailableCallback() {
-
-                            @Override
-                            public void onInstanceAvailable(
-                                    ArchiveInstanceLocator inst) {
-                                ArrayList<ArchiveInstanceLocator> matches = new ArrayList<ArchiveInstanceLocator>();
-                                matches.add(inst);
-                                wadoFetchCallBack.onFetch(matches, finalResponse);
-                            }
-                        }) != null)
-                    break;
-            }
-                else {
-                    ApplicationEntity fetchAE;
-                    try {
-                        fetchAE = getFetchAE(localAE);
-                    } catch (ConfigurationException e) {
-                        LOG.error("Unable to get fetchAE from configuration for device {}",
-                                device);
-                        return finalResponse;
-                    }
-                    HashMap<String, Integer> studyUIDs = toStudyUIDs(instanceRetrieveMap
-                            .keySet());
-                    for (String studyUID : studyUIDs.keySet()) {
-                        cmoveSCUService
-                                .moveStudy(
-                                        fetchAE,
-                                        studyUID,
-                                        studyUIDs.get(studyUID),
-                                        null,
-                                        getPreferedStudyLocationsList(instanceRetrieveMap,
-                                                studyUID), fetchAE.getAETitle());
-                    }
-                    ArrayList<ArchiveInstanceLocator> updatedLocators = new ArrayList<ArchiveInstanceLocator>(); 
-                    for(Iterator<ArchiveInstanceLocator> iter = externallyAvailable.iterator(); iter.hasNext();) {
-                        ArchiveInstanceLocator newLocator = ejb.updateLocator(iter.next());
-                        if(newLocator != null)
-                            updatedLocators.add(newLocator);
-                    }
-                    //send fetched instances
-                    moveFetchCallBack.onFetch(updatedLocators, finalResponse);
+            int wadoAEs = 0;
+            while (wadoAEs < remoteArchiveAEs.size()
+                    && supportsWadoRS(remoteArchiveAEs.get(wadoAEs)))
+                wadoAEs++;
+            if (wadoAEs > 0)
+                wadoRetrieveMap.put(externalLoc, remoteArchiveAEs.subList(0, wadoAEs));
+        }
+    }
+
+    private LinkedHashMap<ArchiveInstanceLocator, List<ApplicationEntity>> toWadoRetrieveMap(
+            List<ArchiveInstanceLocator> externallyAvailable, ApplicationEntity localAE) {
+        LinkedHashMap<ArchiveInstanceLocator, List<ApplicationEntity>> wadoRetrieveMap =
+                new LinkedHashMap<ArchiveInstanceLocator, List<ApplicationEntity>>();
+        HashSet<String> iuids = new HashSet<String>();
+        for (ArchiveInstanceLocator externalLoc : externallyAvailable) {
+            if (!iuids.add(externalLoc.iuid))
+                continue;
+
+            ArrayList<ApplicationEntity> remoteArchiveAEs = listBestExternalLocation(externalLoc, localAE);
+            if (!remoteArchiveAEs.isEmpty())
+                wadoRetrieveMap.put(externalLoc, remoteArchiveAEs);
+        }
+        return wadoRetrieveMap;
+    }
+
+    /**
+     * Returns the instances to fetch by C-MOVE: those without an external
+     * archive AE supporting WADO-RS, and those which failed to be fetched by
+     * WADO-RS but are also provided by an external archive AE without WADO-RS
+     * support. The remaining WADO-RS failures are added to the failed
+     * instances.
+     */
+    private HashMap<ArchiveInstanceLocator, ArrayList<ApplicationEntity>> toMoveRetrieveMap(
+            HashMap<ArchiveInstanceLocator, ArrayList<ApplicationEntity>> instanceRetrieveMap,
+            LinkedHashMap<ArchiveInstanceLocator, List<ApplicationEntity>> wadoRetrieveMap,
+            List<ArchiveInstanceLocator> wadoFailed,
+            List<ArchiveInstanceLocator> failedInstances) {
+        HashMap<ArchiveInstanceLocator, ArrayList<ApplicationEntity>> moveRetrieveMap =
+                new HashMap<ArchiveInstanceLocator, ArrayList<ApplicationEntity>>();
+        for (Map.Entry<ArchiveInstanceLocator, ArrayList<ApplicationEntity>> entry
+                : instanceRetrieveMap.entrySet()) {
+            if (!wadoRetrieveMap.containsKey(entry.getKey()))
+                moveRetrieveMap.put(entry.getKey(), entry.getValue());
+        }
+        for (ArchiveInstanceLocator externalLoc : wadoFailed) {
+            ArrayList<ApplicationEntity> remoteArchiveAEs = instanceRetrieveMap.get(externalLoc);
+            if (remoteArchiveAEs.size() > wadoRetrieveMap.get(externalLoc).size())
+                moveRetrieveMap.put(externalLoc, remoteArchiveAEs);
+            else
+                failedInstances.add(externalLoc);
+        }
+        return moveRetrieveMap;
+    }
 
-                    for (ArchiveInstanceLocator loc : updatedLocators)
-                        sentInstances.add(loc.iuid);
-                    break;
+    private ArrayList<ArchiveInstanceLocator> moveStudies(ApplicationEntity fetchAE,
+            HashMap<ArchiveInstanceLocator, ArrayList<ApplicationEntity>> moveRetrieveMap,
+            List<ArchiveInstanceLocator> failedInstances) {
+        HashMap<String, Integer> studyUIDs = toStudyUIDs(moveRetrieveMap.keySet());
+        for (String studyUID : studyUIDs.keySet()) {
+            cmoveSCUService
+                    .moveStudy(
+                            fetchAE,
+                            studyUID,
+                            studyUIDs.get(studyUID),
+                            null,
+                            getPreferedStudyLocationsList(moveRetrieveMap,
+                                    studyUID), fetchAE.getAETitle());
+        }
+        ArrayList<ArchiveInstanceLocator> updatedLocators = new ArrayList<ArchiveInstanceLocator>();
+        for (ArchiveInstanceLocator current : moveRetrieveMap.keySet()) {
+            ArchiveInstanceLocator newLocator = ejb.updateLocator(current);
+            if(newLocator != null)
+                updatedLocators.add(newLocator);
+            else
+                failedInstances.add(current);
+        }
+        return updatedLocators;
+    }
+
+    /**
+     * Submits the WADO-RS fetches of all given instances to the
+     * {@link WadoFetchExecutor} at once, and passes each fetched instance to
+     * the callback as soon as it is available - in the order of completion,
+     * not in the order of the request. Stops passing fetched instances if the
+     * association is no longer ready for data transfer.
+     * 
+     * @return the instances which could not be fetched
+     */
+    private ArrayList<ArchiveInstanceLocator> fetchUsingWado(ApplicationEntity localAE,
+            Map<ArchiveInstanceLocator, ? extends List<ApplicationEntity>> wadoRetrieveMap,
+            Association storeas, BasicCStoreSCUResp resp, FetchForwardCallBack callBack,
+            List<ArchiveInstanceLocator> fetched) {
+        ArrayList<ArchiveInstanceLocator> failedInstances = new ArrayList<ArchiveInstanceLocator>();
+        LinkedBlockingQueue<WadoFetchExecutor.Fetch> completed =
+                new LinkedBlockingQueue<WadoFetchExecutor.Fetch>();
+        HashMap<String, ArchiveInstanceLocator> pending = new HashMap<String, ArchiveInstanceLocator>();
+        for (Map.Entry<ArchiveInstanceLocator, ? extends List<ApplicationEntity>> entry
+                : wadoRetrieveMap.entrySet()) {
+            ArchiveInstanceLocator externalLoc = entry.getKey();
+            if (pending.put(externalLoc.iuid, externalLoc) == null)
+                wadoFetchExecutor.fetch(localAE, externalLoc, entry.getValue(), completed);
+        }
+        try {
+            while (!pending.isEmpty()
+                    && (storeas == null || storeas.isReadyForDataTransfer())) {
+                WadoFetchExecutor.Fetch fetch = completed.take();
+                ArchiveInstanceLocator externalLoc = pending.remove(
+                        fetch.getExternalLocator().iuid);
+                ArchiveInstanceLocator inst = fetchResultOf(fetch);
+                if (inst == null || inst.getStorageSystem() == null) {
+                    failedInstances.add(externalLoc);
+                    continue;
+                }
+                if (fetched != null)
+                    fetched.add(inst);
+                if (callBack != null) {
+                    ArrayList<ArchiveInstanceLocator> matches = new ArrayList<ArchiveInstanceLocator>();
+                    matches.add(inst);
+                    callBack.onFetch(matches, resp);
                 }
             }
+        } catch (InterruptedException e) {
+            LOG.warn("Interrupted while waiting for {} instances fetched by WADO-RS",
+                    pending.size());
+            Thread.currentThread().interrupt();
         }
+        failedInstances.addAll(pending.values());
+        return failedInstances;
+    }
+
+    private static ArchiveInstanceLocator fetchResultOf(WadoFetchExecutor.Fetch fetch)
+            throws InterruptedException {
+        try {
+            return fetch.get();
+        } catch (ExecutionException e) {
+            LOG.warn("Failed to fetch instance {}:",
+                    fetch.getExternalLocator().iuid, e.getCause());
+            return null;
+        } catch (CancellationException e) {
+            return null;
         }
+    }
 
-        return finalResponse;
+    private static boolean supportsWadoRS(ApplicationEntity ae) {
+        WebServiceAEExtension webAEExt = ae.getAEExtension(WebServiceAEExtension.class);
+        return webAEExt != null && webAEExt.getWadoRSBaseURL() != null;
     }
 
     @Override
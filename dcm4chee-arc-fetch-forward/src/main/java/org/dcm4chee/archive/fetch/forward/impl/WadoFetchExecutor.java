@@ -0,0 +1,328 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2014
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.fetch.forward.impl;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+
+import org.dcm4che3.net.ApplicationEntity;
+import org.dcm4che3.net.Device;
+import org.dcm4chee.archive.conf.ArchiveDeviceExtension;
+import org.dcm4chee.archive.dto.ArchiveInstanceLocator;
+import org.dcm4chee.archive.util.BoundedExecutor;
+import org.dcm4chee.archive.wado.client.InstanceAvailableCallback;
+import org.dcm4chee.archive.wado.client.WadoClientService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Fetches instances from external archives by WADO-RS on a bounded number of
+ * threads of the device executor. The number of concurrent fetches from one
+ * external archive AE is limited separately - also for the AEs tried after
+ * the first one failed. A fetch only takes a thread after it got a slot of
+ * its AE, so fetches waiting for a slow AE do not block fetches from other
+ * AEs. Concurrent requests for the same instance share one fetch.
+ */
+@ApplicationScoped
+public class WadoFetchExecutor {
+
+    private static final Logger LOG = LoggerFactory.getLogger(WadoFetchExecutor.class);
+
+    private static final Runnable NOOP = new Runnable() {
+        @Override
+        public void run() {
+        }
+    };
+
+    @Inject
+    private Device device;
+
+    @Inject
+    private WadoClientService wadoClientService;
+
+    private final ConcurrentHashMap<String, Fetch> inFlight =
+            new ConcurrentHashMap<String, Fetch>();
+
+    // running and waiting fetches by AE title
+    private final HashMap<String, Slots> slotsByAE = new HashMap<String, Slots>();
+
+    private BoundedExecutor executor;
+
+    /**
+     * Fetches an instance from the first of the given external archive AEs
+     * which provides it, unless a fetch of the instance is already in
+     * progress. The returned fetch is added to the given queue once it
+     * completed.
+     */
+    public Fetch fetch(ApplicationEntity localAE, ArchiveInstanceLocator externalLoc,
+            List<ApplicationEntity> remoteAEs, Queue<Fetch> completed) {
+        Fetch fetch = new Fetch(localAE, externalLoc, remoteAEs);
+        Fetch prev = inFlight.putIfAbsent(externalLoc.iuid, fetch);
+        if (prev != null) {
+            LOG.debug("Fetch of instance {} already in progress", externalLoc.iuid);
+            prev.addListener(completed);
+            return prev;
+        }
+        fetch.addListener(completed);
+        fetch.next();
+        return fetch;
+    }
+
+    public int getInFlightCount() {
+        return inFlight.size();
+    }
+
+    /**
+     * Rejects further fetches and cancels all fetches in progress - also the
+     * queued ones and the ones waiting for a slot of an external archive AE -
+     * so no caller waits forever for their completion.
+     */
+    @PreDestroy
+    public void shutdown() {
+        executor().shutdown();
+        for (Fetch fetch : inFlight.values())
+            fetch.cancel(true);
+    }
+
+    /**
+     * Runs the fetch from its current AE, if that AE has a free slot;
+     * otherwise the fetch waits without a thread until a running fetch from
+     * that AE released its slot.
+     */
+    private void schedule(Fetch fetch, String aet) {
+        synchronized (slotsByAE) {
+            Slots slots = slotsByAE.get(aet);
+            if (slots == null)
+                slotsByAE.put(aet, slots = new Slots());
+            if (slots.running >= maxConcurrencyPerAE()) {
+                slots.waiting.add(fetch);
+                return;
+            }
+            slots.running++;
+        }
+        dispatch(fetch, aet);
+    }
+
+    private void dispatch(Fetch fetch, String aet) {
+        try {
+            executor().execute(fetch.attempt);
+        } catch (RejectedExecutionException e) {
+            LOG.info("Fetch of instance {} rejected: {}",
+                    fetch.externalLoc.iuid, e.getMessage());
+            fetch.cancel(false);
+            release(aet, false);
+        }
+    }
+
+    /**
+     * Releases a slot of the AE and passes free slots to the waiting
+     * fetches, unless their number was decreased in the meantime.
+     */
+    private void release(String aet, boolean handOver) {
+        List<Fetch> next = new ArrayList<Fetch>(1);
+        synchronized (slotsByAE) {
+            Slots slots = slotsByAE.get(aet);
+            slots.running--;
+            int limit = maxConcurrencyPerAE();
+            Fetch fetch;
+            while (handOver && slots.running < limit
+                    && (fetch = slots.waiting.poll()) != null) {
+                if (!fetch.isDone()) {
+                    slots.running++;
+                    next.add(fetch);
+                }
+            }
+            if (slots.running == 0 && slots.waiting.isEmpty())
+                slotsByAE.remove(aet);
+        }
+        for (Fetch fetch : next)
+            dispatch(fetch, aet);
+    }
+
+    private int maxConcurrencyPerAE() {
+        return Math.max(1, device.getDeviceExtension(ArchiveDeviceExtension.class)
+                .getFetchMaxConcurrencyPerAE());
+    }
+
+    private synchronized BoundedExecutor executor() {
+        int threads = Math.max(1, device.getDeviceExtension(ArchiveDeviceExtension.class)
+                .getFetchThreads());
+        if (executor == null)
+            executor = new BoundedExecutor("wado-fetch", device.getExecutor(), threads, 0);
+        else
+            executor.setMaxConcurrency(threads);
+        return executor;
+    }
+
+    private static final class Slots {
+        int running;
+        final ArrayDeque<Fetch> waiting = new ArrayDeque<Fetch>();
+    }
+
+    /**
+     * Fetch of one instance. Its result is the locator of the fetched
+     * instance, or {@code null} if none of the external archive AEs provided
+     * the instance.
+     */
+    public final class Fetch extends FutureTask<ArchiveInstanceLocator> {
+
+        private final ApplicationEntity localAE;
+        private final ArchiveInstanceLocator externalLoc;
+        private final List<ApplicationEntity> remoteAEs;
+        private final ArrayList<Queue<Fetch>> listeners = new ArrayList<Queue<Fetch>>(1);
+        private int nextAE;
+        private Thread runner;
+
+        // fetch from the current AE, run after it got a slot of that AE
+        private final Runnable attempt = new Runnable() {
+            @Override
+            public void run() {
+                ApplicationEntity remoteAE = remoteAEs.get(nextAE - 1);
+                String aet = remoteAE.getAETitle();
+                ArchiveInstanceLocator fetched = null;
+                try {
+                    if (!isDone() && setRunner(Thread.currentThread()))
+                        fetched = fetchFrom(remoteAE);
+                } catch (Throwable e) {
+                    setException(e);
+                } finally {
+                    setRunner(null);
+                    release(aet, true);
+                }
+                if (isDone())
+                    return;
+                if (fetched != null) {
+                    set(fetched);
+                    return;
+                }
+                LOG.info("Failed to fetch instance {} from AE {}",
+                        externalLoc.iuid, aet);
+                next();
+            }
+        };
+
+        Fetch(ApplicationEntity localAE, ArchiveInstanceLocator externalLoc,
+                List<ApplicationEntity> remoteAEs) {
+            super(NOOP, null);
+            this.localAE = localAE;
+            this.externalLoc = externalLoc;
+            this.remoteAEs = remoteAEs;
+        }
+
+        public ArchiveInstanceLocator getExternalLocator() {
+            return externalLoc;
+        }
+
+        /**
+         * Interrupts the fetch from the current AE, if it is running. The
+         * fetch is not run by {@link #run()}, so {@link FutureTask} would not
+         * know the thread to interrupt.
+         */
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(false);
+            if (cancelled && mayInterruptIfRunning) {
+                synchronized (this) {
+                    if (runner != null)
+                        runner.interrupt();
+                }
+            }
+            return cancelled;
+        }
+
+        @Override
+        protected void done() {
+            inFlight.remove(externalLoc.iuid, this);
+            synchronized (listeners) {
+                for (Queue<Fetch> listener : listeners)
+                    listener.add(this);
+                listeners.clear();
+            }
+        }
+
+        void addListener(Queue<Fetch> listener) {
+            synchronized (listeners) {
+                if (isDone())
+                    listener.add(this);
+                else
+                    listeners.add(listener);
+            }
+        }
+
+        private void next() {
+            if (nextAE < remoteAEs.size())
+                schedule(this, remoteAEs.get(nextAE++).getAETitle());
+            else
+                set(null);
+        }
+
+        private synchronized boolean setRunner(Thread thread) {
+            if (thread == null && runner != null && isCancelled())
+                Thread.interrupted(); // do not pass the interrupt to the next task
+            runner = thread;
+            return thread == null || !isDone();
+        }
+
+        private ArchiveInstanceLocator fetchFrom(ApplicationEntity remoteAE) {
+            final ArchiveInstanceLocator[] fetched = new ArchiveInstanceLocator[1];
+            return wadoClientService.fetchInstance(localAE, remoteAE,
+                    externalLoc.getStudyInstanceUID(),
+                    externalLoc.getSeriesInstanceUID(),
+                    externalLoc.iuid,
+                    new InstanceAvailableCallback() {
+
+                        @Override
+                        public void onInstanceAvailable(
+                                ArchiveInstanceLocator inst) {
+                            fetched[0] = inst;
+                        }
+                    }) != null ? fetched[0] : null;
+        }
+    }
+}
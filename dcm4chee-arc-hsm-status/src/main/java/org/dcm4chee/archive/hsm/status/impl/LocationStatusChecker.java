@@ -0,0 +1,318 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2014
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.hsm.status.impl;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+
+import org.dcm4che3.net.Device;
+import org.dcm4chee.archive.conf.ArchiveDeviceExtension;
+import org.dcm4chee.archive.entity.Location;
+import org.dcm4chee.archive.entity.Location.Status;
+import org.dcm4chee.archive.util.BoundedExecutor;
+import org.dcm4chee.storage.ContainerEntry;
+import org.dcm4chee.storage.RetrieveContext;
+import org.dcm4chee.storage.conf.StorageSystem;
+import org.dcm4chee.storage.service.RetrieveService;
+import org.dcm4chee.storage.service.VerifyContainerException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Queries the status of locations on a bounded number of threads of the
+ * device executor. Locations stored in the same container are queried once.
+ * The number of concurrent queries on one Storage System is limited, so a
+ * slow Storage System does not occupy all threads. The status of the
+ * locations of each container or file is committed in own small
+ * transactions, as soon as it is known.
+ */
+@ApplicationScoped
+public class LocationStatusChecker {
+
+    private static final Logger LOG = LoggerFactory
+            .getLogger(LocationStatusChecker.class);
+
+    private static final int UPDATE_CHUNK_SIZE = 100;
+
+    private static final Executor CALLER_RUNS = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    @Inject
+    private Device device;
+
+    @Inject
+    private RetrieveService retrieveService;
+
+    @Inject
+    private SyncLocationStatusServiceEJB ejb;
+
+    private BoundedExecutor executor;
+
+    private final class Check implements Callable<Status> {
+        final StorageSystem storageSystem;
+        final Location location;
+        final List<Long> pks = new ArrayList<Long>();
+
+        Check(StorageSystem storageSystem, Location location) {
+            this.storageSystem = storageSystem;
+            this.location = location;
+        }
+
+        @Override
+        public Status call() throws IOException {
+            return queryStatus(storageSystem, location);
+        }
+    }
+
+    /**
+     * Queries the status of the locations and updates the status of
+     * locations, which has changed.
+     *
+     * @return number of locations with changed status
+     */
+    public int checkStatus(List<Location> locations) throws IOException {
+        if (locations.isEmpty())
+            return 0;
+
+        ArchiveDeviceExtension arcDev = device.getDeviceExtension(ArchiveDeviceExtension.class);
+        Map<StorageSystem, Deque<Check>> checksBySystem = groupByContainer(locations);
+        int threads = arcDev.getSyncLocationStatusThreads();
+        int threadsPerSystem = Math.max(1, arcDev.getSyncLocationStatusThreadsPerStorageSystem());
+        CompletionService<Status> completionService = new ExecutorCompletionService<Status>(
+                threads > 0 ? executor(threads) : CALLER_RUNS);
+        Map<Future<Status>, Check> running = new HashMap<Future<Status>, Check>();
+        for (int i = 0; i < threadsPerSystem; i++)
+            for (Deque<Check> checks : checksBySystem.values())
+                submitNext(completionService, checks, running);
+
+        int count = 0;
+        try {
+            while (!running.isEmpty()) {
+                Future<Status> future = completionService.take();
+                Check check = running.remove(future);
+                submitNext(completionService, checksBySystem.get(check.storageSystem), running);
+                Status status = statusOf(future, check);
+                if (status != null)
+                    count += updateStatus(check, status);
+            }
+        } catch (InterruptedException e) {
+            for (Future<Status> future : running.keySet())
+                future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted check of location status");
+        }
+        return count;
+    }
+
+    @PreDestroy
+    public synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
+    }
+
+    private Map<StorageSystem, Deque<Check>> groupByContainer(List<Location> locations) {
+        Map<StorageSystem, Deque<Check>> checksBySystem =
+                new LinkedHashMap<StorageSystem, Deque<Check>>();
+        Map<ContainerKey, Check> containers = new HashMap<ContainerKey, Check>();
+        for (Location location : locations) {
+            Check check = null;
+            ContainerKey key = null;
+            if (location.getEntryName() != null) {
+                key = new ContainerKey(location);
+                check = containers.get(key);
+            }
+            if (check == null) {
+                StorageSystem storageSystem = retrieveService.getStorageSystem(
+                        location.getStorageSystemGroupID(), location.getStorageSystemID());
+                check = new Check(storageSystem, location);
+                Deque<Check> checks = checksBySystem.get(storageSystem);
+                if (checks == null)
+                    checksBySystem.put(storageSystem, checks = new ArrayDeque<Check>());
+                checks.add(check);
+                if (key != null)
+                    containers.put(key, check);
+            }
+            check.pks.add(location.getPk());
+        }
+        return checksBySystem;
+    }
+
+    private static void submitNext(CompletionService<Status> completionService,
+            Deque<Check> checks, Map<Future<Status>, Check> running) {
+        Check check = checks.poll();
+        if (check != null)
+            running.put(completionService.submit(check), check);
+    }
+
+    private static Status statusOf(Future<Status> future, Check check)
+            throws InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            LOG.error("{} check status failed for {}", check.storageSystem, check.location,
+                    e.getCause());
+            return null;
+        }
+    }
+
+    private int updateStatus(Check check, Status status) {
+        int count = 0;
+        List<Long> pks = check.pks;
+        for (int i = 0; i < pks.size(); i += UPDATE_CHUNK_SIZE) {
+            List<Long> chunk = pks.subList(i, Math.min(pks.size(), i + UPDATE_CHUNK_SIZE));
+            try {
+                count += ejb.updateStatus(chunk, status, check.location.getStatus());
+            } catch (RuntimeException e) {
+                LOG.error("Failed to change status of {} locations in {} to {}",
+                        chunk.size(), check.location.getStoragePath(), status, e);
+            }
+        }
+        if (count > 0)
+            LOG.info("Changed status of {} locations in {} to {}",
+                    count, check.location.getStoragePath(), status);
+        return count;
+    }
+
+    private boolean isVerifyArchived() {
+        return device.getDeviceExtension(ArchiveDeviceExtension.class)
+                .isSyncLocationStatusVerifyArchived();
+    }
+
+    private Status queryStatus(StorageSystem storageSystem, Location location)
+            throws IOException {
+        RetrieveContext ctx = retrieveService.createRetrieveContext(storageSystem);
+        Status status = null;
+        try {
+             status = retrieveService.queryStatus(ctx, location.getStoragePath(),
+                Status.class);
+        } catch(IOException e) {
+            LOG.error("{} query status failed for {}", storageSystem, location, e);
+            status = Status.QUERY_FAILED;
+        }
+        if (Status.ARCHIVED.equals(status) && isVerifyArchived()) {
+            if (!verify(location, ctx))
+                status = Status.VERIFY_FAILED;
+        }
+        return status;
+    }
+
+    private boolean verify(Location location, RetrieveContext ctx)
+            throws IOException {
+        if (location.getEntryName() == null) {
+            if (!retrieveService.calculateDigestAndMatch(ctx, location.getDigest(),
+                    location.getStoragePath())) {
+                LOG.error("Checksum does not match for {}", location);
+                return false;
+            }
+            return true;
+        }
+        try {
+            retrieveService.verifyContainer(ctx, location.getStoragePath(),
+                    Collections.<ContainerEntry> emptyList());
+        } catch (VerifyContainerException e) {
+            LOG.error("Verify failed for container {}", location, e);
+            return false;
+        }
+        return true;
+    }
+
+    private synchronized BoundedExecutor executor(int threads) {
+        if (executor == null)
+            executor = new BoundedExecutor("sync-location-status", device.getExecutor(),
+                    threads, 0);
+        else
+            executor.setMaxConcurrency(threads);
+        return executor;
+    }
+
+    private static class ContainerKey {
+        private final String groupID;
+        private final String storageSystemID;
+        private final String name;
+        private final int hash;
+
+        ContainerKey(Location location) {
+            this.groupID = location.getStorageSystemGroupID();
+            this.storageSystemID = location.getStorageSystemID();
+            this.name = location.getStoragePath();
+            this.hash = 47 * (47 * groupID.hashCode() + storageSystemID.hashCode())
+                    + name.hashCode();
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof ContainerKey))
+                return false;
+
+            ContainerKey other = (ContainerKey) obj;
+            return hash == other.hash && groupID.equals(other.groupID)
+                    && storageSystemID.equals(other.storageSystemID)
+                    && name.equals(other.name);
+        }
+    }
+}
@@ -69,12 +69,15 @@ public class SyncLocationStatusServiceImpl implements SyncLocationStatusService
     @Inject
     private SyncLocationStatusServiceEJB ejb;
 
+    @Inject
+    private LocationStatusChecker checker;
+
     private int currentPollInterval;
     private ScheduledFuture<?> polling;
 
     @Override
     public int checkStatus() throws IOException {
-        return ejb.checkStatus();
+        return checker.checkStatus(ejb.findLocationsToCheck());
     }
 
     public void onArchiveServiceStarted(
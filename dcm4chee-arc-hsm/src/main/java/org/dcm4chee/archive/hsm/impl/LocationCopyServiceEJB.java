@@ -41,7 +41,9 @@ package org.dcm4chee.archive.hsm.impl;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 
 import javax.ejb.Stateless;
 import javax.enterprise.event.Event;
@@ -51,7 +53,6 @@ import javax.persistence.PersistenceContext;
 
 import org.dcm4che3.data.Attributes;
 import org.dcm4che3.net.Device;
-import org.dcm4che3.util.AttributesFormat;
 import org.dcm4chee.archive.entity.Instance;
 import org.dcm4chee.archive.entity.Location;
 import org.dcm4chee.archive.entity.Location.Status;
@@ -60,6 +61,7 @@ import org.dcm4chee.archive.entity.Utils;
 import org.dcm4chee.archive.hsm.LocationCopyContext;
 import org.dcm4chee.archive.hsm.LocationsCopied;
 import org.dcm4chee.archive.locationmgmt.LocationMgmt;
+import org.dcm4chee.archive.util.StoragePathFormat;
 import org.dcm4chee.storage.ContainerEntry;
 import org.dcm4chee.storage.archiver.service.ArchiverContext;
 import org.dcm4chee.storage.archiver.service.ArchiverService;
@@ -89,6 +91,7 @@ public class LocationCopyServiceEJB {
     private static final String LOCATION = "location";
     private static final String SOURCE_LOCATION_PKS_TO_DELETE = "srcLocationPksToDelete";
     private static final String LOCATION_COPY_CONTEXT = "locationCopyContext";
+    private static final String STUDY_INSTANCE_UIDS = "studyInstanceUIDs";
 
     @PersistenceContext(name = "dcm4chee-arc", unitName = "dcm4chee-arc")
     private EntityManager em;
@@ -138,6 +141,7 @@ public class LocationCopyServiceEJB {
         List<ContainerEntry> entries = new ArrayList<ContainerEntry>(insts.size());
         LocationDeleteContext deleteCtx = ctx.getDeleteSourceLocaton() ? new LocationDeleteContext(
                 insts.size()) : null;
+        Set<String> studyIUIDs = new LinkedHashSet<String>();
         for (Instance inst : filterInstancesAlreadyArchived(insts,
                 ctx.getTargetStorageSystemGroupID(), ctx.getDeleteSourceLocaton())) {
             Location selected = (ctx.getSourceStorageSystemGroupID() == null) ? selectBestAvailableLocation(inst)
@@ -164,6 +168,7 @@ public class LocationCopyServiceEJB {
             }
 
             ctx.addScheduledInstancePk(inst.getPk());
+            studyIUIDs.add(inst.getSeries().getStudy().getStudyInstanceUID());
         }
 
         if (entries.size() > 0) {
@@ -175,6 +180,8 @@ public class LocationCopyServiceEJB {
                 archiverCtx.setProperty(SOURCE_LOCATION_PKS_TO_DELETE, deleteCtx);
             }
             archiverCtx.setProperty(LOCATION_COPY_CONTEXT, ctx);
+            archiverCtx.setProperty(STUDY_INSTANCE_UIDS,
+                    studyIUIDs.toArray(new String[studyIUIDs.size()]));
             archiverService.scheduleStore(archiverCtx, delay);
         }
     }
@@ -243,7 +250,15 @@ public class LocationCopyServiceEJB {
     private String getTargetName(Attributes attrs, String groupID) {
         StorageSystemGroup grp = storageDeviceExtension().getStorageSystemGroup(groupID);
         String pattern = grp.getStorageFilePathFormat();
-        return AttributesFormat.valueOf(pattern).format(attrs);
+        return StoragePathFormat.format(pattern, attrs);
+    }
+
+    /**
+     * Returns the Study Instance UIDs of the instances stored by the
+     * archiver, or {@code null} if they were not recorded on scheduling.
+     */
+    static String[] studyInstanceUIDsOf(ArchiverContext ctx) {
+        return (String[]) ctx.getProperty(STUDY_INSTANCE_UIDS);
     }
 
     public void onContainerEntriesStored(ArchiverContext ctx) {
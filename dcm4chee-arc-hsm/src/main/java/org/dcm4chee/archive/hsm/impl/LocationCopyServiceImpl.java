@@ -39,6 +39,9 @@
 package org.dcm4chee.archive.hsm.impl;
 
 import java.io.IOException;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReentrantLock;
 
 import javax.enterprise.context.ApplicationScoped;
 import javax.enterprise.event.Observes;
@@ -58,12 +61,52 @@ import org.dcm4chee.storage.archiver.service.ContainerEntriesStored;
 @ApplicationScoped
 public class LocationCopyServiceImpl implements LocationCopyService {
 
+    private static final int LOCK_STRIPES = 64;
+
     @Inject
     private LocationCopyServiceEJB ejb;
 
-    public synchronized void onContainerEntriesStored(
+    private final ReentrantLock[] locks = new ReentrantLock[LOCK_STRIPES];
+    {
+        for (int i = 0; i < locks.length; i++)
+            locks[i] = new ReentrantLock(true);
+    }
+
+    /**
+     * Records the stored entries in the database. Entries of the same study
+     * are recorded one after another, in the order in which they were
+     * stored; entries of other studies are recorded concurrently, unless
+     * the study hashes to the same lock stripe.
+     */
+    public void onContainerEntriesStored(
             @Observes @ContainerEntriesStored ArchiverContext archiverContext) {
-        ejb.onContainerEntriesStored(archiverContext);
+        SortedSet<Integer> stripes = stripesOf(
+                LocationCopyServiceEJB.studyInstanceUIDsOf(archiverContext));
+        for (Integer stripe : stripes)
+            locks[stripe].lock();
+        try {
+            ejb.onContainerEntriesStored(archiverContext);
+        } finally {
+            for (Integer stripe : stripes)
+                locks[stripe].unlock();
+        }
+    }
+
+    /**
+     * Returns the lock stripes of the studies in ascending order, so the
+     * locks are always acquired in the same order. All stripes are
+     * returned, if the studies are unknown.
+     */
+    private static SortedSet<Integer> stripesOf(String[] studyIUIDs) {
+        SortedSet<Integer> stripes = new TreeSet<Integer>();
+        if (studyIUIDs == null || studyIUIDs.length == 0) {
+            for (int i = 0; i < LOCK_STRIPES; i++)
+                stripes.add(i);
+        } else {
+            for (String studyIUID : studyIUIDs)
+                stripes.add((studyIUID.hashCode() & 0x7fffffff) % LOCK_STRIPES);
+        }
+        return stripes;
     }
 
     @Override
@@ -0,0 +1,161 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2014
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.locationmgmt;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Projection of an Instance which may be deleted from a Storage System Group,
+ * holding only the attributes of its Locations and External Retrieve
+ * Locations needed to decide if enough copies exist, so the deleter does not
+ * have to load the Instance entities.
+ */
+public class DeletionCandidate implements Serializable {
+
+    private static final long serialVersionUID = -6151307780263125873L;
+
+    public static class Copy implements Serializable {
+
+        private static final long serialVersionUID = 4366120896914937186L;
+
+        private final long locationPk;
+        private final String storageSystemGroupID;
+        private final boolean withoutBulkData;
+        private final long size;
+
+        public Copy(long locationPk, String storageSystemGroupID,
+                boolean withoutBulkData, long size) {
+            this.locationPk = locationPk;
+            this.storageSystemGroupID = storageSystemGroupID;
+            this.withoutBulkData = withoutBulkData;
+            this.size = size;
+        }
+
+        public long getLocationPk() {
+            return locationPk;
+        }
+
+        public String getStorageSystemGroupID() {
+            return storageSystemGroupID;
+        }
+
+        public boolean isWithoutBulkData() {
+            return withoutBulkData;
+        }
+
+        public long getSize() {
+            return size;
+        }
+    }
+
+    private final long instancePk;
+    private final String sopInstanceUID;
+    private final String seriesInstanceUID;
+    private final String studyInstanceUID;
+    private final List<Copy> copies = new ArrayList<Copy>(2);
+    private final Set<String> externalRetrieveDeviceNames = new HashSet<String>(2);
+
+    public DeletionCandidate(long instancePk, String sopInstanceUID,
+            String seriesInstanceUID, String studyInstanceUID) {
+        this.instancePk = instancePk;
+        this.sopInstanceUID = sopInstanceUID;
+        this.seriesInstanceUID = seriesInstanceUID;
+        this.studyInstanceUID = studyInstanceUID;
+    }
+
+    public long getInstancePk() {
+        return instancePk;
+    }
+
+    public String getSopInstanceUID() {
+        return sopInstanceUID;
+    }
+
+    public String getSeriesInstanceUID() {
+        return seriesInstanceUID;
+    }
+
+    public String getStudyInstanceUID() {
+        return studyInstanceUID;
+    }
+
+    public List<Copy> getCopies() {
+        return copies;
+    }
+
+    public void addCopy(Copy copy) {
+        copies.add(copy);
+    }
+
+    public Set<String> getExternalRetrieveDeviceNames() {
+        return externalRetrieveDeviceNames;
+    }
+
+    public void addExternalRetrieveDeviceName(String deviceName) {
+        externalRetrieveDeviceNames.add(deviceName);
+    }
+
+    public Collection<Long> getLocationPksOnGroup(String groupID) {
+        Collection<Long> pks = new ArrayList<Long>(copies.size());
+        for (Copy copy : copies)
+            if (copy.storageSystemGroupID.equals(groupID))
+                pks.add(copy.locationPk);
+        return pks;
+    }
+
+    public long getSizeOnGroup(String groupID) {
+        long size = 0L;
+        for (Copy copy : copies)
+            if (copy.storageSystemGroupID.equals(groupID))
+                size += copy.size;
+        return size;
+    }
+
+    @Override
+    public String toString() {
+        return "DeletionCandidate[pk=" + instancePk + ", iuid=" + sopInstanceUID
+                + ", copies=" + copies.size()
+                + ", external=" + externalRetrieveDeviceNames + "]";
+    }
+}
@@ -78,6 +78,21 @@ public interface LocationMgmt {
             String studyRetentionUnit, String groupID, String studyInstanceUID,
             String seriesInstanceUID);
 
+    /**
+     * Returns the next page of studies on the group due for deletion, in
+     * the order of their access time, following {@code after}.
+     */
+    List<StudyDueDelete> findStudiesDueDelete(int studyRetention,
+            String studyRetentionUnit, String groupID, StudyDueDelete after,
+            int limit);
+
+    /**
+     * Returns projections of the not rejected instances of the study with a
+     * Location on the group.
+     */
+    List<DeletionCandidate> findDeletionCandidates(String studyInstanceUID,
+            String groupID);
+
     long calculateDataVolumePerDayInBytes(String groupID, 
             int dvdAverageOnNDays);
 
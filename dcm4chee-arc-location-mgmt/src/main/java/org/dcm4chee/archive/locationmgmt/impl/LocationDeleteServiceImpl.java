@@ -50,9 +50,11 @@ import org.dcm4chee.archive.entity.Instance;
 import org.dcm4chee.archive.entity.Location;
 import org.dcm4chee.archive.event.StartStopReloadEvent;
 import org.dcm4chee.archive.locationmgmt.DeleterService;
+import org.dcm4chee.archive.locationmgmt.DeletionCandidate;
 import org.dcm4chee.archive.locationmgmt.LocationDeleteResult;
 import org.dcm4chee.archive.locationmgmt.LocationDeleteResult.DeletionStatus;
 import org.dcm4chee.archive.locationmgmt.LocationMgmt;
+import org.dcm4chee.archive.locationmgmt.StudyDueDelete;
 import org.dcm4chee.archive.processing.ActiveProcessingService;
 import org.dcm4chee.storage.conf.*;
 import org.dcm4chee.storage.spi.StorageSystemProvider;
@@ -236,8 +238,8 @@ public class LocationDeleteServiceImpl implements DeleterService {
                         .findInstancesDueDelete(minTimeToKeepStudy,
                                 minTimeToKeppStudyUnit, rule.getStorageSystemGroupID(),
                                 studyInstanceUID, seriesInstanceUID);
-            List<Instance> actualInstancesToDelete = (ArrayList<Instance>) filterCopiesExist(
-                    (ArrayList<Instance>) allInstancesDueDeleteOnGroup, rule);
+            List<DeletionCandidate> actualInstancesToDelete = filterCopiesExist(
+                    toDeletionCandidates(allInstancesDueDeleteOnGroup, studyInstanceUID), rule);
             
             markCorrespondingStudyAndDoDeletion(studyInstanceUID,
                     rule, removePendingArchivingOrDeletion(studyInstanceUID, actualInstancesToDelete));
@@ -364,30 +366,57 @@ public class LocationDeleteServiceImpl implements DeleterService {
         return false;
     }
 
+    /**
+     * Pages through the studies due for deletion on the group in the order
+     * of their access time and schedules the deletion of their instances,
+     * until the number of bytes required to reach the configured free space
+     * is scheduled for deletion.
+     */
     private void freeSpace(DeletionRule rule) {
+        String groupID = rule.getStorageSystemGroupID();
+        if (!validateGroupForDeletion(groupID))
+            return;
 
-        if (validateGroupForDeletion(rule.getStorageSystemGroupID())) {
-            int minTimeToKeepStudy = rule.getMinTimeStudyNotAccessed();
-            String minTimeToKeppStudyUnit = rule
-                    .getMinTimeStudyNotAccessedUnit();
-            List<Instance> allInstancesDueDeleteOnGroup =
-                    locationManager.findInstancesDueDelete(minTimeToKeepStudy
-                            , minTimeToKeppStudyUnit, rule.getStorageSystemGroupID(), null, null);
-
-            Map<String, List<Instance>> mapInstancesFoundOnGroupToStudy =
-                    getInstancesOnGroupPerStudyMap(allInstancesDueDeleteOnGroup, rule);
-            for (String studyUID : mapInstancesFoundOnGroupToStudy
-                    .keySet()) {
-                if (!rule.isDeleteAsMuchAsPossible()
-                        && !needsFreeSpace(rule.getStorageSystemGroupID(), calculateExpectedDataVolumePerDay(rule)))
+        long bytesToFree = rule.isDeleteAsMuchAsPossible()
+                ? Long.MAX_VALUE
+                : bytesToFree(groupID, calculateExpectedDataVolumePerDay(rule));
+        int pageSize = deletionServicePageSize();
+        long scheduledBytes = 0L;
+        int scheduledStudies = 0;
+        StudyDueDelete last = null;
+        List<StudyDueDelete> page = Collections.emptyList();
+        do {
+            if (scheduledBytes >= bytesToFree)
+                break;
+
+            page = locationManager.findStudiesDueDelete(
+                    rule.getMinTimeStudyNotAccessed(),
+                    rule.getMinTimeStudyNotAccessedUnit(),
+                    groupID, last, pageSize);
+            for (StudyDueDelete study : page) {
+                last = study;
+                if (scheduledBytes >= bytesToFree)
                     break;
-                markCorrespondingStudyAndScheduleForDeletion(
-                        studyUID,
-                        rule,
-                        filterCopiesExist(mapInstancesFoundOnGroupToStudy.get(studyUID), rule));
+
+                String studyUID = study.getStudyInstanceUID();
+                if (activeProcessingService.isStudyUnderProcessingByServices(
+                        studyUID, ACTIVE_ARCHIVE_OR_DELETER_SERVICES))
+                    continue;
+
+                long bytes = markCorrespondingStudyAndScheduleForDeletion(studyUID, rule,
+                        filterCopiesExist(locationManager.findDeletionCandidates(studyUID, groupID), rule));
+                if (bytes > 0) {
+                    scheduledBytes += bytes;
+                    scheduledStudies++;
+                }
             }
-            handleFailedToDeleteLocations(rule.getStorageSystemGroupID());
-        }
+        } while (page.size() == pageSize);
+
+        if (scheduledStudies > 0)
+            LOG.info("Location Deleter Service: scheduled deletion of {} bytes "
+                    + "of {} studies from group {}",
+                    new Object[]{scheduledBytes, scheduledStudies, groupID});
+        handleFailedToDeleteLocations(groupID);
     }
 
     private void handleFailedToDeleteLocations(String groupID) {
@@ -405,9 +434,15 @@ public class LocationDeleteServiceImpl implements DeleterService {
         }
     }
 
-    private boolean needsFreeSpace(String groupID, long thresholdInBytes) {
+    /**
+     * Returns the number of bytes which have to be deleted from the usable
+     * Storage Systems of the group to keep their configured minimal free
+     * space plus {@code thresholdInBytes}.
+     */
+    private long bytesToFree(String groupID, long thresholdInBytes) {
         StorageDeviceExtension stgExt = device.getDeviceExtension(StorageDeviceExtension.class);
         StorageSystemGroup group = stgExt.getStorageSystemGroup(groupID);
+        long bytesToFree = 0L;
         for(String systemID : group.getStorageSystems().keySet()) {
             StorageSystem system = group.getStorageSystem(systemID);
             StorageSystemProvider provider = system
@@ -416,27 +451,28 @@ public class LocationDeleteServiceImpl implements DeleterService {
                 LOG.info("Location Deleter Service : system {}'s "
                         + "has no configured provider, deletion "
                         + "will not apply", system);
-                return false;
+                return 0L;
             }
             if(isUsableSystem(system)) {
                 try {
-                if(system.getMinFreeSpace() != null && system.getMinFreeSpaceInBytes() == -1L)
-                    system.setMinFreeSpaceInBytes(provider.getTotalSpace()
-                            * Integer.parseInt(system.getMinFreeSpace()
-                                    .replace("%", ""))/100);
-                    if(provider.getUsableSpace() 
-                            < system.getMinFreeSpaceInBytes() + thresholdInBytes) 
-                    return true;
+                    if(system.getMinFreeSpace() != null && system.getMinFreeSpaceInBytes() == -1L)
+                        system.setMinFreeSpaceInBytes(provider.getTotalSpace()
+                                * Integer.parseInt(system.getMinFreeSpace()
+                                        .replace("%", ""))/100);
+                    long missing = system.getMinFreeSpaceInBytes() + thresholdInBytes
+                            - provider.getUsableSpace();
+                    if (missing > 0)
+                        bytesToFree += missing;
                 } catch (IOException e) {
                     LOG.error("Location Deleter Service : "
                             + "failed to determine usable/total space on "
                             + "volume configured for system {} - reason {}"
                             , system, e);
-                    return false;
+                    return 0L;
                 }
             }
         }
-        return false;
+        return bytesToFree;
     }
 
     private long calculateExpectedDataVolumePerDay(DeletionRule rule) {
@@ -509,43 +545,7 @@ public class LocationDeleteServiceImpl implements DeleterService {
                 && system.getAvailability() != Availability.UNAVAILABLE;
     }
 
-    private Map<String,List<Instance>> getInstancesOnGroupPerStudyMap(
-            List<Instance> allInstancesDueDelete
-            , DeletionRule rule) {
-
-        Map<String,List<Instance>> instancesOnGroupPerStudyMap = new HashMap<String, List<Instance>>();
-        
-        if(allInstancesDueDelete == null)
-            return instancesOnGroupPerStudyMap;
-        
-        for(Instance inst : allInstancesDueDelete) {
-            
-            String studyUID = inst.getSeries().getStudy().getStudyInstanceUID();
-            if(!instancesOnGroupPerStudyMap.containsKey(studyUID))
-                instancesOnGroupPerStudyMap.put(studyUID, new ArrayList<Instance>());
-            for(Location loc : inst.getLocations()) {
-                if(loc.getStorageSystemGroupID().compareTo(rule.getStorageSystemGroupID()) == 0)
-                    instancesOnGroupPerStudyMap.get(studyUID).add(inst);
-            }
-        }
-        return removePendingArchivingOrDeletion(instancesOnGroupPerStudyMap);
-    }
-
-    private Map<String, List<Instance>> removePendingArchivingOrDeletion(
-            Map<String, List<Instance>> instancesOnGroupPerStudyMap) {
-        Map<String, List<Instance>> adjustedInstancesOnGroupPerStudyMap = 
-                new HashMap<String, List<Instance>>();
-        for(String studyUID : instancesOnGroupPerStudyMap.keySet()) {
-            if (!activeProcessingService.isStudyUnderProcessingByServices(studyUID, ACTIVE_ARCHIVE_OR_DELETER_SERVICES)) {
-                adjustedInstancesOnGroupPerStudyMap.put(studyUID, 
-                        instancesOnGroupPerStudyMap.get(studyUID));
-            }
-        }
-        
-        return adjustedInstancesOnGroupPerStudyMap;
-    }
-
-    private List<Instance> removePendingArchivingOrDeletion(String studyIUID, List<Instance>instancesOnGroup) {
+    private List<DeletionCandidate> removePendingArchivingOrDeletion(String studyIUID, List<DeletionCandidate>instancesOnGroup) {
             if (activeProcessingService.isStudyUnderProcessingByServices(studyIUID, ACTIVE_ARCHIVE_OR_DELETER_SERVICES)) {
                 return Collections.emptyList();
             }
@@ -576,24 +576,31 @@ public class LocationDeleteServiceImpl implements DeleterService {
         }
     }
 
-    private void markCorrespondingStudyAndScheduleForDeletion(
+    /**
+     * Returns the number of bytes on the group scheduled for deletion.
+     */
+    private long markCorrespondingStudyAndScheduleForDeletion(
             String studyInstanceUID, DeletionRule rule,
-            List<Instance> instancesDueDelete) {
+            List<DeletionCandidate> instancesDueDelete) {
+        String groupID = rule.getStorageSystemGroupID();
         deletionRetries = maxDeleteServiceRetries();
-        if (!instancesDueDelete.isEmpty())
-            locationManager.markForDeletion(studyInstanceUID,
-                    rule.getStorageSystemGroupID());
-            List<Instance> tmpInstancesScheduled = new ArrayList<Instance>();
-            for(int i = -1; i<deletionRetries; i++) {
-                instancesDueDelete.removeAll(tmpInstancesScheduled);
-                tmpInstancesScheduled.clear();
-            for (Instance inst : instancesDueDelete)
+        if (instancesDueDelete.isEmpty())
+            return 0L;
+
+        locationManager.markForDeletion(studyInstanceUID, groupID);
+        long scheduledBytes = 0L;
+        List<DeletionCandidate> tmpInstancesScheduled = new ArrayList<DeletionCandidate>();
+        for(int i = -1; i<deletionRetries; i++) {
+            instancesDueDelete.removeAll(tmpInstancesScheduled);
+            tmpInstancesScheduled.clear();
+            for (DeletionCandidate inst : instancesDueDelete)
                 try {
-                    locationManager.scheduleDelete(
-                            getLocationsOnGroup(inst, rule.getStorageSystemGroupID()), 1000, true);
+                    locationManager.scheduleDeleteByPks(
+                            inst.getLocationPksOnGroup(groupID), 1000, true);
                     tmpInstancesScheduled.add(inst);
+                    scheduledBytes += inst.getSizeOnGroup(groupID);
                     activeProcessingService.addActiveProcess(studyInstanceUID, 
-                            inst.getSeries().getSeriesInstanceUID(), 
+                            inst.getSeriesInstanceUID(), 
                             inst.getSopInstanceUID(), 
                             ActiveService.DELETER_SERVICE);
                 } catch (JMSException e) {
@@ -605,18 +612,19 @@ public class LocationDeleteServiceImpl implements DeleterService {
                                 ActiveService.DELETER_SERVICE);
                     break;
                 }
-            }
+        }
+        return scheduledBytes;
     }
 
     private void markCorrespondingStudyAndDoDeletion(
             String studyInstanceUID, DeletionRule rule,
-            List<Instance> instancesDueDelete) {
+            List<DeletionCandidate> instancesDueDelete) {
         if (!instancesDueDelete.isEmpty()) {
             locationManager.markForDeletion(studyInstanceUID, rule.getStorageSystemGroupID());
-            for (Instance inst : instancesDueDelete) {
-                Collection<Long> pks = getLocationPksOnGroup(inst, rule.getStorageSystemGroupID());
+            for (DeletionCandidate inst : instancesDueDelete) {
+                Collection<Long> pks = inst.getLocationPksOnGroup(rule.getStorageSystemGroupID());
                 activeProcessingService.addActiveProcess(studyInstanceUID,
-                        inst.getSeries().getSeriesInstanceUID(),
+                        inst.getSeriesInstanceUID(),
                         inst.getSopInstanceUID(),
                         ActiveService.DELETER_SERVICE);
                 locationManager.doDelete(locationManager.filterForMarkedForDeletionStudiesOnGroup(pks), true);
@@ -625,36 +633,37 @@ public class LocationDeleteServiceImpl implements DeleterService {
         }
     }
 
-    private Collection<Location> getLocationsOnGroup(Instance inst, String groupID) {
-        Collection<Location> locationsOnGroup = new ArrayList<Location>();
-        for(Location loc : inst.getLocations())
-            if(loc.getStorageSystemGroupID().compareTo(groupID) == 0)
-                locationsOnGroup.add(loc);
-        return locationsOnGroup;
-    }
-
-    private Collection<Long> getLocationPksOnGroup(Instance inst, String groupID) {
-        Collection<Long> locationPksOnGroup = new ArrayList<Long>();
-        for (Location loc : inst.getLocations()) {
-            if (loc.getStorageSystemGroupID().compareTo(groupID) == 0) {
-                locationPksOnGroup.add(loc.getPk());
-            }
+    private static List<DeletionCandidate> toDeletionCandidates(
+            List<Instance> instances, String studyInstanceUID) {
+        List<DeletionCandidate> candidates = new ArrayList<DeletionCandidate>(instances.size());
+        for (Instance inst : instances) {
+            DeletionCandidate candidate = new DeletionCandidate(inst.getPk(),
+                    inst.getSopInstanceUID(),
+                    inst.getSeries().getSeriesInstanceUID(),
+                    studyInstanceUID);
+            for (Location loc : inst.getLocations())
+                candidate.addCopy(new DeletionCandidate.Copy(loc.getPk(),
+                        loc.getStorageSystemGroupID(), loc.isWithoutBulkData(),
+                        loc.getSize()));
+            for (ExternalRetrieveLocation extLoc : inst.getExternalRetrieveLocations())
+                candidate.addExternalRetrieveDeviceName(extLoc.getRetrieveDeviceName());
+            candidates.add(candidate);
         }
-        return locationPksOnGroup;
+        return candidates;
     }
 
-    private List<Instance> filterCopiesExist(
-            List<Instance> instancesDueDeleteOnGroup, DeletionRule rule) {
+    private List<DeletionCandidate> filterCopiesExist(
+            List<DeletionCandidate> instancesDueDeleteOnGroup, DeletionRule rule) {
         List<String> hasToBeOnSystems = Arrays.asList(rule.getArchivedOnExternalSystems());
         List<String> hasToBeOnGroups = Arrays.asList(rule.getArchivedOnGroups());
-        List<Instance> filteredOnMany = new ArrayList<Instance>();
+        List<DeletionCandidate> filteredOnMany;
         if((Integer.parseInt(rule.getNumberOfArchivedCopies()) == 0)) {
             return instancesDueDeleteOnGroup;
         }
         else {
             filteredOnMany = filterSafeNCopiesExist(instancesDueDeleteOnGroup, rule);
         if( hasToBeOnSystems != null && !hasToBeOnSystems.isEmpty()) {
-            filteredOnMany = filterOnExternalSystem(hasToBeOnSystems, instancesDueDeleteOnGroup);
+            filteredOnMany = filterOnExternalSystem(hasToBeOnSystems, filteredOnMany);
         }
         if(hasToBeOnGroups != null && !hasToBeOnGroups.isEmpty()) {
                 filteredOnMany = filterOnGroups(hasToBeOnGroups,filteredOnMany, rule);
@@ -663,21 +672,15 @@ public class LocationDeleteServiceImpl implements DeleterService {
         }
     }
 
-    private List<Instance> filterOnGroups(List<String> hasToBeOnGroups,
-            List<Instance> filteredOnMany, DeletionRule rule) {
-        List<String> tmpFoundOnGroups = new ArrayList<String>();
-        List<Instance> foundOnConfiguredGroups = new ArrayList<Instance>();
-        for (Instance inst : filteredOnMany) {
-            for (Location loc : inst.getLocations()) {
-                StorageSystemGroup locationGroup = device
-                        .getDeviceExtension(StorageDeviceExtension.class)
-                        .getStorageSystemGroup(loc.getStorageSystemGroupID());
-                if (!tmpFoundOnGroups.contains(loc.getStorageSystemGroupID())
-                        && (locationGroup.getStorageSystemGroupType() == null ||
-                        locationGroup.getStorageSystemGroupType()
-                        .compareTo(rule.getSafeArchivingType()) == 0
-                || rule.getSafeArchivingType().compareTo("*") == 0))
-                    tmpFoundOnGroups.add(loc.getStorageSystemGroupID());
+    private List<DeletionCandidate> filterOnGroups(List<String> hasToBeOnGroups,
+            List<DeletionCandidate> filteredOnMany, DeletionRule rule) {
+        List<DeletionCandidate> foundOnConfiguredGroups = new ArrayList<DeletionCandidate>();
+        Set<String> tmpFoundOnGroups = new HashSet<String>();
+        for (DeletionCandidate inst : filteredOnMany) {
+            tmpFoundOnGroups.clear();
+            for (DeletionCandidate.Copy copy : inst.getCopies()) {
+                if (isSafeArchivingGroup(copy.getStorageSystemGroupID(), rule))
+                    tmpFoundOnGroups.add(copy.getStorageSystemGroupID());
             }
             if (tmpFoundOnGroups.containsAll(hasToBeOnGroups))
                 foundOnConfiguredGroups.add(inst);
@@ -685,51 +688,47 @@ public class LocationDeleteServiceImpl implements DeleterService {
         return foundOnConfiguredGroups;
     }
 
-    private List<Instance> filterOnExternalSystem(
-            List<String> hasToBeOnSystems, List<Instance> filteredOnMany) {
-        List<String> tmpFoundOnSystems = new ArrayList<String>();
-        List<Instance> foundOnConfiguredSystems = new ArrayList<Instance>();
-        for (Instance inst : filteredOnMany) {
-            for (ExternalRetrieveLocation extLoc : inst.getExternalRetrieveLocations()) {
-                if (!tmpFoundOnSystems.contains(extLoc.getRetrieveDeviceName()))
-                    tmpFoundOnSystems.add(extLoc.getRetrieveDeviceName());
-            }
-            if (tmpFoundOnSystems.containsAll(hasToBeOnSystems))
+    private List<DeletionCandidate> filterOnExternalSystem(
+            List<String> hasToBeOnSystems, List<DeletionCandidate> filteredOnMany) {
+        List<DeletionCandidate> foundOnConfiguredSystems = new ArrayList<DeletionCandidate>();
+        for (DeletionCandidate inst : filteredOnMany) {
+            if (inst.getExternalRetrieveDeviceNames().containsAll(hasToBeOnSystems))
                 foundOnConfiguredSystems.add(inst);
         }
         return foundOnConfiguredSystems;
     }
 
-    private List<Instance> filterSafeNCopiesExist(
-            List<Instance> instancesDueDeleteOnGroup, DeletionRule rule) {
+    private List<DeletionCandidate> filterSafeNCopiesExist(
+            List<DeletionCandidate> instancesDueDeleteOnGroup, DeletionRule rule) {
         String groupID = rule.getStorageSystemGroupID();
-        List<Instance> foundOnNSafeLocations = new ArrayList<Instance>();
-        int found = 0;
-        for (Instance inst : instancesDueDeleteOnGroup) {
-            if (inst.getExternalRetrieveLocations() != null 
-                    && !inst.getExternalRetrieveLocations().isEmpty()) {
-                for(int i=0; i<inst.getExternalRetrieveLocations().size(); i++)
-                found++;
-            }
-            for(Location loc : inst.getLocations()) {
-                StorageSystemGroup locationGroup = device
-                        .getDeviceExtension(StorageDeviceExtension.class)
-                        .getStorageSystemGroup(loc.getStorageSystemGroupID());
-                if(!loc.isWithoutBulkData() 
-                        && locationGroup.getGroupID().compareTo(groupID) != 0
-                        && (locationGroup.getStorageSystemGroupType() == null ||
-                                locationGroup.getStorageSystemGroupType()
-                                .compareTo(rule.getSafeArchivingType()) == 0
-                        || rule.getSafeArchivingType().compareTo("*") == 0)) {
+        int numberOfArchivedCopies = Integer.parseInt(rule.getNumberOfArchivedCopies());
+        List<DeletionCandidate> foundOnNSafeLocations = new ArrayList<DeletionCandidate>();
+        for (DeletionCandidate inst : instancesDueDeleteOnGroup) {
+            int found = inst.getExternalRetrieveDeviceNames().size();
+            for (DeletionCandidate.Copy copy : inst.getCopies()) {
+                if (!copy.isWithoutBulkData()
+                        && !copy.getStorageSystemGroupID().equals(groupID)
+                        && isSafeArchivingGroup(copy.getStorageSystemGroupID(), rule)) {
                     found++;
                 }
             }
-            if(found >= Integer.parseInt(rule.getNumberOfArchivedCopies()))
+            if(found >= numberOfArchivedCopies)
                 foundOnNSafeLocations.add(inst);
         }
         return foundOnNSafeLocations;
     }
 
+    private boolean isSafeArchivingGroup(String groupID, DeletionRule rule) {
+        StorageSystemGroup locationGroup = device
+                .getDeviceExtension(StorageDeviceExtension.class)
+                .getStorageSystemGroup(groupID);
+        return locationGroup != null
+                && (locationGroup.getStorageSystemGroupType() == null
+                || locationGroup.getStorageSystemGroupType()
+                        .compareTo(rule.getSafeArchivingType()) == 0
+                || rule.getSafeArchivingType().compareTo("*") == 0);
+    }
+
     private long toValueInBytes(long value, String unit, long dvdInBytes) {
         if ("GB".equalsIgnoreCase(unit))
             return value * 1073741824;
@@ -757,6 +756,12 @@ public class LocationDeleteServiceImpl implements DeleterService {
         return arcExt.getDeleteServiceAllowedInterval();
     }
 
+    private int deletionServicePageSize() {
+        ArchiveDeviceExtension arcExt = device
+                .getDeviceExtension(ArchiveDeviceExtension.class);
+        return Math.max(1, arcExt.getDeletionServicePageSize());
+    }
+
     private int maxDeleteServiceRetries() {
         ArchiveDeviceExtension arcExt = device
                 .getDeviceExtension(ArchiveDeviceExtension.class);
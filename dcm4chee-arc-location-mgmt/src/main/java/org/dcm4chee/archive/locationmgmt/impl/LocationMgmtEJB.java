@@ -48,6 +48,7 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -74,7 +75,9 @@ import com.mysema.query.jpa.impl.JPAQuery;
 import org.dcm4che3.net.Device;
 import org.dcm4chee.archive.dto.ActiveService;
 import org.dcm4chee.archive.entity.*;
+import org.dcm4chee.archive.locationmgmt.DeletionCandidate;
 import org.dcm4chee.archive.locationmgmt.LocationMgmt;
+import org.dcm4chee.archive.locationmgmt.StudyDueDelete;
 import org.dcm4chee.archive.processing.ActiveProcessingService;
 import org.dcm4chee.storage.ObjectNotFoundException;
 import org.dcm4chee.storage.StorageContext;
@@ -381,6 +384,89 @@ public class LocationMgmtEJB implements LocationMgmt {
         return locationsToDelete;
     }
 
+    @Override
+    public List<StudyDueDelete> findStudiesDueDelete(int studyRetention,
+            String studyRetentionUnit, String groupID, StudyDueDelete after,
+            int limit) {
+        Timestamp studyDueDate = new Timestamp(getStudyDueDate(studyRetention, studyRetentionUnit).getTimeInMillis());
+        QStudyOnStorageSystemGroup sosg = QStudyOnStorageSystemGroup.studyOnStorageSystemGroup;
+
+        JPAQuery query = new JPAQuery(em)
+                .from(sosg)
+                .innerJoin(sosg.study, QStudy.study)
+                .where(sosg.markedForDeletion.isFalse(),
+                        sosg.accessTime.before(studyDueDate),
+                        sosg.storageSystemGroupID.eq(groupID));
+        if (after != null)
+            query.where(sosg.accessTime.after(after.getAccessTime())
+                    .or(sosg.accessTime.eq(after.getAccessTime())
+                            .and(sosg.pk.gt(after.getPk()))));
+        query.orderBy(sosg.accessTime.asc(), sosg.pk.asc()).limit(limit);
+
+        List<Tuple> tuples = query.list(sosg.pk, sosg.accessTime, QStudy.study.studyInstanceUID);
+        List<StudyDueDelete> studies = new ArrayList<StudyDueDelete>(tuples.size());
+        for (Tuple tuple : tuples)
+            studies.add(new StudyDueDelete(tuple.get(sosg.pk),
+                    tuple.get(sosg.accessTime),
+                    tuple.get(QStudy.study.studyInstanceUID)));
+        return studies;
+    }
+
+    @Override
+    public List<DeletionCandidate> findDeletionCandidates(String studyInstanceUID,
+            String groupID) {
+        QInstance inst = QInstance.instance;
+        QLocation loc = QLocation.location;
+        QSeries series = QSeries.series;
+
+        List<Tuple> tuples = new JPAQuery(em)
+                .from(inst)
+                .innerJoin(inst.series, series)
+                .innerJoin(inst.locations, loc)
+                .where(series.study.studyInstanceUID.eq(studyInstanceUID),
+                        inst.rejectionNoteCode.isNull())
+                .orderBy(inst.pk.asc())
+                .list(inst.pk, inst.sopInstanceUID, series.seriesInstanceUID,
+                        loc.pk, loc.storageSystemGroupID, loc.withoutBulkData, loc.size);
+        Map<Long, DeletionCandidate> candidates = new LinkedHashMap<Long, DeletionCandidate>();
+        for (Tuple tuple : tuples) {
+            Long instPk = tuple.get(inst.pk);
+            DeletionCandidate candidate = candidates.get(instPk);
+            if (candidate == null) {
+                candidate = new DeletionCandidate(instPk,
+                        tuple.get(inst.sopInstanceUID),
+                        tuple.get(series.seriesInstanceUID),
+                        studyInstanceUID);
+                candidates.put(instPk, candidate);
+            }
+            candidate.addCopy(new DeletionCandidate.Copy(
+                    tuple.get(loc.pk),
+                    tuple.get(loc.storageSystemGroupID),
+                    tuple.get(loc.withoutBulkData),
+                    tuple.get(loc.size)));
+        }
+
+        QExternalRetrieveLocation extLoc = QExternalRetrieveLocation.externalRetrieveLocation;
+        List<Tuple> extTuples = new JPAQuery(em)
+                .from(extLoc)
+                .innerJoin(extLoc.instance, inst)
+                .innerJoin(inst.series, series)
+                .where(series.study.studyInstanceUID.eq(studyInstanceUID),
+                        inst.rejectionNoteCode.isNull())
+                .list(inst.pk, extLoc.retrieveDeviceName);
+        for (Tuple tuple : extTuples) {
+            DeletionCandidate candidate = candidates.get(tuple.get(inst.pk));
+            if (candidate != null)
+                candidate.addExternalRetrieveDeviceName(tuple.get(extLoc.retrieveDeviceName));
+        }
+
+        List<DeletionCandidate> result = new ArrayList<DeletionCandidate>(candidates.size());
+        for (DeletionCandidate candidate : candidates.values())
+            if (!candidate.getLocationPksOnGroup(groupID).isEmpty())
+                result.add(candidate);
+        return result;
+    }
+
     @SuppressWarnings("unchecked")
     @Override
     public List<Location> findFailedToDeleteLocations(String groupID) {
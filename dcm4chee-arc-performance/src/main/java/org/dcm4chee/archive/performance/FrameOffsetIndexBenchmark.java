@@ -0,0 +1,170 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2014
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.performance;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.BulkData;
+import org.dcm4che3.data.DatasetWithFMI;
+import org.dcm4che3.data.Fragments;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.UID;
+import org.dcm4che3.data.VR;
+import org.dcm4che3.io.DicomInputStream;
+import org.dcm4che3.io.DicomInputStream.IncludeBulkData;
+import org.dcm4che3.io.DicomOutputStream;
+import org.dcm4che3.util.SafeClose;
+import org.dcm4che3.util.StreamUtils;
+import org.dcm4chee.archive.util.FrameOffsetIndex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares the latency of reading one random frame of an encapsulated
+ * multi-frame image by parsing the whole file - as done by WADO-RS without
+ * index - against reading it using its {@link FrameOffsetIndex}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FrameOffsetIndexBenchmark {
+
+    private static final int FRAME_LENGTH = 4096;
+
+    @State(Scope.Benchmark)
+    public static class MultiframeFile {
+
+        @Param({ "100", "2000" })
+        int frames;
+
+        File file;
+        FrameOffsetIndex index;
+
+        @Setup
+        public void setup() throws IOException {
+            Attributes attrs = new Attributes();
+            attrs.setString(Tag.SOPClassUID, VR.UI, UID.EnhancedXAImageStorage);
+            attrs.setString(Tag.SOPInstanceUID, VR.UI, "1.2.40.0.13.1.1.1");
+            attrs.setInt(Tag.NumberOfFrames, VR.IS, frames);
+            attrs.setInt(Tag.Rows, VR.US, 512);
+            attrs.setInt(Tag.Columns, VR.US, 512);
+            attrs.setInt(Tag.SamplesPerPixel, VR.US, 1);
+            attrs.setInt(Tag.BitsAllocated, VR.US, 8);
+            Fragments frags = attrs.newFragments(Tag.PixelData, VR.OB, frames + 1);
+            frags.add(new byte[0]);
+            byte[] frame = new byte[FRAME_LENGTH];
+            for (int i = 0; i < frames; i++)
+                frags.add(frame);
+            file = File.createTempFile("frame-offset-index", ".dcm");
+            DicomOutputStream out = new DicomOutputStream(file);
+            try {
+                out.writeDataset(attrs.createFileMetaInformation(UID.JPEGBaseline1), attrs);
+            } finally {
+                out.close();
+            }
+            index = FrameOffsetIndex.build(file);
+        }
+
+        @TearDown
+        public void tearDown() {
+            file.delete();
+        }
+
+        int randomFrame() {
+            return 1 + ThreadLocalRandom.current().nextInt(frames);
+        }
+    }
+
+    @Benchmark
+    public byte[] withoutIndex(MultiframeFile mf) throws IOException {
+        DatasetWithFMI datasetWithFMI;
+        try (DicomInputStream din = new DicomInputStream(mf.file)) {
+            din.setIncludeBulkData(IncludeBulkData.URI);
+            datasetWithFMI = din.readDatasetWithFMI();
+        }
+        return readFrame(datasetWithFMI, mf.randomFrame());
+    }
+
+    @Benchmark
+    public byte[] withIndex(MultiframeFile mf) throws IOException {
+        return readFrame(mf.index.readDatasetWithFMI(mf.file), mf.randomFrame());
+    }
+
+    private static byte[] readFrame(DatasetWithFMI datasetWithFMI, int frame)
+            throws IOException {
+        Fragments frags = (Fragments) datasetWithFMI.getDataset().getValue(Tag.PixelData);
+        BulkData bulkData = (BulkData) frags.get(frame);
+        byte[] b = new byte[bulkData.length()];
+        InputStream in = bulkData.openStream();
+        try {
+            StreamUtils.readFully(in, b, 0, b.length);
+        } finally {
+            SafeClose.close(in);
+        }
+        return b;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(FrameOffsetIndexBenchmark.class.getSimpleName())
+                .build();
+        new Runner(opt).run();
+    }
+}
@@ -0,0 +1,290 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2014
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.dcm4chee.archive.performance;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.dcm4che3.net.Device;
+import org.dcm4che3.util.TagUtils;
+import org.dcm4chee.archive.conf.ArchiveDeviceExtension;
+import org.dcm4chee.archive.stgcmt.scp.impl.StgCmtDigestVerifier;
+import org.dcm4chee.archive.stgcmt.scp.impl.StgCmtEJB;
+import org.dcm4chee.storage.conf.StorageDeviceExtension;
+import org.dcm4chee.storage.conf.StorageSystem;
+import org.dcm4chee.storage.conf.StorageSystemGroup;
+import org.dcm4chee.storage.conf.SyncPolicy;
+import org.dcm4chee.storage.service.RetrieveService;
+import org.dcm4chee.storage.service.StorageService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.mysema.query.Tuple;
+
+/**
+ * Measures the Storage Commitment throughput of {@link StgCmtDigestVerifier}
+ * verifying the digests of the objects referenced by one request, which are
+ * spread over several Storage Systems, with and without skipping objects
+ * whose digest was verified within the freshness window.
+ * <p>
+ * The verifier runs with its production code; only the storage services
+ * and the database access are replaced by stubs, which digest the objects
+ * from temporary files and omit the update of the verified time.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StgCmtDigestVerificationBenchmark {
+
+    private static final String GROUP_ID = "BENCHMARK";
+
+    @State(Scope.Benchmark)
+    public static class Request {
+
+        @Param({ "500" })
+        int objects;
+
+        @Param({ "262144" })
+        int objectSize;
+
+        @Param({ "1", "4" })
+        int storageSystems;
+
+        @Param({ "0", "4" })
+        int threads;
+
+        @Param({ "0.5" })
+        double freshRatio;
+
+        File dir;
+        List<Object[]> matches;
+        ExecutorService executor;
+        Device device;
+        StgCmtDigestVerifier verifier;
+
+        @Setup
+        public void setup() throws Exception {
+            dir = Files.createTempDirectory("stgcmt-benchmark").toFile();
+            device = new Device("benchmark");
+            executor = Executors.newCachedThreadPool();
+            device.setExecutor(executor);
+            ArchiveDeviceExtension arcDev = new ArchiveDeviceExtension();
+            arcDev.setStgCmtVerifyThreads(threads);
+            device.addDeviceExtension(arcDev);
+            StorageDeviceExtension storageExt = new StorageDeviceExtension();
+            StorageSystemGroup group = new StorageSystemGroup();
+            group.setGroupID(GROUP_ID);
+            for (int i = 0; i < storageSystems; i++) {
+                StorageSystem storageSystem = new StorageSystem();
+                storageSystem.setStorageSystemID("fs" + i);
+                storageSystem.setStorageSystemPath(dir.getPath());
+                storageSystem.setSyncPolicy(SyncPolicy.ON_ASSOCIATION_CLOSE);
+                group.addStorageSystem(storageSystem);
+            }
+            storageExt.addStorageSystemGroup(group);
+            device.addDeviceExtension(storageExt);
+
+            matches = new ArrayList<Object[]>(objects);
+            Random random = new Random(objects);
+            byte[] b = new byte[objectSize];
+            Date fresh = new Date(Long.MAX_VALUE);
+            for (int i = 0; i < objects; i++) {
+                random.nextBytes(b);
+                File file = new File(dir, Integer.toString(i));
+                try (FileOutputStream out = new FileOutputStream(file)) {
+                    out.write(b);
+                }
+                matches.add(new Object[] {
+                        null, null, null,
+                        TagUtils.toHexString(MessageDigest.getInstance("MD5").digest(b)),
+                        file.getPath(),
+                        "fs" + (i % storageSystems),
+                        GROUP_ID,
+                        Long.valueOf(i),
+                        random.nextDouble() < freshRatio ? fresh : null });
+            }
+
+            verifier = new StgCmtDigestVerifier();
+            inject(verifier, "device", device);
+            inject(verifier, "storageRetrieveService", stub(RetrieveService.class));
+            inject(verifier, "storageService", stub(StorageService.class));
+            inject(verifier, "stgCmtEJB", new StgCmtEJB() {
+                @Override
+                public void updateDigestVerifiedTime(Collection<Long> locationPks,
+                        Date time) {
+                }
+            });
+        }
+
+        @TearDown
+        public void tearDown() {
+            verifier.shutdown();
+            executor.shutdown();
+            for (Object[] match : matches)
+                new File((String) match[4]).delete();
+            dir.delete();
+        }
+
+        int verify(int freshness) throws IOException {
+            device.getDeviceExtension(ArchiveDeviceExtension.class)
+                    .setStgCmtDigestFreshness(freshness);
+            List<Tuple> tuples = new ArrayList<Tuple>(matches.size());
+            for (Object[] match : matches)
+                tuples.add(tuple(match));
+            return verifier.verify(tuples).size();
+        }
+    }
+
+    @Benchmark
+    public int verifyAll(Request req) throws IOException {
+        return req.verify(0);
+    }
+
+    @Benchmark
+    public int skipFresh(Request req) throws IOException {
+        return req.verify(Integer.MAX_VALUE);
+    }
+
+    private static void inject(Object target, String name, Object value)
+            throws ReflectiveOperationException {
+        Field field = target.getClass().getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(target, value);
+    }
+
+    /**
+     * Returns a stub of the storage services, which digests files given by
+     * their path, and does nothing for all other methods.
+     */
+    private static <T> T stub(final Class<T> type) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type },
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args)
+                            throws Throwable {
+                        switch (method.getName()) {
+                        case "calculateDigestAndMatch":
+                            return args[1].equals(digest((String) args[2]));
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "equals":
+                            return proxy == args[0];
+                        case "toString":
+                            return type.getSimpleName() + "Stub";
+                        }
+                        return method.getReturnType() == boolean.class ? Boolean.FALSE : null;
+                    }
+                }));
+    }
+
+    private static String digest(String path) throws Exception {
+        MessageDigest md = MessageDigest.getInstance("MD5");
+        byte[] buf = new byte[8192];
+        try (InputStream in = Files.newInputStream(Paths.get(path))) {
+            int read;
+            while ((read = in.read(buf)) > 0)
+                md.update(buf, 0, read);
+        }
+        return TagUtils.toHexString(md.digest());
+    }
+
+    private static Tuple tuple(final Object[] values) {
+        return (Tuple) Proxy.newProxyInstance(Tuple.class.getClassLoader(),
+                new Class<?>[] { Tuple.class },
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        switch (method.getName()) {
+                        case "get":
+                            if (args.length == 2)
+                                return values[(Integer) args[0]];
+                            break;
+                        case "size":
+                            return values.length;
+                        case "toArray":
+                            return values.clone();
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "equals":
+                            return proxy == args[0];
+                        }
+                        return null;
+                    }
+                });
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(StgCmtDigestVerificationBenchmark.class.getSimpleName())
+                .build();
+        new Runner(opt).run();
+    }
+}
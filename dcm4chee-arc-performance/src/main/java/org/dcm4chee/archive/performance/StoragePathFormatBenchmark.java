@@ -0,0 +1,120 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+package org.dcm4chee.archive.performance;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.VR;
+import org.dcm4che3.util.AttributesFormat;
+import org.dcm4chee.archive.util.StoragePathFormat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares formatting of storage file paths with the shared, synchronized
+ * {@link AttributesFormat} instance against {@link StoragePathFormat}.
+ * {@link #main} runs both with 1 to 64 threads.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StoragePathFormatBenchmark {
+
+    private static final String PATTERN =
+            "{00080020,date,yyyy/MM/dd}/{0020000D,hash}/{0020000E,hash}/{00080018,hash}";
+
+    private static final AtomicInteger SEQ = new AtomicInteger();
+
+    @State(Scope.Thread)
+    public static class Instance {
+
+        Attributes attrs;
+
+        @Setup
+        public void setup() {
+            int i = SEQ.incrementAndGet();
+            attrs = new Attributes();
+            attrs.setString(Tag.StudyDate, VR.DA, "20151016");
+            attrs.setString(Tag.StudyInstanceUID, VR.UI, "1.2.40.0.13.1." + i);
+            attrs.setString(Tag.SeriesInstanceUID, VR.UI, "1.2.40.0.13.1." + i + ".1");
+            attrs.setString(Tag.SOPInstanceUID, VR.UI, "1.2.40.0.13.1." + i + ".1.1");
+        }
+    }
+
+    @Benchmark
+    public String synchronizedAttributesFormat(Instance inst) {
+        AttributesFormat format = AttributesFormat.valueOf(PATTERN);
+        synchronized (format) {
+            return format.format(inst.attrs);
+        }
+    }
+
+    @Benchmark
+    public String storagePathFormat(Instance inst) {
+        return StoragePathFormat.format(PATTERN, inst.attrs);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        for (int threads = 1; threads <= 64; threads <<= 1) {
+            Options opt = new OptionsBuilder()
+                    .include(StoragePathFormatBenchmark.class.getSimpleName())
+                    .threads(threads)
+                    .build();
+            new Runner(opt).run();
+        }
+    }
+}
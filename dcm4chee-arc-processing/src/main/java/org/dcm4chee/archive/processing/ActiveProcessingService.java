@@ -61,6 +61,22 @@ public interface ActiveProcessingService {
     
     boolean addActiveProcess(String studyIUID, String seriesIUID, String sopIUID, ActiveService service, Attributes attrs);
     
+    /**
+     * Marks the whole series as being processed by the service with one
+     * {@link org.dcm4chee.archive.entity.ActiveSeriesProcessing}. If the
+     * series is already marked, only the update time of the marker is
+     * refreshed. If a concurrent transaction inserted the marker, the
+     * unique constraint on series and service fails this transaction with a
+     * {@link javax.persistence.PersistenceException}, which is retryable.
+     */
+    boolean addActiveProcessForSeries(String studyIUID, String seriesIUID, ActiveService service);
+
+    /**
+     * Removes the series marker and all active-processes of instances of the
+     * series for the service.
+     */
+    boolean deleteActiveProcessesBySeriesAndService(String seriesIUID, ActiveService service);
+
     boolean isStudyUnderProcessingByServices(String studyIUID, List<ActiveService> services);
 
     List<ActiveProcessing> getActiveProcessesByStudy(String studyIUID, ActiveService activeService);
@@ -2,6 +2,7 @@ package org.dcm4chee.archive.processing.impl;
 
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Date;
 import java.util.List;
 
 import javax.ejb.EJB;
@@ -15,6 +16,7 @@ import javax.persistence.Query;
 import org.dcm4che3.data.Attributes;
 import org.dcm4chee.archive.dto.ActiveService;
 import org.dcm4chee.archive.entity.ActiveProcessing;
+import org.dcm4chee.archive.entity.ActiveSeriesProcessing;
 import org.dcm4chee.archive.processing.ActiveProcessingService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -58,13 +60,58 @@ public class ActiveProcessingServiceImpl implements ActiveProcessingService {
         return persisted;
     }
 
+    @Override
+    public boolean addActiveProcessForSeries(String studyIUID, String seriesIUID, ActiveService service) {
+        int updated = em.createNamedQuery(ActiveSeriesProcessing.UPDATE_TIME_BY_SERIES_IUID_AND_SERVICE)
+                .setParameter("time", new Date())
+                .setParameter("uid", seriesIUID)
+                .setParameter("service", service)
+                .executeUpdate();
+        if (updated > 0)
+            return true;
+
+        ActiveSeriesProcessing marker = new ActiveSeriesProcessing();
+        marker.setStudyInstanceUID(studyIUID);
+        marker.setSeriesInstanceUID(seriesIUID);
+        marker.setActiveService(service);
+        em.persist(marker);
+        // a marker inserted by a concurrent transaction violates the unique
+        // constraint here, so the caller can retry its transaction
+        em.flush();
+        return true;
+    }
+
+    @Override
+    public boolean deleteActiveProcessesBySeriesAndService(String seriesIUID, ActiveService service) {
+        int result = 0;
+        try {
+            for (String queryName : new String[] {
+                    ActiveSeriesProcessing.DELETE_BY_SERIES_IUID_AND_SERVICE,
+                    ActiveProcessing.DELETE_BY_SERIES_IUID_AND_SERVICE })
+                result += em.createNamedQuery(queryName)
+                        .setParameter("uid", seriesIUID)
+                        .setParameter("service", service)
+                        .executeUpdate();
+        } catch (Exception e) {
+            LOG.error("Unable to delete Active Processes of Series with IUID "
+                    + "= {} for service {} - reason {}", seriesIUID, service, e);
+        }
+
+        return result != 0;
+    }
+
     @Override
     public boolean isStudyUnderProcessingByServices(String studyIUID, List<ActiveService> services) {
-        Query query = em.createNamedQuery(ActiveProcessing.IS_STUDY_BEING_PROCESSED);
-        query.setParameter("uid", studyIUID);
-        query.setParameter("serviceList", services);
         try{
-            return (Long) query.getSingleResult() > 0;
+            for (String queryName : new String[] {
+                    ActiveProcessing.IS_STUDY_BEING_PROCESSED,
+                    ActiveSeriesProcessing.COUNT_BY_STUDY_IUID_AND_SERVICES })
+                if ((Long) em.createNamedQuery(queryName)
+                        .setParameter("uid", studyIUID)
+                        .setParameter("serviceList", services)
+                        .getSingleResult() > 0)
+                    return true;
+            return false;
         }
         catch (Exception e)
         {
@@ -232,10 +232,12 @@ public class QCRetrieveBeanImpl implements QCRetrieveBean{
                     if (UpdateHistory.UpdateScope.STUDY.equals(updateScope)) {
                         Study study = findStudyByUID(qcCtx.getUpdateAttributes().getString(Tag.StudyInstanceUID));
                         queryService.createStudyView(study.getPk(), param);
+                        queryService.scheduleStudyQueryAttributesUpdate(study.getPk());
                     }
                     if (UpdateHistory.UpdateScope.SERIES.equals(updateScope)) {
                         Series series = findSeriesByUID(qcCtx.getUpdateAttributes().getString(Tag.SeriesInstanceUID));
                         queryService.createSeriesView(series.getPk(), param);
+                        queryService.scheduleSeriesQueryAttributesUpdate(series.getPk());
                     }
                 } catch (Exception e) {
                     LOG.error("Error processing updated object event with scope={}"
@@ -247,8 +249,10 @@ public class QCRetrieveBeanImpl implements QCRetrieveBean{
                     for (String studyIUID : affectedStudies) {
                         Study study = findStudyByUID(studyIUID);
                         queryService.createStudyView(study.getPk(), param);
+                        queryService.scheduleStudyQueryAttributesUpdate(study.getPk());
                         for (Series series : study.getSeries()) {
                             queryService.createSeriesView(series.getPk(), param);
+                            queryService.scheduleSeriesQueryAttributesUpdate(series.getPk());
                         }
                     }
                 } catch (Exception e) {
@@ -39,12 +39,17 @@ package org.dcm4chee.archive.qido;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.EnumSet;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
 
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.RequestScoped;
 import javax.inject.Inject;
 import javax.json.Json;
 import javax.json.stream.JsonGenerator;
@@ -90,7 +95,6 @@ import org.dcm4chee.archive.query.util.QueryBuilder;
 import org.dcm4chee.archive.rs.HostAECache;
 import org.dcm4chee.archive.rs.HttpSource;
 import org.dcm4chee.archive.web.QidoRS;
-import org.jboss.resteasy.plugins.providers.multipart.MultipartRelatedOutput;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -104,11 +108,17 @@ import com.mysema.query.types.path.StringPath;
  * @author Umberto Cappellini <umberto.cappellini@agfa.com>
  * @author Alessio Roselli <alessio.roselli@agfa.com>
  */
+@RequestScoped
 public class DefaultQidoRS implements QidoRS {
 
     private static final int STATUS_OK = 200;
     private static final int STATUS_PARTIAL_CONTENT = 206;
 
+    private static final String TOTAL_COUNT_HEADER = "X-Total-Count";
+
+    private static final String MULTIPART_RELATED_DICOM_XML =
+            "multipart/related;type=\"" + MediaTypes.APPLICATION_DICOM_XML + '"';
+
     private static final Logger LOG = LoggerFactory.getLogger(DefaultQidoRS.class);
 
     private static ElementDictionary DICT =
@@ -153,6 +163,8 @@ public class DefaultQidoRS implements QidoRS {
     
     private QueryContext queryContext;
 
+    private Query streamedQuery;
+
     @Inject
     private Device device;
 
@@ -162,6 +174,9 @@ public class DefaultQidoRS implements QidoRS {
     @Inject
     private HostAECache hostAECache;
 
+    @Inject
+    private QueryCountCache queryCountCache;
+
     @Context
     private HttpServletRequest request;
 
@@ -315,26 +330,19 @@ public class DefaultQidoRS implements QidoRS {
                 includetags);
 
         Query query = QueryServiceUtils.createQuery(queryService, qrlevel, queryContext);
+        boolean closeQuery = true;
         try {
             query.initQuery();
-            int status = STATUS_OK;
+            Long totalCount = totalCount(query);
             int maxResults = arcAE.getQIDOMaxNumberOfResults();
             int offset = Math.max(this.offset, 0);
             int limit = Math.max(this.limit, 0);
-            if (maxResults > 0 && (limit == 0 || limit >  maxResults)) {
-                int numResults = (int) (query.count() - offset);
-                if (numResults == 0)
-                    return Response.ok().build();
-    
-                if (numResults > maxResults) {
-                    limit = maxResults;
-                    status = STATUS_PARTIAL_CONTENT;
-                }
-            }
             if (offset > 0)
                 query.offset(offset);
             
-            if (limit > 0)
+            if (maxResults > 0 && (limit == 0 || limit >  maxResults))
+                query.limitMatches(maxResults);
+            else if (limit > 0)
                 query.limit(limit);
     
             if (orderSpecifiers != null)
@@ -344,13 +352,51 @@ public class DefaultQidoRS implements QidoRS {
             if (!query.hasMoreMatches())
                 return Response.ok().build();
     
-            return Response.status(status).entity(
-                    output.entity(this, query, qrlevel)).build();
+            int status = query.isTruncated() ? STATUS_PARTIAL_CONTENT : STATUS_OK;
+            // the matches are fetched while the entity is written, which
+            // also closes the query - or at the end of the request, if the
+            // entity was never written
+            Response response = output.response(this, status, query, qrlevel);
+            if (totalCount != null)
+                response.getMetadata().putSingle(TOTAL_COUNT_HEADER, totalCount);
+            streamedQuery = query;
+            closeQuery = false;
+            return response;
         } finally {
-            query.close();
+            if (closeQuery)
+                query.close();
         }
     }
 
+    /**
+     * Returns the approximate number of matches for paging clients, counted
+     * once per cache period, or {@code null} if not configured.
+     */
+    private Long totalCount(Query query) {
+        int cacheTime = arcAE.getQidoCountCacheTime();
+        if (cacheTime <= 0)
+            return null;
+
+        String key = countCacheKey();
+        Long count = queryCountCache.get(key);
+        if (count == null) {
+            count = query.count();
+            queryCountCache.put(key, count, cacheTime);
+        }
+        return count;
+    }
+
+    private String countCacheKey() {
+        StringBuilder sb = new StringBuilder(256).append(uriInfo.getPath());
+        Map<String, List<String>> params =
+                new TreeMap<String, List<String>>(uriInfo.getQueryParameters());
+        params.remove("offset");
+        params.remove("limit");
+        for (Map.Entry<String, List<String>> param : params.entrySet())
+            sb.append('&').append(param.getKey()).append('=').append(param.getValue());
+        return sb.toString();
+    }
+
     /**
      * Initializes query options and parameters
      * 
@@ -554,78 +600,115 @@ public class DefaultQidoRS implements QidoRS {
     private enum Output {
         DICOM_XML {
             @Override
-            Object entity(DefaultQidoRS service, Query query, QueryRetrieveLevel qrlevel) {
-                return service.writeXML(query, qrlevel);
+            Response response(DefaultQidoRS service, int status, Query query,
+                    QueryRetrieveLevel qrlevel) {
+                String boundary = UUID.randomUUID().toString();
+                return Response.status(status)
+                        .entity(service.writeXML(query, qrlevel, boundary))
+                        .type(MULTIPART_RELATED_DICOM_XML + ";boundary=" + boundary)
+                        .build();
             }
         },
         JSON {
             @Override
-            Object entity(DefaultQidoRS service, Query query, QueryRetrieveLevel qrlevel) {
-                return service.writeJSON(query, qrlevel);
+            Response response(DefaultQidoRS service, int status, Query query,
+                    QueryRetrieveLevel qrlevel) {
+                return Response.status(status)
+                        .entity(service.writeJSON(query, qrlevel))
+                        .build();
             }
         };
-        
-        abstract Object entity(DefaultQidoRS service, Query query, QueryRetrieveLevel qrlevel);
-    }
-
-    private Object writeXML(Query query, QueryRetrieveLevel qrlevel) {
-        MultipartRelatedOutput output = new MultipartRelatedOutput();
-        int count = 0;
-        while (query.hasMoreMatches()) {
-            Attributes tmp = query.nextMatch();
-            if (tmp == null)
-                continue;
-            final Attributes match = adjust(tmp, qrlevel, query);
-            LOG.debug("{}: Match #{}:\n{}", new Object[]{method, ++count, match});
-            output.addPart(new StreamingOutput() {
-
-                @Override
-                public void write(OutputStream out) throws IOException,
-                        WebApplicationException {
-                    try {
+
+        abstract Response response(DefaultQidoRS service, int status,
+                Query query, QueryRetrieveLevel qrlevel);
+    }
+
+    /**
+     * Writes the multipart/related entity directly instead of using
+     * MultipartRelatedOutput, which requires all parts before writing.
+     */
+    private Object writeXML(final Query query, final QueryRetrieveLevel qrlevel,
+            final String boundary) {
+        return new StreamingOutput() {
+
+            @Override
+            public void write(OutputStream out) throws IOException,
+                    WebApplicationException {
+                int count = 0;
+                try {
+                    byte[] partHeader = ("--" + boundary + "\r\nContent-Type: "
+                            + MediaTypes.APPLICATION_DICOM_XML + "\r\n\r\n")
+                            .getBytes(StandardCharsets.US_ASCII);
+                    byte[] crlf = { '\r', '\n' };
+                    while (query.hasMoreMatches()) {
+                        Attributes tmp = query.nextMatch();
+                        if (tmp == null)
+                            continue;
+                        Attributes match = adjust(tmp, qrlevel, query);
+                        LOG.debug("{}: Match #{}:\n{}", new Object[]{method, ++count, match});
+                        out.write(partHeader);
                         SAXTransformer.getSAXWriter(new StreamResult(out)).write(match);
-                    } catch (Exception e) {
-                        throw new WebApplicationException(e);
+                        out.write(crlf);
                     }
-                }},
-                MediaTypes.APPLICATION_DICOM_XML_TYPE);
-        }
-        LOG.info("{}: {} Matches", method, count);
-        return output;
-    }
-
-    private Object writeJSON(Query query, QueryRetrieveLevel qrlevel) {
-        final ArrayList<Attributes> matches = new ArrayList<Attributes>();
-        int count = 0;
-        while (query.hasMoreMatches()) {
-            Attributes tmp = query.nextMatch();
-            if (tmp == null)
-                continue;
-            Attributes match = adjust(tmp, qrlevel, query);
-            LOG.debug("{}: Match #{}:\n{}", new Object[]{method, ++count, match});
-            matches.add(match);
-        }
-        LOG.info("{}: {} Matches", method, count);
-        StreamingOutput output = new StreamingOutput(){
+                    out.write(("--" + boundary + "--\r\n")
+                            .getBytes(StandardCharsets.US_ASCII));
+                    out.flush();
+                } catch (IOException | WebApplicationException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new WebApplicationException(e);
+                } finally {
+                    closeStreamedQuery();
+                }
+                LOG.info("{}: {} Matches", method, count);
+            }
+        };
+    }
+
+    private Object writeJSON(final Query query, final QueryRetrieveLevel qrlevel) {
+        return new StreamingOutput() {
 
             @Override
             public void write(OutputStream out) throws IOException {
+                int count = 0;
                 try {
                     JsonGenerator gen = Json.createGenerator(out);
                     JSONWriter writer = new JSONWriter(gen);
                     gen.writeStartArray();
-                    for (int i = 0, n=matches.size(); i < n; i++) {
-                            Attributes match = matches.get(i);
-                            writer.write(match);
+                    while (query.hasMoreMatches()) {
+                        Attributes tmp = query.nextMatch();
+                        if (tmp == null)
+                            continue;
+                        Attributes match = adjust(tmp, qrlevel, query);
+                        LOG.debug("{}: Match #{}:\n{}", new Object[]{method, ++count, match});
+                        writer.write(match);
                     }
                     gen.writeEnd();
                     gen.flush();
+                } catch (WebApplicationException e) {
+                    throw e;
                 } catch (Exception e) {
                     throw new WebApplicationException(e);
+                } finally {
+                    closeStreamedQuery();
                 }
+                LOG.info("{}: {} Matches", method, count);
             }
         };
-        return output;
+    }
+
+    /**
+     * Closes the query of a streamed response, if it was not already closed
+     * after writing the entity - e.g. if the client aborted the request
+     * before the entity was written.
+     */
+    @PreDestroy
+    public synchronized void closeStreamedQuery() {
+        Query query = streamedQuery;
+        if (query != null) {
+            streamedQuery = null;
+            query.close();
+        }
     }
 
     private Attributes adjust(Attributes match, QueryRetrieveLevel qrlevel, Query query) {
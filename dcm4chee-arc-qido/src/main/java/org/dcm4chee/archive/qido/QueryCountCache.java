@@ -0,0 +1,100 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.qido;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.enterprise.context.ApplicationScoped;
+
+/**
+ * Caches the number of matches of QIDO-RS queries for paging clients, which
+ * repeat the same query with different offsets. The cached numbers are only
+ * approximate, because instances stored or deleted meanwhile are not
+ * considered until the entry expires.
+ */
+@ApplicationScoped
+public class QueryCountCache {
+
+    private static final int MAX_ENTRIES = 1000;
+
+    private final LinkedHashMap<String, Entry> entries =
+            new LinkedHashMap<String, Entry>(64, 0.75f, true) {
+
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                    return size() > MAX_ENTRIES;
+                }
+            };
+
+    public synchronized Long get(String key) {
+        Entry entry = entries.get(key);
+        if (entry == null)
+            return null;
+
+        if (entry.expires < System.currentTimeMillis()) {
+            entries.remove(key);
+            return null;
+        }
+        return entry.count;
+    }
+
+    public synchronized void put(String key, long count, int cacheTime) {
+        long now = System.currentTimeMillis();
+        entries.put(key, new Entry(count, now + cacheTime * 1000L));
+        for (Iterator<Entry> iter = entries.values().iterator(); iter.hasNext();) {
+            if (iter.next().expires >= now)
+                break;
+            iter.remove();
+        }
+    }
+
+    private static final class Entry {
+        final long count;
+        final long expires;
+
+        Entry(long count, long expires) {
+            this.count = count;
+            this.expires = expires;
+        }
+    }
+}
@@ -56,6 +56,15 @@ public interface Query {
 
     void limit(long limit);
 
+    /**
+     * Limits the number of matches to {@code maxMatches}, but fetches one
+     * more record, so {@link #isTruncated()} tells if there are further
+     * matches without an additional count query.
+     */
+    void limitMatches(int maxMatches);
+
+    boolean isTruncated();
+
     void offset(long offset);
 
     void orderBy(OrderSpecifier<?>... orderSpecifiers);
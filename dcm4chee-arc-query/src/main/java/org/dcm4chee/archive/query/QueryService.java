@@ -85,9 +85,43 @@ public interface QueryService {
     void coerceResponseAttributes(QueryContext context, Attributes match)
             throws DicomServiceException;
 
+    /**
+     * Calculates and persists the query attributes of a Study for the
+     * Query/Retrieve View of the query parameters.
+     */
     StudyQueryAttributes createStudyView(Long studyPk, QueryParam queryParam);
 
+    /**
+     * Calculates and persists the query attributes of a Series for the
+     * Query/Retrieve View of the query parameters.
+     */
     SeriesQueryAttributes createSeriesView(Long seriesPk, QueryParam queryParam);
 
+    /**
+     * Returns the query attributes of a Study to include in a query
+     * response. If the calculation of query attributes in the background is
+     * enabled, previously calculated attributes may be returned, while their
+     * re-calculation is pending; otherwise same as {@link #createStudyView}.
+     */
+    StudyQueryAttributes getStudyView(Long studyPk, QueryParam queryParam);
+
+    /**
+     * Returns the query attributes of a Series to include in a query
+     * response, see {@link #getStudyView}.
+     */
+    SeriesQueryAttributes getSeriesView(Long seriesPk, QueryParam queryParam);
+
+    /**
+     * Schedules the calculation of the query attributes of a Study for all
+     * Query/Retrieve Views in the background, if enabled.
+     */
+    void scheduleStudyQueryAttributesUpdate(Long studyPk);
+
+    /**
+     * Schedules the calculation of the query attributes of a Series for all
+     * Query/Retrieve Views in the background, if enabled.
+     */
+    void scheduleSeriesQueryAttributesUpdate(Long seriesPk);
+
     void calculateDerivedFields(Study study, ApplicationEntity ae);
 }
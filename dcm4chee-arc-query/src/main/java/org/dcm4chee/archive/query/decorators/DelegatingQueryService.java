@@ -86,6 +86,26 @@ public class DelegatingQueryService extends DelegatingServiceImpl<QueryService>
 		return getNextDecorator().createSeriesView(seriesPk, queryParam);
 	}
 
+	@Override
+	public StudyQueryAttributes getStudyView(Long studyPk, QueryParam queryParam) {
+		return getNextDecorator().getStudyView(studyPk, queryParam);
+	}
+
+	@Override
+	public SeriesQueryAttributes getSeriesView(Long seriesPk, QueryParam queryParam) {
+		return getNextDecorator().getSeriesView(seriesPk, queryParam);
+	}
+
+	@Override
+	public void scheduleStudyQueryAttributesUpdate(Long studyPk) {
+		getNextDecorator().scheduleStudyQueryAttributesUpdate(studyPk);
+	}
+
+	@Override
+	public void scheduleSeriesQueryAttributesUpdate(Long seriesPk) {
+		getNextDecorator().scheduleSeriesQueryAttributesUpdate(seriesPk);
+	}
+
 	@Override
 	public void calculateDerivedFields(Study study, ApplicationEntity ae) {
 		getNextDecorator().calculateDerivedFields(study, ae);
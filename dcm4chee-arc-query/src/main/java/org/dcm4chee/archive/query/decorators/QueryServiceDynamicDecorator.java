@@ -92,6 +92,26 @@ public class QueryServiceDynamicDecorator extends DynamicDecoratorWrapper<QueryS
 		return wrapWithDynamicDecorators(delegate).createSeriesView(seriesPk, queryParam);
 	}
 
+	@Override
+	public StudyQueryAttributes getStudyView(Long studyPk, QueryParam queryParam) {
+		return wrapWithDynamicDecorators(delegate).getStudyView(studyPk, queryParam);
+	}
+
+	@Override
+	public SeriesQueryAttributes getSeriesView(Long seriesPk, QueryParam queryParam) {
+		return wrapWithDynamicDecorators(delegate).getSeriesView(seriesPk, queryParam);
+	}
+
+	@Override
+	public void scheduleStudyQueryAttributesUpdate(Long studyPk) {
+		wrapWithDynamicDecorators(delegate).scheduleStudyQueryAttributesUpdate(studyPk);
+	}
+
+	@Override
+	public void scheduleSeriesQueryAttributesUpdate(Long seriesPk) {
+		wrapWithDynamicDecorators(delegate).scheduleSeriesQueryAttributesUpdate(seriesPk);
+	}
+
 	@Override
 	public void calculateDerivedFields(Study study, ApplicationEntity ae) {
 		wrapWithDynamicDecorators(delegate).calculateDerivedFields(study, ae);
@@ -68,6 +68,12 @@ public abstract class AbstractQuery<E> implements Query {
     protected HibernateQuery query;
 
     private boolean hasMoreMatches;
+
+    private int maxMatches;
+
+    private int numMatches;
+
+    private boolean truncated;
  
     private boolean optionalKeyNotSupported;
 
@@ -104,6 +110,11 @@ public abstract class AbstractQuery<E> implements Query {
     public void executeQuery() {
         results = query.scroll(ScrollMode.SCROLL_SENSITIVE, select());
         hasMoreMatches = results.next();
+        if (hasMoreMatches && maxMatches > 0) {
+            // row numbers start with 0, so this is the additional record
+            truncated = results.setRowNumber(maxMatches);
+            hasMoreMatches = results.first();
+        }
     }
 
     @Override
@@ -118,6 +129,18 @@ public abstract class AbstractQuery<E> implements Query {
         query.limit(limit);
     }
 
+    @Override
+    public void limitMatches(int maxMatches) {
+        checkQuery();
+        this.maxMatches = maxMatches;
+        query.limit(maxMatches + 1L);
+    }
+
+    @Override
+    public boolean isTruncated() {
+        return truncated;
+    }
+
     @Override
     public void offset(long offset) {
         checkQuery();
@@ -145,7 +168,8 @@ public abstract class AbstractQuery<E> implements Query {
         if (!hasMoreMatches)
             throw new NoSuchElementException();
         Attributes attrs = toAttributes(results, context);
-        hasMoreMatches = results.next();
+        hasMoreMatches = (maxMatches == 0 || ++numMatches < maxMatches)
+                && results.next();
         return attrs;
     }
 
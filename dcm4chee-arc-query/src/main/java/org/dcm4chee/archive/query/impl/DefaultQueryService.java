@@ -56,6 +56,7 @@ import org.dcm4chee.archive.entity.StudyQueryAttributes;
 import org.dcm4chee.archive.query.Query;
 import org.dcm4chee.archive.query.QueryContext;
 import org.dcm4chee.archive.query.QueryService;
+import org.dcm4chee.archive.util.DecodedAttributesCache;
 import org.hibernate.Session;
 import org.hibernate.StatelessSession;
 import org.slf4j.Logger;
@@ -88,6 +89,12 @@ public class DefaultQueryService implements QueryService {
     @Inject
     Device device;
 
+    @Inject
+    DecodedAttributesCache attributesCache;
+
+    @Inject
+    QueryAttributesUpdater queryAttributesUpdater;
+
     StatelessSession openStatelessSession() {
         return em.unwrap(Session.class).getSessionFactory()
                 .openStatelessSession();
@@ -105,12 +112,12 @@ public class DefaultQueryService implements QueryService {
 
     @Override
     public Query createStudyQuery(QueryContext ctx) {
-        return new StudyQuery(ctx, openStatelessSession());
+        return new StudyQuery(ctx, openStatelessSession(), attributesCache);
     }
 
     @Override
     public Query createSeriesQuery(QueryContext ctx) {
-        return new SeriesQuery(ctx, openStatelessSession());
+        return new SeriesQuery(ctx, openStatelessSession(), attributesCache);
     }
 
     @Override
@@ -224,13 +231,45 @@ public class DefaultQueryService implements QueryService {
     @Override
     public StudyQueryAttributes createStudyView(Long studyPk, QueryParam queryParam) {
         if (queryParam == null || queryParam.getQueryRetrieveView() == null) throw new IllegalArgumentException("Cannot create study view - queryParam/queryRetrieveView cannot be null");
-        return ejb.calculateStudyQueryAttributes(studyPk, queryParam);
+        StudyQueryAttributes queryAttrs = ejb.calculateStudyQueryAttributes(studyPk, queryParam);
+        queryAttributesUpdater.calculated(queryAttrs);
+        return queryAttrs;
     }
 
     @Override
     public SeriesQueryAttributes createSeriesView(Long seriesPk, QueryParam queryParam) {
         if (queryParam == null || queryParam.getQueryRetrieveView() == null) throw new IllegalArgumentException("Cannot create series view - queryParam/queryRetrieveView cannot be null");
-        return ejb.calculateSeriesQueryAttributes(seriesPk, queryParam);
+        SeriesQueryAttributes queryAttrs = ejb.calculateSeriesQueryAttributes(seriesPk, queryParam);
+        queryAttributesUpdater.calculated(queryAttrs);
+        return queryAttrs;
+    }
+
+    @Override
+    public StudyQueryAttributes getStudyView(Long studyPk, QueryParam queryParam) {
+        if (queryParam == null || queryParam.getQueryRetrieveView() == null) throw new IllegalArgumentException("Cannot create study view - queryParam/queryRetrieveView cannot be null");
+        StudyQueryAttributes queryAttrs = queryAttributesUpdater.getStaleStudyQueryAttributes(
+                studyPk, queryParam.getQueryRetrieveView().getViewID());
+        return queryAttrs != null ? queryAttrs : createStudyView(studyPk, queryParam);
+    }
+
+    @Override
+    public SeriesQueryAttributes getSeriesView(Long seriesPk, QueryParam queryParam) {
+        if (queryParam == null || queryParam.getQueryRetrieveView() == null) throw new IllegalArgumentException("Cannot create series view - queryParam/queryRetrieveView cannot be null");
+        SeriesQueryAttributes queryAttrs = queryAttributesUpdater.getStaleSeriesQueryAttributes(
+                seriesPk, queryParam.getQueryRetrieveView().getViewID());
+        return queryAttrs != null ? queryAttrs : createSeriesView(seriesPk, queryParam);
+    }
+
+    @Override
+    public void scheduleStudyQueryAttributesUpdate(Long studyPk) {
+        if (queryAttributesUpdater.isEnabled())
+            queryAttributesUpdater.scheduleStudy(studyPk);
+    }
+
+    @Override
+    public void scheduleSeriesQueryAttributesUpdate(Long seriesPk) {
+        if (queryAttributesUpdater.isEnabled())
+            queryAttributesUpdater.scheduleSeries(seriesPk);
     }
 
     @Override
@@ -80,6 +80,16 @@ public class EmptyQuery implements Query {
         // empty
     }
 
+    @Override
+    public void limitMatches(int maxMatches) {
+        // empty
+    }
+
+    @Override
+    public boolean isTruncated() {
+        return false;
+    }
+
     @Override
     public void offset(long offset) {
         // empty
@@ -0,0 +1,420 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2014
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.query.impl;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+import javax.inject.Inject;
+
+import org.dcm4che3.net.ApplicationEntity;
+import org.dcm4che3.net.Device;
+import org.dcm4chee.archive.conf.ArchiveAEExtension;
+import org.dcm4chee.archive.conf.ArchiveDeviceExtension;
+import org.dcm4chee.archive.conf.QueryParam;
+import org.dcm4chee.archive.conf.QueryRetrieveView;
+import org.dcm4chee.archive.entity.Instance;
+import org.dcm4chee.archive.entity.Series;
+import org.dcm4chee.archive.entity.SeriesQueryAttributes;
+import org.dcm4chee.archive.entity.StudyQueryAttributes;
+import org.dcm4chee.archive.store.StoreContext;
+import org.dcm4chee.archive.util.BoundedExecutor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * (Re-)calculates Study and Series query attributes in the background, so
+ * queries do not have to iterate over all instances of a modified Study.
+ * <p>
+ * Studies and Series are marked as modified by store events and by QC. Once
+ * a Study or Series was not modified for
+ * {@link ArchiveDeviceExtension#getQueryAttributesUpdateDelay()} ms, its
+ * query attributes are calculated - for each Query/Retrieve View used by an
+ * AE of the device - by at most
+ * {@link ArchiveDeviceExtension#getQueryAttributesUpdateThreads()} threads
+ * of the device executor,
+ * in batches of {@link ArchiveDeviceExtension#getQueryAttributesUpdateBatchSize()}.
+ * <p>
+ * Optionally, the last calculated query attributes are kept, so a query can
+ * return them while their re-calculation is still pending.
+ */
+@ApplicationScoped
+public class QueryAttributesUpdater {
+
+    private static final Logger LOG = LoggerFactory.getLogger(QueryAttributesUpdater.class);
+
+    @Inject
+    private Device device;
+
+    @Inject
+    private QueryServiceEJB ejb;
+
+    // primary keys in order of their last modification
+    private final LinkedHashMap<Long, Long> modifiedStudies = new LinkedHashMap<Long, Long>();
+    private final LinkedHashMap<Long, Long> modifiedSeries = new LinkedHashMap<Long, Long>();
+
+    private final LinkedHashMap<String, StudyQueryAttributes> staleStudies =
+            new LinkedHashMap<String, StudyQueryAttributes>(16, 0.75f, true);
+    private final LinkedHashMap<String, SeriesQueryAttributes> staleSeries =
+            new LinkedHashMap<String, SeriesQueryAttributes>(16, 0.75f, true);
+
+    private final Runnable flushTask = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    private BoundedExecutor executor;
+    private ScheduledFuture<?> scheduled;
+
+    public boolean isEnabled() {
+        return arcDev().getQueryAttributesUpdateThreads() > 0;
+    }
+
+    public void onStoreInstance(@Observes StoreContext storeContext) {
+        switch (storeContext.getStoreAction()) {
+        case REPLACE:
+        case RESTORE:
+        case STORE:
+        case UPDATEDB:
+            break;
+        default:
+            return;
+        }
+
+        Instance inst = storeContext.getInstance();
+        if (inst == null || !isEnabled())
+            return;
+
+        Series series = inst.getSeries();
+        scheduleSeries(series.getPk());
+        scheduleStudy(series.getStudy().getPk());
+    }
+
+    public void scheduleStudy(long studyPk) {
+        schedule(modifiedStudies, studyPk);
+    }
+
+    public void scheduleSeries(long seriesPk) {
+        schedule(modifiedSeries, seriesPk);
+    }
+
+    /**
+     * Returns the last calculated query attributes of a Study, if its
+     * re-calculation is pending or was scheduled by this call.
+     *
+     * @return previously calculated StudyQueryAttributes or {@code null}
+     */
+    public StudyQueryAttributes getStaleStudyQueryAttributes(long studyPk, String viewID) {
+        if (!isEnabled())
+            return null;
+
+        StudyQueryAttributes queryAttrs;
+        synchronized (staleStudies) {
+            queryAttrs = staleStudies.get(key(viewID, studyPk));
+        }
+        if (queryAttrs != null)
+            scheduleStudy(studyPk);
+        return queryAttrs;
+    }
+
+    /**
+     * Returns the last calculated query attributes of a Series, if its
+     * re-calculation is pending or was scheduled by this call.
+     *
+     * @return previously calculated SeriesQueryAttributes or {@code null}
+     */
+    public SeriesQueryAttributes getStaleSeriesQueryAttributes(long seriesPk, String viewID) {
+        if (!isEnabled())
+            return null;
+
+        SeriesQueryAttributes queryAttrs;
+        synchronized (staleSeries) {
+            queryAttrs = staleSeries.get(key(viewID, seriesPk));
+        }
+        if (queryAttrs != null)
+            scheduleSeries(seriesPk);
+        return queryAttrs;
+    }
+
+    public void calculated(StudyQueryAttributes queryAttrs) {
+        if (queryAttrs == null)
+            return;
+
+        int maxSize = arcDev().getQueryAttributesStaleCacheSize();
+        if (maxSize <= 0)
+            return;
+
+        synchronized (staleStudies) {
+            staleStudies.put(key(queryAttrs.getViewID(), queryAttrs.getStudy().getPk()),
+                    copyOf(queryAttrs));
+            evict(staleStudies, maxSize);
+        }
+    }
+
+    public void calculated(SeriesQueryAttributes queryAttrs) {
+        if (queryAttrs == null)
+            return;
+
+        int maxSize = arcDev().getQueryAttributesStaleCacheSize();
+        if (maxSize <= 0)
+            return;
+
+        synchronized (staleSeries) {
+            staleSeries.put(key(queryAttrs.getViewID(), queryAttrs.getSeries().getPk()),
+                    copyOf(queryAttrs));
+            evict(staleSeries, maxSize);
+        }
+    }
+
+    /**
+     * Returns the number of Studies and Series, whose query attributes are
+     * waiting for re-calculation.
+     */
+    public int getPendingCount() {
+        synchronized (this) {
+            return modifiedStudies.size() + modifiedSeries.size()
+                    + (executor != null ? executor.getQueuedCount() : 0);
+        }
+    }
+
+    @PreDestroy
+    public synchronized void shutdown() {
+        if (scheduled != null) {
+            scheduled.cancel(false);
+            scheduled = null;
+        }
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
+    }
+
+    private synchronized void schedule(LinkedHashMap<Long, Long> modified, long pk) {
+        modified.remove(pk);
+        modified.put(pk, System.currentTimeMillis());
+        if (scheduled == null)
+            scheduled = device.getScheduledExecutor().schedule(flushTask,
+                    arcDev().getQueryAttributesUpdateDelay(), TimeUnit.MILLISECONDS);
+    }
+
+    private void flush() {
+        ArchiveDeviceExtension arcDev = arcDev();
+        int delay = arcDev.getQueryAttributesUpdateDelay();
+        int batchSize = Math.max(1, arcDev.getQueryAttributesUpdateBatchSize());
+        long notAfter = System.currentTimeMillis() - delay;
+        List<QueryParam> params = queryParams(arcDev);
+        synchronized (this) {
+            scheduled = null;
+            if (arcDev.getQueryAttributesUpdateThreads() <= 0 || params.isEmpty()) {
+                if (params.isEmpty())
+                    LOG.warn("No Query/Retrieve View configured - cannot calculate query attributes");
+                modifiedStudies.clear();
+                modifiedSeries.clear();
+                return;
+            }
+            BoundedExecutor executor = executor(arcDev.getQueryAttributesUpdateThreads());
+            // calculate Series first, Study attributes are more likely to be modified again
+            for (List<Long> batch : drain(modifiedSeries, notAfter, batchSize))
+                executor.execute(new UpdateSeries(batch, params));
+            for (List<Long> batch : drain(modifiedStudies, notAfter, batchSize))
+                executor.execute(new UpdateStudies(batch, params));
+            if (!modifiedSeries.isEmpty() || !modifiedStudies.isEmpty())
+                scheduled = device.getScheduledExecutor().schedule(flushTask,
+                        delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static List<List<Long>> drain(LinkedHashMap<Long, Long> modified,
+            long notAfter, int batchSize) {
+        List<List<Long>> batches = new ArrayList<List<Long>>();
+        List<Long> batch = null;
+        for (Iterator<Map.Entry<Long, Long>> iter = modified.entrySet().iterator();
+                iter.hasNext();) {
+            Map.Entry<Long, Long> entry = iter.next();
+            if (entry.getValue() > notAfter)
+                break;
+
+            if (batch == null || batch.size() >= batchSize) {
+                batch = new ArrayList<Long>(batchSize);
+                batches.add(batch);
+            }
+            batch.add(entry.getKey());
+            iter.remove();
+        }
+        return batches;
+    }
+
+    private BoundedExecutor executor(int threads) {
+        if (executor == null)
+            executor = new BoundedExecutor("query-attrs-update", device.getExecutor(),
+                    threads, 0);
+        else
+            executor.setMaxConcurrency(threads);
+        return executor;
+    }
+
+    private List<QueryParam> queryParams(ArchiveDeviceExtension arcDev) {
+        Set<String> viewIDs = new LinkedHashSet<String>();
+        for (ApplicationEntity ae : device.getApplicationEntities()) {
+            ArchiveAEExtension arcAE = ae.getAEExtension(ArchiveAEExtension.class);
+            if (arcAE != null && arcAE.getQueryRetrieveViewID() != null)
+                viewIDs.add(arcAE.getQueryRetrieveViewID());
+        }
+        List<QueryParam> params = new ArrayList<QueryParam>(viewIDs.size());
+        for (String viewID : viewIDs) {
+            QueryRetrieveView view = arcDev.getQueryRetrieveView(viewID);
+            if (view != null) {
+                QueryParam param = new QueryParam();
+                param.setQueryRetrieveView(view);
+                params.add(param);
+            }
+        }
+        return params;
+    }
+
+    private ArchiveDeviceExtension arcDev() {
+        return device.getDeviceExtension(ArchiveDeviceExtension.class);
+    }
+
+    private static String key(String viewID, long pk) {
+        return viewID + '/' + pk;
+    }
+
+    /**
+     * Returns a transient copy of the values, so no entity of a former
+     * transaction is kept in the cache.
+     */
+    private static StudyQueryAttributes copyOf(StudyQueryAttributes queryAttrs) {
+        StudyQueryAttributes copy = new StudyQueryAttributes();
+        copy.setViewID(queryAttrs.getViewID());
+        copy.setNumberOfSeries(queryAttrs.getNumberOfSeries());
+        copy.setNumberOfInstances(queryAttrs.getNumberOfInstances());
+        copy.setModalitiesInStudy(queryAttrs.getModalitiesInStudy());
+        copy.setSOPClassesInStudy(queryAttrs.getSOPClassesInStudy());
+        copy.setRetrieveAETs(queryAttrs.getRetrieveAETs());
+        copy.setAvailability(queryAttrs.getAvailability());
+        copy.setNumberOfVisibleInstances(queryAttrs.getNumberOfVisibleInstances());
+        copy.setNumberOfVisibleSeries(queryAttrs.getNumberOfVisibleSeries());
+        copy.setLastUpdateTime(queryAttrs.getLastUpdateTime());
+        return copy;
+    }
+
+    private static SeriesQueryAttributes copyOf(SeriesQueryAttributes queryAttrs) {
+        SeriesQueryAttributes copy = new SeriesQueryAttributes();
+        copy.setViewID(queryAttrs.getViewID());
+        copy.setNumberOfInstances(queryAttrs.getNumberOfInstances());
+        copy.setRetrieveAETs(queryAttrs.getRetrieveAETs());
+        copy.setAvailability(queryAttrs.getAvailability());
+        copy.setNumberOfVisibleInstances(queryAttrs.getNumberOfVisibleInstances());
+        copy.setLastUpdateTime(queryAttrs.getLastUpdateTime());
+        return copy;
+    }
+
+    private static void evict(LinkedHashMap<String, ?> map, int maxSize) {
+        Iterator<String> iter = map.keySet().iterator();
+        while (map.size() > maxSize) {
+            iter.next();
+            iter.remove();
+        }
+    }
+
+    private final class UpdateStudies implements Runnable {
+
+        private final List<Long> pks;
+        private final List<QueryParam> params;
+
+        UpdateStudies(List<Long> pks, List<QueryParam> params) {
+            this.pks = pks;
+            this.params = params;
+        }
+
+        @Override
+        public void run() {
+            for (Long pk : pks) {
+                for (QueryParam param : params) {
+                    try {
+                        calculated(ejb.updateStudyQueryAttributes(pk, param));
+                    } catch (Exception e) {
+                        LOG.warn("Failed to calculate query attributes of Study[pk={}] for view {}",
+                                pk, param.getQueryRetrieveView().getViewID(), e);
+                    }
+                }
+            }
+            LOG.debug("Calculated query attributes of {} Studies", pks.size());
+        }
+    }
+
+    private final class UpdateSeries implements Runnable {
+
+        private final List<Long> pks;
+        private final List<QueryParam> params;
+
+        UpdateSeries(List<Long> pks, List<QueryParam> params) {
+            this.pks = pks;
+            this.params = params;
+        }
+
+        @Override
+        public void run() {
+            for (Long pk : pks) {
+                for (QueryParam param : params) {
+                    try {
+                        calculated(ejb.updateSeriesQueryAttributes(pk, param));
+                    } catch (Exception e) {
+                        LOG.warn("Failed to calculate query attributes of Series[pk={}] for view {}",
+                                pk, param.getQueryRetrieveView().getViewID(), e);
+                    }
+                }
+            }
+            LOG.debug("Calculated query attributes of {} Series", pks.size());
+        }
+    }
+}
@@ -53,6 +53,7 @@ import javax.persistence.PersistenceContext;
 import org.dcm4che3.data.Attributes;
 import org.dcm4che3.net.Device;
 import org.dcm4chee.archive.conf.ArchiveDeviceExtension;
+import org.dcm4chee.archive.entity.PatientStudySeriesAttributes;
 import org.dcm4chee.archive.conf.QueryParam;
 import org.dcm4chee.archive.entity.QInstance;
 import org.dcm4chee.archive.entity.QPatient;
@@ -69,6 +70,7 @@ import org.dcm4chee.archive.query.DerivedSeriesFields;
 import org.dcm4chee.archive.query.DerivedStudyFields;
 import org.dcm4chee.archive.query.QueryContext;
 import org.dcm4chee.archive.query.util.QueryBuilder;
+import org.dcm4chee.archive.util.DecodedAttributesCache;
 import org.dcm4chee.mysema.query.jpa.hibernate.DetachedHibernateQueryFactory;
 import org.hibernate.Session;
 import org.slf4j.Logger;
@@ -100,9 +102,12 @@ public class QueryServiceEJB {
         QStudyQueryAttributes.studyQueryAttributes.sopClassesInStudy,
         QStudyQueryAttributes.studyQueryAttributes.numberOfVisibleInstances,
         QStudyQueryAttributes.studyQueryAttributes.lastUpdateTime,
-        QueryBuilder.seriesAttributesBlob.encodedAttributes,
-        QueryBuilder.studyAttributesBlob.encodedAttributes,
-        QueryBuilder.patientAttributesBlob.encodedAttributes
+        QPatient.patient.version,
+        QStudy.study.version,
+        QSeries.series.version,
+        QueryBuilder.patientAttributesBlob.version,
+        QueryBuilder.studyAttributesBlob.version,
+        QueryBuilder.seriesAttributesBlob.version
     };
 
     @EJB
@@ -117,7 +122,10 @@ public class QueryServiceEJB {
     @Inject
     private DetachedHibernateQueryFactory queryFactory;
 
-    public Attributes getSeriesAttributes(Long seriesPk, QueryContext context) {
+    @Inject
+    private DecodedAttributesCache attributesCache;
+
+    public Attributes getSeriesAttributes(final Long seriesPk, QueryContext context) {
         String viewID = context.getQueryParam().getQueryRetrieveView().getViewID();
         Tuple result = queryFactory.query(em.unwrap(Session.class))
             .from(QSeries.series)
@@ -177,20 +185,26 @@ public class QueryServiceEJB {
             numberOfStudyVisibleInstances = result.get(QStudyQueryAttributes.studyQueryAttributes.numberOfVisibleInstances);
             studyLastUpdateTime = result.get(QStudyQueryAttributes.studyQueryAttributes.lastUpdateTime);
         }
-        byte[] seriesBytes =
-                result.get(QueryBuilder.seriesAttributesBlob.encodedAttributes);
-        byte[] studyBytes =
-                result.get(QueryBuilder.studyAttributesBlob.encodedAttributes);
-        byte[] patientBytes =
-                result.get(QueryBuilder.patientAttributesBlob.encodedAttributes);
-
-        Attributes patientAttrs = new Attributes();
-        Attributes studyAttrs = new Attributes();
-        Attributes seriesAttrs = new Attributes();
-        Utils.decodeAttributes(patientAttrs, patientBytes);
-        Utils.decodeAttributes(studyAttrs, studyBytes);
-        Utils.decodeAttributes(seriesAttrs, seriesBytes);
-        Attributes attrs = Utils.mergeAndNormalize(patientAttrs, studyAttrs, seriesAttrs);
+
+        Attributes attrs = attributesCache.get(
+                DecodedAttributesCache.Level.PATIENT_STUDY_SERIES, seriesPk,
+                new long[] {
+                    result.get(QPatient.patient.version),
+                    result.get(QStudy.study.version),
+                    result.get(QSeries.series.version),
+                    result.get(QueryBuilder.patientAttributesBlob.version),
+                    result.get(QueryBuilder.studyAttributesBlob.version),
+                    result.get(QueryBuilder.seriesAttributesBlob.version) },
+                new DecodedAttributesCache.Decoder() {
+                    @Override
+                    public Attributes decode() {
+                        PatientStudySeriesAttributes blobs =
+                                (PatientStudySeriesAttributes) em
+                                .createNamedQuery(Series.PATIENT_STUDY_SERIES_ATTRIBUTES)
+                                .setParameter(1, seriesPk).getSingleResult();
+                        return blobs.getAttributes();
+                    }
+                });
         ArchiveDeviceExtension ade = context.getArchiveAEExtension()
                 .getApplicationEntity().getDevice().getDeviceExtension
                         (ArchiveDeviceExtension.class);
@@ -269,6 +283,25 @@ public class QueryServiceEJB {
         return queryAttrs;
     }
 
+    /**
+     * Creates StudyQueryAttributes, if there are none for the view yet
+     *
+     * @param studyPk primary key of study
+     * @param queryParam
+     * @return created StudyQueryAttributes or {@code null}, if they already exist
+     */
+    public StudyQueryAttributes updateStudyQueryAttributes(
+            Long studyPk, QueryParam queryParam) {
+        if (!em.createNamedQuery(StudyQueryAttributes.FIND_BY_VIEW_ID_AND_STUDY_FK)
+                .setParameter(1, queryParam.getQueryRetrieveView().getViewID())
+                .setParameter(2, studyPk)
+                .setMaxResults(1)
+                .getResultList().isEmpty())
+            return null;
+
+        return calculateStudyQueryAttributes(studyPk, queryParam);
+    }
+
     @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
     public void persistStudyQueryAttributes(StudyQueryAttributes queryAttrs, long calculatedForVersion) {
         // locking here ensures that we really never save the wrong version of the calculated fields
@@ -349,6 +382,25 @@ public class QueryServiceEJB {
         return queryAttrs;
     }
 
+    /**
+     * Creates SeriesQueryAttributes, if there are none for the view yet
+     *
+     * @param seriesPk primary key of series
+     * @param queryParam
+     * @return created SeriesQueryAttributes or {@code null}, if they already exist
+     */
+    public SeriesQueryAttributes updateSeriesQueryAttributes(
+            Long seriesPk, QueryParam queryParam) {
+        if (!em.createNamedQuery(SeriesQueryAttributes.FIND_BY_VIEW_ID_AND_SERIES_FK)
+                .setParameter(1, queryParam.getQueryRetrieveView().getViewID())
+                .setParameter(2, seriesPk)
+                .setMaxResults(1)
+                .getResultList().isEmpty())
+            return null;
+
+        return calculateSeriesQueryAttributes(seriesPk, queryParam);
+    }
+
     @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
     public void persistSeriesQueryAttributes(SeriesQueryAttributes queryAttrs, long calculatedForVersion) {
         // locking here ensures that we really never save the wrong version of the calculated fields
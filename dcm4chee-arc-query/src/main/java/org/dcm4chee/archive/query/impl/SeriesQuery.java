@@ -41,6 +41,7 @@ package org.dcm4chee.archive.query.impl;
 import org.dcm4che3.data.Attributes;
 import org.dcm4chee.archive.conf.ArchiveDeviceExtension;
 import org.dcm4chee.archive.conf.PrivateTag;
+import org.dcm4chee.archive.entity.QPatient;
 import org.dcm4chee.archive.entity.QSeries;
 import org.dcm4chee.archive.entity.QSeriesQueryAttributes;
 import org.dcm4chee.archive.entity.QStudy;
@@ -51,6 +52,7 @@ import org.dcm4chee.archive.entity.StudyQueryAttributes;
 import org.dcm4chee.archive.entity.Utils;
 import org.dcm4chee.archive.query.QueryContext;
 import org.dcm4chee.archive.query.util.QueryBuilder;
+import org.dcm4chee.archive.util.DecodedAttributesCache;
 import org.dcm4chee.storage.conf.Availability;
 import org.hibernate.ScrollableResults;
 import org.hibernate.StatelessSession;
@@ -83,14 +85,21 @@ class SeriesQuery extends AbstractQuery<Series> {
         QSeriesQueryAttributes.seriesQueryAttributes.lastUpdateTime,     // (12)
         QueryBuilder.seriesAttributesBlob.encodedAttributes,             // (13)
         QueryBuilder.studyAttributesBlob.encodedAttributes,              // (14)
-        QueryBuilder.patientAttributesBlob.encodedAttributes             // (15)
+        QueryBuilder.patientAttributesBlob.encodedAttributes,            // (15)
+        QPatient.patient.version,                                        // (16)
+        QStudy.study.version,                                            // (17)
+        QueryBuilder.patientAttributesBlob.version,                      // (18)
+        QueryBuilder.studyAttributesBlob.version                         // (19)
     };
 
+    private final DecodedAttributesCache attributesCache;
     private Long studyPk;
     private Attributes studyAttrs;
 
-    public SeriesQuery(QueryContext context, StatelessSession session) {
+    public SeriesQuery(QueryContext context, StatelessSession session,
+            DecodedAttributesCache attributesCache) {
         super(context, session, QSeries.series);
+        this.attributesCache = attributesCache;
     }
 
     @Override
@@ -148,7 +157,7 @@ class SeriesQuery extends AbstractQuery<Series> {
             seriesLastUpdateTime = results.getDate(12);
         } else {
             SeriesQueryAttributes seriesView = context.getQueryService()
-                    .createSeriesView(seriesPk,  context.getQueryParam());
+                    .getSeriesView(seriesPk,  context.getQueryParam());
             numberOfSeriesRelatedInstances = seriesView.getNumberOfInstances();
             if (numberOfSeriesRelatedInstances == 0)
                 return null;
@@ -198,7 +207,7 @@ class SeriesQuery extends AbstractQuery<Series> {
             studyLastUpdateTime = results.getDate(8);
         } else {
             StudyQueryAttributes studyView = context.getQueryService()
-                    .createStudyView(studyPk,  context.getQueryParam());
+                    .getStudyView(studyPk,  context.getQueryParam());
             numberOfStudyRelatedInstances = studyView.getNumberOfInstances();
             numberOfStudyRelatedSeries = studyView.getNumberOfSeries();
             modalitiesInStudy = studyView.getRawModalitiesInStudy();
@@ -207,13 +216,22 @@ class SeriesQuery extends AbstractQuery<Series> {
             studyLastUpdateTime = studyView.getLastUpdateTime();
         }
 
-        byte[] studyByteAttributes = results.getBinary(14);
-        byte[] patientByteAttributes = results.getBinary(15);
-        Attributes patientAttrs = new Attributes();
-        Attributes studyAttrs = new Attributes();
-        Utils.decodeAttributes(patientAttrs, patientByteAttributes);
-        Utils.decodeAttributes(studyAttrs, studyByteAttributes);
-        Attributes attrs = Utils.mergeAndNormalize(patientAttrs, studyAttrs);
+        final byte[] studyByteAttributes = results.getBinary(14);
+        final byte[] patientByteAttributes = results.getBinary(15);
+        Attributes attrs = attributesCache.get(
+                DecodedAttributesCache.Level.PATIENT_STUDY, studyPk,
+                new long[] { results.getLong(16), results.getLong(17),
+                        results.getLong(18), results.getLong(19) },
+                new DecodedAttributesCache.Decoder() {
+                    @Override
+                    public Attributes decode() {
+                        Attributes patientAttrs = new Attributes();
+                        Attributes studyAttrs = new Attributes();
+                        Utils.decodeAttributes(patientAttrs, patientByteAttributes);
+                        Utils.decodeAttributes(studyAttrs, studyByteAttributes);
+                        return Utils.mergeAndNormalize(patientAttrs, studyAttrs);
+                    }
+                });
         ArchiveDeviceExtension ade = context.getArchiveAEExtension()
                 .getApplicationEntity().getDevice().getDeviceExtension
                         (ArchiveDeviceExtension.class);
@@ -41,6 +41,7 @@ package org.dcm4chee.archive.query.impl;
 import org.dcm4che3.data.Attributes;
 import org.dcm4chee.archive.conf.ArchiveDeviceExtension;
 import org.dcm4chee.archive.conf.PrivateTag;
+import org.dcm4chee.archive.entity.QPatient;
 import org.dcm4chee.archive.entity.QStudy;
 import org.dcm4chee.archive.entity.QStudyQueryAttributes;
 import org.dcm4chee.archive.entity.Study;
@@ -48,6 +49,7 @@ import org.dcm4chee.archive.entity.StudyQueryAttributes;
 import org.dcm4chee.archive.entity.Utils;
 import org.dcm4chee.archive.query.QueryContext;
 import org.dcm4chee.archive.query.util.QueryBuilder;
+import org.dcm4chee.archive.util.DecodedAttributesCache;
 import org.dcm4chee.storage.conf.Availability;
 import org.hibernate.ScrollableResults;
 import org.hibernate.StatelessSession;
@@ -75,11 +77,19 @@ class StudyQuery extends AbstractQuery<Study> {
         QStudyQueryAttributes.studyQueryAttributes.numberOfVisibleInstances,// (7)
         QStudyQueryAttributes.studyQueryAttributes.lastUpdateTime,       // (8)
         QueryBuilder.studyAttributesBlob.encodedAttributes,              // (9)
-        QueryBuilder.patientAttributesBlob.encodedAttributes             // (10)
+        QueryBuilder.patientAttributesBlob.encodedAttributes,            // (10)
+        QPatient.patient.version,                                        // (11)
+        QStudy.study.version,                                            // (12)
+        QueryBuilder.patientAttributesBlob.version,                      // (13)
+        QueryBuilder.studyAttributesBlob.version                         // (14)
     };
 
-    public StudyQuery(QueryContext context, StatelessSession session) {
+    private final DecodedAttributesCache attributesCache;
+
+    public StudyQuery(QueryContext context, StatelessSession session,
+            DecodedAttributesCache attributesCache) {
         super(context, session, QStudy.study);
+        this.attributesCache = attributesCache;
     }
 
     @Override
@@ -137,7 +147,7 @@ class StudyQuery extends AbstractQuery<Study> {
             studyLastUpdateTime = results.getDate(8);
         } else {
             StudyQueryAttributes studyView = context.getQueryService()
-                    .createStudyView(studyPk,  context.getQueryParam());
+                    .getStudyView(studyPk,  context.getQueryParam());
             numberOfStudyRelatedInstances = studyView.getNumberOfInstances();
             if (numberOfStudyRelatedInstances == 0)
                 return null;
@@ -151,13 +161,22 @@ class StudyQuery extends AbstractQuery<Study> {
             studyLastUpdateTime = studyView.getLastUpdateTime();
         }
 
-        byte[] studyByteAttributes = results.getBinary(9);
-        byte[] patientByteAttributes = results.getBinary(10);
-        Attributes patientAttrs = new Attributes();
-        Attributes studyAttrs = new Attributes();
-        Utils.decodeAttributes(patientAttrs, patientByteAttributes);
-        Utils.decodeAttributes(studyAttrs, studyByteAttributes);
-        Attributes attrs = Utils.mergeAndNormalize(patientAttrs, studyAttrs);
+        final byte[] studyByteAttributes = results.getBinary(9);
+        final byte[] patientByteAttributes = results.getBinary(10);
+        Attributes attrs = attributesCache.get(
+                DecodedAttributesCache.Level.PATIENT_STUDY, studyPk,
+                new long[] { results.getLong(11), results.getLong(12),
+                        results.getLong(13), results.getLong(14) },
+                new DecodedAttributesCache.Decoder() {
+                    @Override
+                    public Attributes decode() {
+                        Attributes patientAttrs = new Attributes();
+                        Attributes studyAttrs = new Attributes();
+                        Utils.decodeAttributes(patientAttrs, patientByteAttributes);
+                        Utils.decodeAttributes(studyAttrs, studyByteAttributes);
+                        return Utils.mergeAndNormalize(patientAttrs, studyAttrs);
+                    }
+                });
         ArchiveDeviceExtension ade = context.getArchiveAEExtension()
                 .getApplicationEntity().getDevice().getDeviceExtension
                         (ArchiveDeviceExtension.class);
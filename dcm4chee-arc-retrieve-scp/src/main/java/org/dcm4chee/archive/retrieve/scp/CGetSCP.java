@@ -52,7 +52,6 @@ import org.dcm4che3.net.pdu.ExtendedNegotiation;
 import org.dcm4che3.net.pdu.PresentationContext;
 import org.dcm4che3.net.service.BasicCGetSCP;
 import org.dcm4che3.net.service.BasicRetrieveTask;
-import org.dcm4che3.net.service.CStoreSCU;
 import org.dcm4che3.net.service.DicomServiceException;
 import org.dcm4che3.net.service.QueryRetrieveLevel;
 import org.dcm4che3.net.service.RetrieveTask;
@@ -139,8 +138,9 @@ public class CGetSCP extends BasicCGetSCP {
             if (matches.isEmpty())
                 return null;
 
-            CStoreSCU<ArchiveInstanceLocator> cstorescu = new CStoreSCUImpl(ae,
+            CStoreSCUImpl cstorescu = new CStoreSCUImpl(ae,
                     remoteAE, ServiceType.GETSERVICE, storescuService, weightWatcher);
+            cstorescu.setReadAhead(aeExt.getRetrieveReadAhead());
             BasicRetrieveTask<ArchiveInstanceLocator> retrieveTask = new 
                     BasicRetrieveTask<ArchiveInstanceLocator>(
                     Dimse.C_GET_RQ, as, pc, rq, matches, as, cstorescu);
@@ -57,7 +57,6 @@ import org.dcm4che3.net.pdu.ExtendedNegotiation;
 import org.dcm4che3.net.pdu.PresentationContext;
 import org.dcm4che3.net.service.BasicCMoveSCP;
 import org.dcm4che3.net.service.BasicRetrieveTask;
-import org.dcm4che3.net.service.CStoreSCU;
 import org.dcm4che3.net.service.DicomServiceException;
 import org.dcm4che3.net.service.InstanceLocator;
 import org.dcm4che3.net.service.QueryRetrieveLevel;
@@ -83,7 +82,9 @@ import org.slf4j.LoggerFactory;
 
 import javax.enterprise.event.Event;
 import javax.inject.Inject;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.EnumSet;
 import java.util.List;
 
@@ -138,6 +139,8 @@ public class CMoveSCP extends BasicCMoveSCP {
         } catch (ConfigurationException e) {
             throw new DicomServiceException(Status.MoveDestinationUnknown, "Unknown Move Destination: " + dest);
         }
+        Association storeas = null;
+        List<Association> parallelAssociations = Collections.emptyList();
         try {
             ApplicationEntity ae = as.getApplicationEntity();
             ArchiveAEExtension arcAE = ae.getAEExtension(
@@ -164,10 +167,17 @@ public class CMoveSCP extends BasicCMoveSCP {
             if (matches.isEmpty())
                 return null;
             
-            CStoreSCU<ArchiveInstanceLocator> cstorescu = new CStoreSCUImpl (
+            CStoreSCUImpl cstorescu = new CStoreSCUImpl (
                     ae, destAE, ServiceType.MOVESERVICE, storescuService, weightWatcher);
-            AAssociateRQ aarq = makeAAssociateRQ(as.getLocalAET(), dest, matches);
-            Association storeas = openStoreAssociation(as, destAE, aarq);
+            cstorescu.setReadAhead(arcAE.getRetrieveReadAhead());
+            AAssociateRQ aarq = makeAAssociateRQ(as.getLocalAET(), dest, matches,
+                    arcAE.getRetrieveMaxOpsInvoked());
+            storeas = openStoreAssociation(as, destAE, aarq);
+            parallelAssociations = openParallelStoreAssociations(
+                    as, destAE, matches, Math.min(
+                            arcAE.getRetrieveAssociations(dest), matches.size()) - 1,
+                    arcAE.getRetrieveMaxOpsInvoked());
+            cstorescu.setParallelAssociations(parallelAssociations);
             BasicRetrieveTask<ArchiveInstanceLocator> retrieveTask = 
                     new BasicRetrieveTask<ArchiveInstanceLocator>(
                     Dimse.C_MOVE_RQ, as, pc, rq, matches, storeas, cstorescu);
@@ -188,10 +198,27 @@ public class CMoveSCP extends BasicCMoveSCP {
             
             return retrieveTask;
         } catch (Exception e) {
+            releaseStoreAssociations(storeas, parallelAssociations);
             throw new DicomServiceException(Status.UnableToCalculateNumberOfMatches, e);
         }
     }
 
+    private void releaseStoreAssociations(Association storeas,
+            List<Association> parallelAssociations) {
+        if (storeas != null)
+            releaseStoreAssociation(storeas);
+        for (Association parallel : parallelAssociations)
+            releaseStoreAssociation(parallel);
+    }
+
+    private void releaseStoreAssociation(Association storeas) {
+        try {
+            storeas.release();
+        } catch (IOException e) {
+            LOG.info("{}: failed to release association", storeas, e);
+        }
+    }
+
 
 
 	private Association openStoreAssociation(Association as,
@@ -206,12 +233,35 @@ public class CMoveSCP extends BasicCMoveSCP {
 
     }
 
+    private List<Association> openParallelStoreAssociations(Association as,
+            ApplicationEntity destAE, List<ArchiveInstanceLocator> matches,
+            int count, int maxOpsInvoked) {
+        if (count <= 0)
+            return Collections.emptyList();
+
+        List<Association> associations = new ArrayList<Association>(count);
+        for (int i = 0; i < count; i++) {
+            try {
+                associations.add(as.getApplicationEntity().connect(destAE,
+                        makeAAssociateRQ(as.getLocalAET(), destAE.getAETitle(),
+                                matches, maxOpsInvoked)));
+            } catch (Exception e) {
+                LOG.info("{}: failed to open parallel association to {} - continue with {}",
+                        as, destAE.getAETitle(), associations.size() + 1, e);
+                break;
+            }
+        }
+        return associations;
+    }
+
     private AAssociateRQ makeAAssociateRQ(String callingAET, String calledAET,
-            List<ArchiveInstanceLocator> matches) 
+            List<ArchiveInstanceLocator> matches, int maxOpsInvoked)
                     throws ConfigurationNotFoundException {
         AAssociateRQ aarq = new AAssociateRQ();
         aarq.setCalledAET(calledAET);
         aarq.setCallingAET(callingAET);
+        aarq.setMaxOpsInvoked(maxOpsInvoked);
+        aarq.setMaxOpsPerformed(1);
         ApplicationEntity callingAE;
         try {
             callingAE = aeCache.findApplicationEntity(callingAET);
@@ -39,7 +39,9 @@
 package org.dcm4chee.archive.retrieve.impl;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
@@ -124,15 +126,15 @@ public class DefaultRetrieveService implements RetrieveService {
     public List<ArchiveInstanceLocator> calculateMatches(IDWithIssuer[] pids,
             Attributes keys, QueryParam queryParam, boolean withoutBulkData) {
 
-        return locate(
-                ejb.query(SELECT,
-                        pids,
-                        keys.getStrings(Tag.StudyInstanceUID),
-                        keys.getStrings(Tag.SeriesInstanceUID),
-                        keys.getStrings(Tag.SOPInstanceUID),
-                        queryParam),
-                withoutBulkData
-        );
+        Locator locator = new Locator(withoutBulkData);
+        ejb.query(SELECT,
+                pids,
+                keys.getStrings(Tag.StudyInstanceUID),
+                keys.getStrings(Tag.SeriesInstanceUID),
+                keys.getStrings(Tag.SOPInstanceUID),
+                queryParam,
+                locator);
+        return locator.finish();
     }
 
     /**
@@ -146,35 +148,51 @@ public class DefaultRetrieveService implements RetrieveService {
     public List<ArchiveInstanceLocator> calculateMatches(String studyIUID,
             String seriesIUID, String objectIUID, QueryParam queryParam, boolean withoutBulkData) {
 
-        return locate(
-                ejb.query(SELECT,
-                        null,
-                        studyIUID == null ? null : new String[]{studyIUID},
-                        seriesIUID == null ? null : new String[]{seriesIUID},
-                        objectIUID == null ? null : new String[]{objectIUID},
-                        queryParam),
-                withoutBulkData);
+        Locator locator = new Locator(withoutBulkData);
+        ejb.query(SELECT,
+                null,
+                studyIUID == null ? null : new String[]{studyIUID},
+                seriesIUID == null ? null : new String[]{seriesIUID},
+                objectIUID == null ? null : new String[]{objectIUID},
+                queryParam,
+                locator);
+        return locator.finish();
     }
 
-    private List<ArchiveInstanceLocator> locate(List<Tuple> tuples, boolean withoutBulkData) {
+    /**
+     * Collects the locators of the instances from the result rows of
+     * {@link RetrieveServiceEJB#query}, without keeping the rows. As the rows
+     * are ordered by Series, the Series attributes are fetched only once per
+     * Series, and the access of a Study on a Storage System Group is only
+     * recorded once per retrieve.
+     */
+    private final class Locator implements RetrieveServiceEJB.TupleHandler {
+
+        private final boolean withoutBulkData;
+        private final StorageDeviceExtension storageConf =
+                device.getDeviceExtension(StorageDeviceExtension.class);
+        private final List<ArchiveInstanceLocator> locators =
+                new ArrayList<ArchiveInstanceLocator>();
+        private final Set<String> studiesUpdatedForAccess = new HashSet<String>();
+        private long instPk = -1;
+        private long seriesPk = -1;
+        private Attributes seriesAttrs;
+        private ArchiveInstanceLocator locator;
 
-        List<String> studiesUpdatedForAccess = new ArrayList<String>();
-        List<ArchiveInstanceLocator> locators = new ArrayList<ArchiveInstanceLocator>(tuples.size());
-        StorageDeviceExtension storageConf = device.getDeviceExtension(StorageDeviceExtension.class);
-        long instPk = -1;
-        long seriesPk = -1;
-        Attributes seriesAttrs = null;
-        ArchiveInstanceLocator locator = null;
+        Locator(boolean withoutBulkData) {
+            this.withoutBulkData = withoutBulkData;
+        }
 
-        for (Tuple tuple : tuples) {
+        @Override
+        public void handle(Tuple tuple) {
             Boolean locatorWithoutBulkData = tuple.get(QLocation.location.withoutBulkData);
             String retrieveAETs = tuple.get(QInstance.instance.retrieveAETs);
             if (locatorWithoutBulkData == null) { // No Location
                 if (retrieveAETs == null) // No external location
-                    continue;
+                    return;
             } else if (locator != null && !locator.isWithoutBulkdata() && locatorWithoutBulkData && !withoutBulkData) {
             	LOG.debug("Skip Locator withoutBulkData! We have already a locator with bulkData and request is also for 'with bulkdata'");
-            	continue;
+            	return;
             }
             long nextSeriesPk = tuple.get(QSeries.series.pk);
             long nextInstPk = tuple.get(QInstance.instance.pk);
@@ -182,24 +200,23 @@ public class DefaultRetrieveService implements RetrieveService {
             if (seriesPk != nextSeriesPk) {
                 seriesAttrs = ejb.getSeriesAttributes(nextSeriesPk);
                 seriesPk = nextSeriesPk;
-                
-                String groupID = tuple.get(QLocation.location.storageSystemGroupID);
+            }
+
+            String groupID = tuple.get(QLocation.location.storageSystemGroupID);
+            if (groupID != null) {
                 String currentStudy = tuple.get(QStudy.study.studyInstanceUID);
-                
-                if(!studiesUpdatedForAccess.contains(currentStudy) 
-                        && groupID !=null) {
-                    locationManager.findOrCreateStudyOnStorageGroup(currentStudy, 
+                if (studiesUpdatedForAccess.add(currentStudy + '/' + groupID))
+                    locationManager.findOrCreateStudyOnStorageGroup(currentStudy,
                             groupID);
-                }
-                
             }
+
             if (instPk != nextInstPk) {
                 if (locator != null)
                     locators.add(locator);
                 locator = null;
             }
             instPk = nextInstPk;
-            if(tuple.get(QLocation.location.storageSystemGroupID) == null) { //can only be null if instance has no location!
+            if (groupID == null) { //can only be null if instance has no location!
                 locator = augmentExternalLocations(updateLocator(storageConf, 
                         locator, seriesAttrs, tuple));
             } else {
@@ -208,9 +225,14 @@ public class DefaultRetrieveService implements RetrieveService {
                 locator = updateLocator(storageConf, locator, seriesAttrs, tuple);
             }
         }
-        if (locator != null)
-            locators.add(locator);
-        return locators;
+
+        List<ArchiveInstanceLocator> finish() {
+            if (locator != null) {
+                locators.add(locator);
+                locator = null;
+            }
+            return locators;
+        }
     }
 
     private ArchiveInstanceLocator augmentExternalLocations(
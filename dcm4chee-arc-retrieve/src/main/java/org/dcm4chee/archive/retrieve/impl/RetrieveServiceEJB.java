@@ -41,6 +41,7 @@ package org.dcm4chee.archive.retrieve.impl;
 import java.util.List;
 
 import javax.ejb.Stateless;
+import javax.inject.Inject;
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
 
@@ -56,8 +57,10 @@ import org.dcm4chee.archive.entity.QSeries;
 import org.dcm4chee.archive.entity.QStudy;
 import org.dcm4chee.archive.entity.Series;
 import org.dcm4chee.archive.query.util.QueryBuilder;
+import org.dcm4chee.archive.util.DecodedAttributesCache;
 import org.hibernate.Session;
 
+import com.mysema.commons.lang.CloseableIterator;
 import com.mysema.query.BooleanBuilder;
 import com.mysema.query.Tuple;
 import com.mysema.query.jpa.hibernate.HibernateQuery;
@@ -70,12 +73,26 @@ import com.mysema.query.types.Expression;
 @Stateless
 public class RetrieveServiceEJB {
 
+    public interface TupleHandler {
+        void handle(Tuple tuple);
+    }
+
+    private static final int FETCH_SIZE = 100;
+
     @PersistenceContext(name = "dcm4chee-arc", unitName = "dcm4chee-arc")
     private EntityManager em;
 
-    public List<Tuple> query(Expression<?>[] select,
+    @Inject
+    private DecodedAttributesCache attributesCache;
+
+    /**
+     * Scrolls over the matching instances and passes each result row to the
+     * handler, without loading all of them into memory. Rows of the same
+     * Series and of the same instance are passed consecutively.
+     */
+    public void query(Expression<?>[] select,
             IDWithIssuer[] pids, String[] studyIUIDs, String[] seriesIUIDs,
-            String[] objectIUIDs, QueryParam queryParam) {
+            String[] objectIUIDs, QueryParam queryParam, TupleHandler handler) {
 
         String nullValue = queryParam.getNullValueForQueryFields();
         BooleanBuilder builder = new BooleanBuilder();
@@ -90,7 +107,7 @@ public class RetrieveServiceEJB {
         builder.and(QueryBuilder.hideRejectedInstance(queryParam));
         builder.and(QueryBuilder.hideRejectionNote(queryParam));
 
-        List<Tuple> query = new HibernateQuery(em.unwrap(Session.class))
+        try (CloseableIterator<Tuple> results = new HibernateQuery(em.unwrap(Session.class))
                 .from(QInstance.instance)
                 .leftJoin(QInstance.instance.locations, QLocation.location)
                 .innerJoin(QInstance.instance.attributesBlob,
@@ -98,18 +115,39 @@ public class RetrieveServiceEJB {
                 .innerJoin(QInstance.instance.series, QSeries.series)
                 .innerJoin(QSeries.series.study, QStudy.study)
                 .innerJoin(QStudy.study.patient, QPatient.patient)
-                .orderBy(QInstance.instance.pk.asc())
+                .orderBy(QSeries.series.pk.asc(), QInstance.instance.pk.asc())
                 .where(builder)
-                .list(select);
-
-        return query;
+                .setFetchSize(FETCH_SIZE)
+                .iterate(select)) {
+            while (results.hasNext())
+                handler.handle(results.next());
+        }
     }
 
-    public Attributes getSeriesAttributes(Long seriesPk) {
-        PatientStudySeriesAttributes result = (PatientStudySeriesAttributes) em
-                .createNamedQuery(Series.PATIENT_STUDY_SERIES_ATTRIBUTES)
+    public Attributes getSeriesAttributes(final Long seriesPk) {
+        Object[] versions = (Object[]) em
+                .createNamedQuery(Series.PATIENT_STUDY_SERIES_VERSIONS)
                 .setParameter(1, seriesPk).getSingleResult();
-        return result.getAttributes();
+        return attributesCache.get(
+                DecodedAttributesCache.Level.PATIENT_STUDY_SERIES, seriesPk,
+                toLongs(versions),
+                new DecodedAttributesCache.Decoder() {
+                    @Override
+                    public Attributes decode() {
+                        PatientStudySeriesAttributes result =
+                                (PatientStudySeriesAttributes) em
+                                .createNamedQuery(Series.PATIENT_STUDY_SERIES_ATTRIBUTES)
+                                .setParameter(1, seriesPk).getSingleResult();
+                        return result.getAttributes();
+                    }
+                });
+    }
+
+    private static long[] toLongs(Object[] values) {
+        long[] longs = new long[values.length];
+        for (int i = 0; i < values.length; i++)
+            longs[i] = ((Number) values[i]).longValue();
+        return longs;
     }
 
     public List<ExternalRetrieveLocation> getExternalLocations(String iuid) {
@@ -0,0 +1,257 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2014
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.stgcmt.scp.impl;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+
+import org.dcm4che3.net.Device;
+import org.dcm4chee.archive.conf.ArchiveDeviceExtension;
+import org.dcm4chee.archive.util.BoundedExecutor;
+import org.dcm4chee.storage.conf.StorageDeviceExtension;
+import org.dcm4chee.storage.conf.StorageSystem;
+import org.dcm4chee.storage.conf.SyncPolicy;
+import org.dcm4chee.storage.service.RetrieveService;
+import org.dcm4chee.storage.service.StorageService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mysema.query.Tuple;
+
+/**
+ * Verifies the digests of the objects referenced by a Storage Commitment
+ * request on a bounded number of threads of the device executor. References
+ * are submitted alternating between Storage Systems, so concurrent
+ * verifications are spread over the Storage Systems. Objects whose digest
+ * was verified within the configured freshness window are not read again.
+ */
+@ApplicationScoped
+public class StgCmtDigestVerifier {
+
+    private static final Logger LOG = LoggerFactory.getLogger(StgCmtDigestVerifier.class);
+
+    @Inject
+    private Device device;
+
+    @Inject
+    private RetrieveService storageRetrieveService;
+
+    @Inject
+    private StorageService storageService;
+
+    @Inject
+    private StgCmtEJB stgCmtEJB;
+
+    private BoundedExecutor executor;
+
+    private final class Verification implements Callable<Boolean> {
+        final Tuple tuple;
+        final StorageSystem storageSystem;
+
+        Verification(Tuple tuple, StorageSystem storageSystem) {
+            this.tuple = tuple;
+            this.storageSystem = storageSystem;
+        }
+
+        String digest() {
+            return tuple.get(3, String.class);
+        }
+
+        String filePath() {
+            return tuple.get(4, String.class);
+        }
+
+        Long locationPk() {
+            return tuple.get(7, Long.class);
+        }
+
+        @Override
+        public Boolean call() throws IOException {
+            return storageRetrieveService.calculateDigestAndMatch(
+                    storageRetrieveService.createRetrieveContext(storageSystem),
+                    digest(), filePath());
+        }
+    }
+
+    /**
+     * Removes the matches from {@code foundMatches} whose digest does not
+     * match the referenced object, and syncs the verified objects on
+     * Storage Systems with {@link SyncPolicy#ON_STORAGE_COMMITMENT}.
+     */
+    public List<Tuple> verify(List<Tuple> foundMatches) throws IOException {
+        ArchiveDeviceExtension arcDev = device.getDeviceExtension(ArchiveDeviceExtension.class);
+        StorageDeviceExtension devExt = device.getDeviceExtension(StorageDeviceExtension.class);
+        long freshSince = System.currentTimeMillis() - arcDev.getStgCmtDigestFreshness() * 1000L;
+        Map<StorageSystem, List<String>> committed = new LinkedHashMap<StorageSystem, List<String>>();
+        Map<StorageSystem, List<Verification>> pending =
+                new LinkedHashMap<StorageSystem, List<Verification>>();
+        int fresh = 0;
+        for (Tuple tuple : foundMatches) {
+            StorageSystem storageSystem = devExt.getStorageSystem(
+                    tuple.get(6, String.class), tuple.get(5, String.class));
+            Verification verification = new Verification(tuple, storageSystem);
+            Date verifiedTime = tuple.get(8, Date.class);
+            if (arcDev.getStgCmtDigestFreshness() > 0 && verifiedTime != null
+                    && verifiedTime.getTime() > freshSince) {
+                addTo(committed, storageSystem, verification.filePath());
+                fresh++;
+            } else {
+                addTo(pending, storageSystem, verification);
+            }
+        }
+
+        List<Verification> verifications = interleave(pending);
+        List<Future<Boolean>> futures = submit(verifications, arcDev.getStgCmtVerifyThreads());
+        Set<Tuple> mismatched = Collections.newSetFromMap(new IdentityHashMap<Tuple, Boolean>());
+        List<Long> verifiedPks = new ArrayList<Long>(verifications.size());
+        try {
+            for (int i = 0; i < verifications.size(); i++) {
+                Verification verification = verifications.get(i);
+                try {
+                    if (futures.get(i).get()) {
+                        addTo(committed, verification.storageSystem, verification.filePath());
+                        verifiedPks.add(verification.locationPk());
+                    } else {
+                        mismatched.add(verification.tuple);
+                    }
+                } catch (ExecutionException e) {
+                    LOG.error("Failed to calculate digest of {} on storage commitment request"
+                            + ", no digest check is performed, {}",
+                            verification.filePath(), e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            for (Future<Boolean> future : futures)
+                future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted verification of digests");
+        }
+        LOG.info("Verified digests of {} objects ({} mismatches), {} verified within last {}s",
+                new Object[]{verifications.size(), mismatched.size(), fresh,
+                        arcDev.getStgCmtDigestFreshness()});
+
+        if (arcDev.getStgCmtDigestFreshness() > 0)
+            stgCmtEJB.updateDigestVerifiedTime(verifiedPks, new Date());
+
+        //sync if configured
+        for (Map.Entry<StorageSystem, List<String>> entry : committed.entrySet()) {
+            if (entry.getKey().getSyncPolicy().equals(SyncPolicy.ON_STORAGE_COMMITMENT)) {
+                storageService.syncFiles(entry.getKey(), entry.getValue());
+            }
+        }
+
+        if (!mismatched.isEmpty())
+            for (Iterator<Tuple> iter = foundMatches.iterator(); iter.hasNext();)
+                if (mismatched.contains(iter.next()))
+                    iter.remove();
+        return foundMatches;
+    }
+
+    @PreDestroy
+    public synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
+    }
+
+    private static <T> void addTo(Map<StorageSystem, List<T>> map,
+            StorageSystem storageSystem, T value) {
+        List<T> list = map.get(storageSystem);
+        if (list == null)
+            map.put(storageSystem, list = new ArrayList<T>());
+        list.add(value);
+    }
+
+    private static List<Verification> interleave(
+            Map<StorageSystem, List<Verification>> bySystem) {
+        List<Verification> result = new ArrayList<Verification>();
+        List<Iterator<Verification>> iters = new ArrayList<Iterator<Verification>>();
+        for (List<Verification> list : bySystem.values())
+            iters.add(list.iterator());
+        while (!iters.isEmpty())
+            for (Iterator<Iterator<Verification>> it = iters.iterator(); it.hasNext();) {
+                Iterator<Verification> iter = it.next();
+                if (iter.hasNext())
+                    result.add(iter.next());
+                else
+                    it.remove();
+            }
+        return result;
+    }
+
+    private List<Future<Boolean>> submit(List<Verification> verifications, int threads) {
+        List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>(verifications.size());
+        BoundedExecutor executor = threads > 0 ? executor(threads) : null;
+        for (Verification verification : verifications) {
+            FutureTask<Boolean> future = new FutureTask<Boolean>(verification);
+            if (executor != null)
+                executor.execute(future);
+            else
+                future.run();
+            futures.add(future);
+        }
+        return futures;
+    }
+
+    private synchronized BoundedExecutor executor(int threads) {
+        if (executor == null)
+            executor = new BoundedExecutor("stgcmt-verify", device.getExecutor(), threads, 0);
+        else
+            executor.setMaxConcurrency(threads);
+        return executor;
+    }
+}
@@ -38,7 +38,10 @@
 
 package org.dcm4chee.archive.stgcmt.scp.impl;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 
@@ -52,6 +55,7 @@ import org.dcm4che3.data.Tag;
 import org.dcm4che3.data.VR;
 import org.dcm4che3.net.Status;
 import org.dcm4che3.util.StringUtils;
+import org.dcm4chee.archive.entity.Location;
 import org.dcm4chee.archive.entity.QInstance;
 import org.dcm4chee.archive.entity.QLocation;
 import org.dcm4chee.archive.entity.Utils;
@@ -67,6 +71,8 @@ import com.mysema.query.jpa.hibernate.HibernateQuery;
 @Stateless
 public class StgCmtEJB  {
 
+    private static final int UPDATE_CHUNK_SIZE = 100;
+
     @PersistenceContext(name = "dcm4chee-arc", unitName="dcm4chee-arc")
     private EntityManager em;
 
@@ -90,10 +96,24 @@ public class StgCmtEJB  {
                 QLocation.location.digest,
                 QLocation.location.storagePath,
                 QLocation.location.storageSystemID,
-                QLocation.location.storageSystemGroupID);
+                QLocation.location.storageSystemGroupID,
+                QLocation.location.pk,
+                QLocation.location.digestVerifiedTime);
         return list;
     }
 
+    public void updateDigestVerifiedTime(Collection<Long> locationPks, Date time) {
+        if (locationPks.isEmpty())
+            return;
+
+        List<Long> pks = new ArrayList<Long>(locationPks);
+        for (int i = 0; i < pks.size(); i += UPDATE_CHUNK_SIZE)
+            em.createNamedQuery(Location.UPDATE_DIGEST_VERIFIED_TIME)
+                .setParameter(1, time)
+                .setParameter(2, pks.subList(i, Math.min(pks.size(), i + UPDATE_CHUNK_SIZE)))
+                .executeUpdate();
+    }
+
     public Attributes calculateResult(List<Tuple> list, Attributes actionInfo) {
         Sequence requestSeq = actionInfo.getSequence(Tag.ReferencedSOPSequence);
         int size = requestSeq.size();
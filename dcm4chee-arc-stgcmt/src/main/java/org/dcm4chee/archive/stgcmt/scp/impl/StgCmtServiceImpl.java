@@ -82,12 +82,6 @@ import org.dcm4chee.archive.conf.ArchiveAEExtension;
 import org.dcm4chee.archive.dto.ArchiveInstanceLocator;
 import org.dcm4chee.archive.stgcmt.scp.CommitEvent;
 import org.dcm4chee.archive.stgcmt.scp.StgCmtService;
-import org.dcm4chee.storage.RetrieveContext;
-import org.dcm4chee.storage.conf.StorageDeviceExtension;
-import org.dcm4chee.storage.conf.StorageSystem;
-import org.dcm4chee.storage.conf.SyncPolicy;
-import org.dcm4chee.storage.service.RetrieveService;
-import org.dcm4chee.storage.service.StorageService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -114,10 +108,7 @@ public class StgCmtServiceImpl implements StgCmtService {
     private StgCmtEJB stgCmtEJB;
 
     @Inject
-    private RetrieveService storageRetrieveService;
-
-    @Inject
-    private StorageService storageService;
+    private StgCmtDigestVerifier digestVerifier;
 
     @Inject
     private IApplicationEntityCache aeCache;
@@ -137,57 +128,10 @@ public class StgCmtServiceImpl implements StgCmtService {
     public Attributes calculateResult(Attributes actionInfo) throws IOException {
 
         List<Tuple> foundMatches = stgCmtEJB.lookupMatches(actionInfo);
-        return stgCmtEJB.calculateResult(checkForDigestAndAdjust(foundMatches),
+        return stgCmtEJB.calculateResult(digestVerifier.verify(foundMatches),
                 actionInfo);
     }
 
-    private List<Tuple> checkForDigestAndAdjust(List<Tuple> foundMatches) throws IOException {
-
-        Map<StorageSystem, List<String>> committed = new HashMap<>();
-
-        for (java.util.Iterator<Tuple> iter = foundMatches.iterator(); iter
-                .hasNext();) {
-            Tuple tuple = iter.next();
-
-            String digest = tuple.get(3, String.class);
-            String filePath = tuple.get(4, String.class);
-            String storageSystemID = tuple.get(5, String.class);
-            String storageGroupID = tuple.get(6, String.class);
-            StorageDeviceExtension devExt = device
-                    .getDeviceExtension(StorageDeviceExtension.class);
-            StorageSystem storageSystem = devExt.getStorageSystem(
-                    storageGroupID, storageSystemID);
-            RetrieveContext ctx = storageRetrieveService
-                    .createRetrieveContext(storageSystem);
-            try {
-                if (!storageRetrieveService.calculateDigestAndMatch(ctx, digest, filePath)) {
-                    iter.remove();
-                }
-                else {
-                    if (committed.get(storageSystem) == null)
-                        committed.put(storageSystem,new ArrayList<String>());
-                    committed.get(storageSystem).add(filePath);
-                }
-            } catch (IOException e) {
-                LOG.error(
-                        "Failed to calculate digest on storage commitment request"
-                                + ", no digest check is performed, {}", e);
-                return foundMatches;
-
-            }
-        }
-
-        //sync if configured
-        for (StorageSystem storageSystem : committed.keySet()) {
-            if (storageSystem.getSyncPolicy().equals(SyncPolicy.ON_STORAGE_COMMITMENT)) {
-                storageService.syncFiles(storageSystem,committed.get(storageSystem));
-            }
-        }
-
-        return foundMatches;
-
-    }
-
     @Override
     public void scheduleNEventReport(String localAET, String remoteAET,
             Attributes eventInfo, int retries, long delay) {
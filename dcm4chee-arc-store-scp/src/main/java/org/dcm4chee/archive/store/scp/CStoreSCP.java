@@ -49,6 +49,7 @@ import org.dcm4che3.data.Attributes;
 import org.dcm4che3.data.Tag;
 import org.dcm4che3.data.VR;
 import org.dcm4che3.net.Association;
+import org.dcm4che3.net.Commands;
 import org.dcm4che3.net.Dimse;
 import org.dcm4che3.net.PDVInputStream;
 import org.dcm4che3.net.Status;
@@ -81,47 +82,38 @@ public class CStoreSCP extends BasicCStoreSCP {
     @MonitoredService(name = { "dicom", "service", "dimse", "CStoreSCP" })
     public void onDimseRQ(Association as, PresentationContext pc, Dimse dimse,
             Attributes rq, PDVInputStream data) throws IOException {
-    	super.onDimseRQ(as, pc, dimse, rq, data);
+        StoreBatch batch = dimse == Dimse.C_STORE_RQ ? storeBatchOf(as) : null;
+        if (batch == null) {
+            super.onDimseRQ(as, pc, dimse, rq, data);
+            return;
+        }
+
+        Attributes rsp = Commands.mkCStoreRSP(rq, Status.Success);
+        try {
+            // the batch may be flushed by its timer while the next instance
+            // is received; the store session is not thread-safe, so spooling
+            // and storing into it is serialized by the batch monitor
+            synchronized (batch) {
+                StoreContext context = createStoreContext(as, pc, rq, data);
+                storeService.spool(context);
+                batch.add(pc, rq, rsp, context);
+            }
+        } catch (DicomServiceException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new DicomServiceException(Status.ProcessingFailure, e);
+        }
     }
-    
+
     @Override
     protected void store(Association as, PresentationContext pc, Attributes rq,
             PDVInputStream data, Attributes rsp) throws IOException {
 
         try {
-            StoreSession session =
-                    (StoreSession) as.getProperty(StoreSession.class.getName());
-            if (session == null) {
-                ArchiveAEExtension arcAE = as.getApplicationEntity()
-                        .getAEExtension(ArchiveAEExtension.class);
-                session = storeService.createStoreSession(storeService);
-                session.setSource(new LocalAssociationParticipant(as));
-                session.setRemoteAET(as.getRemoteAET());
-                session.setRemoteApplicationEntity(aeCache.get(as.getRemoteAET()));
-                session.setArchiveAEExtension(arcAE);
-                storeService.init(session);
-                as.setProperty(StoreSession.class.getName(), session);
-            }
-            Attributes fmi = as.createFileMetaInformation(
-                  rq.getString(Tag.AffectedSOPInstanceUID),
-                  rq.getString(Tag.AffectedSOPClassUID),
-                  pc.getTransferSyntax());
-
-            StoreContext context = storeService.createStoreContext(session);
-            context.setTransferSyntax(pc.getTransferSyntax());
-            context.setFileMetainfo(fmi);
-            context.setInputStream(data);
-
+            StoreContext context = createStoreContext(as, pc, rq, data);
             storeService.spool(context);
             storeService.store(context);
-
-            Attributes coercedAttrs = context.getCoercedOriginalAttributes();
-            if (!coercedAttrs.isEmpty() 
-                    && !session.getArchiveAEExtension()
-                        .isSuppressWarningCoercionOfDataElements()) {
-                rsp.setInt(Tag.Status, VR.US, Status.CoercionOfDataElements);
-                rsp.setInt(Tag.OffendingElement, VR.AT, coercedAttrs.tags());
-            }
+            setCoercionWarning(context, rsp);
         } catch (DicomServiceException e) {
             throw e;
         } catch (Exception e) {
@@ -129,8 +121,84 @@ public class CStoreSCP extends BasicCStoreSCP {
         }
     }
 
+    private StoreContext createStoreContext(Association as,
+            PresentationContext pc, Attributes rq, PDVInputStream data)
+            throws Exception {
+        StoreSession session =
+                (StoreSession) as.getProperty(StoreSession.class.getName());
+        if (session == null) {
+            ArchiveAEExtension arcAE = as.getApplicationEntity()
+                    .getAEExtension(ArchiveAEExtension.class);
+            session = storeService.createStoreSession(storeService);
+            session.setSource(new LocalAssociationParticipant(as));
+            session.setRemoteAET(as.getRemoteAET());
+            session.setRemoteApplicationEntity(aeCache.get(as.getRemoteAET()));
+            session.setArchiveAEExtension(arcAE);
+            storeService.init(session);
+            as.setProperty(StoreSession.class.getName(), session);
+        }
+        Attributes fmi = as.createFileMetaInformation(
+              rq.getString(Tag.AffectedSOPInstanceUID),
+              rq.getString(Tag.AffectedSOPClassUID),
+              pc.getTransferSyntax());
+
+        StoreContext context = storeService.createStoreContext(session);
+        context.setTransferSyntax(pc.getTransferSyntax());
+        context.setFileMetainfo(fmi);
+        context.setInputStream(data);
+        return context;
+    }
+
+    static void setCoercionWarning(StoreContext context, Attributes rsp) {
+        Attributes coercedAttrs = context.getCoercedOriginalAttributes();
+        if (!coercedAttrs.isEmpty() 
+                && !context.getStoreSession().getArchiveAEExtension()
+                    .isSuppressWarningCoercionOfDataElements()) {
+            rsp.setInt(Tag.Status, VR.US, Status.CoercionOfDataElements);
+            rsp.setInt(Tag.OffendingElement, VR.AT, coercedAttrs.tags());
+        }
+    }
+
+    /**
+     * Batching of the database updates is only possible if the SCU may send
+     * further C-STORE-RQs before it receives the C-STORE-RSP for the previous
+     * ones, so the batch is limited by the negotiated asynchronous operations
+     * window.
+     */
+    private StoreBatch storeBatchOf(Association as) {
+        StoreBatch batch = (StoreBatch) as.getProperty(StoreBatch.class.getName());
+        if (batch != null)
+            return batch;
+
+        ArchiveAEExtension arcAE = as.getApplicationEntity()
+                .getAEExtension(ArchiveAEExtension.class);
+        int maxOps = as.getMaxOpsPerformed();
+        int maxSize = arcAE.getStoreBatchSize();
+        if (maxOps > 0)
+            maxSize = Math.min(maxSize, maxOps);
+        if (maxSize <= 1)
+            return null;
+
+        batch = new StoreBatch(as, storeService, maxSize,
+                arcAE.getStoreBatchMaxDelay());
+        as.setProperty(StoreBatch.class.getName(), batch);
+        return batch;
+    }
+
     @Override
     public void onClose(Association as) {
+        StoreBatch batch = (StoreBatch) as.getProperty(StoreBatch.class.getName());
+        if (batch == null) {
+            closeStoreSession(as);
+            return;
+        }
+        synchronized (batch) {
+            batch.flush();
+            closeStoreSession(as);
+        }
+    }
+
+    private void closeStoreSession(Association as) {
         StoreSession session = as.getProperty(StoreSession.class);
         if (session != null)
             storeService.onClose(session);
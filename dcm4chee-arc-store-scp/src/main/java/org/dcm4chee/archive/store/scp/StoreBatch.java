@@ -0,0 +1,169 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.store.scp;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.net.Association;
+import org.dcm4che3.net.Dimse;
+import org.dcm4che3.net.Status;
+import org.dcm4che3.net.pdu.PresentationContext;
+import org.dcm4che3.net.service.DicomServiceException;
+import org.dcm4chee.archive.store.StoreContext;
+import org.dcm4chee.archive.store.StoreService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Collects spooled instances received on one association, until either the
+ * maximal batch size is reached or the oldest instance waited for the
+ * maximal delay. The C-STORE-RSPs are only sent after the database update
+ * of the whole batch.
+ * <p>
+ * The timer only triggers the flush on the executor of the device, so the
+ * scheduled executor is not blocked by the database update. As the flush then
+ * runs concurrently to the association thread, all access to the store
+ * session of the association - spooling as well as storing - must hold the
+ * monitor of the batch.
+ */
+class StoreBatch {
+
+    private static final Logger LOG = LoggerFactory.getLogger(StoreBatch.class);
+
+    private final Association as;
+    private final StoreService storeService;
+    private final int maxSize;
+    private final int maxDelay;
+    private final List<Entry> entries;
+    private ScheduledFuture<?> flushTask;
+
+    StoreBatch(Association as, StoreService storeService, int maxSize,
+            int maxDelay) {
+        this.as = as;
+        this.storeService = storeService;
+        this.maxSize = maxSize;
+        this.maxDelay = maxDelay;
+        this.entries = new ArrayList<Entry>(maxSize);
+    }
+
+    synchronized void add(PresentationContext pc, Attributes rq, Attributes rsp,
+            StoreContext context) {
+        entries.add(new Entry(pc, rq, rsp, context));
+        if (entries.size() >= maxSize)
+            flush();
+        else if (flushTask == null)
+            flushTask = as.getDevice().getScheduledExecutor().schedule(
+                    new Runnable() {
+                        @Override
+                        public void run() {
+                            as.getDevice().execute(new Runnable() {
+                                @Override
+                                public void run() {
+                                    flush();
+                                }
+                            });
+                        }
+                    }, maxDelay, TimeUnit.MILLISECONDS);
+    }
+
+    synchronized void flush() {
+        if (flushTask != null) {
+            flushTask.cancel(false);
+            flushTask = null;
+        }
+        if (entries.isEmpty())
+            return;
+
+        List<StoreContext> contexts = new ArrayList<StoreContext>(entries.size());
+        for (Entry entry : entries)
+            contexts.add(entry.context);
+        try {
+            LOG.debug("{}: Store batch of {} instances", as, contexts.size());
+            try {
+                storeService.store(contexts);
+            } catch (RuntimeException e) {
+                LOG.warn("{}: Failed to store batch of {} instances:", as,
+                        contexts.size(), e);
+                for (StoreContext context : contexts)
+                    if (context.getThrowable() == null)
+                        context.setThrowable(e);
+            }
+            for (Entry entry : entries)
+                entry.writeRSP();
+        } finally {
+            entries.clear();
+        }
+    }
+
+    private final class Entry {
+        final PresentationContext pc;
+        final Attributes rq;
+        final Attributes rsp;
+        final StoreContext context;
+
+        Entry(PresentationContext pc, Attributes rq, Attributes rsp,
+                StoreContext context) {
+            this.pc = pc;
+            this.rq = rq;
+            this.rsp = rsp;
+            this.context = context;
+        }
+
+        void writeRSP() {
+            Throwable e = context.getThrowable();
+            if (e == null) {
+                CStoreSCP.setCoercionWarning(context, rsp);
+                as.tryWriteDimseRSP(pc, rsp);
+                return;
+            }
+            DicomServiceException dse = e instanceof DicomServiceException
+                    ? (DicomServiceException) e
+                    : new DicomServiceException(Status.ProcessingFailure, e);
+            as.tryWriteDimseRSP(pc,
+                    dse.mkRSP(Dimse.C_STORE_RSP.commandField(),
+                            rq.getInt(Tag.MessageID, 0)),
+                    dse.getDataset());
+        }
+    }
+}
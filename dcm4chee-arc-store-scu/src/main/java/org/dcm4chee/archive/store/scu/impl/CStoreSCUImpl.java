@@ -41,16 +41,30 @@ package org.dcm4chee.archive.store.scu.impl;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
 
 import org.dcm4che3.data.Attributes;
 import org.dcm4che3.data.DatasetWithFMI;
 import org.dcm4che3.data.Tag;
 import org.dcm4che3.data.UID;
 import org.dcm4che3.data.VR;
+import org.dcm4che3.imageio.codec.Compressor;
 import org.dcm4che3.imageio.codec.Decompressor;
+import org.dcm4che3.imageio.codec.TransferSyntaxType;
 import org.dcm4che3.io.DicomInputStream;
 import org.dcm4che3.io.DicomInputStream.IncludeBulkData;
 import org.dcm4che3.net.ApplicationEntity;
@@ -95,22 +109,69 @@ public class CStoreSCUImpl extends BasicCStoreSCU<ArchiveInstanceLocator>
 
     private boolean withoutBulkData;
 
+    private int readAhead;
+
+    private List<Association> parallelAssociations = Collections.emptyList();
+
+    private volatile ReadAhead prefetch;
+
+    private volatile Lanes lanes;
+
     public CStoreSCUImpl(ApplicationEntity localAE, ApplicationEntity remoteAE, ServiceType service,
                          CStoreSCUService storeSCUService, WeightWatcher weightWatcher) {
         super();
         this.context = new CStoreSCUContext(localAE, remoteAE, service);
         this.service = storeSCUService;
         this.weightWatcher = weightWatcher;
+        // updated by the threads of the parallel associations
+        this.completed = Collections.synchronizedList(
+                new ArrayList<ArchiveInstanceLocator>());
+        this.warning = Collections.synchronizedList(
+                new ArrayList<ArchiveInstanceLocator>());
+        this.failed = Collections.synchronizedList(
+                new ArrayList<ArchiveInstanceLocator>());
     }
 
     public void setWithoutBulkData(boolean withoutBulkData) {
         this.withoutBulkData = withoutBulkData;
     }
 
+    /**
+     * Sets the number of objects read from storage in advance, while
+     * preceding objects are still sent.
+     */
+    public void setReadAhead(int readAhead) {
+        this.readAhead = readAhead;
+    }
+
+    /**
+     * Sets further associations to the same Store SCP, over which the
+     * instances are spread in addition to the association passed to
+     * {@link #cstore}. The associations are released by {@link #cstore}.
+     */
+    public void setParallelAssociations(List<Association> parallelAssociations) {
+        this.parallelAssociations = parallelAssociations;
+    }
+
     @Override
     public org.dcm4che3.net.service.BasicCStoreSCUResp cstore(
             final java.util.List<ArchiveInstanceLocator> instances,
             final Association storeas, final int priority) {
+        if (!parallelAssociations.isEmpty())
+            lanes = new Lanes(parallelAssociations);
+        try {
+            return cstore0(instances, storeas, priority);
+        } finally {
+            Lanes lanes = this.lanes;
+            if (lanes != null) {
+                this.lanes = null;
+                lanes.close();
+            }
+        }
+    }
+
+    private BasicCStoreSCUResp cstore0(List<ArchiveInstanceLocator> instances,
+            final Association storeas, final int priority) {
 
         ArrayList<ArchiveInstanceLocator> locallyAvailable = (ArrayList<ArchiveInstanceLocator>) filterLocalOrExternalMatches(
                 instances, true);
@@ -157,6 +218,14 @@ public class CStoreSCUImpl extends BasicCStoreSCU<ArchiveInstanceLocator>
 
     @Override
     protected void storeInstance(Association storeas, ArchiveInstanceLocator instanceLocator) throws IOException, InterruptedException {
+        Lanes lanes = this.lanes;
+        if (lanes != null)
+            lanes.dispatch(storeas, instanceLocator);
+        else
+            store(storeas, instanceLocator);
+    }
+
+    private void store(Association storeas, ArchiveInstanceLocator instanceLocator) throws IOException, InterruptedException {
         String tsuid;
         DatasetWithFMI datasetWithFMI = null;
         Attributes attrs;
@@ -167,7 +236,9 @@ public class CStoreSCUImpl extends BasicCStoreSCU<ArchiveInstanceLocator>
 
             do {
                 try {
-                    datasetWithFMI = readFrom(inst);
+                    datasetWithFMI = (inst == instanceLocator && prefetch != null)
+                            ? prefetch.get(inst)
+                            : readFrom(inst);
                 } catch (IOException e) {
                     LOG.info("Failed to read Data Set with iuid={} from {}@{}",
                             inst.iuid, inst.getFilePath(), inst.getStorageSystem(), e);
@@ -223,8 +294,18 @@ public class CStoreSCUImpl extends BasicCStoreSCU<ArchiveInstanceLocator>
             return;
         }
 
+        StoreSCUTask task;
+        try {
+            task = new StoreSCUTask(this, storeas, inst, attrs, tsuid);
+        } catch (IllegalArgumentException | UnsupportedOperationException e) {
+            String uncompressed = uncompressedTransferSyntaxFor(storeas, inst);
+            LOG.info("Unable to compress {} to {} - send it with {}",
+                    inst.iuid, UID.nameOf(tsuid), UID.nameOf(uncompressed), e);
+            task = new StoreSCUTask(this, storeas, inst, attrs, uncompressed);
+        }
+
         try {
-            weightWatcher.execute(new StoreSCUTask(this, storeas, inst, attrs, tsuid));
+            weightWatcher.execute(task);
         } catch (Exception e) {
             if (e instanceof IOException)
                 throw (IOException) e;
@@ -358,6 +439,14 @@ public class CStoreSCUImpl extends BasicCStoreSCU<ArchiveInstanceLocator>
                 return getDefaultConfiguredTransferSyntax(inst);
         }
 
+        if (acceptedTransferSyntax.contains(inst.tsuid) && !isNative(inst.tsuid))
+            return inst.tsuid;
+
+        String compressed = selectCompressedTransferSyntax(storeas, acceptedTransferSyntax,
+                dataSetWithFMI);
+        if (compressed != null)
+            return compressed;
+
         if (acceptedTransferSyntax.contains(inst.tsuid))
             return inst.tsuid;
 
@@ -367,8 +456,293 @@ public class CStoreSCUImpl extends BasicCStoreSCU<ArchiveInstanceLocator>
             return UID.ImplicitVRLittleEndian;
     }
 
+    /**
+     * Returns the first of the compressed Transfer Syntaxes configured for
+     * the Store SCP, which was accepted for the SOP Class, or {@code null},
+     * if there is no such Transfer Syntax or no Pixel Data to compress.
+     */
+    private String selectCompressedTransferSyntax(Association storeas,
+            Set<String> acceptedTransferSyntax, DatasetWithFMI dataSetWithFMI) {
+        if (withoutBulkData || !dataSetWithFMI.getDataset().contains(Tag.PixelData))
+            return null;
+
+        for (String tsuid : context.getArchiveAEExtension()
+                .getStoreSCUTransferSyntaxes(storeas.getRemoteAET())) {
+            if (acceptedTransferSyntax.contains(tsuid) && !isNative(tsuid))
+                return tsuid;
+        }
+        return null;
+    }
+
+    private String uncompressedTransferSyntaxFor(Association storeas, InstanceLocator inst) {
+        if (isNative(inst.tsuid))
+            return inst.tsuid;
+
+        return storeas.getTransferSyntaxesFor(inst.cuid).contains(UID.ExplicitVRLittleEndian)
+                ? UID.ExplicitVRLittleEndian
+                : UID.ImplicitVRLittleEndian;
+    }
+
+    private static boolean isNative(String tsuid) {
+        return TransferSyntaxType.forUID(tsuid) == TransferSyntaxType.NATIVE;
+    }
+
     private BasicCStoreSCUResp pushInstances(ArrayList<ArchiveInstanceLocator> instances, Association storeas, int priority) {
-        return super.cstore(instances, storeas, priority);
+        Lanes lanes = this.lanes;
+        if (lanes != null)
+            lanes.expect(instances.size());
+        if (readAhead > 0)
+            prefetch = new ReadAhead(instances);
+        try {
+            return super.cstore(instances, storeas, priority);
+        } finally {
+            if (prefetch != null) {
+                prefetch.cancel();
+                prefetch = null;
+            }
+            if (lanes != null)
+                awaitLanes(lanes);
+        }
+    }
+
+    private static void awaitLanes(Lanes lanes) {
+        try {
+            lanes.await();
+        } catch (InterruptedException e) {
+            LOG.info("Interrupted while waiting for parallel associations");
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private Executor executor() {
+        return context.getLocalAE().getDevice().getExecutor();
+    }
+
+    /**
+     * Reads the next {@link #readAhead} objects to send in the background.
+     */
+    private final class ReadAhead {
+
+        private final Iterator<ArchiveInstanceLocator> iter;
+        private final Map<ArchiveInstanceLocator, Future<DatasetWithFMI>> pending =
+                new IdentityHashMap<ArchiveInstanceLocator, Future<DatasetWithFMI>>();
+
+        ReadAhead(List<ArchiveInstanceLocator> instances) {
+            this.iter = instances.iterator();
+            fill();
+        }
+
+        DatasetWithFMI get(ArchiveInstanceLocator inst) throws IOException,
+                InterruptedException {
+            Future<DatasetWithFMI> future;
+            synchronized (this) {
+                future = pending.remove(inst);
+                fill();
+            }
+            if (future == null)
+                return readFrom(inst);
+
+            try {
+                return future.get();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException)
+                    throw (IOException) cause;
+                if (cause instanceof RuntimeException)
+                    throw (RuntimeException) cause;
+                throw new IOException(cause);
+            }
+        }
+
+        synchronized void cancel() {
+            for (Future<DatasetWithFMI> future : pending.values())
+                future.cancel(true);
+            pending.clear();
+        }
+
+        private void fill() {
+            while (pending.size() < readAhead && iter.hasNext()) {
+                final ArchiveInstanceLocator inst = iter.next();
+                if (inst.getStorageSystem() == null)
+                    continue;
+
+                FutureTask<DatasetWithFMI> future = new FutureTask<DatasetWithFMI>(
+                        new Callable<DatasetWithFMI>() {
+                            @Override
+                            public DatasetWithFMI call() throws Exception {
+                                return readFrom(inst);
+                            }
+                        });
+                pending.put(inst, future);
+                try {
+                    executor().execute(future);
+                } catch (RejectedExecutionException e) {
+                    LOG.debug("No thread available to read {} in advance", inst.iuid);
+                    future.run();
+                }
+            }
+        }
+    }
+
+    /**
+     * Spreads the instances over the association of the retrieve task and
+     * the parallel associations. Instances of a parallel association are
+     * sent by an own thread; all of them are sent and responded before the
+     * last instance was dispatched, or the retrieve task is canceled or its
+     * association is lost, so the final response of the retrieve task
+     * accounts for them.
+     */
+    private final class Lanes {
+
+        private final List<Lane> parallel = new ArrayList<Lane>();
+        private int remaining;
+        private int next;
+
+        Lanes(List<Association> associations) {
+            for (Association as : associations) {
+                Lane lane = new Lane(as);
+                try {
+                    executor().execute(lane);
+                    parallel.add(lane);
+                } catch (RejectedExecutionException e) {
+                    LOG.info("{}: no thread available to send instances", as, e);
+                    lane.close();
+                }
+            }
+        }
+
+        void expect(int count) {
+            remaining = count;
+        }
+
+        void dispatch(Association storeas, ArchiveInstanceLocator inst)
+                throws IOException, InterruptedException {
+            try {
+                int i = next++ % (parallel.size() + 1);
+                if (i == 0)
+                    store(storeas, inst);
+                else
+                    parallel.get(i - 1).add(inst);
+            } finally {
+                if (--remaining == 0 || status == Status.Cancel
+                        || !storeas.isReadyForDataTransfer())
+                    await();
+            }
+        }
+
+        void await() throws InterruptedException {
+            for (Lane lane : parallel)
+                lane.await();
+        }
+
+        void close() {
+            for (Lane lane : parallel)
+                lane.close();
+        }
+    }
+
+    private final class Lane implements Runnable {
+
+        private final Association as;
+        private final BlockingQueue<ArchiveInstanceLocator> queue =
+                new ArrayBlockingQueue<ArchiveInstanceLocator>(16);
+        private int pending;
+        private boolean closed;
+        private boolean interrupted;
+
+        Lane(Association as) {
+            this.as = as;
+        }
+
+        void add(ArchiveInstanceLocator inst) throws InterruptedException {
+            synchronized (this) {
+                pending++;
+            }
+            try {
+                queue.put(inst);
+            } catch (InterruptedException e) {
+                synchronized (this) {
+                    pending--;
+                    notifyAll();
+                }
+                throw e;
+            }
+        }
+
+        /**
+         * Sends queued instances until the lane is closed. Any failure only
+         * fails the sub-operation of the affected instance, so the lane keeps
+         * accounting for all instances added to it.
+         */
+        @Override
+        public void run() {
+            ArchiveInstanceLocator inst;
+            while ((inst = next()) != null) {
+                try {
+                    if (interrupted || status == Status.Cancel
+                            || !as.isReadyForDataTransfer())
+                        failed.add(inst);
+                    else
+                        store(as, inst);
+                } catch (InterruptedException e) {
+                    LOG.info("{}: interrupted while sending instances", as);
+                    interrupted = true;
+                    failed.add(inst);
+                } catch (Throwable e) {
+                    LOG.info("Unable to store {}/{} to {}",
+                            UID.nameOf(inst.cuid), UID.nameOf(inst.tsuid),
+                            as.getRemoteAET(), e);
+                    failed.add(inst);
+                } finally {
+                    synchronized (this) {
+                        pending--;
+                        notifyAll();
+                    }
+                }
+            }
+        }
+
+        private ArchiveInstanceLocator next() {
+            synchronized (this) {
+                while (pending == 0 && !closed) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+                if (pending == 0)
+                    return null;
+            }
+            for (;;) {
+                try {
+                    return queue.take();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+
+        void await() throws InterruptedException {
+            synchronized (this) {
+                while (pending > 0)
+                    wait();
+            }
+            as.waitForOutstandingRSP();
+        }
+
+        void close() {
+            synchronized (this) {
+                closed = true;
+                notifyAll();
+            }
+            try {
+                await();
+                as.release();
+            } catch (Exception e) {
+                LOG.info("{}: failed to release association", as, e);
+            }
+        }
     }
 
     private static class StoreSCUTask implements MemoryConsumingTask<Void> {
@@ -379,6 +753,16 @@ public class CStoreSCUImpl extends BasicCStoreSCU<ArchiveInstanceLocator>
         private final String targetTransferSyntaxUID;
         private Decompressor decompressor;
 
+        /**
+         * Creates the task, which decompresses the Pixel Data, if the target
+         * Transfer Syntax is uncompressed, or (re)compresses it, if the target
+         * Transfer Syntax is compressed.
+         *
+         * @throws IllegalArgumentException if the Pixel Data cannot be compressed
+         *         with the target Transfer Syntax
+         * @throws UnsupportedOperationException if there is no encoder for the
+         *         target Transfer Syntax
+         */
         public StoreSCUTask(CStoreSCUImpl storeSCU, Association storeas, ArchiveInstanceLocator inst, Attributes attrs, String targetTransferSyntaxUID) {
             this.storeSCU = storeSCU;
             this.storeas = storeas;
@@ -388,10 +772,12 @@ public class CStoreSCUImpl extends BasicCStoreSCU<ArchiveInstanceLocator>
 
             String sourceTransferSyntaxUID = inst.tsuid;
 
-            if (!targetTransferSyntaxUID.equals(sourceTransferSyntaxUID)) {
+            if (targetTransferSyntaxUID.equals(sourceTransferSyntaxUID)) {
+                decompressor = null;
+            } else if (isNative(targetTransferSyntaxUID)) {
                 decompressor = new Decompressor(attrs, inst.tsuid);
             } else {
-                decompressor = null;
+                decompressor = new Compressor(attrs, inst.tsuid, targetTransferSyntaxUID);
             }
         }
 
@@ -411,7 +797,9 @@ public class CStoreSCUImpl extends BasicCStoreSCU<ArchiveInstanceLocator>
         @Override
         public Void call() throws IOException, InterruptedException {
             try {
-                if (decompressor != null) {
+                if (decompressor instanceof Compressor) {
+                    ((Compressor) decompressor).compress();
+                } else if (decompressor != null) {
                     decompressor.decompress();
                 }
 
@@ -41,6 +41,7 @@ package org.dcm4chee.archive.store;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Path;
+import java.util.List;
 
 import javax.persistence.EntityManager;
 
@@ -82,6 +83,15 @@ public interface StoreService {
 
     void store(StoreContext context) throws DicomServiceException;
 
+    /**
+     * Stores several instances of the same Store Session, updating the
+     * database for all of them in one transaction. If that transaction fails,
+     * the database is updated for each instance separately. The outcome for
+     * each instance is reported by {@link StoreContext#getStoreAction()} and
+     * {@link StoreContext#getThrowable()}.
+     */
+    void store(List<StoreContext> contexts);
+
     Path spool(StoreSession session, InputStream in, String suffix)
             throws IOException;
 
@@ -91,6 +101,13 @@ public interface StoreService {
 
     void updateDB(StoreContext context) throws DicomServiceException;
 
+    /**
+     * Updates the database for several instances of the same Store Session
+     * in one transaction, which is rolled back if the update for one of them
+     * fails.
+     */
+    void updateDB(List<StoreContext> contexts) throws DicomServiceException;
+
     Instance findOrCreateInstance(EntityManager em, StoreContext context)
             throws DicomServiceException;
 
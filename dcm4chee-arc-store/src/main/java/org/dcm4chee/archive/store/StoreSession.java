@@ -91,6 +91,11 @@ public interface StoreSession {
 
     void setArchiveAEExtension(ArchiveAEExtension arcAE);
 
+    /**
+     * Returns a new {@code MessageDigest} for the digest algorithm of the
+     * storage system, so stores of the session running concurrently do not
+     * share one instance; {@code null} if no digest algorithm is configured.
+     */
     MessageDigest getMessageDigest();
 
     void setMessageDigest(MessageDigest messageDigest);
@@ -115,6 +120,10 @@ public interface StoreSession {
 
     TimeZone getSourceDeviceTimeZone();
 
+    /**
+     * Returns the synchronized list of files stored but not yet synced;
+     * iteration over it must be synchronized on the list.
+     */
     List<String> getStoredFiles();
 
     void addStoredFile(String storedFile);
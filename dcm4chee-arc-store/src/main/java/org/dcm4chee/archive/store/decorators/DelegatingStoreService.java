@@ -3,6 +3,7 @@ package org.dcm4chee.archive.store.decorators;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Path;
+import java.util.List;
 
 import javax.persistence.EntityManager;
 
@@ -51,6 +52,10 @@ public class DelegatingStoreService extends DelegatingServiceImpl<StoreService>
         getNextDecorator().store(context);
     }
 
+    public void store(List<StoreContext> contexts) {
+        getNextDecorator().store(contexts);
+    }
+
     public Path spool(StoreSession session, InputStream in, String suffix) throws IOException {
         return getNextDecorator().spool(session, in, suffix);
     }
@@ -71,6 +76,10 @@ public class DelegatingStoreService extends DelegatingServiceImpl<StoreService>
         getNextDecorator().updateDB(context);
     }
 
+    public void updateDB(List<StoreContext> contexts) throws DicomServiceException {
+        getNextDecorator().updateDB(contexts);
+    }
+
     public Instance findOrCreateInstance(EntityManager em, StoreContext context) throws DicomServiceException {
         return getNextDecorator().findOrCreateInstance(em, context);
     }
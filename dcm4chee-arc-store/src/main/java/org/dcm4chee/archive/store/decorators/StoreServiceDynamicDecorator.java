@@ -3,6 +3,7 @@ package org.dcm4chee.archive.store.decorators;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Path;
+import java.util.List;
 
 import javax.decorator.Decorator;
 import javax.decorator.Delegate;
@@ -61,6 +62,10 @@ public abstract class StoreServiceDynamicDecorator extends DynamicDecoratorWrapp
         wrapWithDynamicDecorators(delegate).store(context);
     }
 
+    public void store(List<StoreContext> contexts) {
+        wrapWithDynamicDecorators(delegate).store(contexts);
+    }
+
     public Path spool(StoreSession session, InputStream in, String suffix) throws IOException {
         return wrapWithDynamicDecorators(delegate).spool(session, in, suffix);
     }
@@ -81,6 +86,10 @@ public abstract class StoreServiceDynamicDecorator extends DynamicDecoratorWrapp
         wrapWithDynamicDecorators(delegate).updateDB(context);
     }
 
+    public void updateDB(List<StoreContext> contexts) throws DicomServiceException {
+        wrapWithDynamicDecorators(delegate).updateDB(contexts);
+    }
+
     public org.dcm4chee.archive.entity.Instance findOrCreateInstance(EntityManager em, StoreContext context) throws DicomServiceException {
         return wrapWithDynamicDecorators(delegate).findOrCreateInstance(em, context);
     }
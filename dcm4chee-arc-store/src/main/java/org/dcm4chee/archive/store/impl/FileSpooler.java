@@ -1,9 +1,12 @@
 package org.dcm4chee.archive.store.impl;
 
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.SequenceInputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.security.DigestOutputStream;
@@ -76,41 +79,36 @@ public class FileSpooler implements Spooler {
 
             out = new BufferedOutputStream(out, bufferLength);
 
-            if (fmi != null) {
-
-                @SuppressWarnings("resource")
-                DicomOutputStream dout = new DicomOutputStream(out,
-                        UID.ExplicitVRLittleEndian);
-
-                //if the context is already containing the Attributes,
-                //then those are stored
-                if (context.getOriginalAttributes() == null)
-                    dout.writeFileMetaInformation(fmi);
-                else
-                    dout.writeDataset(fmi, context.getOriginalAttributes());
-
-                out = dout;
-            }
+            if (parse && in != null && context.getOriginalAttributes() == null) {
+                // single pass: parse the dataset while the bytes are written to the spool file
+                byte[] header = spoolHeader(fmi, toFlush);
+                out.write(header);
+                parseWhileSpooling(context, header, in, out, spoolingPath);
+            } else {
+                if (fmi != null) {
+
+                    @SuppressWarnings("resource")
+                    DicomOutputStream dout = new DicomOutputStream(out,
+                            UID.ExplicitVRLittleEndian);
+
+                    //if the context is already containing the Attributes,
+                    //then those are stored
+                    if (context.getOriginalAttributes() == null)
+                        dout.writeFileMetaInformation(fmi);
+                    else
+                        dout.writeDataset(fmi, context.getOriginalAttributes());
+
+                    out = dout;
+                }
 
-            if (toFlush != null) {
-                out.write(toFlush);
-            }
+                if (toFlush != null) {
+                    out.write(toFlush);
+                }
 
-            if (in != null) {
-                if (in instanceof PDVInputStream)
-                    ((PDVInputStream) in).copyTo(out);
-                else StreamUtils.copy(in, out);
-
-                if (parse) {
-                	out.flush();
-                    try (DicomInputStream dis = new DicomInputStream(spoolingPath.toFile())) {
-                        dis.setIncludeBulkData(DicomInputStream.IncludeBulkData.URI);
-                        Attributes data = dis.readDataset(-1, -1);
-                        context.setOriginalAttributes(data);
-                        Attributes dsFMI = dis.readFileMetaInformation();
-                        context.setTransferSyntax(dsFMI != null ? dsFMI.getString(Tag.TransferSyntaxUID) : 
-                                fmi != null ? fmi.getString(Tag.TransferSyntaxUID) : UID.ImplicitVRLittleEndian);
-                    }
+                if (in != null) {
+                    if (in instanceof PDVInputStream)
+                        ((PDVInputStream) in).copyTo(out);
+                    else StreamUtils.copy(in, out);
                 }
             }
 
@@ -135,4 +133,41 @@ public class FileSpooler implements Spooler {
 
         context.setSpoolingContext(spoolingContext);
     }
+
+    private static byte[] spoolHeader(Attributes fmi, byte[] toFlush) throws IOException {
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        if (fmi != null) {
+            @SuppressWarnings("resource")
+            DicomOutputStream dout = new DicomOutputStream(header,
+                    UID.ExplicitVRLittleEndian);
+            dout.writeFileMetaInformation(fmi);
+            dout.flush();
+        }
+        if (toFlush != null)
+            header.write(toFlush);
+        return header.toByteArray();
+    }
+
+    /**
+     * Parses the dataset from the stream which is copied to the spool file,
+     * instead of reading back the spool file after it was written. The
+     * already written header is prepended to the parsed stream, so bulk data
+     * offsets refer to the position in the spool file.
+     */
+    private static void parseWhileSpooling(StoreContext context, byte[] header,
+            InputStream in, OutputStream out, Path spoolingPath) throws IOException {
+        Attributes fmi = context.getFileMetainfo();
+        TeeInputStream tee = new TeeInputStream(in, out);
+        try (DicomInputStream dis = new DicomInputStream(new SequenceInputStream(
+                new ByteArrayInputStream(header), tee))) {
+            dis.setURI(spoolingPath.toFile().toURI().toString());
+            dis.setIncludeBulkData(DicomInputStream.IncludeBulkData.URI);
+            Attributes data = dis.readDataset(-1, -1);
+            tee.drain();
+            context.setOriginalAttributes(data);
+            Attributes dsFMI = dis.readFileMetaInformation();
+            context.setTransferSyntax(dsFMI != null ? dsFMI.getString(Tag.TransferSyntaxUID) :
+                    fmi != null ? fmi.getString(Tag.TransferSyntaxUID) : UID.ImplicitVRLittleEndian);
+        }
+    }
 }
@@ -0,0 +1,199 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+package org.dcm4chee.archive.store.impl;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+
+import org.dcm4che3.net.Device;
+import org.dcm4chee.archive.conf.ArchiveDeviceExtension;
+import org.dcm4chee.storage.conf.StorageSystem;
+import org.dcm4chee.storage.service.StorageService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Device wide group commit of file syncs. Files stored by concurrent store
+ * sessions on the same Storage System are collected into one batch, which is
+ * synced after {@link ArchiveDeviceExtension#getGroupCommitSyncMaxDelay()}
+ * milliseconds or as soon as it exceeds
+ * {@link ArchiveDeviceExtension#getGroupCommitSyncMaxBytes()} bytes. Callers
+ * of {@link #sync} block until their batch was synced, so the C-STORE
+ * response is still only sent for durable objects.
+ */
+@ApplicationScoped
+public class GroupCommitSyncer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(GroupCommitSyncer.class);
+
+    @Inject
+    private Device device;
+
+    @Inject
+    private StorageService storageService;
+
+    private final Map<String, Batch> pending = new HashMap<String, Batch>();
+
+    public boolean isEnabled() {
+        return device.getDeviceExtension(ArchiveDeviceExtension.class)
+                .getGroupCommitSyncMaxDelay() > 0;
+    }
+
+    /**
+     * Adds the files to the current batch of the Storage System and waits
+     * until the batch was synced.
+     */
+    public void sync(StorageSystem system, List<String> files) throws IOException {
+        ArchiveDeviceExtension arcDev = device.getDeviceExtension(ArchiveDeviceExtension.class);
+        String key = system.getStorageSystemGroup().getGroupID()
+                + '/' + system.getStorageSystemID();
+        long bytes = sizeOf(system, files);
+        Batch batch;
+        boolean flushNow;
+        synchronized (pending) {
+            batch = pending.get(key);
+            if (batch == null) {
+                batch = new Batch(system);
+                pending.put(key, batch);
+                scheduleFlush(key, batch, arcDev.getGroupCommitSyncMaxDelay());
+            }
+            batch.files.addAll(files);
+            batch.bytes += bytes;
+            flushNow = arcDev.getGroupCommitSyncMaxBytes() > 0
+                    && batch.bytes >= arcDev.getGroupCommitSyncMaxBytes();
+            if (flushNow)
+                pending.remove(key);
+        }
+        if (flushNow)
+            batch.flush();
+
+        batch.await();
+    }
+
+    /**
+     * Schedules the flush of the batch. The scheduled executor of the device
+     * also drives the association timers, so it only triggers the flush,
+     * which is performed by a thread of the device executor.
+     */
+    private void scheduleFlush(final String key, final Batch batch, long delay) {
+        device.getScheduledExecutor().schedule(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (pending) {
+                    if (pending.get(key) != batch)
+                        return;
+                    pending.remove(key);
+                }
+                try {
+                    device.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            batch.flush();
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    batch.flush();
+                }
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private static long sizeOf(StorageSystem system, List<String> files) {
+        long size = 0L;
+        for (String file : files) {
+            try {
+                size += Files.size(Paths.get(system.getStorageSystemPath(), file));
+            } catch (Exception e) {
+                // not a local file - count by number of syncs only
+            }
+        }
+        return size;
+    }
+
+    private final class Batch {
+
+        final StorageSystem system;
+        final List<String> files = new ArrayList<String>();
+        final CountDownLatch synced = new CountDownLatch(1);
+        long bytes;
+        IOException failure;
+
+        Batch(StorageSystem system) {
+            this.system = system;
+        }
+
+        void flush() {
+            try {
+                storageService.syncFiles(system, files);
+                LOG.debug("Synced {} files ({} bytes) on {}",
+                        files.size(), bytes, system);
+            } catch (IOException e) {
+                failure = e;
+            } catch (RuntimeException e) {
+                failure = new IOException(e);
+            } finally {
+                synced.countDown();
+            }
+        }
+
+        void await() throws IOException {
+            try {
+                synced.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting for file sync");
+            }
+            if (failure != null)
+                throw failure;
+        }
+    }
+}
@@ -0,0 +1,176 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+package org.dcm4chee.archive.store.impl;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.persistence.EntityManager;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4chee.archive.conf.Entity;
+import org.dcm4chee.archive.conf.StoreParam;
+import org.dcm4chee.archive.entity.Series;
+import org.dcm4chee.archive.entity.Study;
+import org.dcm4chee.archive.store.StoreContext;
+import org.dcm4chee.archive.store.StoreSession;
+
+/**
+ * Series and Studies resolved by previous stores of a Store Session.
+ * <p>
+ * If the Patient, Study (and Series) attributes of a received object are
+ * equal to those of an object already stored in this session, the entity is
+ * fetched by its primary key, without re-merging its attributes, which were
+ * already merged by the previous store. Entries only become visible to the
+ * following stores after the transaction of the store which resolved them
+ * was committed. Stores of one session may run concurrently (batched
+ * C-STORE, STOW-RS), so the entries are kept in concurrent maps.
+ */
+class ResolvedEntities {
+
+    private static final String SESSION_PROPERTY = ResolvedEntities.class.getName();
+    private static final String PENDING_SERIES = SESSION_PROPERTY + ".series";
+    private static final String PENDING_STUDY = SESSION_PROPERTY + ".study";
+
+    private final ConcurrentHashMap<String, Entry> series =
+            new ConcurrentHashMap<String, Entry>();
+    private final ConcurrentHashMap<String, Entry> studies =
+            new ConcurrentHashMap<String, Entry>();
+
+    private static final class Entry {
+        final String uid;
+        final long pk;
+        final Attributes attrs;
+
+        Entry(String uid, long pk, Attributes attrs) {
+            this.uid = uid;
+            this.pk = pk;
+            this.attrs = attrs;
+        }
+    }
+
+    static ResolvedEntities of(StoreSession session) {
+        synchronized (session) {
+            ResolvedEntities resolved = (ResolvedEntities) session.getProperty(SESSION_PROPERTY);
+            if (resolved == null)
+                session.setProperty(SESSION_PROPERTY, resolved = new ResolvedEntities());
+            return resolved;
+        }
+    }
+
+    Series findSeries(EntityManager em, StoreContext context) {
+        Attributes attrs = context.getAttributes();
+        Entry entry = series.get(attrs.getString(Tag.SeriesInstanceUID));
+        if (entry == null || !entry.attrs.equals(
+                select(context, Entity.Patient, Entity.Study, Entity.Series)))
+            return null;
+
+        Series found = em.find(Series.class, entry.pk);
+        if (found == null || found.isRejected() || found.getStudy().isRejected())
+            return null;
+
+        found.addCalledAET(context.getStoreSession().getLocalAET());
+        return found;
+    }
+
+    Study findStudy(EntityManager em, StoreContext context) {
+        Attributes attrs = context.getAttributes();
+        Entry entry = studies.get(attrs.getString(Tag.StudyInstanceUID));
+        if (entry == null || !entry.attrs.equals(
+                select(context, Entity.Patient, Entity.Study)))
+            return null;
+
+        Study found = em.find(Study.class, entry.pk);
+        if (found == null || found.isRejected())
+            return null;
+
+        return found;
+    }
+
+    static void seriesResolved(StoreContext context, Series resolved) {
+        context.setProperty(PENDING_SERIES, new Entry(resolved.getSeriesInstanceUID(),
+                resolved.getPk(), select(context, Entity.Patient, Entity.Study, Entity.Series)));
+    }
+
+    static void studyResolved(StoreContext context, Study resolved) {
+        context.setProperty(PENDING_STUDY, new Entry(resolved.getStudyInstanceUID(),
+                resolved.getPk(), select(context, Entity.Patient, Entity.Study)));
+    }
+
+    /**
+     * Makes the entities resolved by the committed store of the given
+     * context available to the following stores of its session.
+     */
+    static void committed(StoreContext context) {
+        ResolvedEntities resolved = of(context.getStoreSession());
+        Entry entry = (Entry) context.removeProperty(PENDING_SERIES);
+        if (entry != null)
+            resolved.series.put(entry.uid, entry);
+        entry = (Entry) context.removeProperty(PENDING_STUDY);
+        if (entry != null)
+            resolved.studies.put(entry.uid, entry);
+    }
+
+    static void discarded(StoreContext context) {
+        context.removeProperty(PENDING_SERIES);
+        context.removeProperty(PENDING_STUDY);
+    }
+
+    private static Attributes select(StoreContext context, Entity... entities) {
+        StoreParam storeParam = context.getStoreSession().getStoreParam();
+        Attributes attrs = context.getAttributes();
+        int[][] selections = new int[entities.length][];
+        int size = 0;
+        for (int i = 0; i < entities.length; i++) {
+            selections[i] = storeParam.getAttributeFilter(entities[i])
+                    .getCompleteSelection(attrs);
+            size += selections[i].length;
+        }
+        int[] selection = new int[size];
+        int pos = 0;
+        for (int[] tags : selections) {
+            System.arraycopy(tags, 0, selection, pos, tags.length);
+            pos += tags.length;
+        }
+        Arrays.sort(selection);
+        return new Attributes(attrs, selection);
+    }
+}
@@ -0,0 +1,186 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.store.impl;
+
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+
+import org.dcm4che3.net.Device;
+import org.dcm4chee.archive.conf.ArchiveDeviceExtension;
+import org.dcm4chee.archive.util.BoundedExecutor;
+import org.dcm4chee.storage.conf.StorageSystem;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bounded executors for the asynchronous storage I/O of the store service,
+ * one per Storage System, running on the device executor. Changes of the
+ * configured number of threads and queue size apply to existing executors.
+ * The number of active, queued and rejected tasks per Storage System are
+ * available at /ctrl/storageio.
+ */
+@ApplicationScoped
+public class StorageIOExecutor {
+
+    private static final Logger LOG = LoggerFactory.getLogger(StorageIOExecutor.class);
+
+    @Inject
+    private Device device;
+
+    private final ConcurrentHashMap<String, BoundedExecutor> executors =
+            new ConcurrentHashMap<String, BoundedExecutor>();
+
+    private final ConcurrentHashMap<String, AtomicLong> rejected =
+            new ConcurrentHashMap<String, AtomicLong>();
+
+    /**
+     * Submits a write task. If the queue of the Storage System is full, the
+     * submitting (association) thread performs the task itself, which
+     * throttles the reading of further PDVs from that association.
+     */
+    public <T> Future<T> submit(StorageSystem system, Callable<T> task) {
+        ArchiveDeviceExtension arcDev = arcDev();
+        BoundedExecutor executor = executorFor(system, arcDev);
+        FutureTask<T> future = new FutureTask<T>(task);
+        try {
+            executor.execute(future);
+        } catch (RejectedExecutionException e) {
+            String key = keyOf(system);
+            LOG.debug("Storage I/O queue for {} full - run task in caller thread", key);
+            rejectedCounter(key).incrementAndGet();
+            future.run();
+        }
+        return future;
+    }
+
+    /**
+     * Executes a task, which must not delay the caller - like syncing files
+     * after the store response. Unlike {@link #submit}, the task is queued
+     * even if the queue of the Storage System is full.
+     */
+    public void execute(StorageSystem system, Runnable task) {
+        executorFor(system, arcDev()).executeUnbounded(task);
+    }
+
+    /**
+     * Returns the keys - Storage System Group ID and Storage System ID,
+     * separated by '/' - of the Storage Systems with storage I/O executors.
+     */
+    public Set<String> getStorageSystems() {
+        return new TreeSet<String>(executors.keySet());
+    }
+
+    public int getActiveCount(String storageSystem) {
+        BoundedExecutor executor = executors.get(storageSystem);
+        return executor != null ? executor.getActiveCount() : 0;
+    }
+
+    public int getQueuedCount(String storageSystem) {
+        BoundedExecutor executor = executors.get(storageSystem);
+        return executor != null ? executor.getQueuedCount() : 0;
+    }
+
+    /**
+     * Returns the number of write tasks, which were performed by the
+     * submitting thread, because the queue of the Storage System was full.
+     */
+    public long getRejectedCount(String storageSystem) {
+        AtomicLong count = rejected.get(storageSystem);
+        return count != null ? count.get() : 0;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        for (BoundedExecutor executor : executors.values())
+            executor.shutdown();
+        executors.clear();
+    }
+
+    private BoundedExecutor executorFor(StorageSystem system, ArchiveDeviceExtension arcDev) {
+        String key = keyOf(system);
+        int threads = arcDev.getStorageIOThreads();
+        int queueSize = Math.max(1, arcDev.getStorageIOQueueSize());
+        BoundedExecutor executor = executors.get(key);
+        if (executor == null) {
+            BoundedExecutor newExecutor = new BoundedExecutor("storage-io-" + key,
+                    device.getExecutor(), threads, queueSize);
+            executor = executors.putIfAbsent(key, newExecutor);
+            if (executor == null) {
+                LOG.info("Created storage I/O executor for {} [threads={}, queue={}]",
+                        key, threads, arcDev.getStorageIOQueueSize());
+                return newExecutor;
+            }
+        }
+        if (executor.getMaxConcurrency() != Math.max(1, threads))
+            executor.setMaxConcurrency(threads);
+        if (executor.getMaxPending() != queueSize)
+            executor.setMaxPending(queueSize);
+        return executor;
+    }
+
+    private AtomicLong rejectedCounter(String key) {
+        AtomicLong count = rejected.get(key);
+        if (count == null) {
+            AtomicLong newCount = new AtomicLong();
+            count = rejected.putIfAbsent(key, newCount);
+            if (count == null)
+                count = newCount;
+        }
+        return count;
+    }
+
+    private ArchiveDeviceExtension arcDev() {
+        return device.getDeviceExtension(ArchiveDeviceExtension.class);
+    }
+
+    private static String keyOf(StorageSystem system) {
+        return system.getStorageSystemGroup().getGroupID()
+                + '/' + system.getStorageSystemID();
+    }
+}
@@ -65,6 +65,8 @@ import org.dcm4chee.storage.conf.StorageSystem;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Resource;
+import javax.ejb.SessionContext;
 import javax.ejb.Stateless;
 import javax.enterprise.event.Event;
 import javax.inject.Inject;
@@ -86,6 +88,9 @@ public class StoreServiceEJB {
     @PersistenceContext(name = "dcm4chee-arc", unitName="dcm4chee-arc")
     private EntityManager em;
 
+    @Resource
+    private SessionContext ctx;
+
     @Inject
     @NewStudyCreated
     private Event<String> newStudyCreatedEvent;
@@ -151,6 +156,23 @@ public class StoreServiceEJB {
         calculateImplicitlyCoercedAttributes(context);
     }
 
+    /**
+     * Updates the database for all instances within one transaction, so a
+     * failure of any of them rolls back the whole batch.
+     * {@link DicomServiceException} is not an application exception marked
+     * for rollback, so the transaction is marked for rollback explicitly.
+     */
+    public void updateDB(List<StoreContext> contexts)
+            throws DicomServiceException {
+        try {
+            for (StoreContext context : contexts)
+                updateDB(context);
+        } catch (DicomServiceException e) {
+            ctx.setRollbackOnly();
+            throw e;
+        }
+    }
+
     private void calculateImplicitlyCoercedAttributes(StoreContext context) {
         Instance instance = context.getInstance();
         Series series = instance.getSeries();
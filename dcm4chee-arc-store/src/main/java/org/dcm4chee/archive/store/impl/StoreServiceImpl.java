@@ -54,8 +54,6 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 
 import javax.enterprise.context.ApplicationScoped;
@@ -81,7 +79,6 @@ import org.dcm4che3.net.Dimse;
 import org.dcm4che3.net.Status;
 import org.dcm4che3.net.TransferCapability;
 import org.dcm4che3.net.service.DicomServiceException;
-import org.dcm4che3.util.AttributesFormat;
 import org.dcm4che3.util.DateUtils;
 import org.dcm4che3.util.SafeClose;
 import org.dcm4chee.archive.conf.ArchiveAEExtension;
@@ -104,10 +101,12 @@ import org.dcm4chee.archive.store.StoreSession;
 import org.dcm4chee.archive.store.StoreSessionClosed;
 import org.dcm4chee.archive.util.ArchiveDeidentifier;
 import org.dcm4chee.archive.util.RetryBean;
+import org.dcm4chee.archive.util.StoragePathFormat;
 import org.dcm4chee.storage.ObjectAlreadyExistsException;
 import org.dcm4chee.storage.RetrieveContext;
 import org.dcm4chee.storage.StorageContext;
 import org.dcm4chee.storage.conf.StorageSystem;
+import org.dcm4chee.storage.conf.SyncPolicy;
 import org.dcm4chee.storage.conf.StorageSystemGroup;
 import org.dcm4chee.storage.service.RetrieveService;
 import org.dcm4chee.storage.service.StorageService;
@@ -124,8 +123,6 @@ public class StoreServiceImpl implements StoreService {
 
     static Logger LOG = LoggerFactory.getLogger(StoreServiceImpl.class);
 
-    static ExecutorService executor = Executors.newCachedThreadPool();
-
     @Inject
     private StoreServiceEJB storeServiceEJB;
 
@@ -150,6 +147,12 @@ public class StoreServiceImpl implements StoreService {
     @Inject
     private FileSpooler fileSpooler;
 
+    @Inject
+    private StorageIOExecutor storageIOExecutor;
+
+    @Inject
+    private GroupCommitSyncer groupCommitSyncer;
+
     @Inject
     @StoreSessionClosed
     private Event<StoreSession> storeSessionClosed;
@@ -401,6 +404,61 @@ public class StoreServiceImpl implements StoreService {
         }
     }
 
+    @Override
+    public void store(List<StoreContext> contexts) {
+        if (contexts.isEmpty())
+            return;
+
+        StoreSession session = contexts.get(0).getStoreSession();
+        StoreService service = session.getStoreService();
+        List<StoreContext> toUpdate = new ArrayList<StoreContext>(contexts.size());
+        try {
+            for (StoreContext context : contexts) {
+                updateFetchStatus(context);
+                try {
+                    service.beginStoreMetadata(context);
+                    service.beginProcessFile(context);
+                    service.coerceAttributes(context);
+                    toUpdate.add(context);
+                } catch (DicomServiceException e) {
+                    context.setStoreAction(StoreAction.FAIL);
+                    context.setThrowable(e);
+                }
+            }
+
+            updateDB(session, toUpdate);
+
+        } finally {
+            syncFilesOnStore(session);
+            for (StoreContext context : contexts) {
+                service.fireStoreEvent(context);
+                service.cleanup(context);
+            }
+        }
+    }
+
+    private void updateDB(StoreSession session, List<StoreContext> contexts) {
+        StoreService service = session.getStoreService();
+        if (contexts.size() > 1) {
+            try {
+                service.updateDB(contexts);
+                return;
+            } catch (Exception e) {
+                LOG.info("{}: Failed to update DB for {} instances in one transaction"
+                        + " - update DB for each instance: {}", session, contexts.size(), e);
+            }
+        }
+
+        for (StoreContext context : contexts) {
+            try {
+                service.updateDB(context);
+            } catch (DicomServiceException e) {
+                context.setStoreAction(StoreAction.FAIL);
+                context.setThrowable(e);
+            }
+        }
+    }
+
     @Override
     public void fireStoreEvent(StoreContext context) {
         storeEvent.fire(context);
@@ -531,17 +589,46 @@ public class StoreServiceImpl implements StoreService {
     public void updateDB(final StoreContext context) throws DicomServiceException {
 
         // try to call updateDB, eventually retries
-        retry.retry(new RetryBean.Retryable<Void, DicomServiceException>() {
-            @Override
-            public Void call() throws DicomServiceException {
-                storeServiceEJB.updateDB(context);
-                return null;
-            }
-        });
+        try {
+            retry.retry(new RetryBean.Retryable<Void, DicomServiceException>() {
+                @Override
+                public Void call() throws DicomServiceException {
+                    storeServiceEJB.updateDB(context);
+                    return null;
+                }
+            });
+        } catch (DicomServiceException e) {
+            ResolvedEntities.discarded(context);
+            throw e;
+        }
+        ResolvedEntities.committed(context);
 
         logCoercedAttributes(context);
     }
 
+    @Override
+    public void updateDB(final List<StoreContext> contexts) throws DicomServiceException {
+
+        // try to call updateDB, eventually retries
+        try {
+            retry.retry(new RetryBean.Retryable<Void, DicomServiceException>() {
+                @Override
+                public Void call() throws DicomServiceException {
+                    storeServiceEJB.updateDB(contexts);
+                    return null;
+                }
+            });
+        } catch (DicomServiceException | RuntimeException e) {
+            for (StoreContext context : contexts)
+                ResolvedEntities.discarded(context);
+            throw e;
+        }
+        for (StoreContext context : contexts) {
+            ResolvedEntities.committed(context);
+            logCoercedAttributes(context);
+        }
+    }
+
     private void logCoercedAttributes(StoreContext context) {
         StoreSession session = context.getStoreSession();
         boolean deident = session.getStoreParam().isDeIdentifyLogs();
@@ -610,10 +697,7 @@ public class StoreServiceImpl implements StoreService {
 
     private String calculatePath(StorageSystem system, Attributes attributes) {
         String pattern = system.getStorageSystemGroup().getStorageFilePathFormat();
-        AttributesFormat format = AttributesFormat.valueOf(pattern);
-        synchronized (format) {
-            return format.format(attributes);
-        }
+        return StoragePathFormat.format(pattern, attributes);
     }
 
     private boolean hasSameSourceAET(Instance instance, String remoteAET) {
@@ -702,38 +786,52 @@ public class StoreServiceImpl implements StoreService {
     public Series findOrCreateSeries(EntityManager em, StoreContext context)
             throws DicomServiceException {
         Attributes attrs = context.getAttributes();
+        Series series;
         try {
-            Series series = em
+            series = ResolvedEntities.of(context.getStoreSession())
+                    .findSeries(em, context);
+            if (series != null)
+                return series;
+
+            series = em
                     .createNamedQuery(Series.FIND_BY_SERIES_INSTANCE_UID_EAGER,
                             Series.class)
                     .setParameter(1, attrs.getString(Tag.SeriesInstanceUID))
                     .getSingleResult();
             storeServiceEJB.updateSeries(context, series);
-            return series;
         } catch (NoResultException e) {
-            return storeServiceEJB.createSeries(context);
+            series = storeServiceEJB.createSeries(context);
         } catch (Exception e) {
             throw new DicomServiceException(Status.UnableToProcess, e);
         }
+        ResolvedEntities.seriesResolved(context, series);
+        return series;
     }
 
     @Override
     public Study findOrCreateStudy(EntityManager em, StoreContext context)
             throws DicomServiceException {
         Attributes attrs = context.getAttributes();
+        Study study;
         try {
-            Study study = em
+            study = ResolvedEntities.of(context.getStoreSession())
+                    .findStudy(em, context);
+            if (study != null)
+                return study;
+
+            study = em
                     .createNamedQuery(Study.FIND_BY_STUDY_INSTANCE_UID_EAGER,
                             Study.class)
                     .setParameter(1, attrs.getString(Tag.StudyInstanceUID))
                     .getSingleResult();
             storeServiceEJB.updateStudy(context, study);
-            return study;
         } catch (NoResultException e) {
-            return storeServiceEJB.createStudy(context);
+            study = storeServiceEJB.createStudy(context);
         } catch (Exception e) {
             throw new DicomServiceException(Status.UnableToProcess, e);
         }
+        ResolvedEntities.studyResolved(context, study);
+        return study;
     }
 
     @Override
@@ -896,8 +994,8 @@ public class StoreServiceImpl implements StoreService {
         final StoreSession session = context.getStoreSession();
         final StoreService service = session.getStoreService();
 
-        Future<StorageContext> futureBulkDataContext = executor.submit
-                (new Callable<StorageContext>() {
+        Future<StorageContext> futureBulkDataContext = storageIOExecutor.submit
+                (session.getStorageSystem(), new Callable<StorageContext>() {
                     @Override
                     public StorageContext call() throws DicomServiceException {
                         return service.processFile(context);
@@ -912,8 +1010,11 @@ public class StoreServiceImpl implements StoreService {
         final StoreSession session = context.getStoreSession();
         final StoreService service = session.getStoreService();
 
-        Future<StorageContext> futureMetadataContext = executor.submit
-                (new Callable<StorageContext>() {
+        StorageSystem system = session.getMetaDataStorageSystem() != null
+                ? session.getMetaDataStorageSystem()
+                : session.getStorageSystem();
+        Future<StorageContext> futureMetadataContext = storageIOExecutor.submit
+                (system, new Callable<StorageContext>() {
                     @Override
                     public StorageContext call() throws DicomServiceException {
                         return service.storeMetaData(context);
@@ -939,6 +1040,31 @@ public class StoreServiceImpl implements StoreService {
 
     private void syncFiles(StoreSession session, boolean onClose) {
         final List<String> storedFiles = session.getStoredFiles();
+        StorageSystem system = session.getStorageSystem();
+        if (system.getSyncPolicy() == SyncPolicy.ALWAYS && groupCommitSyncer.isEnabled()) {
+            List<String> files;
+            synchronized (storedFiles) {
+                if (storedFiles.isEmpty())
+                    return;
+                files = new ArrayList<String>(storedFiles);
+                storedFiles.clear();
+            }
+            // wait for the group commit - possibly by another session - without
+            // blocking concurrent stores of this session
+            try {
+                groupCommitSyncer.sync(system, files);
+            } catch (IOException e) {
+                LOG.error("File syncing failed:", e);
+            }
+            return;
+        }
+        synchronized (storedFiles) {
+            syncFiles(session, storedFiles, onClose);
+        }
+    }
+
+    private void syncFiles(StoreSession session, final List<String> storedFiles,
+            boolean onClose) {
         final StorageSystem system = session.getStorageSystem();
 
         if (storedFiles.size() == 0)
@@ -947,13 +1073,15 @@ public class StoreServiceImpl implements StoreService {
         try {
             switch (session.getStorageSystem().getSyncPolicy()) {
                 case ALWAYS:
-                    storageService. syncFiles(system, storedFiles);
+                    storageService.syncFiles(system, storedFiles);
                     break;
                 case AFTER_STORE_RSP:
-                    Executors.newSingleThreadExecutor().execute(new Runnable() {
+                    storageIOExecutor.execute(system, new Runnable() {
                         public void run() {
                             try {
-                                storageService.syncFiles(system,storedFiles);
+                                synchronized (storedFiles) {
+                                    storageService.syncFiles(system,storedFiles);
+                                }
                             } catch (IOException e) {
                                 LOG.error("File syncing failed:", e);
                             }
@@ -51,8 +51,10 @@ import java.nio.file.Path;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.TimeZone;
 
 /**
@@ -71,9 +73,11 @@ public class StoreSessionImpl implements StoreSession {
     private StorageSystem metaDataStorageSystem;
     private StorageSystem spoolStorageSystem;
     private Path spoolDirectory;
-    private HashMap<String,Object> properties = new HashMap<String,Object>();
+    private final Map<String,Object> properties =
+            Collections.synchronizedMap(new HashMap<String,Object>());
     private ApplicationEntity remoteAE;
-    private List<String> storedFiles = new ArrayList<String>();
+    private final List<String> storedFiles =
+            Collections.synchronizedList(new ArrayList<String>());
     
     public StoreSessionImpl(StoreService storeService) {
         this.storeService = storeService;
@@ -180,7 +184,18 @@ public class StoreSessionImpl implements StoreSession {
 
     @Override
     public MessageDigest getMessageDigest() {
-        return messageDigest;
+        if (messageDigest == null)
+            return null;
+
+        try {
+            return (MessageDigest) messageDigest.clone();
+        } catch (CloneNotSupportedException e) {
+            try {
+                return MessageDigest.getInstance(messageDigest.getAlgorithm());
+            } catch (NoSuchAlgorithmException e1) {
+                throw new RuntimeException(e1);
+            }
+        }
     }
 
     @Override
@@ -0,0 +1,79 @@
+package org.dcm4chee.archive.store.impl;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Input stream which copies every byte read (or skipped) from the underlying
+ * stream to an output stream, so a dataset can be parsed while it is spooled.
+ */
+public class TeeInputStream extends FilterInputStream {
+
+    private final OutputStream out;
+    private final byte[] skipBuffer = new byte[8192];
+
+    public TeeInputStream(InputStream in, OutputStream out) {
+        super(in);
+        this.out = out;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = in.read();
+        if (b != -1)
+            out.write(b);
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int n = in.read(b, off, len);
+        if (n > 0)
+            out.write(b, off, n);
+        return n;
+    }
+
+    /**
+     * Bytes must reach the output stream even if the reader is not interested
+     * in them (e.g. bulk data referenced by URI), so skip reads through.
+     */
+    @Override
+    public long skip(long n) throws IOException {
+        long remaining = n;
+        while (remaining > 0) {
+            int read = read(skipBuffer, 0, (int) Math.min(skipBuffer.length, remaining));
+            if (read < 0)
+                break;
+            remaining -= read;
+        }
+        return n - remaining;
+    }
+
+    /**
+     * Reads the rest of the underlying stream, copying it to the output stream.
+     */
+    public void drain() throws IOException {
+        while (read(skipBuffer, 0, skipBuffer.length) >= 0);
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public void mark(int readlimit) {
+    }
+
+    @Override
+    public void reset() throws IOException {
+        throw new IOException("mark/reset not supported");
+    }
+
+    @Override
+    public void close() throws IOException {
+        // closing of the underlying streams is left to their owners
+    }
+}
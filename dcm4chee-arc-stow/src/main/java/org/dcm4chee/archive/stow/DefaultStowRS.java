@@ -42,12 +42,22 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Date;
-import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
@@ -144,9 +154,15 @@ public class DefaultStowRS implements StowRS {
 
     private CreatorType creatorType;
 
-    private ArrayList<MetaDataPathTSTuple> metadata;
+    private ArrayList<PendingInstance> pending;
 
-    private HashMap<String,BulkdataPath> bulkdata;
+    private Map<String,BulkdataPath> bulkdata;
+
+    private Semaphore storePermits;
+
+    private final EntityCreationGate entityCreationGate = new EntityCreationGate();
+
+    private final List<Future<Attributes>> results = new ArrayList<Future<Attributes>>();
 
     private String wadoURL;
 
@@ -178,13 +194,13 @@ public class DefaultStowRS implements StowRS {
                     creatorType = CreatorType.BINARY;
                 else if (rootBodyMediaType.isCompatible(MediaTypes.APPLICATION_DICOM_XML_TYPE)) {
                     creatorType = CreatorType.XML_BULKDATA;
-                    metadata = new ArrayList<MetaDataPathTSTuple>();
-                    bulkdata = new HashMap<String,BulkdataPath>();
+                    pending = new ArrayList<PendingInstance>();
+                    bulkdata = new ConcurrentHashMap<String,BulkdataPath>();
                 }
                 else if (rootBodyMediaType.isCompatible(MediaType.APPLICATION_JSON_TYPE)) {
                     creatorType = CreatorType.JSON_BULKDATA;
-                    metadata = new ArrayList<MetaDataPathTSTuple>();
-                    bulkdata = new HashMap<String,BulkdataPath>();
+                    pending = new ArrayList<PendingInstance>();
+                    bulkdata = new ConcurrentHashMap<String,BulkdataPath>();
                 }else
                     throw new WebApplicationException(Response.Status.UNSUPPORTED_MEDIA_TYPE);
             } catch (IllegalArgumentException e) {
@@ -233,6 +249,8 @@ public class DefaultStowRS implements StowRS {
         session.setRemoteAET(sourceAE.getAETitle());
         session.setArchiveAEExtension(arcAE);
         storeService.init(session);
+        int threads = arcAE.getStowThreads();
+        storePermits = threads > 0 ? new Semaphore(threads) : null;
         try {
             new MultipartParser(boundary).parse(in, new MultipartParser.Handler() {
                 
@@ -274,11 +292,110 @@ public class DefaultStowRS implements StowRS {
             });
             creatorType.storeMetadataAndBulkdata(this, session);
         } finally {
+            awaitStored();
             storeService.onClose(session);
         }
+        collectResults();
         return buildResponse();
     }
 
+    /**
+     * Stores an instance by a thread of the device executor, or by the
+     * request thread if no threads are configured. The number of instances
+     * of the request stored concurrently is bounded by
+     * {@link #storePermits}, so reading of further parts is throttled, if
+     * storage falls behind. The first instance of each Study and Series is
+     * stored before further instances of it, see {@link EntityCreationGate}.
+     */
+    private void submit(Attributes attrs, final StoreTask task)
+            throws InterruptedIOException {
+        final String iuid = attrs.getString(Tag.SOPInstanceUID);
+        final String cuid = attrs.getString(Tag.SOPClassUID);
+        final String studyIUID = attrs.getString(Tag.StudyInstanceUID);
+        final String seriesIUID = attrs.getString(Tag.SeriesInstanceUID);
+        FutureTask<Attributes> future = new FutureTask<Attributes>(
+                new Callable<Attributes>() {
+                    @Override
+                    public Attributes call() {
+                        EntityCreationGate.Pass pass = null;
+                        try {
+                            pass = entityCreationGate.enter(studyIUID, seriesIUID);
+                            return task.store();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            return failedSOPRef(iuid, cuid,
+                                    org.dcm4che3.net.Status.ProcessingFailure);
+                        } catch (DicomServiceException e) {
+                            return failedSOPRef(iuid, cuid, e.getStatus());
+                        } catch (RuntimeException e) {
+                            LOG.warn("Failed to store {}", iuid, e);
+                            return failedSOPRef(iuid, cuid,
+                                    org.dcm4che3.net.Status.ProcessingFailure);
+                        } finally {
+                            if (pass != null)
+                                pass.release();
+                            if (storePermits != null)
+                                storePermits.release();
+                        }
+                    }
+                });
+        results.add(future);
+        if (storePermits == null) {
+            future.run();
+            return;
+        }
+        try {
+            storePermits.acquire();
+        } catch (InterruptedException e) {
+            results.remove(future);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for storage of parts");
+        }
+        try {
+            device.getExecutor().execute(future);
+        } catch (RejectedExecutionException e) {
+            future.run();
+        }
+    }
+
+    private void addResult(Attributes sopRef) {
+        FutureTask<Attributes> future = new FutureTask<Attributes>(NOOP, sopRef);
+        future.run();
+        results.add(future);
+    }
+
+    private void awaitStored() {
+        boolean interrupted = false;
+        for (Future<Attributes> future : results) {
+            for (;;) {
+                try {
+                    future.get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    break;
+                }
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    private void collectResults() throws InterruptedException, ExecutionException {
+        for (Future<Attributes> future : results) {
+            Attributes sopRef = future.get();
+            if (sopRef.contains(Tag.FailureReason)) {
+                if (failedSOPSequence == null)
+                    failedSOPSequence =
+                        response.newSequence(Tag.FailedSOPSequence, 10);
+                failedSOPSequence.add(sopRef);
+            } else {
+                sopSequence.add(sopRef);
+            }
+        }
+    }
+
     private Response buildResponse() {
 //        if (sopSequence.isEmpty())
 //            throw new WebApplicationException(Status.CONFLICT);
@@ -339,7 +456,8 @@ public class DefaultStowRS implements StowRS {
                 return false;
             }
             @Override
-            void storeMetadataAndBulkdata(DefaultStowRS stowRS, StoreSession session) {
+            void storeMetadataAndBulkdata(DefaultStowRS stowRS, StoreSession session)
+                    throws IOException {
                 stowRS.storeMetadataAndBulkdata(session);
             }
 
@@ -360,7 +478,8 @@ public class DefaultStowRS implements StowRS {
                 return false;
             }
             @Override
-            void storeMetadataAndBulkdata(DefaultStowRS stowRS, StoreSession session) {
+            void storeMetadataAndBulkdata(DefaultStowRS stowRS, StoreSession session)
+                    throws IOException {
                 stowRS.storeMetadataAndBulkdata(session);
             }
 
@@ -370,36 +489,36 @@ public class DefaultStowRS implements StowRS {
                 MultipartInputStream in, MediaType mediaType, String contentLocation, String transferSyntax)
                         throws IOException;
 
-        void storeMetadataAndBulkdata(DefaultStowRS stowRS, StoreSession session) {}
+        void storeMetadataAndBulkdata(DefaultStowRS stowRS, StoreSession session)
+                throws IOException {}
     }
 
     private void storeDicomObject(StoreSession session, InputStream in)
-            throws DicomServiceException {
-        StoreContext context;
+            throws IOException {
+        final StoreContext context;
         try {
             context = storeService.createStoreContext(session);
             context.setInputStream(in);
             storeService.writeSpoolFile(context, null, in);
         } catch (DicomServiceException e) {
             if (e.getStatus() == StoreService.DATA_SET_NOT_PARSEABLE) {
-                storageFailed(NOT_PARSEABLE_IUID, NOT_PARSEABLE_CUID,
-                        METADATA_NOT_PARSEABLE);
+                addResult(failedSOPRef(NOT_PARSEABLE_IUID, NOT_PARSEABLE_CUID,
+                        METADATA_NOT_PARSEABLE));
                 return;
             }
             throw e;
         }
-        Attributes attrs = context.getOriginalAttributes();
-        try {
-            checkStudyInstanceUID(attrs.getString(Tag.StudyInstanceUID));
-            checkTransferCapability(attrs.getString(Tag.SOPClassUID),context.getTransferSyntax());
-            storeService.store(context);
-            sopSequence.add(sopRef(context));
-        } catch (DicomServiceException e) {
-            storageFailed(
-                    attrs.getString(Tag.SOPInstanceUID),
-                    attrs.getString(Tag.SOPClassUID),
-                    e.getStatus());
-        }
+        final Attributes attrs = context.getOriginalAttributes();
+        submit(attrs, new StoreTask() {
+            @Override
+            public Attributes store() throws DicomServiceException {
+                checkStudyInstanceUID(attrs.getString(Tag.StudyInstanceUID));
+                checkTransferCapability(attrs.getString(Tag.SOPClassUID),
+                        context.getTransferSyntax());
+                storeService.store(context);
+                return sopRef(context);
+            }
+        });
     }
 
     private void checkStudyInstanceUID(String siuid) throws DicomServiceException {
@@ -418,23 +537,74 @@ public class DefaultStowRS implements StowRS {
         }
     }
 
+    /**
+     * Spools and parses the metadata part, and stores the instance, if all
+     * referenced bulk data parts were already received; otherwise the
+     * instance is stored, after the last of them was received.
+     */
     private void spoolMetaData(StoreSession session, InputStream in, boolean json, String transferSyntax) throws IOException {
+        MetaDataPathTSTuple part;
         if(json)
-            metadata.add(new MetaDataPathTSTuple(transferSyntax,storeService.spool(session, in, ".json")));    
+            part = new MetaDataPathTSTuple(transferSyntax,storeService.spool(session, in, ".json"));
         else
-        metadata.add(new MetaDataPathTSTuple(transferSyntax,storeService.spool(session, in, ".xml")));
+            part = new MetaDataPathTSTuple(transferSyntax,storeService.spool(session, in, ".xml"));
+        Attributes ds = parseMetadata(part);
+        if (ds == null) {
+            addResult(failedSOPRef(NOT_PARSEABLE_IUID, NOT_PARSEABLE_CUID,
+                    METADATA_NOT_PARSEABLE));
+            return;
+        }
+        PendingInstance inst = new PendingInstance(ds, part.getTransferSyntax(),
+                missingBulkdata(ds));
+        if (inst.missingBulkdata.isEmpty())
+            submitMetadataAndBulkdata(session, inst);
+        else
+            pending.add(inst);
     }
 
     private void spoolBulkdata(StoreSession session, InputStream in,
             String contentLocation, MediaType mediaType) throws IOException {
         bulkdata.put(contentLocation, 
                 new BulkdataPath(storeService.spool(session, in, ".blk"), mediaType));
+        for (Iterator<PendingInstance> iter = pending.iterator(); iter.hasNext();) {
+            PendingInstance inst = iter.next();
+            if (inst.missingBulkdata.remove(contentLocation)
+                    && inst.missingBulkdata.isEmpty()) {
+                iter.remove();
+                submitMetadataAndBulkdata(session, inst);
+            }
+        }
     }
 
-    private void storeMetadataAndBulkdata(StoreSession session) {
-        for (MetaDataPathTSTuple part: metadata) {
-            storeMetadataAndBulkdata(session, part);
+    /**
+     * Stores the instances, for which not all referenced bulk data parts
+     * were received, so they are reported as failed.
+     */
+    private void storeMetadataAndBulkdata(StoreSession session) throws IOException {
+        for (PendingInstance inst : pending) {
+            submitMetadataAndBulkdata(session, inst);
+        }
+        pending.clear();
+    }
+
+    private Set<String> missingBulkdata(Attributes ds) {
+        final Set<String> missing = new HashSet<String>();
+        try {
+            ds.accept(new Visitor() {
+                @Override
+                public boolean visit(Attributes attrs, int tag, VR vr, Object value) {
+                    if (value instanceof BulkData) {
+                        String uri = ((BulkData) value).uri;
+                        if (!bulkdata.containsKey(uri))
+                            missing.add(uri);
+                    }
+                    return true;
+                }
+            }, true);
+        } catch (Exception e) {
+            throw new RuntimeException(e);
         }
+        return missing;
     }
 
     public  Attributes parseJSON(String fname) throws Exception {
@@ -457,49 +627,39 @@ public class DefaultStowRS implements StowRS {
                 SafeClose.close(in);
         }
     }
-    private void storeMetadataAndBulkdata(StoreSession session,
-            MetaDataPathTSTuple part) {
-        Attributes ds = null;
-        if(creatorType == CreatorType.JSON_BULKDATA)
-        {
-            try {
-                ds = parseJSON(part.getPath().toFile().getPath());
-            } catch (Exception e) {
-                storageFailed(NOT_PARSEABLE_IUID, NOT_PARSEABLE_CUID,
-                        METADATA_NOT_PARSEABLE);
-                return;
-            } 
-        }
-        else
-        {
-            try {
-                ds = SAXReader.parse(part.getPath().toUri().toString());
-            } catch (Exception e) {
-                storageFailed(NOT_PARSEABLE_IUID, NOT_PARSEABLE_CUID,
-                        METADATA_NOT_PARSEABLE);
-                return;
-            }    
-        }
-        
-        String iuid = ds.getString(Tag.SOPInstanceUID);
-        String cuid = ds.getString(Tag.SOPClassUID);
-        Attributes fmi = ds.createFileMetaInformation(part.getTransferSyntax());
-        if (!resolveBulkdata(session, fmi, ds)) {
-            storageFailed(iuid, cuid, MISSING_BULKDATA);
-            return;
-        }
+    private Attributes parseMetadata(MetaDataPathTSTuple part) {
         try {
-            checkStudyInstanceUID(ds.getString(Tag.StudyInstanceUID));
-            checkTransferCapability(cuid, fmi.getString(Tag.TransferSyntaxUID));
-            StoreContext context = storeService.createStoreContext(session);
-            storeService.writeSpoolFile(context,fmi,ds);
-            storeService.store(context);
-            sopSequence.add(sopRef(context));
-        } catch (DicomServiceException e) {
-            storageFailed(iuid, cuid, e.getStatus());
+            if(creatorType == CreatorType.JSON_BULKDATA)
+                return parseJSON(part.getPath().toFile().getPath());
+            else
+                return SAXReader.parse(part.getPath().toUri().toString());
+        } catch (Exception e) {
+            return null;
         }
     }
 
+    private void submitMetadataAndBulkdata(final StoreSession session,
+            final PendingInstance inst) throws InterruptedIOException {
+        final Attributes ds = inst.dataset;
+        final String iuid = ds.getString(Tag.SOPInstanceUID);
+        final String cuid = ds.getString(Tag.SOPClassUID);
+        submit(ds, new StoreTask() {
+            @Override
+            public Attributes store() throws DicomServiceException {
+                Attributes fmi = ds.createFileMetaInformation(inst.transferSyntax);
+                if (!resolveBulkdata(session, fmi, ds))
+                    return failedSOPRef(iuid, cuid, MISSING_BULKDATA);
+
+                checkStudyInstanceUID(ds.getString(Tag.StudyInstanceUID));
+                checkTransferCapability(cuid, fmi.getString(Tag.TransferSyntaxUID));
+                StoreContext context = storeService.createStoreContext(session);
+                storeService.writeSpoolFile(context,fmi,ds);
+                storeService.store(context);
+                return sopRef(context);
+            }
+        });
+    }
+
     private Attributes sopRef(StoreContext ctx) {
         StoreSession session = ctx.getStoreSession();
         Attributes attrs = ctx.getAttributes();
@@ -534,16 +694,12 @@ public class DefaultStowRS implements StowRS {
         return sopRef;
     }
 
-    private void storageFailed(String iuid, String cuid, int failureReason) {
+    private static Attributes failedSOPRef(String iuid, String cuid, int failureReason) {
         Attributes sopRef = new Attributes(3);
         sopRef.setString(Tag.ReferencedSOPClassUID, VR.UI, cuid);
         sopRef.setString(Tag.ReferencedSOPInstanceUID, VR.UI, iuid);
         sopRef.setInt(Tag.FailureReason, VR.US, failureReason);
-        if (failedSOPSequence == null)
-            failedSOPSequence =
-                response.newSequence(Tag.FailedSOPSequence, 10);
-
-        failedSOPSequence.add(sopRef);
+        return sopRef;
     }
 
     private boolean resolveBulkdata(final StoreSession session,
@@ -603,6 +759,28 @@ public class DefaultStowRS implements StowRS {
         }
     }
 
+    private interface StoreTask {
+        Attributes store() throws DicomServiceException;
+    }
+
+    private static final Runnable NOOP = new Runnable() {
+        @Override
+        public void run() {
+        }
+    };
+
+    private static final class PendingInstance {
+        final Attributes dataset;
+        final String transferSyntax;
+        final Set<String> missingBulkdata;
+        PendingInstance(Attributes dataset, String transferSyntax,
+                Set<String> missingBulkdata) {
+            this.dataset = dataset;
+            this.transferSyntax = transferSyntax;
+            this.missingBulkdata = missingBulkdata;
+        }
+    }
+
     private static final class BulkdataPath {
         final java.nio.file.Path path;
         final MediaType mediaType;
@@ -0,0 +1,107 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.stow;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Serializes the creation of the Study and Series entities by instances of
+ * one STOW-RS request stored concurrently.
+ * <p>
+ * The first instance of a Study or Series received by the request is stored
+ * alone; further instances of the same Study or Series wait until its store
+ * completed, so they find the entities created by it, instead of racing to
+ * create them in separate transactions. After that, instances of the same
+ * Series are stored concurrently.
+ */
+class EntityCreationGate {
+
+    private final ConcurrentHashMap<String, CountDownLatch> studies =
+            new ConcurrentHashMap<String, CountDownLatch>();
+    private final ConcurrentHashMap<String, CountDownLatch> series =
+            new ConcurrentHashMap<String, CountDownLatch>();
+
+    /**
+     * Waits until the first store of the Study and of the Series of an
+     * instance completed, or makes the caller the first store of them.
+     *
+     * @return the pass which has to be released after the store completed
+     */
+    Pass enter(String studyIUID, String seriesIUID) throws InterruptedException {
+        Pass pass = new Pass();
+        pass.enter(studies, studyIUID);
+        pass.enter(series, seriesIUID);
+        return pass;
+    }
+
+    static final class Pass {
+
+        private final List<CountDownLatch> owned = new ArrayList<CountDownLatch>(2);
+
+        private Pass() {}
+
+        private void enter(ConcurrentHashMap<String, CountDownLatch> latches,
+                String uid) throws InterruptedException {
+            if (uid == null)
+                return;
+
+            CountDownLatch latch = new CountDownLatch(1);
+            CountDownLatch prev = latches.putIfAbsent(uid, latch);
+            if (prev == null) {
+                owned.add(latch);
+                return;
+            }
+            try {
+                prev.await();
+            } catch (InterruptedException e) {
+                release();
+                throw e;
+            }
+        }
+
+        void release() {
+            for (CountDownLatch latch : owned)
+                latch.countDown();
+            owned.clear();
+        }
+    }
+}
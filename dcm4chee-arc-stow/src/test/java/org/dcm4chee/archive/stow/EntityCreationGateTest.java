@@ -0,0 +1,161 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.stow;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link EntityCreationGate}, simulating the concurrent store
+ * of the instances of one multi-instance study received by one STOW-RS
+ * request.
+ */
+public class EntityCreationGateTest {
+
+    private static final String STUDY_IUID = "1.2.3";
+
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testStoreMultiInstanceStudy() throws Exception {
+        final EntityCreationGate gate = new EntityCreationGate();
+        final ConcurrentHashMap<String, String> db = new ConcurrentHashMap<String, String>();
+        final AtomicInteger duplicates = new AtomicInteger();
+        List<Future<String>> results = new ArrayList<Future<String>>();
+        for (int i = 0; i < 40; i++) {
+            final String seriesIUID = STUDY_IUID + "." + (i % 2);
+            final String iuid = seriesIUID + "." + i;
+            results.add(executor.submit(new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    EntityCreationGate.Pass pass = gate.enter(STUDY_IUID, seriesIUID);
+                    try {
+                        findOrCreate(db, STUDY_IUID, duplicates);
+                        findOrCreate(db, seriesIUID, duplicates);
+                        db.put(iuid, seriesIUID);
+                        return iuid;
+                    } finally {
+                        pass.release();
+                    }
+                }
+            }));
+        }
+        for (int i = 0; i < results.size(); i++)
+            Assert.assertEquals(STUDY_IUID + "." + (i % 2) + "." + i,
+                    results.get(i).get(10, TimeUnit.SECONDS));
+        Assert.assertEquals(0, duplicates.get());
+        Assert.assertEquals(1 + 2 + 40, db.size());
+    }
+
+    @Test
+    public void testStoreInstancesOfCreatedSeriesConcurrently() throws Exception {
+        EntityCreationGate gate = new EntityCreationGate();
+        gate.enter(STUDY_IUID, STUDY_IUID + ".1").release();
+
+        final CountDownLatch bothStoring = new CountDownLatch(2);
+        List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+        for (int i = 0; i < 2; i++) {
+            final EntityCreationGate.Pass pass = gate.enter(STUDY_IUID, STUDY_IUID + ".1");
+            results.add(executor.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    try {
+                        bothStoring.countDown();
+                        return bothStoring.await(10, TimeUnit.SECONDS);
+                    } finally {
+                        pass.release();
+                    }
+                }
+            }));
+        }
+        for (Future<Boolean> result : results)
+            Assert.assertTrue(result.get());
+    }
+
+    @Test
+    public void testWaitForFirstStoreOfStudy() throws Exception {
+        final EntityCreationGate gate = new EntityCreationGate();
+        EntityCreationGate.Pass first = gate.enter(STUDY_IUID, STUDY_IUID + ".1");
+        Future<?> second = executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                gate.enter(STUDY_IUID, STUDY_IUID + ".2").release();
+                return null;
+            }
+        });
+        Thread.sleep(100);
+        Assert.assertFalse(second.isDone());
+        first.release();
+        second.get(10, TimeUnit.SECONDS);
+    }
+
+    private static void findOrCreate(ConcurrentHashMap<String, String> db,
+            String uid, AtomicInteger duplicates) throws InterruptedException {
+        if (db.containsKey(uid))
+            return;
+
+        // widen the window of a concurrent creation of the same entity
+        Thread.sleep(10);
+        if (db.putIfAbsent(uid, uid) != null)
+            duplicates.incrementAndGet();
+    }
+}
@@ -78,7 +78,10 @@ public class WadoClientServiceImpl implements WadoClientService {
     @Inject
     private StoreService storeService;
 
-    private InstanceAvailableCallback callBack;
+    // the callback of the fetch in progress is confined to the fetching thread,
+    // so one instance of the service may serve concurrent fetches
+    private final ThreadLocal<InstanceAvailableCallback> callBack =
+            new ThreadLocal<InstanceAvailableCallback>();
 
     @Inject
     private IApplicationEntityCache aeCache;
@@ -168,11 +171,11 @@ public class WadoClientServiceImpl implements WadoClientService {
 
     @Override
     public InstanceAvailableCallback getCallBack() {
-        return callBack;
+        return callBack.get();
     }
 
     protected void setCallBack(InstanceAvailableCallback callBack) {
-        this.callBack = callBack;
+        this.callBack.set(callBack);
     }
 
     private WadoClient createClient() {
@@ -218,6 +221,8 @@ public class WadoClientServiceImpl implements WadoClientService {
             LOG.error("Error fetching Study {}, from AE {}"
                     + " check baseurl configuration for WadoRS",
                     studyInstanceUID, remoteAE.getAETitle());
+        } finally {
+            callBack.remove();
         }
         return null;
     }
@@ -37,9 +37,17 @@
  * ***** END LICENSE BLOCK ***** */
 package org.dcm4chee.archive.wado;
 
+import java.io.EOFException;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
 
 import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.StreamingOutput;
@@ -49,6 +57,11 @@ import org.dcm4che3.util.SafeClose;
 import org.dcm4che3.util.StreamUtils;
 
 /**
+ * Streams bulk data. Bulk data of files is read by
+ * {@link FileChannel#transferTo} directly from its offset. The target is a
+ * channel wrapping the servlet output stream, so the data is still copied
+ * through a buffer of the JDK - this is not a zero-copy transfer.
+ *
  * @author Gunter Zeilinger <gunterze@gmail.com>
  *
  */
@@ -63,6 +76,13 @@ public class BulkDataOutput implements StreamingOutput {
     @Override
     public void write(OutputStream out) throws IOException,
             WebApplicationException {
+        File file = fileOf(bulkData);
+        if (file != null) {
+            try (FileChannel fc = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                transferTo(fc, bulkData.offset(), bulkData.length(), Channels.newChannel(out));
+            }
+            return;
+        }
         InputStream in = bulkData.openStream();
         try {
             StreamUtils.copy(in, out, bulkData.length());
@@ -71,4 +91,31 @@ public class BulkDataOutput implements StreamingOutput {
         }
     }
 
+    /**
+     * Returns the file referenced by the bulk data, or {@code null} if it
+     * does not refer to a file.
+     */
+    static File fileOf(BulkData bulkData) {
+        String uri = bulkData.uriWithoutQuery();
+        if (!uri.startsWith("file:"))
+            return null;
+        try {
+            return new File(new URI(uri));
+        } catch (URISyntaxException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    static void transferTo(FileChannel fc, long position, long count,
+            WritableByteChannel target) throws IOException {
+        while (count > 0) {
+            long n = fc.transferTo(position, count, target);
+            if (n <= 0)
+                throw new EOFException("Unexpected end of file at position "
+                        + position);
+            position += n;
+            count -= n;
+        }
+    }
+
 }
@@ -0,0 +1,104 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.wado;
+
+/**
+ * Single byte range of a {@code Range} request header, resolved against the
+ * length of the requested entity.
+ */
+final class ByteRange {
+
+    private static final String BYTES_UNIT = "bytes=";
+
+    final long first;
+    final long last;
+    final long length;
+
+    private ByteRange(long first, long last, long length) {
+        this.first = first;
+        this.last = last;
+        this.length = length;
+    }
+
+    /**
+     * Parses the value of a {@code Range} header.
+     *
+     * @return the requested range or {@code null} if the header does not
+     *         specify a single byte range, so the whole entity is returned
+     */
+    static ByteRange parse(String range, long length) {
+        if (range == null || !range.startsWith(BYTES_UNIT))
+            return null;
+
+        String spec = range.substring(BYTES_UNIT.length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0 || spec.indexOf(',') >= 0)
+            return null;
+
+        try {
+            if (dash == 0) {
+                long suffix = Long.parseLong(spec.substring(1).trim());
+                return new ByteRange(Math.max(0, length - suffix), length - 1, length);
+            }
+            long first = Long.parseLong(spec.substring(0, dash).trim());
+            String end = spec.substring(dash + 1).trim();
+            long last = end.isEmpty() ? length - 1 : Math.min(Long.parseLong(end), length - 1);
+            return new ByteRange(first, last, length);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    boolean isSatisfiable() {
+        return first <= last && first < length;
+    }
+
+    long size() {
+        return last - first + 1;
+    }
+
+    /**
+     * Returns the value of the {@code Content-Range} header of the response.
+     */
+    String contentRange() {
+        return isSatisfiable()
+                ? "bytes " + first + '-' + last + '/' + length
+                : "bytes */" + length;
+    }
+}
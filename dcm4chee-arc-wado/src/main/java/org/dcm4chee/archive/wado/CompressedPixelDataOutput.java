@@ -44,13 +44,21 @@ import org.dcm4che3.util.StreamUtils;
 
 import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.StreamingOutput;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.Iterator;
 
 /**
- * Streams compressed pixel data.
+ * Streams compressed pixel data. Fragments of files are read by
+ * {@link FileChannel#transferTo} at their offsets, without skipping over
+ * the item headers between them by stream reads. As the target is a channel
+ * wrapping the servlet output stream, this is not a zero-copy transfer.
  *
  * @author Gunter Zeilinger <gunterze@gmail.com>
  */
@@ -68,6 +76,18 @@ public class CompressedPixelDataOutput implements StreamingOutput {
         Iterator<Object> iter = fragments.iterator();
         iter.next(); // skip frame offset table
         BulkData fragment = (BulkData) iter.next();
+        File file = BulkDataOutput.fileOf(fragment);
+        if (file != null) {
+            try (FileChannel fc = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                WritableByteChannel target = Channels.newChannel(out);
+                BulkDataOutput.transferTo(fc, fragment.offset(), fragment.length(), target);
+                while (iter.hasNext()) {
+                    fragment = (BulkData) iter.next();
+                    BulkDataOutput.transferTo(fc, fragment.offset(), fragment.length(), target);
+                }
+            }
+            return;
+        }
         InputStream in = fragment.openStream();
         try {
             StreamUtils.copy(in, out, fragment.length());
@@ -130,12 +130,19 @@ public class DefaultWadoRS extends Wado implements WadoRS {
     @Inject
     private WeightWatcher weightWatcher;
 
+    @Inject
+    private FrameOffsetIndexCache frameOffsetIndexCache;
+
     private static final int STATUS_OK = 200;
     private static final int STATUS_PARTIAL_CONTENT = 206;
     private static final int STATUS_NOT_ACCEPTABLE = 406;
+    private static final int STATUS_RANGE_NOT_SATISFIABLE = 416;
     private static final String CONTENT_TYPE = "Content-Type";
     private static final String CONTENT_ID = "Content-ID";
     private static final String CONTENT_LOCATION = "Content-Location";
+    private static final String CONTENT_RANGE = "Content-Range";
+    private static final String ACCEPT_RANGES = "Accept-Ranges";
+    private static final String RANGE = "Range";
 
     private static final Logger LOG = LoggerFactory.getLogger(DefaultWadoRS.class);
 
@@ -406,6 +413,32 @@ public class DefaultWadoRS extends Wado implements WadoRS {
         }
     }
 
+    /**
+     * Returns the requested range of the bulk data as single
+     * application/octet-stream entity, so viewers can load large bulk
+     * data progressively.
+     */
+    private Response retrieveBulkDataRange(BulkData bulkData, ByteRange range) {
+        if (!range.isSatisfiable())
+            return Response.status(STATUS_RANGE_NOT_SATISFIABLE)
+                    .header(CONTENT_RANGE, range.contentRange())
+                    .build();
+
+        LOG.info("{}: Retrieve bytes {}-{} of {} bulk data bytes",
+                new Object[]{method, range.first, range.last, range.length});
+        return Response.status(STATUS_PARTIAL_CONTENT)
+                .type(MediaType.APPLICATION_OCTET_STREAM_TYPE)
+                .header(ACCEPT_RANGES, "bytes")
+                .header(CONTENT_RANGE, range.contentRange())
+                .entity(new BulkDataOutput(rangeOf(bulkData, range)))
+                .build();
+    }
+
+    private static BulkData rangeOf(BulkData bulkData, ByteRange range) {
+        return new BulkData(bulkData.uriWithoutQuery(), bulkData.offset() + range.first,
+                (int) range.size(), bulkData.bigEndian());
+    }
+
     @Override
     public Response retrieveStudyMetadata(String studyInstanceUID)
             throws DicomServiceException {
@@ -689,12 +722,20 @@ public class DefaultWadoRS extends Wado implements WadoRS {
         if (!acceptOctetStream)
             throw new WebApplicationException(Status.NOT_ACCEPTABLE);
 
+        // for multiple ranges the whole bulk data is returned
+        List<String> ranges = headers.getRequestHeader(RANGE);
+        ByteRange range = ranges != null && ranges.size() == 1
+                ? ByteRange.parse(ranges.get(0), bulkData.length())
+                : null;
+        if (range != null)
+            return retrieveBulkDataRange(bulkData, range);
+
         MultipartRelatedOutput output = new MultipartRelatedOutput();
         addPart(output, new BulkDataOutput(bulkData),
                 MediaType.APPLICATION_OCTET_STREAM_TYPE, uriInfo
                         .getRequestUri().toString(), null);
 
-        return Response.ok(output).build();
+        return Response.ok(output).header(ACCEPT_RANGES, "bytes").build();
     }
 
     private Response retrieveMetadata(final List<ArchiveInstanceLocator> refs)
@@ -788,12 +829,18 @@ public class DefaultWadoRS extends Wado implements WadoRS {
         try {
             LOG.info("Add Pixel Data [file={}]",fileURI);
 
-            DatasetWithFMI datasetWithFMI;
+            File file = new File(new URI(fileURI));
             String transferSyntaxUID;
-            try (DicomInputStream din = new DicomInputStream(new File(new URI(fileURI)))) {
-                din.setIncludeBulkData(IncludeBulkData.URI);
-                datasetWithFMI = din.readDatasetWithFMI();
-                transferSyntaxUID = din.getTransferSyntax();
+            DatasetWithFMI datasetWithFMI = frameOffsetIndexCache.readDatasetWithFMI(file);
+            if (datasetWithFMI != null) {
+                transferSyntaxUID = datasetWithFMI.getFileMetaInformation()
+                        .getString(Tag.TransferSyntaxUID);
+            } else {
+                try (DicomInputStream din = new DicomInputStream(file)) {
+                    din.setIncludeBulkData(IncludeBulkData.URI);
+                    datasetWithFMI = din.readDatasetWithFMI();
+                    transferSyntaxUID = din.getTransferSyntax();
+                }
             }
 
             // note: un-coerced SOPInstanceUID! (could be QCed, or whatever)
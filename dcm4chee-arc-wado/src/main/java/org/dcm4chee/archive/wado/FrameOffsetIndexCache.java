@@ -0,0 +1,182 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2014
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.wado;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+
+import org.dcm4che3.data.DatasetWithFMI;
+import org.dcm4che3.net.Device;
+import org.dcm4che3.util.StringUtils;
+import org.dcm4chee.archive.conf.ArchiveDeviceExtension;
+import org.dcm4chee.archive.util.FrameOffsetIndex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Provides the {@link FrameOffsetIndex} of files, so the Pixel Data of
+ * multi-frame images is accessed without parsing all fragment items on each
+ * request for some of its frames. The index of a file is built on its first
+ * access, kept in a bounded LRU map and - if configured - persisted in a
+ * directory, from which it is re-loaded after restart or eviction.
+ */
+@ApplicationScoped
+public class FrameOffsetIndexCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FrameOffsetIndexCache.class);
+
+    private static final Object NOT_INDEXABLE = new Object();
+
+    @Inject
+    private Device device;
+
+    private final LinkedHashMap<String, Object> indexes =
+            new LinkedHashMap<String, Object>(256, 0.75f, true);
+
+    /**
+     * Reads the attributes of the file preceding the Pixel Data and adds the
+     * Pixel Data from the index of the file. Returns {@code null} if the
+     * index is disabled or the file can not be indexed, so the caller has to
+     * parse the file itself.
+     */
+    public DatasetWithFMI readDatasetWithFMI(File file) throws IOException {
+        ArchiveDeviceExtension arcDev = device.getDeviceExtension(ArchiveDeviceExtension.class);
+        int maxSize = arcDev.getFrameOffsetIndexCacheSize();
+        if (maxSize <= 0)
+            return null;
+
+        String key = file.getPath();
+        Object value;
+        synchronized (indexes) {
+            value = indexes.get(key);
+        }
+        if (value == NOT_INDEXABLE)
+            return null;
+
+        FrameOffsetIndex index = (FrameOffsetIndex) value;
+        if (index == null || !index.isValidFor(file)) {
+            Path persisted = persistedIndexOf(arcDev, key);
+            index = load(persisted, file);
+            if (index == null) {
+                index = FrameOffsetIndex.build(file);
+                if (index != null)
+                    persist(persisted, index);
+            }
+            put(key, index != null ? index : NOT_INDEXABLE, maxSize);
+            if (index == null)
+                return null;
+        }
+        return index.readDatasetWithFMI(file);
+    }
+
+    private void put(String key, Object value, int maxSize) {
+        synchronized (indexes) {
+            indexes.put(key, value);
+            for (Iterator<Object> iter = indexes.values().iterator();
+                    indexes.size() > maxSize && iter.hasNext();) {
+                iter.next();
+                iter.remove();
+            }
+        }
+    }
+
+    private static Path persistedIndexOf(ArchiveDeviceExtension arcDev, String key) {
+        String dir = arcDev.getFrameOffsetIndexDirectoryPath();
+        return dir != null
+                ? Paths.get(StringUtils.replaceSystemProperties(dir),
+                        CacheFileNames.digest(key) + ".foi")
+                : null;
+    }
+
+    private static FrameOffsetIndex load(Path persisted, File file) {
+        if (persisted == null)
+            return null;
+
+        try (InputStream in = Files.newInputStream(persisted)) {
+            FrameOffsetIndex index = FrameOffsetIndex.readFrom(
+                    new DataInputStream(new BufferedInputStream(in)));
+            if (index.isValidFor(file))
+                return index;
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            LOG.info("Failed to load frame offset index {} of {}:", persisted, file, e);
+        }
+        return null;
+    }
+
+    private static void persist(Path persisted, FrameOffsetIndex index) {
+        if (persisted == null)
+            return;
+
+        try {
+            Files.createDirectories(persisted.getParent());
+            Path tmp = Files.createTempFile(persisted.getParent(), null, ".part");
+            try {
+                try (OutputStream out = Files.newOutputStream(tmp)) {
+                    DataOutputStream dout = new DataOutputStream(new BufferedOutputStream(out));
+                    index.writeTo(dout);
+                    dout.flush();
+                }
+                Files.move(tmp, persisted, StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        } catch (IOException e) {
+            LOG.warn("Failed to persist frame offset index {}:", persisted, e);
+        }
+    }
+}
@@ -0,0 +1,566 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2014
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.wado;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+import javax.inject.Inject;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.StreamingOutput;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Sequence;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.image.PixelAspectRatio;
+import org.dcm4che3.net.Device;
+import org.dcm4che3.util.StringUtils;
+import org.dcm4chee.archive.conf.ArchiveDeviceExtension;
+import org.dcm4chee.archive.conf.StoreAction;
+import org.dcm4chee.archive.dto.QCEventInstance;
+import org.dcm4chee.archive.iocm.RejectionEvent;
+import org.dcm4chee.archive.qc.QCEvent;
+import org.dcm4chee.archive.store.StoreContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Size bounded cache of rendered images returned by WADO, in memory and on
+ * disk. Cached images are keyed by the SOP Instance UID and the rendering
+ * parameters of the request. All cached images of an instance are evicted
+ * if the instance is replaced, rejected or modified by QC.
+ */
+@ApplicationScoped
+public class RenderedImageCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RenderedImageCache.class);
+
+    @Inject
+    private Device device;
+
+    private final LinkedHashMap<Key, byte[]> memory =
+            new LinkedHashMap<Key, byte[]>(16, 0.75f, true);
+    private long memorySize;
+
+    private final LinkedHashMap<Path, Long> disk =
+            new LinkedHashMap<Path, Long>(16, 0.75f, true);
+    private long diskSize;
+    private Path diskDir;
+    private Path scanning;
+
+    public RenderedImageCache() {
+    }
+
+    RenderedImageCache(Device device) {
+        this.device = device;
+    }
+
+    /**
+     * Returns the key of a rendered image. If both {@code rows} and
+     * {@code columns} are specified, only the one which limits the size of
+     * the rendered image - according to the dimensions and the pixel aspect
+     * ratio of the image in {@code attrs} - is included in the key, so
+     * requests for the same rendition share one cache entry.
+     */
+    public static Key keyOf(String iuid, Attributes attrs, MediaType mediaType,
+            int frame, int rows, int columns, String region, float windowCenter,
+            float windowWidth, int imageQuality, String presentationUID,
+            String presentationSeriesUID, boolean overlays) {
+        if (rows != 0 && columns != 0 && presentationUID == null && attrs != null) {
+            int origRows = attrs.getInt(Tag.Rows, 0);
+            int origColumns = attrs.getInt(Tag.Columns, 0);
+            // same decision as RenderedImageOutput.getScalingFactors()
+            if (origRows > 0 && origColumns > 0)
+                if (rows * origColumns > columns * origRows * PixelAspectRatio.forImage(attrs))
+                    rows = 0;
+                else
+                    columns = 0;
+        }
+        return new Key(iuid, mediaType.getType() + '/' + mediaType.getSubtype()
+                + "&frame=" + frame
+                + "&rows=" + rows
+                + "&columns=" + columns
+                + "&region=" + region
+                + "&windowCenter=" + windowCenter
+                + "&windowWidth=" + windowWidth
+                + "&imageQuality=" + imageQuality
+                + "&presentationUID=" + presentationUID
+                + "&presentationSeriesUID=" + presentationSeriesUID
+                + "&overlays=" + overlays);
+    }
+
+    public boolean isEnabled() {
+        ArchiveDeviceExtension arcDev = arcDev();
+        return arcDev.getRenderedImageCacheMaxMemorySize() > 0
+                || arcDev.getRenderedImageCacheDirectoryPath() != null;
+    }
+
+    /**
+     * Returns the cached rendered image or {@code null} if it is not cached.
+     */
+    public StreamingOutput get(Key key) {
+        final byte[] b;
+        synchronized (this) {
+            b = memory.get(key);
+        }
+        if (b != null)
+            return new BytesOutput(b);
+
+        Path file = diskFileOf(key);
+        if (file == null)
+            return null;
+
+        Long size;
+        synchronized (this) {
+            size = disk.get(file);
+        }
+        if (size == null)
+            return null;
+
+        if (size.longValue() > arcDev().getRenderedImageCacheMaxMemorySize() / 16)
+            return new FileOutput(file);
+
+        try {
+            byte[] content = Files.readAllBytes(file);
+            putInMemory(key, content);
+            return new BytesOutput(content);
+        } catch (NoSuchFileException e) {
+            removeFromDisk(file);
+        } catch (IOException e) {
+            LOG.warn("Failed to read cached rendered image {}:", file, e);
+        }
+        return null;
+    }
+
+    public boolean contains(Key key) {
+        synchronized (this) {
+            if (memory.containsKey(key))
+                return true;
+        }
+        Path file = diskFileOf(key);
+        if (file == null)
+            return false;
+
+        synchronized (this) {
+            return disk.containsKey(file);
+        }
+    }
+
+    /**
+     * Returns an output stream writing the rendered image to {@code out},
+     * which puts it into the cache on {@link Collector#commit()}.
+     */
+    public Collector collect(Key key, OutputStream out) {
+        return new Collector(key, out, maxEntrySize());
+    }
+
+    public void put(Key key, byte[] content) {
+        putInMemory(key, content);
+        putOnDisk(key, content);
+    }
+
+    public void evict(String iuid) {
+        synchronized (this) {
+            for (Iterator<Map.Entry<Key, byte[]>> iter = memory.entrySet().iterator();
+                    iter.hasNext();) {
+                Map.Entry<Key, byte[]> entry = iter.next();
+                if (entry.getKey().iuid.equals(iuid)) {
+                    memorySize -= entry.getValue().length;
+                    iter.remove();
+                }
+            }
+        }
+        Path dir = diskDir();
+        if (dir == null)
+            return;
+
+        Path instDir = dir.resolve(iuid);
+        ArrayList<Path> files = new ArrayList<Path>();
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(instDir)) {
+            for (Path file : ds)
+                files.add(file);
+        } catch (NoSuchFileException e) {
+            return;
+        } catch (IOException e) {
+            LOG.warn("Failed to evict cached rendered images of instance {}:", iuid, e);
+        }
+        for (Path file : files)
+            removeFromDisk(file);
+        try {
+            Files.deleteIfExists(instDir);
+        } catch (IOException e) {
+            LOG.debug("Failed to delete {}:", instDir, e);
+        }
+    }
+
+    public void onStoreInstance(@Observes StoreContext storeContext) {
+        if (storeContext.getStoreAction() == StoreAction.REPLACE && isEnabled())
+            evict(storeContext.getAttributes().getString(Tag.SOPInstanceUID));
+    }
+
+    public void onQC(@Observes QCEvent event) {
+        if (isEnabled()) {
+            evictAll(event.getSource());
+            evictAll(event.getTarget());
+        }
+    }
+
+    public void onReject(@Observes RejectionEvent event) {
+        if (!isEnabled())
+            return;
+
+        Sequence evidenceSeq = event.getStoreContext().getAttributes()
+                .getSequence(Tag.CurrentRequestedProcedureEvidenceSequence);
+        if (evidenceSeq == null)
+            return;
+
+        for (Attributes studyRef : evidenceSeq) {
+            Sequence seriesSeq = studyRef.getSequence(Tag.ReferencedSeriesSequence);
+            if (seriesSeq != null)
+                for (Attributes seriesRef : seriesSeq) {
+                    Sequence sopSeq = seriesRef.getSequence(Tag.ReferencedSOPSequence);
+                    if (sopSeq != null)
+                        for (Attributes sopRef : sopSeq)
+                            evict(sopRef.getString(Tag.ReferencedSOPInstanceUID));
+                }
+        }
+    }
+
+    private void evictAll(Collection<QCEventInstance> insts) {
+        if (insts != null)
+            for (QCEventInstance inst : insts)
+                evict(inst.getSopInstanceUID());
+    }
+
+    private ArchiveDeviceExtension arcDev() {
+        return device.getDeviceExtension(ArchiveDeviceExtension.class);
+    }
+
+    private long maxEntrySize() {
+        ArchiveDeviceExtension arcDev = arcDev();
+        long max = arcDev.getRenderedImageCacheMaxMemorySize();
+        if (arcDev.getRenderedImageCacheDirectoryPath() != null)
+            max = Math.max(max, arcDev.getRenderedImageCacheMaxDiskSize());
+        return max / 16;
+    }
+
+    private void putInMemory(Key key, byte[] content) {
+        long maxSize = arcDev().getRenderedImageCacheMaxMemorySize();
+        if (content.length > maxSize / 16)
+            return;
+
+        synchronized (this) {
+            byte[] prev = memory.put(key, content);
+            if (prev != null)
+                memorySize -= prev.length;
+            memorySize += content.length;
+            for (Iterator<byte[]> iter = memory.values().iterator();
+                    memorySize > maxSize && iter.hasNext();) {
+                memorySize -= iter.next().length;
+                iter.remove();
+            }
+        }
+    }
+
+    private void putOnDisk(Key key, byte[] content) {
+        Path file = diskFileOf(key);
+        if (file == null)
+            return;
+
+        try {
+            Files.createDirectories(file.getParent());
+            Path tmp = Files.createTempFile(file.getParent(), null, ".part");
+            try {
+                Files.write(tmp, content);
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        } catch (IOException e) {
+            LOG.warn("Failed to write rendered image to cache {}:", file, e);
+            return;
+        }
+        ArrayList<Path> evicted = new ArrayList<Path>();
+        long maxSize = arcDev().getRenderedImageCacheMaxDiskSize();
+        synchronized (this) {
+            Long prev = disk.put(file, Long.valueOf(content.length));
+            if (prev != null)
+                diskSize -= prev.longValue();
+            diskSize += content.length;
+            for (Iterator<Map.Entry<Path, Long>> iter = disk.entrySet().iterator();
+                    diskSize > maxSize && iter.hasNext();) {
+                Map.Entry<Path, Long> entry = iter.next();
+                diskSize -= entry.getValue().longValue();
+                evicted.add(entry.getKey());
+                iter.remove();
+            }
+        }
+        for (Path path : evicted)
+            deleteFile(path);
+    }
+
+    private void removeFromDisk(Path file) {
+        synchronized (this) {
+            Long size = disk.remove(file);
+            if (size != null)
+                diskSize -= size.longValue();
+        }
+        deleteFile(file);
+    }
+
+    private static void deleteFile(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            LOG.debug("Failed to delete {}:", file, e);
+        }
+    }
+
+    private Path diskFileOf(Key key) {
+        Path dir = diskDir();
+        return dir != null ? dir.resolve(key.iuid).resolve(key.digest()) : null;
+    }
+
+    /**
+     * Returns the cache directory, reading the sizes of already cached files
+     * on first access after (re-)configuration. The directory is scanned
+     * without holding the lock of the cache; until the scan completed, the
+     * disk cache is bypassed.
+     */
+    private Path diskDir() {
+        String path = arcDev().getRenderedImageCacheDirectoryPath();
+        Path dir = path != null ? Paths.get(StringUtils.replaceSystemProperties(path)) : null;
+        synchronized (this) {
+            if (dir == null || dir.equals(diskDir))
+                return diskDir = dir;
+
+            if (dir.equals(scanning))
+                return null;
+
+            scanning = dir;
+        }
+        LinkedHashMap<Path, Long> files = scan(dir);
+        long size = 0L;
+        for (Long fileSize : files.values())
+            size += fileSize.longValue();
+        synchronized (this) {
+            if (dir.equals(scanning))
+                scanning = null;
+            disk.clear();
+            disk.putAll(files);
+            diskSize = size;
+            diskDir = dir;
+        }
+        LOG.info("Rendered image cache {} contains {} images [{} bytes]",
+                dir, files.size(), size);
+        return dir;
+    }
+
+    /**
+     * Returns the sizes of the files in the cache directory, in the order of
+     * their last modification, and deletes left-over temporary files.
+     */
+    private static LinkedHashMap<Path, Long> scan(Path dir) {
+        LinkedHashMap<Path, Long> result = new LinkedHashMap<Path, Long>();
+        if (!Files.isDirectory(dir))
+            return result;
+
+        final List<Object[]> files = new ArrayList<Object[]>();
+        try {
+            Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    if (file.getFileName().toString().endsWith(".part"))
+                        deleteFile(file);
+                    else
+                        files.add(new Object[] { file, attrs });
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            LOG.warn("Failed to scan rendered image cache {}:", dir, e);
+        }
+        Collections.sort(files, new Comparator<Object[]>() {
+            @Override
+            public int compare(Object[] o1, Object[] o2) {
+                return ((BasicFileAttributes) o1[1]).lastModifiedTime().compareTo(
+                        ((BasicFileAttributes) o2[1]).lastModifiedTime());
+            }
+        });
+        for (Object[] file : files)
+            result.put((Path) file[0], Long.valueOf(((BasicFileAttributes) file[1]).size()));
+        return result;
+    }
+
+    public static final class Key {
+        private final String iuid;
+        private final String params;
+
+        Key(String iuid, String params) {
+            this.iuid = iuid;
+            this.params = params;
+        }
+
+        String digest() {
+            return CacheFileNames.digest(params);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+            if (!(o instanceof Key))
+                return false;
+            Key other = (Key) o;
+            return iuid.equals(other.iuid) && params.equals(other.params);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * iuid.hashCode() + params.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return iuid + '?' + params;
+        }
+    }
+
+    /**
+     * Output stream which keeps a copy of the rendered image, as long as it
+     * does not exceed the maximal size of a cached image.
+     */
+    public final class Collector extends FilterOutputStream {
+
+        private final Key key;
+        private final long maxSize;
+        private ByteArrayOutputStream copy = new ByteArrayOutputStream();
+
+        Collector(Key key, OutputStream out, long maxSize) {
+            super(out);
+            this.key = key;
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            if (copy != null) {
+                copy.write(b);
+                checkSize();
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            if (copy != null) {
+                copy.write(b, off, len);
+                checkSize();
+            }
+        }
+
+        private void checkSize() {
+            if (copy.size() > maxSize) {
+                LOG.debug("Rendered image {} exceeds {} bytes - not cached", key, maxSize);
+                copy = null;
+            }
+        }
+
+        /**
+         * Puts the rendered image into the cache. Must only be invoked after
+         * the image was completely written.
+         */
+        public void commit() {
+            if (copy != null)
+                put(key, copy.toByteArray());
+            copy = null;
+        }
+    }
+
+    private static final class FileOutput implements StreamingOutput {
+
+        private final Path file;
+
+        FileOutput(Path file) {
+            this.file = file;
+        }
+
+        @Override
+        public void write(OutputStream out) throws IOException {
+            Files.copy(file, out);
+        }
+    }
+
+    private static final class BytesOutput implements StreamingOutput {
+
+        private final byte[] content;
+
+        BytesOutput(byte[] content) {
+            this.content = content;
+        }
+
+        @Override
+        public void write(OutputStream out) throws IOException {
+            out.write(content);
+        }
+    }
+}
@@ -0,0 +1,272 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2014
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.wado;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.inject.Inject;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.UID;
+import org.dcm4che3.imageio.codec.ImageWriterFactory;
+import org.dcm4che3.imageio.plugins.dcm.DicomImageReadParam;
+import org.dcm4che3.imageio.plugins.dcm.DicomMetaData;
+import org.dcm4che3.net.Device;
+import org.dcm4che3.net.QueryOption;
+import org.dcm4che3.util.SafeClose;
+import org.dcm4che3.ws.rs.MediaTypes;
+import org.dcm4chee.archive.conf.ArchiveAEExtension;
+import org.dcm4chee.archive.conf.ArchiveDeviceExtension;
+import org.dcm4chee.archive.conf.QueryParam;
+import org.dcm4chee.archive.dto.ArchiveInstanceLocator;
+import org.dcm4chee.archive.retrieve.RetrieveService;
+import org.dcm4chee.archive.store.StoreContext;
+import org.dcm4chee.archive.store.StoreSession;
+import org.dcm4chee.archive.store.StoreSessionClosed;
+import org.dcm4chee.archive.store.scu.CStoreSCUService;
+import org.dcm4chee.archive.util.BoundedExecutor;
+import org.dcm4chee.task.WeightWatcher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Renders a JPEG thumbnail of one representative image - the middle one of
+ * the images received in the store session - of each stored series in the
+ * background into the {@link RenderedImageCache}, so the first WADO request
+ * of a viewer for the series thumbnail does not have to wait for its
+ * rendition. Pending renditions are dropped if the archive receives series
+ * faster than they can be rendered.
+ */
+@ApplicationScoped
+public class ThumbnailPrerenderer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ThumbnailPrerenderer.class);
+
+    private static final String STORED_SERIES =
+            ThumbnailPrerenderer.class.getName() + ".STORED_SERIES";
+    private static final int MAX_PENDING = 1000;
+
+    @Inject
+    private Device device;
+
+    @Inject
+    private RenderedImageCache cache;
+
+    @Inject
+    private RetrieveService retrieveService;
+
+    @Inject
+    private CStoreSCUService storescuService;
+
+    @Inject
+    private WeightWatcher weightWatcher;
+
+    private BoundedExecutor executor;
+
+    private static final class StoredSeries {
+        final String studyUID;
+        final String seriesUID;
+        final List<String> iuids = new ArrayList<String>();
+
+        StoredSeries(String studyUID, String seriesUID) {
+            this.studyUID = studyUID;
+            this.seriesUID = seriesUID;
+        }
+    }
+
+    public void onStoreInstance(@Observes StoreContext storeContext) {
+        switch (storeContext.getStoreAction()) {
+        case REPLACE:
+        case STORE:
+            break;
+        default:
+            return;
+        }
+        int size = device.getDeviceExtension(ArchiveDeviceExtension.class)
+                .getThumbnailPrerenderSize();
+        if (size <= 0 || !cache.isEnabled() || !isImage(storeContext))
+            return;
+
+        Attributes attrs = storeContext.getAttributes();
+        String seriesUID = attrs.getString(Tag.SeriesInstanceUID);
+        Map<String, StoredSeries> storedSeries = storedSeries(storeContext.getStoreSession());
+        synchronized (storedSeries) {
+            StoredSeries series = storedSeries.get(seriesUID);
+            if (series == null)
+                storedSeries.put(seriesUID, series = new StoredSeries(
+                        attrs.getString(Tag.StudyInstanceUID), seriesUID));
+            series.iuids.add(attrs.getString(Tag.SOPInstanceUID));
+        }
+    }
+
+    public void onStoreSessionClosed(@Observes @StoreSessionClosed StoreSession storeSession) {
+        @SuppressWarnings("unchecked")
+        Map<String, StoredSeries> storedSeries = (Map<String, StoredSeries>)
+                storeSession.removeProperty(STORED_SERIES);
+        if (storedSeries == null)
+            return;
+
+        final int size = device.getDeviceExtension(ArchiveDeviceExtension.class)
+                .getThumbnailPrerenderSize();
+        if (size <= 0)
+            return;
+
+        final ArchiveAEExtension arcAE = storeSession.getArchiveAEExtension();
+        synchronized (storedSeries) {
+            for (final StoredSeries series : storedSeries.values()) {
+                final String iuid = series.iuids.get(series.iuids.size() / 2);
+                try {
+                    executor().execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                render(series.studyUID, series.seriesUID, iuid, arcAE, size);
+                            } catch (Exception e) {
+                                LOG.info("Failed to pre-render thumbnail of instance {}:",
+                                        iuid, e);
+                            }
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    LOG.debug("Thumbnail pre-rendering queue full - skip rendition");
+                }
+            }
+        }
+    }
+
+    private static Map<String, StoredSeries> storedSeries(StoreSession storeSession) {
+        synchronized (storeSession) {
+            @SuppressWarnings("unchecked")
+            Map<String, StoredSeries> storedSeries = (Map<String, StoredSeries>)
+                    storeSession.getProperty(STORED_SERIES);
+            if (storedSeries == null) {
+                storedSeries = new LinkedHashMap<String, StoredSeries>();
+                storeSession.setProperty(STORED_SERIES, storedSeries);
+            }
+            return storedSeries;
+        }
+    }
+
+    @PreDestroy
+    public synchronized void shutdown() {
+        if (executor != null)
+            executor.shutdown();
+        executor = null;
+    }
+
+    private static boolean isImage(StoreContext storeContext) {
+        if (!storeContext.getAttributes().contains(Tag.BitsAllocated))
+            return false;
+
+        String tsuid = storeContext.getTransferSyntax();
+        return !UID.MPEG2.equals(tsuid)
+                && !UID.MPEG2MainProfileHighLevel.equals(tsuid)
+                && !UID.MPEG4AVCH264HighProfileLevel41.equals(tsuid)
+                && !UID.MPEG4AVCH264BDCompatibleHighProfileLevel41.equals(tsuid);
+    }
+
+    private void render(String studyUID, String seriesUID, String iuid,
+            ArchiveAEExtension arcAE, int size) throws Exception {
+        QueryParam queryParam = arcAE.getQueryParam(
+                EnumSet.noneOf(QueryOption.class), new String[0]);
+        List<ArchiveInstanceLocator> matches = retrieveService.calculateMatches(
+                studyUID, seriesUID, iuid, queryParam, false);
+        if (matches.size() != 1 || matches.get(0).getStorageSystem() == null)
+            return;
+
+        ArchiveInstanceLocator ref = matches.get(0);
+        boolean overlays = arcAE.isWadoOverlayRendering();
+        RenderedImageCache.Key key = RenderedImageCache.keyOf(iuid, (Attributes) ref.getObject(),
+                MediaTypes.IMAGE_JPEG_TYPE, 0, size, size, null, 0f, 0f, 0, null, null,
+                overlays);
+        if (cache.contains(key))
+            return;
+
+        ImageInputStream iis = ImageIO.createImageInputStream(
+                storescuService.getFile(ref).toFile());
+        ImageReader reader = null;
+        ImageWriter writer = null;
+        try {
+            reader = WadoURI.getDicomImageReader();
+            reader.setInput(iis);
+            DicomMetaData metaData = (DicomMetaData) reader.getStreamMetadata();
+            metaData.getAttributes().addAll((Attributes) ref.getObject());
+            DicomImageReadParam param = (DicomImageReadParam) reader.getDefaultReadParam();
+            param.setOverlayActivationMask(overlays ? 0xf : 0x0);
+            writer = ImageWriterFactory.getImageWriterForMimeType(
+                    MediaTypes.IMAGE_JPEG_TYPE.toString());
+            RenderedImageOutput output = new RenderedImageOutput(reader, param,
+                    size, size, 0, writer, writer.getDefaultWriteParam());
+            // disposed by RenderedImageOutput.write()
+            reader = null;
+            writer = null;
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            weightWatcher.execute(new WadoURI.RenditionTask(output, out));
+            cache.put(key, out.toByteArray());
+            LOG.debug("Pre-rendered thumbnail {}", key);
+        } finally {
+            if (writer != null)
+                writer.dispose();
+            if (reader != null)
+                reader.dispose();
+            SafeClose.close(iis);
+        }
+    }
+
+    private synchronized BoundedExecutor executor() {
+        if (executor == null)
+            executor = new BoundedExecutor("thumbnail-prerender", device.getExecutor(),
+                    1, MAX_PENDING);
+        return executor;
+    }
+}
@@ -136,6 +136,9 @@ public class WadoURI extends Wado {
     @Inject
     private WeightWatcher weightWatcher;
 
+    @Inject
+    private RenderedImageCache renderedImageCache;
+
     private CStoreSCUContext context;
 
     private static final int STATUS_NOT_IMPLEMENTED = 501;
@@ -196,6 +199,11 @@ public class WadoURI extends Wado {
                     || left >= right || top >= bottom)
                 throw new IllegalArgumentException(s);
         }
+
+        @Override
+        public String toString() {
+            return left + "," + top + "," + right + "," + bottom;
+        }
     }
 
     @Context
@@ -555,6 +563,24 @@ public class WadoURI extends Wado {
 
     private Response retrieveImage(ArchiveInstanceLocator ref, final MediaType mediaType) {
         Attributes attrs = (Attributes) ref.getObject();
+        int frameNumberZeroBased = frameNumberZeroBased(attrs, mediaType);
+
+        if (!request.getQueryString().contains("overlays"))
+            overlays = arcAE.isWadoOverlayRendering();
+
+        RenderedImageCache.Key cacheKey = null;
+        if (renderedImageCache.isEnabled()) {
+            cacheKey = RenderedImageCache.keyOf(ref.iuid, attrs, mediaType,
+                    frameNumberZeroBased, rows, columns,
+                    region != null ? region.toString() : null, windowCenter, windowWidth,
+                    imageQuality, presentationUID, presentationSeriesUID, overlays);
+            StreamingOutput cached = renderedImageCache.get(cacheKey);
+            if (cached != null) {
+                LOG.debug("Return cached rendered image {}", cacheKey);
+                return Response.ok(cached, mediaType).build();
+            }
+        }
+
         ImageInputStream iis = null;
         ImageReader reader = null;
         ImageWriter imageWriter = null;
@@ -580,31 +606,9 @@ public class WadoURI extends Wado {
 
             ImageWriteParam imageWriteParam = getImageWriterParam(imageWriter);
 
-            int numberOfFrames = attrs.getInt(Tag.NumberOfFrames, 1);
-
-            int frameNumberZeroBased;
-            if (numberOfFrames == 1) { // single frame
-                if (frameNumber < 0 || frameNumber > 1)
-                    throw new WebApplicationException(Status.NOT_FOUND);
-
-                frameNumberZeroBased = 0; // first frame
-            } else { // multi frame
-                if (frameNumber != 0) {
-                    if (frameNumber < 0 || frameNumber > numberOfFrames)
-                        throw new WebApplicationException(Status.NOT_FOUND);
-
-                    frameNumberZeroBased = frameNumber - 1;
-                } else {
-                    if (mediaType == MediaTypes.IMAGE_GIF_TYPE) // animated GIF case
-                        frameNumberZeroBased = -1; // all frames
-                    else
-                        frameNumberZeroBased = 0; // first frame
-                }
-            }
-
             RenderedImageOutput renderedImageOutput = new RenderedImageOutput(reader, param, rows, columns, frameNumberZeroBased, imageWriter, imageWriteParam);
 
-            StreamingOutputWrapper wrapper = new StreamingOutputWrapper(renderedImageOutput, iis);
+            StreamingOutputWrapper wrapper = new StreamingOutputWrapper(renderedImageOutput, iis, cacheKey);
 
             // make sure the stream/reader/writer is not closed early, but later on when doing the streaming
             iis = null;
@@ -628,6 +632,28 @@ public class WadoURI extends Wado {
         }
     }
 
+    private int frameNumberZeroBased(Attributes attrs, MediaType mediaType) {
+        int numberOfFrames = attrs.getInt(Tag.NumberOfFrames, 1);
+
+        if (numberOfFrames == 1) { // single frame
+            if (frameNumber < 0 || frameNumber > 1)
+                throw new WebApplicationException(Status.NOT_FOUND);
+
+            return 0; // first frame
+        }
+        // multi frame
+        if (frameNumber != 0) {
+            if (frameNumber < 0 || frameNumber > numberOfFrames)
+                throw new WebApplicationException(Status.NOT_FOUND);
+
+            return frameNumber - 1;
+        }
+        if (mediaType == MediaTypes.IMAGE_GIF_TYPE) // animated GIF case
+            return -1; // all frames
+
+        return 0; // first frame
+    }
+
     private ImageInputStream getImageInputStream(ArchiveInstanceLocator ref) throws IOException {
         ImageInputStream iis = null;
         for (; ; ) {
@@ -651,10 +677,13 @@ public class WadoURI extends Wado {
 
         private final RenderedImageOutput renderedImageOutput;
         private final ImageInputStream inputStream;
+        private final RenderedImageCache.Key cacheKey;
 
-        public StreamingOutputWrapper(RenderedImageOutput renderedImageOutput, ImageInputStream inputStream) {
+        public StreamingOutputWrapper(RenderedImageOutput renderedImageOutput, ImageInputStream inputStream,
+                RenderedImageCache.Key cacheKey) {
             this.renderedImageOutput = renderedImageOutput;
             this.inputStream = inputStream;
+            this.cacheKey = cacheKey;
         }
 
         @Override
@@ -662,9 +691,16 @@ public class WadoURI extends Wado {
             // we wrap the RenderedImageOutput for two reasons:
             // 1) we need to close the input stream in a finally
             // 2) we want to run it through the WeightWatcher
+            // 3) we want to keep a copy of the rendered image in the cache
 
             try {
-                weightWatcher.execute(new RenditionTask(renderedImageOutput, output));
+                if (cacheKey != null) {
+                    RenderedImageCache.Collector collector = renderedImageCache.collect(cacheKey, output);
+                    weightWatcher.execute(new RenditionTask(renderedImageOutput, collector));
+                    collector.commit();
+                } else {
+                    weightWatcher.execute(new RenditionTask(renderedImageOutput, output));
+                }
             } catch (Exception e) {
                 if (e instanceof IOException)
                     throw (IOException) e;
@@ -678,7 +714,7 @@ public class WadoURI extends Wado {
         }
     }
 
-    private static class RenditionTask implements MemoryConsumingTask<Void> {
+    static class RenditionTask implements MemoryConsumingTask<Void> {
         private final RenderedImageOutput renderedImageOutput;
         private final OutputStream output;
 
@@ -713,7 +749,7 @@ public class WadoURI extends Wado {
         return ImageIO.createImageInputStream(storescuService.getFile(ref).toFile());
     }
 
-    private static ImageReader getDicomImageReader() {
+    static ImageReader getDicomImageReader() {
         Iterator<ImageReader> readers = ImageIO.getImageReadersByFormatName("DICOM");
         if (!readers.hasNext()) {
             ImageIO.scanForPlugins();
@@ -725,8 +761,6 @@ public class WadoURI extends Wado {
     private void init(DicomImageReadParam param)
             throws WebApplicationException, IOException {
 
-        if (!request.getQueryString().contains("overlays"))
-            overlays = arcAE.isWadoOverlayRendering();
         //set overlay activation mask
         param.setOverlayActivationMask(overlays ? 0xf : 0x0);
         param.setWindowCenter(windowCenter);
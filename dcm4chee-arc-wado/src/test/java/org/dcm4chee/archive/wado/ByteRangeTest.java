@@ -0,0 +1,133 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.dcm4chee.archive.wado;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link ByteRange}.
+ */
+public class ByteRangeTest {
+
+    @Test
+    public void testRange() {
+        ByteRange range = ByteRange.parse("bytes=10-19", 100);
+        Assert.assertTrue(range.isSatisfiable());
+        Assert.assertEquals(10, range.first);
+        Assert.assertEquals(19, range.last);
+        Assert.assertEquals(10, range.size());
+        Assert.assertEquals("bytes 10-19/100", range.contentRange());
+    }
+
+    @Test
+    public void testOpenEndedRange() {
+        ByteRange range = ByteRange.parse("bytes=90-", 100);
+        Assert.assertTrue(range.isSatisfiable());
+        Assert.assertEquals("bytes 90-99/100", range.contentRange());
+    }
+
+    @Test
+    public void testSuffixRange() {
+        Assert.assertEquals("bytes 80-99/100",
+                ByteRange.parse("bytes=-20", 100).contentRange());
+        Assert.assertEquals("bytes 0-99/100",
+                ByteRange.parse("bytes=-200", 100).contentRange());
+    }
+
+    @Test
+    public void testLastBytePosClampedToLength() {
+        ByteRange range = ByteRange.parse("bytes=50-500", 100);
+        Assert.assertTrue(range.isSatisfiable());
+        Assert.assertEquals(50, range.size());
+        Assert.assertEquals("bytes 50-99/100", range.contentRange());
+    }
+
+    @Test
+    public void testNotSatisfiable() {
+        assertNotSatisfiable(ByteRange.parse("bytes=100-", 100));
+        assertNotSatisfiable(ByteRange.parse("bytes=20-10", 100));
+        assertNotSatisfiable(ByteRange.parse("bytes=-0", 100));
+        assertNotSatisfiable(ByteRange.parse("bytes=0-", 0));
+    }
+
+    private static void assertNotSatisfiable(ByteRange range) {
+        Assert.assertFalse(range.isSatisfiable());
+        Assert.assertEquals("bytes */" + range.length, range.contentRange());
+    }
+
+    @Test
+    public void testIgnored() {
+        Assert.assertNull(ByteRange.parse(null, 100));
+        Assert.assertNull(ByteRange.parse("items=0-9", 100));
+        Assert.assertNull(ByteRange.parse("bytes=0-9,20-29", 100));
+        Assert.assertNull(ByteRange.parse("bytes=10", 100));
+        Assert.assertNull(ByteRange.parse("bytes=a-b", 100));
+    }
+
+    @Test
+    public void testTransferRange() throws IOException {
+        File file = File.createTempFile("bulkdata", ".bin");
+        try {
+            byte[] data = new byte[100];
+            for (int i = 0; i < data.length; i++)
+                data[i] = (byte) i;
+            Files.write(file.toPath(), data);
+            ByteRange range = ByteRange.parse("bytes=-20", data.length);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try (FileChannel fc = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                BulkDataOutput.transferTo(fc, range.first, range.size(),
+                        Channels.newChannel(out));
+            }
+            byte[] b = out.toByteArray();
+            Assert.assertEquals(20, b.length);
+            Assert.assertEquals(80, b[0]);
+            Assert.assertEquals(99, b[19]);
+        } finally {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,245 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.wado;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.StreamingOutput;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.VR;
+import org.dcm4che3.net.Device;
+import org.dcm4chee.archive.conf.ArchiveDeviceExtension;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link RenderedImageCache}.
+ */
+public class RenderedImageCacheTest {
+
+    private static final String IUID = "1.2.3.4.5";
+    private static final MediaType IMAGE_JPEG = new MediaType("image", "jpeg");
+
+    private ArchiveDeviceExtension arcDev;
+    private RenderedImageCache cache;
+    private Path dir;
+
+    @Before
+    public void setUp() throws IOException {
+        Device device = new Device("dcm4chee-arc");
+        arcDev = new ArchiveDeviceExtension();
+        arcDev.setRenderedImageCacheMaxMemorySize(160);
+        device.addDeviceExtension(arcDev);
+        cache = new RenderedImageCache(device);
+        dir = Files.createTempDirectory("rendered-image-cache");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        for (Path file : list(dir))
+            Files.delete(file);
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir)) {
+            for (Path subdir : ds)
+                Files.delete(subdir);
+        }
+        Files.delete(dir);
+    }
+
+    @Test
+    public void testKeyIncludesPresentationSeriesUID() {
+        Assert.assertFalse(key(null, 0, 0, "1.2.3.4", "1.2.3").equals(
+                key(null, 0, 0, "1.2.3.4", "1.2.4")));
+    }
+
+    @Test
+    public void testKeyNormalizesRowsAndColumns() {
+        Attributes portrait = image(512, 256);
+        Assert.assertEquals(key(portrait, 128, 0, null, null),
+                key(portrait, 128, 128, null, null));
+        Attributes landscape = image(256, 512);
+        Assert.assertEquals(key(landscape, 0, 128, null, null),
+                key(landscape, 128, 128, null, null));
+        Assert.assertFalse(key(landscape, 128, 0, null, null).equals(
+                key(landscape, 128, 128, null, null)));
+    }
+
+    @Test
+    public void testKeyWithoutImageDimensions() {
+        Assert.assertFalse(key(new Attributes(), 128, 0, null, null).equals(
+                key(new Attributes(), 128, 128, null, null)));
+    }
+
+    @Test
+    public void testMemory() throws IOException {
+        RenderedImageCache.Key key1 = key(null, 1, 0, null, null);
+        RenderedImageCache.Key key2 = key(null, 2, 0, null, null);
+        cache.put(key1, content(10, 1));
+        cache.put(key2, content(10, 2));
+        Assert.assertArrayEquals(content(10, 1), read(cache.get(key1)));
+        Assert.assertArrayEquals(content(10, 2), read(cache.get(key2)));
+
+        // exceeds 1/16 of the maximal memory size
+        RenderedImageCache.Key key3 = key(null, 3, 0, null, null);
+        cache.put(key3, content(11, 3));
+        Assert.assertFalse(cache.contains(key3));
+
+        cache.evict(IUID);
+        Assert.assertNull(cache.get(key1));
+        Assert.assertNull(cache.get(key2));
+    }
+
+    @Test
+    public void testMemoryEvictsLeastRecentlyUsed() {
+        List<RenderedImageCache.Key> keys = new ArrayList<RenderedImageCache.Key>();
+        for (int i = 1; i <= 17; i++) {
+            RenderedImageCache.Key key = key(null, i, 0, null, null);
+            keys.add(key);
+            cache.put(key, content(10, i));
+            if (i == 16)
+                Assert.assertTrue(cache.contains(keys.get(0)));
+        }
+        Assert.assertFalse(cache.contains(keys.get(1)));
+        Assert.assertTrue(cache.contains(keys.get(0)));
+        Assert.assertTrue(cache.contains(keys.get(16)));
+    }
+
+    @Test
+    public void testDisk() throws IOException {
+        arcDev.setRenderedImageCacheMaxMemorySize(0L);
+        arcDev.setRenderedImageCacheDirectoryPath(dir.toString());
+        arcDev.setRenderedImageCacheMaxDiskSize(1000L);
+        RenderedImageCache.Key key = key(null, 1, 0, null, null);
+        cache.put(key, content(20, 1));
+        Assert.assertEquals(1, list(dir).size());
+        Assert.assertArrayEquals(content(20, 1), read(cache.get(key)));
+
+        // another cache instance finds the file on disk
+        Device device = new Device("dcm4chee-arc");
+        device.addDeviceExtension(arcDev);
+        Files.createFile(dir.resolve(IUID).resolve("left-over.part"));
+        RenderedImageCache other = new RenderedImageCache(device);
+        Assert.assertTrue(other.contains(key));
+        Assert.assertEquals(1, list(dir).size());
+
+        other.evict(IUID);
+        Assert.assertFalse(other.contains(key));
+        Assert.assertTrue(list(dir).isEmpty());
+    }
+
+    @Test
+    public void testDiskEvictsLeastRecentlyUsed() {
+        arcDev.setRenderedImageCacheMaxMemorySize(0L);
+        arcDev.setRenderedImageCacheDirectoryPath(dir.toString());
+        arcDev.setRenderedImageCacheMaxDiskSize(50L);
+        RenderedImageCache.Key key1 = key(null, 1, 0, null, null);
+        RenderedImageCache.Key key2 = key(null, 2, 0, null, null);
+        RenderedImageCache.Key key3 = key(null, 3, 0, null, null);
+        cache.put(key1, content(20, 1));
+        cache.put(key2, content(20, 2));
+        cache.put(key3, content(20, 3));
+        Assert.assertFalse(cache.contains(key1));
+        Assert.assertTrue(cache.contains(key2));
+        Assert.assertTrue(cache.contains(key3));
+    }
+
+    @Test
+    public void testCollector() throws IOException {
+        RenderedImageCache.Key key = key(null, 1, 0, null, null);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        RenderedImageCache.Collector collector = cache.collect(key, out);
+        collector.write(content(10, 1));
+        Assert.assertFalse(cache.contains(key));
+        collector.commit();
+        Assert.assertArrayEquals(content(10, 1), out.toByteArray());
+        Assert.assertArrayEquals(content(10, 1), read(cache.get(key)));
+    }
+
+    private static RenderedImageCache.Key key(Attributes attrs, int rows, int columns,
+            String presentationUID, String presentationSeriesUID) {
+        return RenderedImageCache.keyOf(IUID, attrs, IMAGE_JPEG, 0, rows, columns, null,
+                0f, 0f, 0, presentationUID, presentationSeriesUID, false);
+    }
+
+    private static Attributes image(int rows, int columns) {
+        Attributes attrs = new Attributes();
+        attrs.setInt(Tag.Rows, VR.US, rows);
+        attrs.setInt(Tag.Columns, VR.US, columns);
+        return attrs;
+    }
+
+    private static byte[] content(int length, int value) {
+        byte[] b = new byte[length];
+        Arrays.fill(b, (byte) value);
+        return b;
+    }
+
+    private static byte[] read(StreamingOutput output) throws IOException {
+        Assert.assertNotNull(output);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        output.write(out);
+        return out.toByteArray();
+    }
+
+    private static List<Path> list(Path dir) throws IOException {
+        List<Path> files = new ArrayList<Path>();
+        if (!Files.isDirectory(dir))
+            return files;
+
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir)) {
+            for (Path path : ds)
+                if (Files.isDirectory(path))
+                    files.addAll(list(path));
+                else
+                    files.add(path);
+        }
+        return files;
+    }
+}